@@ -23,8 +23,16 @@
  */
 module org.shredzone.commons.nut {
     requires static com.github.spotbugs.annotations;
+    requires static java.management;
+    requires static jdk.management;
+    requires jdk.jfr;
     requires org.slf4j;
 
     exports org.shredzone.commons.nut;
+    exports org.shredzone.commons.nut.codec;
+    exports org.shredzone.commons.nut.driver;
     exports org.shredzone.commons.nut.exception;
+    exports org.shredzone.commons.nut.journal;
+    exports org.shredzone.commons.nut.monitor;
+    exports org.shredzone.commons.nut.server;
 }
@@ -0,0 +1,309 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.shredzone.commons.nut.exception.CircuitOpenException;
+
+/**
+ * A circuit breaker that stops sending requests to a NUT server that is unreachable, so
+ * the callers fail immediately instead of waiting for a timeout.
+ * <p>
+ * The breaker is {@link State#CLOSED} while the server is healthy. It records the
+ * outcome of the most recent requests in a sliding window. If the failure rate in the
+ * window reaches the threshold, the breaker changes to {@link State#OPEN}, and all
+ * requests are rejected with a {@link CircuitOpenException}. After the open duration,
+ * the breaker changes to {@link State#HALF_OPEN} and permits a few probe requests. If
+ * they succeed, the breaker is closed again. If a probe fails, the breaker is opened
+ * again, and the open duration is doubled, up to a maximum.
+ * <p>
+ * Only connection and communication errors are regarded as failures. Errors returned
+ * by the server prove that the server is reachable.
+ * <p>
+ * The same {@link CircuitBreaker} instance may be shared by several connections to the
+ * same server, so all of them share the same state.
+ */
+public class CircuitBreaker {
+    private final LongSupplier clock;
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong opened = new AtomicLong();
+
+    private double failureThreshold = 0.5;
+    private int minimumCalls = 5;
+    private boolean[] window = new boolean[20];
+    private long openDuration = Duration.ofSeconds(5).toNanos();
+    private long maxOpenDuration = Duration.ofMinutes(5).toNanos();
+    private int probes = 1;
+
+    private State state = State.CLOSED;
+    private int windowPos;
+    private int windowCount;
+    private int windowFailures;
+    private long currentOpenDuration = openDuration;
+    private long openUntil;
+    private int probesInFlight;
+    private int probeSuccesses;
+
+    /**
+     * The state of a {@link CircuitBreaker}.
+     */
+    public enum State {
+        /**
+         * The server is healthy, all requests are permitted.
+         */
+        CLOSED,
+
+        /**
+         * The server is regarded as unreachable, all requests are rejected.
+         */
+        OPEN,
+
+        /**
+         * A few probe requests are permitted, to find out if the server is reachable
+         * again.
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * Creates a new {@link CircuitBreaker}. It opens if half of the last 20 requests
+     * have failed, and probes the server after 5 seconds, with the open duration
+     * doubling up to 5 minutes.
+     */
+    public CircuitBreaker() {
+        this(System::nanoTime);
+    }
+
+    /**
+     * Creates a new {@link CircuitBreaker} with the given clock.
+     *
+     * @param clock
+     *         Clock returning the current time in nanoseconds
+     */
+    CircuitBreaker(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Sets the failure rate that opens the breaker.
+     *
+     * @param failureThreshold
+     *         Failure rate, between 0.0 (exclusive) and 1.0 (inclusive)
+     * @param minimumCalls
+     *         Minimum number of recorded requests before the failure rate is evaluated
+     * @param windowSize
+     *         Number of most recent requests to evaluate
+     * @return itself
+     */
+    public synchronized CircuitBreaker failureThreshold(double failureThreshold,
+            int minimumCalls, int windowSize) {
+        if (!(failureThreshold > 0.0 && failureThreshold <= 1.0)) {
+            throw new IllegalArgumentException("failureThreshold must be in (0, 1]");
+        }
+        if (minimumCalls < 1 || windowSize < minimumCalls) {
+            throw new IllegalArgumentException("minimumCalls must be between 1 and windowSize");
+        }
+        this.failureThreshold = failureThreshold;
+        this.minimumCalls = minimumCalls;
+        this.window = new boolean[windowSize];
+        resetWindow();
+        return this;
+    }
+
+    /**
+     * Sets the time the breaker stays open before probing the server.
+     *
+     * @param openDuration
+     *         Initial open duration
+     * @param maxOpenDuration
+     *         Maximum open duration, if the probes keep failing
+     * @return itself
+     */
+    public synchronized CircuitBreaker openDuration(Duration openDuration,
+            Duration maxOpenDuration) {
+        if (openDuration.isNegative() || openDuration.isZero()
+                || maxOpenDuration.compareTo(openDuration) < 0) {
+            throw new IllegalArgumentException("invalid open duration");
+        }
+        this.openDuration = openDuration.toNanos();
+        this.maxOpenDuration = maxOpenDuration.toNanos();
+        this.currentOpenDuration = this.openDuration;
+        return this;
+    }
+
+    /**
+     * Sets the number of probe requests that must succeed in half-open state before
+     * the breaker is closed again. Only that many requests are sent concurrently while
+     * the breaker is half-open.
+     *
+     * @param probes
+     *         Number of probe requests
+     * @return itself
+     */
+    public synchronized CircuitBreaker probes(int probes) {
+        if (probes < 1) {
+            throw new IllegalArgumentException("probes must be positive");
+        }
+        this.probes = probes;
+        return this;
+    }
+
+    /**
+     * Asks for permission to send a request. Every permitted request must be followed
+     * by {@link #onSuccess()} or {@link #onFailure()}.
+     *
+     * @throws CircuitOpenException
+     *         if the breaker is open, or the maximum number of probe requests is
+     *         already in flight
+     */
+    public void acquire() throws CircuitOpenException {
+        long retryAfter;
+        synchronized (this) {
+            updateState();
+            if (state == State.CLOSED) {
+                return;
+            }
+            if (state == State.HALF_OPEN && probesInFlight + probeSuccesses < probes) {
+                probesInFlight++;
+                return;
+            }
+            retryAfter = Math.max(openUntil - clock.getAsLong(), 0L);
+        }
+        rejected.incrementAndGet();
+        throw new CircuitOpenException(Duration.ofNanos(retryAfter));
+    }
+
+    /**
+     * Records a successful request.
+     */
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            probesInFlight = Math.max(probesInFlight - 1, 0);
+            if (++probeSuccesses >= probes) {
+                state = State.CLOSED;
+                currentOpenDuration = openDuration;
+                resetWindow();
+            }
+        } else if (state == State.CLOSED) {
+            record(false);
+        }
+    }
+
+    /**
+     * Records a failed request.
+     */
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            currentOpenDuration = Math.min(currentOpenDuration * 2L, maxOpenDuration);
+            open();
+        } else if (state == State.CLOSED) {
+            record(true);
+            if (windowCount >= minimumCalls
+                    && windowFailures >= failureThreshold * windowCount) {
+                open();
+            }
+        }
+    }
+
+    /**
+     * Returns the current {@link State}.
+     */
+    public synchronized State getState() {
+        updateState();
+        return state;
+    }
+
+    /**
+     * Checks if a request would currently be permitted. Pollers can use this method to
+     * skip unreachable servers.
+     */
+    public synchronized boolean isCallPermitted() {
+        updateState();
+        return state == State.CLOSED
+                || state == State.HALF_OPEN && probesInFlight + probeSuccesses < probes;
+    }
+
+    /**
+     * Returns the time until the next probe request is permitted. It is zero unless
+     * the breaker is open.
+     */
+    public synchronized Duration getRetryAfter() {
+        updateState();
+        return state == State.OPEN
+                ? Duration.ofNanos(Math.max(openUntil - clock.getAsLong(), 0L))
+                : Duration.ZERO;
+    }
+
+    /**
+     * Returns the number of rejected requests.
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Returns the number of times the breaker was opened.
+     */
+    public long getOpenedCount() {
+        return opened.get();
+    }
+
+    /**
+     * Changes an open breaker to half-open when the open duration has elapsed.
+     */
+    private void updateState() {
+        if (state == State.OPEN && clock.getAsLong() - openUntil >= 0L) {
+            state = State.HALF_OPEN;
+            probesInFlight = 0;
+            probeSuccesses = 0;
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openUntil = clock.getAsLong() + currentOpenDuration;
+        opened.incrementAndGet();
+    }
+
+    private void record(boolean failure) {
+        if (windowCount == window.length) {
+            if (window[windowPos]) {
+                windowFailures--;
+            }
+        } else {
+            windowCount++;
+        }
+        window[windowPos] = failure;
+        if (failure) {
+            windowFailures++;
+        }
+        windowPos = (windowPos + 1) % window.length;
+    }
+
+    private void resetWindow() {
+        windowPos = 0;
+        windowCount = 0;
+        windowFailures = 0;
+    }
+
+}
@@ -22,11 +22,27 @@ package org.shredzone.commons.nut;
 import static java.util.stream.Collectors.toList;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 import edu.umd.cs.findbugs.annotations.Nullable;
+import org.shredzone.commons.nut.driver.DriverClient;
 import org.shredzone.commons.nut.exception.NutException;
+import org.shredzone.commons.nut.util.DriverSocket;
 import org.shredzone.commons.nut.util.NutSocket;
+import org.shredzone.commons.nut.util.RedundantSocket;
 import org.shredzone.commons.nut.util.Request;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -36,17 +52,29 @@ import org.slf4j.LoggerFactory;
  * <p>
  * This is the starting point for connecting to your server.
  * <p>
- * Note that the client (and all the related classes) are not threadsafe.
+ * The connection to the server can be shared by multiple threads. If several threads
+ * send an identical {@code GET} or {@code LIST} query at the same time, the query is
+ * only sent once, and all callers share the response. Note that the cached values of
+ * the related classes are not synchronized.
  */
 public class Client implements AutoCloseable {
     private static final Logger LOG = LoggerFactory.getLogger(Client.class);
 
     private static final String DEFAULT_HOST = "localhost";
     private static final int DEFAULT_PORT = 3493;
+    private static final Duration REDUNDANT_CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration REDUNDANT_READ_TIMEOUT = Duration.ofSeconds(10);
 
     private final NutSocket socket;
-    private final String server;
-    private final String protocol;
+    private final HandleRegistry registry = new HandleRegistry();
+    private final String host;
+    private final int port;
+
+    @Nullable
+    private volatile String server;
+
+    @Nullable
+    private volatile String protocol;
 
     /**
      * Creates a client that connects to the default port 3493 at localhost, and does not
@@ -111,24 +139,395 @@ public class Client implements AutoCloseable {
      */
     public Client(String host, int port, @Nullable String login, @Nullable String password)
             throws IOException {
-        socket = new NutSocket(host, port);
-        if (login != null && password != null) {
-            socket.execute(Request.username().arg(login));
-            socket.execute(Request.password().arg(password));
+        this(host, port, login, password, false);
+    }
+
+    private Client(String host, int port, @Nullable String login, @Nullable String password,
+            boolean lazy) throws IOException {
+        this(new NutSocket(host, port, handshake(login, password)), lazy);
+    }
+
+    private Client(NutSocket socket, boolean lazy) throws IOException {
+        this.host = socket.getHost();
+        this.port = socket.getPort();
+        this.socket = socket;
+        if (!lazy) {
+            socket.connect();
+            fetchVersions();
+            LOG.info("Connected to {}:{}, protocol {}, {}", host, port, protocol, server);
+        }
+    }
+
+    /**
+     * Creates a client that connects to the default port 3493 at the given host, and
+     * does not use authentication.
+     * <p>
+     * The client does not connect to the server until it is used for the first time.
+     *
+     * @param host
+     *         Host name to connect to
+     * @see #lazy(String, int, String, String)
+     */
+    public static Client lazy(String host) {
+        return lazy(host, DEFAULT_PORT, null, null);
+    }
+
+    /**
+     * Creates a client that connects to the given host and port, and logs in with the
+     * given credentials.
+     * <p>
+     * The client does not perform any I/O on creation. It connects to the server and
+     * logs in when it is used for the first time. The server version and protocol are
+     * fetched when they are requested. Use {@link #preconnect()} to connect in the
+     * background.
+     *
+     * @param host
+     *         Host name to connect to
+     * @param port
+     *         TCP port to connect to
+     * @param login
+     *         Login name, or {@code null} to skip authentication
+     * @param password
+     *         Password, or {@code null} to skip authentication
+     */
+    public static Client lazy(String host, int port, @Nullable String login,
+            @Nullable String password) {
+        try {
+            return new Client(host, port, login, password, true);
+        } catch (IOException ex) {
+            // Cannot happen, as a lazy client does not perform any I/O on creation
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Creates a client that connects to the given host and port, and logs in with the
+     * given credentials. Connecting to the server times out after the given duration.
+     * <p>
+     * Like {@link #lazy(String, int, String, String)}, the client does not perform any
+     * I/O on creation. The timeout limits how long each request, and especially each
+     * probe of a {@link CircuitBreaker}, waits for a server that is unreachable.
+     *
+     * @param host
+     *         Host name to connect to
+     * @param port
+     *         TCP port to connect to
+     * @param login
+     *         Login name, or {@code null} to skip authentication
+     * @param password
+     *         Password, or {@code null} to skip authentication
+     * @param connectTimeout
+     *         Maximum time to wait for the connection to be established
+     */
+    public static Client lazy(String host, int port, @Nullable String login,
+            @Nullable String password, Duration connectTimeout) {
+        var transport = Transport.tcp(host, port, connectTimeout, Duration.ZERO);
+        try {
+            return new Client(new NutSocket(host, port, transport, handshake(login, password)),
+                    true);
+        } catch (IOException ex) {
+            // Cannot happen, as a lazy client does not perform any I/O on creation
+            throw new IllegalStateException(ex);
         }
-        server = socket.query(new Request("VER")).getRaw();
-        protocol = socket.query(new Request("NETVER")).getRaw();
-        LOG.info("Connected to {}:{}, protocol {}, {}", host, port, protocol, server);
+    }
+
+    /**
+     * Creates a client that connects to a server via the given {@link Transport}, and
+     * logs in with the given credentials.
+     * <p>
+     * Like {@link #lazy(String, int, String, String)}, the client does not perform
+     * any I/O on creation.
+     *
+     * @param transport
+     *         {@link Transport} that opens the connections, e.g. a
+     *         {@link org.shredzone.commons.nut.server.LoopbackTransport}
+     * @param name
+     *         Server name, used as host name in log messages and recordings
+     * @param login
+     *         Login name, or {@code null} to skip authentication
+     * @param password
+     *         Password, or {@code null} to skip authentication
+     */
+    public static Client lazy(Transport transport, String name, @Nullable String login,
+            @Nullable String password) {
+        try {
+            return new Client(new NutSocket(name, 0, transport, handshake(login, password)),
+                    true);
+        } catch (IOException ex) {
+            // Cannot happen, as a lazy client does not perform any I/O on creation
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Creates a client for several redundant servers that monitor the same devices,
+     * e.g. via different networks. All servers must accept the same credentials.
+     * <p>
+     * {@code GET} and {@code LIST} requests are sent to the fastest healthy server. If
+     * it does not answer within the 95th percentile of its recent latencies, a hedged
+     * duplicate request is sent to the next server, and the first answer is used.
+     * Other requests, like {@code SET} and {@code INSTCMD}, always go to the same
+     * server until it fails. The health of each server is tracked, and servers that
+     * failed are avoided for a backoff time. Connecting to a server times out after 5
+     * seconds, and waiting for a response after 10 seconds.
+     * <p>
+     * Like {@link #lazy(String, int, String, String)}, the client does not perform
+     * any I/O on creation.
+     *
+     * @param endpoints
+     *         Servers, as {@code host} or {@code host:port}, in the order of preference
+     *         for write requests. IPv6 addresses with a port are enclosed in square
+     *         brackets, like {@code [::1]:3493}.
+     * @param login
+     *         Login name, or {@code null} to skip authentication
+     * @param password
+     *         Password, or {@code null} to skip authentication
+     * @throws IllegalArgumentException
+     *         if an endpoint is invalid
+     * @see #getEndpointHealth()
+     */
+    public static Client redundant(List<String> endpoints, @Nullable String login,
+            @Nullable String password) {
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("At least one endpoint is required");
+        }
+        var handshake = handshake(login, password);
+        var sockets = new ArrayList<NutSocket>();
+        for (var endpoint : endpoints) {
+            var address = parseEndpoint(endpoint);
+            var host = address.getHostString();
+            var port = address.getPort();
+            var transport = Transport.tcp(host, port,
+                    REDUNDANT_CONNECT_TIMEOUT, REDUNDANT_READ_TIMEOUT);
+            sockets.add(new NutSocket(host, port, transport, handshake));
+        }
+        try {
+            return new Client(new RedundantSocket(sockets), true);
+        } catch (IOException ex) {
+            // Cannot happen, as a lazy client does not perform any I/O on creation
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Parses an endpoint of a redundant client.
+     *
+     * @param endpoint
+     *         Endpoint, as {@code host}, {@code host:port}, {@code ipv6} or
+     *         {@code [ipv6]:port}
+     * @return Unresolved {@link InetSocketAddress} of the endpoint
+     */
+    private static InetSocketAddress parseEndpoint(String endpoint) {
+        var host = endpoint;
+        String port = null;
+        if (endpoint.startsWith("[")) {
+            int close = endpoint.indexOf(']');
+            if (close < 0) {
+                throw new IllegalArgumentException("Invalid endpoint: " + endpoint);
+            }
+            host = endpoint.substring(1, close);
+            var rest = endpoint.substring(close + 1);
+            if (rest.startsWith(":")) {
+                port = rest.substring(1);
+            } else if (!rest.isEmpty()) {
+                throw new IllegalArgumentException("Invalid endpoint: " + endpoint);
+            }
+        } else {
+            int colon = endpoint.indexOf(':');
+            if (colon >= 0 && colon == endpoint.lastIndexOf(':')) {
+                // more than one colon is a bare IPv6 address without port
+                host = endpoint.substring(0, colon);
+                port = endpoint.substring(colon + 1);
+            }
+        }
+
+        if (host.isEmpty()) {
+            throw new IllegalArgumentException("Invalid endpoint: " + endpoint);
+        }
+        if (port == null) {
+            return InetSocketAddress.createUnresolved(host, DEFAULT_PORT);
+        }
+        try {
+            var number = Integer.parseInt(port);
+            if (number < 1 || number > 65535) {
+                throw new IllegalArgumentException("Invalid port in endpoint: " + endpoint);
+            }
+            return InetSocketAddress.createUnresolved(host, number);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Invalid port in endpoint: " + endpoint, ex);
+        }
+    }
+
+    /**
+     * Creates a client that reads the device directly from its NUT driver, bypassing
+     * {@code upsd}. This is useful if the client runs on the same host as the driver.
+     * <p>
+     * The device state is kept up to date by the driver, so all reads are answered
+     * locally with the most recent data, without any network round trip. The client
+     * only knows the device of the driver, and is read-only.
+     *
+     * @param driver
+     *         {@link DriverClient} that is connected to the driver. It is owned by the
+     *         client from now on.
+     * @see DriverClient#connect(java.nio.file.Path, String)
+     */
+    public static Client driver(DriverClient driver) {
+        try {
+            return new Client(new DriverSocket(driver), true);
+        } catch (IOException ex) {
+            // Cannot happen, as a lazy client does not perform any I/O on creation
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Connects to the server in the background, performs the login, and fetches the
+     * server version and protocol. Does nothing if the client is already connected.
+     *
+     * @return {@link CompletableFuture} that is completed when the client is connected
+     */
+    public CompletableFuture<Void> preconnect() {
+        return preconnect(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Connects to the server in the background, using the given {@link Executor}.
+     *
+     * @param executor
+     *         {@link Executor} to connect with
+     * @return {@link CompletableFuture} that is completed when the client is connected
+     * @see #preconnect()
+     */
+    public CompletableFuture<Void> preconnect(Executor executor) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                socket.connect();
+                fetchVersions();
+                LOG.info("Connected to {}:{}, protocol {}, {}", host, port, protocol, server);
+            } catch (IOException ex) {
+                throw new CompletionException(ex);
+            }
+        }, executor);
     }
 
     /**
      * Checks if the client is still connected. Note that this method does not detect if
-     * the connection was closed by the server.
+     * the connection was closed by the server. A lazy client that was not used yet is
+     * not connected.
      */
     public boolean isConnected() {
         return socket.isConnected();
     }
 
+    /**
+     * Limits the rate of requests that are sent to the server.
+     * <p>
+     * {@link RateLimiter} instances can be shared by all clients that connect to the
+     * same server, so the server is protected even if many services poll it.
+     *
+     * @param readLimiter
+     *         {@link RateLimiter} for read requests, or {@code null} for no limit
+     * @param writeLimiter
+     *         {@link RateLimiter} for {@code SET} and {@code INSTCMD} requests, or
+     *         {@code null} for no limit
+     */
+    public void setRateLimit(@Nullable RateLimiter readLimiter,
+            @Nullable RateLimiter writeLimiter) {
+        socket.setReadLimiter(readLimiter);
+        socket.setWriteLimiter(writeLimiter);
+    }
+
+    /**
+     * Enables or disables tracking of {@code SET} and {@code INSTCMD} requests. It
+     * requires NUT 2.8.0 or higher.
+     * <p>
+     * With tracking enabled, the server only confirms that a request has been queued
+     * for the driver. {@link Variable#setValueAsync(String)} and
+     * {@link Command#executeAsync(String...)} return a future that is completed when
+     * the driver has actually applied the request. The outcome of all pending requests
+     * is polled in a single batch.
+     *
+     * @param tracking
+     *         {@code true} to enable tracking
+     */
+    public void setTracking(boolean tracking) throws IOException {
+        socket.setTracking(tracking);
+    }
+
+    /**
+     * Protects the server with a {@link CircuitBreaker}. While the server is unreachable,
+     * all requests fail immediately with a
+     * {@link org.shredzone.commons.nut.exception.CircuitOpenException}, instead of
+     * waiting for a timeout.
+     * <p>
+     * {@link CircuitBreaker} instances can be shared by all clients that connect to the
+     * same server. To protect the initial connection as well, and to limit the time a
+     * probe waits for an unreachable server, create the client with
+     * {@link #lazy(String, int, String, String, Duration)}. After the connection was
+     * lost, the next permitted request connects to the server again, so the probes also
+     * detect when a restarted server is back. Redundant clients track the health of
+     * their servers themselves, and do not support circuit breakers.
+     *
+     * @param circuitBreaker
+     *         {@link CircuitBreaker}, or {@code null} for none
+     * @throws IllegalArgumentException
+     *         if a {@link CircuitBreaker} is set on a client that was created by
+     *         {@link #redundant(List, String, String)}
+     */
+    public void setCircuitBreaker(@Nullable CircuitBreaker circuitBreaker) {
+        socket.setCircuitBreaker(circuitBreaker);
+    }
+
+    /**
+     * Returns the {@link CircuitBreaker} of this client, so pollers are able to skip
+     * unreachable servers.
+     *
+     * @return {@link CircuitBreaker}, or empty if there is none
+     */
+    public Optional<CircuitBreaker> getCircuitBreaker() {
+        return Optional.ofNullable(socket.getCircuitBreaker());
+    }
+
+    /**
+     * Records all requests and responses exchanged with the server, e.g. for replaying
+     * them later with a {@link org.shredzone.commons.nut.server.ReplayHandler}.
+     *
+     * @param recorder
+     *         {@link SessionRecorder} to record to, or {@code null} to stop recording.
+     *         A recorder can be shared by several clients.
+     */
+    public void record(@Nullable SessionRecorder recorder) throws IOException {
+        socket.setSessionRecorder(recorder);
+    }
+
+    /**
+     * Returns how long the requests of the given {@link Priority} class had to wait for
+     * the connection. Control requests ({@code SET}, {@code INSTCMD}, {@code FSD}) are
+     * sent before queued read requests, so their waiting time stays short even if the
+     * connection is busy with polling.
+     *
+     * @param priority
+     *         {@link Priority} class
+     * @return {@link WaitStatistics}
+     */
+    public WaitStatistics getWaitStatistics(Priority priority) {
+        return socket.getWaitStatistics(priority);
+    }
+
+    /**
+     * Returns the health of each server of a client that was created by
+     * {@link #redundant(List, String, String)}.
+     *
+     * @return List of {@link EndpointHealth}, in the order of the endpoints. Empty if
+     * this client is connected to a single server.
+     */
+    public List<EndpointHealth> getEndpointHealth() {
+        if (socket instanceof RedundantSocket) {
+            return ((RedundantSocket) socket).getHealth();
+        }
+        return Collections.emptyList();
+    }
+
     /**
      * Closes the client, and forces a disconnect.
      * <p>
@@ -136,8 +535,9 @@ public class Client implements AutoCloseable {
      */
     @Override
     public void close() throws IOException {
-        if (isConnected()) {
-            socket.close();
+        var connected = isConnected();
+        socket.close();
+        if (connected) {
             LOG.info("Disconnected");
         }
     }
@@ -162,7 +562,7 @@ public class Client implements AutoCloseable {
      */
     public List<Device> getDeviceList() throws IOException, NutException {
         return socket.list(Request.list("UPS")).stream()
-                .map(req -> new Device(req.get(1), req.get(2), socket))
+                .map(res -> device(res.get(1), res.get(2)))
                 .collect(toList());
     }
 
@@ -170,27 +570,152 @@ public class Client implements AutoCloseable {
      * Returns the {@link Device} with the given name.
      * <p>
      * Note that the instance is generated irregarding of the existence of such a device.
+     * As long as the instance is in use, the same instance is returned for the same
+     * name.
      *
      * @param name
      *         UPS device name
      * @return Device instance
      */
     public Device getDevice(String name) {
-        return new Device(name, null, socket);
+        return device(name, null);
+    }
+
+    /**
+     * Returns the variables of several devices. The requests are sent to the server in
+     * a single pipelined burst, so it only costs a single network round trip.
+     *
+     * @param devices
+     *         {@link Device} to get the variables of. They must belong to this client.
+     * @return Map of each {@link Device} and its list of {@link Variable}, in the order
+     * of the collection. If the server returned an error for a device, the respective
+     * future is completed exceptionally.
+     */
+    public Map<Device, CompletableFuture<List<Variable>>> getVariables(
+            Collection<Device> devices) throws IOException {
+        var pipeline = socket.pipeline();
+        var result = new LinkedHashMap<Device, CompletableFuture<List<Variable>>>();
+        for (var device : devices) {
+            result.put(device, pipeline.list(Request.list("VAR").device(device))
+                    .thenApply(device::toVariables));
+        }
+        pipeline.run();
+        return result;
+    }
+
+    /**
+     * Returns the lines that were recently exchanged with the server, oldest first.
+     * This is useful for analyzing protocol errors. Passwords are masked.
+     */
+    public List<String> getRecentExchanges() {
+        return socket.getRecentExchanges();
+    }
+
+    /**
+     * Purges all locally cached values of all {@link Device}, {@link Variable} and
+     * {@link Command} instances of this client.
+     */
+    public void purge() {
+        registry.purge();
     }
 
     /**
-     * Returns the server version.
+     * Returns the server version. The result is cached.
+     * <p>
+     * A client that was created by {@link #lazy(String, int, String, String)} fetches
+     * the version from the server on the first invocation.
+     *
+     * @throws UncheckedIOException
+     *         if the version could not be fetched from the server
      */
     public String getServer() {
-        return server;
+        try {
+            return fetchServer();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
     }
 
     /**
-     * Returns the NUT protocol version.
+     * Returns the NUT protocol version. The result is cached.
+     * <p>
+     * A client that was created by {@link #lazy(String, int, String, String)} fetches
+     * the version from the server on the first invocation.
+     *
+     * @throws UncheckedIOException
+     *         if the version could not be fetched from the server
      */
     public String getProtocol() {
-        return protocol;
+        try {
+            return fetchProtocol();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Returns the interned {@link Device} handle of the given name.
+     *
+     * @param name
+     *         Device name
+     * @param description
+     *         Device description that was received from the server, or {@code null} if
+     *         unknown
+     */
+    private Device device(String name, @Nullable String description) {
+        var device = registry.device(name, () -> new Device(name, description, socket, registry));
+        device.update(description);
+        return device;
+    }
+
+    /**
+     * Returns a {@link NutSocket.Handshake} that logs in with the given credentials.
+     *
+     * @param login
+     *         Login name, or {@code null} to skip authentication
+     * @param password
+     *         Password, or {@code null} to skip authentication
+     */
+    private static NutSocket.Handshake handshake(@Nullable String login,
+            @Nullable String password) {
+        return sock -> {
+            if (login != null && password != null) {
+                sock.execute(Request.username().arg(login));
+                sock.execute(Request.password().arg(password));
+            }
+        };
+    }
+
+    /**
+     * Fetches the server version and protocol.
+     */
+    private void fetchVersions() throws IOException {
+        fetchServer();
+        fetchProtocol();
+    }
+
+    /**
+     * Returns the server version, and fetches it if it is not cached yet.
+     */
+    private String fetchServer() throws IOException {
+        var result = server;
+        if (result == null) {
+            result = socket.query(new Request("VER")).getRaw();
+            server = result;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the NUT protocol version, and fetches it if it is not cached yet.
+     */
+    private String fetchProtocol() throws IOException {
+        var result = protocol;
+        if (result == null) {
+            result = socket.query(new Request("NETVER")).getRaw();
+            protocol = result;
+        }
+        return result;
     }
 
 }
@@ -21,16 +21,15 @@ package org.shredzone.commons.nut;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
 
 import edu.umd.cs.findbugs.annotations.Nullable;
-import org.shredzone.commons.nut.util.NutSocket;
 import org.shredzone.commons.nut.util.Request;
 
 /**
  * A command that can be executed on the device.
  */
 public class Command {
-    private final NutSocket socket;
     private final Device device;
     private final String name;
 
@@ -41,14 +40,13 @@ public class Command {
      * Creates a new {@link Command} instance.
      *
      * @param name
-     *         Command name.
+     *         Command name, preferably the canonical {@link SymbolTable} instance.
      * @param device
      *         Device to which the command is attached.
      */
-    Command(String name, Device device, NutSocket socket) {
+    Command(String name, Device device) {
         this.name = name;
         this.device = device;
-        this.socket = socket;
     }
 
     /**
@@ -63,7 +61,7 @@ public class Command {
      */
     public String getDescription() throws IOException {
         if (description == null) {
-            var res = socket.query(Request.get("CMDDESC").device(device).arg(name));
+            var res = device.getSocket().query(Request.get("CMDDESC").device(device).arg(getName()));
             description = res.get(3);
         }
         return description;
@@ -76,7 +74,23 @@ public class Command {
      *         Optional arguments to be passed to the command.
      */
     public void execute(String... args) throws IOException {
-        socket.execute(Request.instcmd().device(device).arg(name).args(Arrays.asList(args)));
+        device.getSocket().execute(instcmdRequest(args));
+    }
+
+    /**
+     * Executes the command, and tracks the outcome.
+     * <p>
+     * The request is sent synchronously. If tracking is enabled, the returned future is
+     * completed when the driver has executed the command, or completed exceptionally
+     * with a {@link org.shredzone.commons.nut.exception.NutException} if the driver
+     * failed. If tracking is disabled, the returned future is already completed.
+     *
+     * @param args
+     *         Optional arguments to be passed to the command.
+     * @see Client#setTracking(boolean)
+     */
+    public CompletableFuture<Void> executeAsync(String... args) throws IOException {
+        return device.getSocket().submit(instcmdRequest(args));
     }
 
     /**
@@ -86,10 +100,17 @@ public class Command {
         description = null;
     }
 
+    /**
+     * Creates an {@code INSTCMD} request for this command.
+     */
+    private Request instcmdRequest(String... args) {
+        return Request.instcmd().device(device).arg(getName()).args(Arrays.asList(args));
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        sb.append("Command: ").append(name);
+        sb.append("Command: ").append(getName());
         if (description != null) {
             sb.append(" (").append(description).append(')');
         }
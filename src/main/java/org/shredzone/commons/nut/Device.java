@@ -22,19 +22,41 @@ package org.shredzone.commons.nut;
 import static java.util.stream.Collectors.toList;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import edu.umd.cs.findbugs.annotations.Nullable;
+import org.shredzone.commons.nut.exception.NutException;
+import org.shredzone.commons.nut.util.NamePattern;
 import org.shredzone.commons.nut.util.NutSocket;
+import org.shredzone.commons.nut.util.Pipeline;
 import org.shredzone.commons.nut.util.Request;
+import org.shredzone.commons.nut.util.Response;
 
 /**
  * Representation of a UPS device.
  */
 public class Device {
+    private static final int UNKNOWN_SIZE_GET_LIMIT = 4;
+
     private final NutSocket socket;
+    private final HandleRegistry registry;
     private final String name;
 
+    private final Map<String, VariableMetadata> metadata = new ConcurrentHashMap<>();
+    private volatile int variableCount = -1;
+
     @Nullable
     private String description;
 
@@ -45,11 +67,22 @@ public class Device {
      *         Name of the device
      * @param socket
      *         Connection to the NUT server
+     * @param registry
+     *         {@link HandleRegistry} of the client
      */
-    Device(String name, @Nullable String description, NutSocket socket) {
+    Device(String name, @Nullable String description, NutSocket socket,
+            HandleRegistry registry) {
         this.name = name;
         this.description = description;
         this.socket = socket;
+        this.registry = registry;
+    }
+
+    /**
+     * Returns the {@link NutSocket} of this device.
+     */
+    NutSocket getSocket() {
+        return socket;
     }
 
     /**
@@ -77,9 +110,102 @@ public class Device {
      * Returns a list of all variables (read only and read/write).
      */
     public List<Variable> getVariables() throws IOException {
-        return socket.list(Request.list("VAR").device(this)).stream()
-                .map(res -> new Variable(res.get(2), res.get(3), this, socket))
-                .collect(toList());
+        return toVariables(socket.list(Request.list("VAR").device(this)));
+    }
+
+    /**
+     * Returns the current values of all variables (read only and read/write), as a
+     * snapshot.
+     * <p>
+     * Other than the shared {@link Variable} handles, the snapshot is not affected by
+     * later requests, and reading it never contacts the server. The values are also
+     * cached in the respective {@link Variable}.
+     *
+     * @return Unmodifiable map of variable names and their values, in the order of the
+     * server's response
+     */
+    public Map<String, String> getValues() throws IOException {
+        var result = new LinkedHashMap<String, String>();
+        listVariables(res -> {
+            var name = res.get(2);
+            var value = res.get(3);
+            variable(name, value);
+            result.put(name, value);
+        });
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Returns a list of all variables (read only and read/write) with a name matching
+     * the given pattern.
+     * <p>
+     * The variables are filtered while the list is received from the server, so no
+     * {@link Variable} instances are created for the variables that do not match.
+     *
+     * @param pattern
+     *         Pattern, e.g. {@code battery.*} or {@code outlet.*.status}. A {@code *}
+     *         segment matches one name segment, a trailing {@code *} matches the entire
+     *         subtree.
+     */
+    public List<Variable> getVariables(String pattern) throws IOException {
+        var matcher = NamePattern.compile(pattern);
+        var result = new ArrayList<Variable>();
+        listVariables(res -> {
+            var name = res.get(2);
+            if (matcher.matches(name)) {
+                result.add(variable(name, res.get(3)));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Returns the values of the given variables.
+     * <p>
+     * The values are either fetched by pipelined {@code GET VAR} requests, or by a
+     * single {@code LIST VAR} request that is filtered while it is received, whichever
+     * transfers less lines. The decision is based on the number of variables of this
+     * device, which is learned from the last {@code LIST VAR} response. Both strategies
+     * only cost a single network round trip. The values are also cached in the
+     * respective {@link Variable}.
+     *
+     * @param names
+     *         Names of the variables to fetch
+     * @return Map of variable names and their values, in the order of the collection.
+     * Variables that are not supported by the device are not contained.
+     */
+    public Map<String, String> getValues(Collection<String> names) throws IOException {
+        var wanted = new LinkedHashSet<>(names);
+        if (wanted.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        if (isGetCheaper(wanted.size(), variableCount)) {
+            return getValuesByGet(wanted);
+        } else {
+            return getValuesByList(wanted);
+        }
+    }
+
+    /**
+     * Returns a {@link VariableIndex} of all variables (read only and read/write).
+     */
+    public VariableIndex getVariableIndex() throws IOException {
+        var index = new VariableIndex();
+        listVariables(res -> index.put(variable(res.get(2), res.get(3))));
+        return index;
+    }
+
+    /**
+     * Returns a {@link VariableIndex} of all variables (read only and read/write) with a
+     * name matching the given pattern.
+     *
+     * @param pattern
+     *         Pattern, see {@link #getVariables(String)}
+     */
+    public VariableIndex getVariableIndex(String pattern) throws IOException {
+        var index = new VariableIndex();
+        getVariables(pattern).forEach(index::put);
+        return index;
     }
 
     /**
@@ -87,22 +213,56 @@ public class Device {
      */
     public List<Variable> getRWVariables() throws IOException {
         return socket.list(Request.list("RW").device(this)).stream()
-                .map(res -> new Variable(res.get(2), res.get(3), this, socket))
+                .map(res -> variable(res.get(2), res.get(3)))
                 .collect(toList());
     }
 
+    /**
+     * Fetches the type, enumeration and range metadata of all read/write variables, and
+     * caches it. All the metadata is fetched in a single pipelined burst.
+     * <p>
+     * After that, {@link Variable#getType()}, {@link Variable#getEnumValues()},
+     * {@link Variable#getRanges()} and {@link Variable#isValid(String)} are answered
+     * without contacting the server, and {@link Variable#setValue(String)} validates the
+     * new value before sending it.
+     *
+     * @return List of all read/write variables
+     */
+    public List<Variable> prefetchMetadata() throws IOException {
+        var variables = getRWVariables();
+
+        var pipeline = socket.pipeline();
+        var fetches = variables.stream()
+                .map(v -> new VariableMetadata.Fetch(pipeline, this, v.getName()))
+                .collect(toList());
+        pipeline.run();
+
+        for (var fetch : fetches) {
+            try {
+                metadata.put(fetch.getName(), fetch.get());
+            } catch (NutException ex) {
+                // Server has no metadata for this variable, so we cannot validate it
+                metadata.remove(fetch.getName());
+            }
+        }
+
+        return variables;
+    }
+
     /**
      * Returns a variable with the given name.
      * <p>
      * Note that the instance is generated irregarding of the existence of such a
-     * variable.
+     * variable. As long as the instance is in use, the same instance is returned for
+     * the same name. The instance is shared, so its cached value may have been fetched
+     * earlier. Use {@link Variable#fetchValue()} to get the current value.
      *
      * @param name
      *         Variable name
      * @return Variable
      */
     public Variable getVariable(String name) {
-        return new Variable(name, null, this, socket);
+        return variable(name, null);
     }
 
     /**
@@ -110,8 +270,7 @@ public class Device {
      */
     public List<Command> getCommands() throws IOException {
         return socket.list(Request.list("CMD").device(this)).stream()
-                .map(l -> l.get(2))
-                .map(n -> new Command(n, this, socket))
+                .map(l -> command(SymbolTable.intern(l.get(2))))
                 .collect(toList());
     }
 
@@ -119,14 +278,15 @@ public class Device {
      * Returns a command with the given name.
      * <p>
      * Note that the instance is generated irregarding of the existence of such a
-     * command.
+     * command. As long as the instance is in use, the same instance is returned for the
+     * same name.
      *
      * @param name
      *         Command name
      * @return Command
      */
     public Command getCommand(String name) {
-        return new Command(name, this, socket);
+        return command(SymbolTable.canonical(name));
     }
 
     /**
@@ -145,11 +305,226 @@ public class Device {
         socket.execute(Request.login().device(this));
     }
 
+    /**
+     * Claims the primary role for this device. The client must be logged in with a user
+     * that has primary permissions, and must have invoked {@link #login()} before.
+     * <p>
+     * Servers before NUT 2.8 do not know the {@code PRIMARY} command. In that case, the
+     * legacy {@code MASTER} command is sent instead.
+     */
+    public void primary() throws IOException {
+        try {
+            socket.execute(Request.primary().device(this));
+        } catch (NutException ex) {
+            if (!"UNKNOWN-COMMAND".equals(ex.getType())) {
+                throw ex;
+            }
+            socket.execute(new Request("MASTER").device(this));
+        }
+    }
+
+    /**
+     * Sets the forced shutdown flag of this device. The client must have claimed the
+     * primary role by {@link #primary()} before.
+     */
+    public void fsd() throws IOException {
+        socket.execute(Request.fsd().device(this));
+    }
+
     /**
      * Purges all locally cached values.
      */
     public void purge() {
         description = null;
+        metadata.clear();
+    }
+
+    /**
+     * Updates the device description that was received from the server.
+     *
+     * @param description
+     *         New description, or {@code null} to keep the current one
+     */
+    void update(@Nullable String description) {
+        if (description != null) {
+            this.description = description;
+        }
+    }
+
+    /**
+     * Converts a {@code LIST VAR} response to a list of {@link Variable}.
+     *
+     * @param list
+     *         List response
+     * @return List of {@link Variable}
+     */
+    List<Variable> toVariables(List<Response> list) {
+        variableCount = list.size();
+        return list.stream()
+                .map(res -> variable(res.get(2), res.get(3)))
+                .collect(toList());
+    }
+
+    /**
+     * Checks if pipelined {@code GET VAR} requests are cheaper than a {@code LIST VAR}
+     * request. Each {@code GET} costs a request and a response line, while the
+     * {@code LIST} costs one line per variable of the device, plus the request and the
+     * {@code BEGIN} and {@code END} lines.
+     * <p>
+     * If the number of variables is unknown, a few variables are fetched by
+     * {@code GET}, and a {@code LIST} is used otherwise, so the number is learned.
+     *
+     * @param requested
+     *         Number of requested variables
+     * @param known
+     *         Number of variables of the device, or -1 if unknown
+     * @return {@code true} if {@code GET} is cheaper
+     */
+    static boolean isGetCheaper(int requested, int known) {
+        if (known < 0) {
+            return requested <= UNKNOWN_SIZE_GET_LIMIT;
+        }
+        return 2 * requested < known + 3;
+    }
+
+    /**
+     * Fetches the values by pipelined {@code GET VAR} requests.
+     */
+    private Map<String, String> getValuesByGet(Set<String> names) throws IOException {
+        var pipeline = socket.pipeline();
+        var futures = new LinkedHashMap<String, CompletableFuture<Response>>();
+        for (var name : names) {
+            futures.put(name, pipeline.query(Request.get("VAR").device(this).arg(name)));
+        }
+        pipeline.run();
+
+        var result = new LinkedHashMap<String, String>();
+        for (var entry : futures.entrySet()) {
+            try {
+                var value = Pipeline.result(entry.getValue()).get(3);
+                variable(entry.getKey(), value);
+                result.put(entry.getKey(), value);
+            } catch (NutException ex) {
+                if (!"VAR-NOT-SUPPORTED".equals(ex.getType())) {
+                    throw ex;
+                }
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Fetches the values by a filtered {@code LIST VAR} request.
+     */
+    private Map<String, String> getValuesByList(Set<String> names) throws IOException {
+        var found = new HashMap<String, String>();
+        listVariables(res -> {
+            var name = res.get(2);
+            if (names.contains(name)) {
+                var value = res.get(3);
+                variable(name, value);
+                found.put(name, value);
+            }
+        });
+
+        var result = new LinkedHashMap<String, String>();
+        for (var name : names) {
+            var value = found.get(name);
+            if (value != null) {
+                result.put(name, value);
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Sends a {@code LIST VAR} request, and learns the number of variables of this
+     * device.
+     *
+     * @param consumer
+     *         {@link Consumer} that receives each single {@link Response}
+     */
+    private void listVariables(Consumer<Response> consumer) throws IOException {
+        var count = new AtomicInteger();
+        socket.list(Request.list("VAR").device(this), res -> {
+            count.incrementAndGet();
+            consumer.accept(res);
+        });
+        variableCount = count.get();
+    }
+
+    /**
+     * Returns the interned {@link Variable} handle of the given name.
+     * <p>
+     * If a value is given, the variable is known to exist on the server, and its name is
+     * added to the {@link SymbolTable}. Otherwise the name is only looked up, so names
+     * passed in by the caller cannot fill the table.
+     *
+     * @param name
+     *         Variable name
+     * @param value
+     *         Variable value that was received from the server, or {@code null} if
+     *         unknown
+     */
+    private Variable variable(String name, @Nullable String value) {
+        var canonical = value != null ? SymbolTable.intern(name) : SymbolTable.canonical(name);
+        var variable = registry.variable(this, canonical,
+                () -> new Variable(canonical, value, this));
+        if (value != null) {
+            variable.update(value);
+        }
+        return variable;
+    }
+
+    /**
+     * Returns the interned {@link Command} handle of the given name.
+     *
+     * @param name
+     *         Command name
+     */
+    private Command command(String name) {
+        return registry.command(this, name, () -> new Command(name, this));
+    }
+
+    /**
+     * Returns the {@link VariableMetadata} of the given variable. If it is not cached
+     * yet, it is fetched from the server.
+     *
+     * @param name
+     *         Variable name
+     */
+    VariableMetadata getMetadata(String name) throws IOException {
+        var result = metadata.get(name);
+        if (result == null) {
+            var pipeline = socket.pipeline();
+            var fetch = new VariableMetadata.Fetch(pipeline, this, name);
+            pipeline.run();
+            result = fetch.get();
+            metadata.put(name, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the cached {@link VariableMetadata} of the given variable.
+     *
+     * @param name
+     *         Variable name
+     * @return {@link VariableMetadata}, or {@code null} if it is not cached
+     */
+    @Nullable
+    VariableMetadata getCachedMetadata(String name) {
+        return metadata.get(name);
+    }
+
+    /**
+     * Purges the cached {@link VariableMetadata} of the given variable.
+     *
+     * @param name
+     *         Variable name
+     */
+    void purgeMetadata(String name) {
+        metadata.remove(name);
     }
 
     @Override
@@ -0,0 +1,150 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut;
+
+import java.time.Duration;
+
+/**
+ * A snapshot of the health of one of several redundant server endpoints.
+ *
+ * @see Client#redundant(java.util.List, String, String)
+ */
+public class EndpointHealth {
+    private final String host;
+    private final int port;
+    private final boolean healthy;
+    private final int consecutiveFailures;
+    private final long requestCount;
+    private final long failureCount;
+    private final long hedgedCount;
+    private final long medianNanos;
+    private final long hedgeDelayNanos;
+
+    /**
+     * Creates a new {@link EndpointHealth} snapshot.
+     *
+     * @param host
+     *         Server host name
+     * @param port
+     *         Server port
+     * @param healthy
+     *         {@code true} if the endpoint is considered healthy
+     * @param consecutiveFailures
+     *         Number of consecutive failed requests
+     * @param requestCount
+     *         Number of requests sent to this endpoint
+     * @param failureCount
+     *         Number of requests that failed because of a communication error
+     * @param hedgedCount
+     *         Number of reads that were hedged because this endpoint was too slow
+     * @param medianNanos
+     *         Median latency of the recent requests, in nanoseconds
+     * @param hedgeDelayNanos
+     *         Time after which a read is hedged, in nanoseconds
+     */
+    public EndpointHealth(String host, int port, boolean healthy, int consecutiveFailures,
+            long requestCount, long failureCount, long hedgedCount, long medianNanos,
+            long hedgeDelayNanos) {
+        this.host = host;
+        this.port = port;
+        this.healthy = healthy;
+        this.consecutiveFailures = consecutiveFailures;
+        this.requestCount = requestCount;
+        this.failureCount = failureCount;
+        this.hedgedCount = hedgedCount;
+        this.medianNanos = medianNanos;
+        this.hedgeDelayNanos = hedgeDelayNanos;
+    }
+
+    /**
+     * Returns the server host name.
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Returns the server port.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Checks if the endpoint is considered healthy. An endpoint is unhealthy after a
+     * communication error, until it is retried after a backoff time.
+     */
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    /**
+     * Returns the number of consecutive requests that failed because of a
+     * communication error.
+     */
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * Returns the number of requests that were sent to this endpoint.
+     */
+    public long getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * Returns the number of requests that failed because of a communication error.
+     */
+    public long getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * Returns the number of reads that were hedged to another endpoint, because this
+     * endpoint did not answer in time.
+     */
+    public long getHedgedCount() {
+        return hedgedCount;
+    }
+
+    /**
+     * Returns the median latency of the recent requests.
+     */
+    public Duration getMedianLatency() {
+        return Duration.ofNanos(medianNanos);
+    }
+
+    /**
+     * Returns the time after which a read is hedged to another endpoint.
+     */
+    public Duration getHedgeDelay() {
+        return Duration.ofNanos(hedgeDelayNanos);
+    }
+
+    @Override
+    public String toString() {
+        return host + ':' + port + (healthy ? " healthy" : " unhealthy")
+                + ", median " + getMedianLatency().toMillis() + " ms"
+                + ", " + requestCount + " requests, " + failureCount + " failures, "
+                + hedgedCount + " hedged";
+    }
+
+}
@@ -0,0 +1,184 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Interns the {@link Device}, {@link Variable} and {@link Command} handles of a
+ * {@link Client}, so the same name always returns the same instance, and lazily fetched
+ * values are shared.
+ * <p>
+ * The handles are only weakly referenced. Handles that are not in use anymore are
+ * removed by the garbage collector.
+ */
+class HandleRegistry {
+    private final Map<Key, HandleReference> handles = new HashMap<>();
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+
+    /**
+     * Returns the {@link Device} handle of the given name.
+     *
+     * @param name
+     *         Device name
+     * @param factory
+     *         Creates a new handle if there is none
+     */
+    Device device(String name, Supplier<Device> factory) {
+        return intern(new Key('D', name, ""), Device.class, factory);
+    }
+
+    /**
+     * Returns the {@link Variable} handle of the given device and name.
+     *
+     * @param device
+     *         {@link Device} of the variable
+     * @param name
+     *         Variable name
+     * @param factory
+     *         Creates a new handle if there is none
+     */
+    Variable variable(Device device, String name, Supplier<Variable> factory) {
+        return intern(new Key('V', device.getName(), name), Variable.class, factory);
+    }
+
+    /**
+     * Returns the {@link Command} handle of the given device and name.
+     *
+     * @param device
+     *         {@link Device} of the command
+     * @param name
+     *         Command name
+     * @param factory
+     *         Creates a new handle if there is none
+     */
+    Command command(Device device, String name, Supplier<Command> factory) {
+        return intern(new Key('C', device.getName(), name), Command.class, factory);
+    }
+
+    /**
+     * Purges the locally cached values of all handles.
+     */
+    void purge() {
+        var live = new ArrayList<Object>();
+        synchronized (this) {
+            expunge();
+            for (var ref : handles.values()) {
+                var handle = ref.get();
+                if (handle != null) {
+                    live.add(handle);
+                }
+            }
+        }
+
+        for (var handle : live) {
+            if (handle instanceof Device) {
+                ((Device) handle).purge();
+            } else if (handle instanceof Variable) {
+                ((Variable) handle).purge();
+            } else if (handle instanceof Command) {
+                ((Command) handle).purge();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of handles in the registry.
+     */
+    synchronized int size() {
+        expunge();
+        return handles.size();
+    }
+
+    private synchronized <T> T intern(Key key, Class<T> type, Supplier<T> factory) {
+        expunge();
+
+        var ref = handles.get(key);
+        if (ref != null) {
+            var handle = ref.get();
+            if (handle != null) {
+                return type.cast(handle);
+            }
+        }
+
+        var handle = factory.get();
+        handles.put(key, new HandleReference(key, handle, queue));
+        return handle;
+    }
+
+    /**
+     * Removes all references to handles that were garbage collected.
+     */
+    private void expunge() {
+        HandleReference ref;
+        while ((ref = (HandleReference) queue.poll()) != null) {
+            handles.remove(ref.key, ref);
+        }
+    }
+
+    /**
+     * A weak reference to a handle that also keeps the registry key.
+     */
+    private static class HandleReference extends WeakReference<Object> {
+        private final Key key;
+
+        HandleReference(Key key, Object handle, ReferenceQueue<Object> queue) {
+            super(handle, queue);
+            this.key = key;
+        }
+    }
+
+    /**
+     * The registry key of a handle. The device name is shared with the {@link Device},
+     * and the variable or command name is shared with the handle, so the key does not
+     * need a string of its own.
+     */
+    private static final class Key {
+        private final char type;
+        private final String device;
+        private final String name;
+
+        Key(char type, String device, String name) {
+            this.type = type;
+            this.device = device;
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            var other = (Key) obj;
+            return type == other.type && name.equals(other.name) && device.equals(other.device);
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * type + device.hashCode()) * 31 + name.hashCode();
+        }
+    }
+
+}
@@ -0,0 +1,38 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut;
+
+/**
+ * Priority classes of requests that share a connection to the NUT server.
+ */
+public enum Priority {
+
+    /**
+     * Control requests ({@code SET}, {@code INSTCMD}, {@code FSD} and the like). They are
+     * sent before queued read requests.
+     */
+    CONTROL,
+
+    /**
+     * Read requests, like {@code GET} and {@code LIST}.
+     */
+    READ
+
+}
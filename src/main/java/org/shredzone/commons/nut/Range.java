@@ -0,0 +1,74 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut;
+
+import java.math.BigDecimal;
+
+/**
+ * A range of values that is accepted by a {@link Variable}.
+ */
+public class Range {
+    private final BigDecimal min;
+    private final BigDecimal max;
+
+    /**
+     * Creates a new {@link Range}.
+     *
+     * @param min
+     *         Minimum value, inclusive
+     * @param max
+     *         Maximum value, inclusive
+     */
+    Range(BigDecimal min, BigDecimal max) {
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * Returns the minimum value, inclusive.
+     */
+    public BigDecimal getMin() {
+        return min;
+    }
+
+    /**
+     * Returns the maximum value, inclusive.
+     */
+    public BigDecimal getMax() {
+        return max;
+    }
+
+    /**
+     * Checks if the given value is within this range.
+     *
+     * @param value
+     *         Value to check
+     * @return {@code true} if the value is within the range
+     */
+    public boolean contains(BigDecimal value) {
+        return value.compareTo(min) >= 0 && value.compareTo(max) <= 0;
+    }
+
+    @Override
+    public String toString() {
+        return min.toPlainString() + ".." + max.toPlainString();
+    }
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut;
+
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * A token bucket that limits the rate of requests that are sent to a NUT server.
+ * <p>
+ * The bucket is refilled at a constant rate, up to its burst capacity. Each request
+ * takes a token. If there are not enough tokens left, the caller is blocked until the
+ * tokens have been refilled. A batch of requests takes all of its tokens at once, even
+ * if it exceeds the burst capacity. Later callers are then delayed accordingly.
+ * <p>
+ * The same {@link RateLimiter} instance may be shared by several connections to the
+ * same server, so all of them share the same budget.
+ */
+public class RateLimiter {
+    private final double tokensPerNano;
+    private final double burst;
+    private final LongSupplier clock;
+
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong delayed = new AtomicLong();
+    private final AtomicLong totalDelay = new AtomicLong();
+    private final AtomicLong maxDelay = new AtomicLong();
+
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * Creates a new {@link RateLimiter}.
+     *
+     * @param rate
+     *         Number of requests per second
+     * @param burst
+     *         Maximum number of requests that can be sent in a burst
+     */
+    public RateLimiter(double rate, int burst) {
+        this(rate, burst, System::nanoTime);
+    }
+
+    /**
+     * Creates a new {@link RateLimiter} with the given clock.
+     *
+     * @param rate
+     *         Number of requests per second
+     * @param burst
+     *         Maximum number of requests that can be sent in a burst
+     * @param clock
+     *         Clock returning the current time in nanoseconds
+     */
+    RateLimiter(double rate, int burst, LongSupplier clock) {
+        if (rate <= 0.0 || burst < 1) {
+            throw new IllegalArgumentException("rate and burst must be positive");
+        }
+        this.tokensPerNano = rate / TimeUnit.SECONDS.toNanos(1);
+        this.burst = burst;
+        this.clock = clock;
+        this.tokens = burst;
+        this.lastRefill = clock.getAsLong();
+    }
+
+    /**
+     * Takes the given number of tokens. Blocks until they are available.
+     *
+     * @param permits
+     *         Number of tokens to take
+     * @throws InterruptedIOException
+     *         if the thread was interrupted while waiting
+     */
+    public void acquire(int permits) throws InterruptedIOException {
+        var wait = reserve(permits);
+        if (wait > 0L) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for rate limit");
+            }
+        }
+    }
+
+    /**
+     * Takes the given number of tokens, and returns the time the caller has to wait
+     * until the tokens are actually available. The tokens are taken even if they are
+     * not available yet, so later callers have to wait longer.
+     * <p>
+     * This method does not block, so it can be used by callers that have their own
+     * scheduling.
+     *
+     * @param permits
+     *         Number of tokens to take
+     * @return Time to wait, in nanoseconds
+     */
+    public long reserve(int permits) {
+        if (permits <= 0) {
+            return 0L;
+        }
+
+        long wait;
+        synchronized (this) {
+            long now = clock.getAsLong();
+            tokens = Math.min(burst, tokens + (now - lastRefill) * tokensPerNano);
+            lastRefill = now;
+            tokens -= permits;
+            wait = tokens < 0.0 ? (long) Math.ceil(-tokens / tokensPerNano) : 0L;
+        }
+
+        acquired.addAndGet(permits);
+        if (wait > 0L) {
+            delayed.incrementAndGet();
+            totalDelay.addAndGet(wait);
+            maxDelay.accumulateAndGet(wait, Math::max);
+        }
+        return wait;
+    }
+
+    /**
+     * Returns the total number of tokens that have been taken.
+     */
+    public long getAcquiredCount() {
+        return acquired.get();
+    }
+
+    /**
+     * Returns the number of times a caller had to wait for tokens.
+     */
+    public long getDelayedCount() {
+        return delayed.get();
+    }
+
+    /**
+     * Returns the total time callers had to wait for tokens.
+     */
+    public Duration getTotalDelay() {
+        return Duration.ofNanos(totalDelay.get());
+    }
+
+    /**
+     * Returns the longest time a caller had to wait for tokens.
+     */
+    public Duration getMaxDelay() {
+        return Duration.ofNanos(maxDelay.get());
+    }
+
+}
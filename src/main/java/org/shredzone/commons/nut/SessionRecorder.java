@@ -0,0 +1,161 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+
+/**
+ * Records the requests and responses that are exchanged with NUT servers, with
+ * timestamps, e.g. for replaying real sessions with the
+ * {@link org.shredzone.commons.nut.server.ReplayHandler}.
+ * <p>
+ * A recorder can be shared by several clients. Each line of the recording has the
+ * format {@code <micros> <connection> <direction> <line>}, where {@code micros} is the
+ * time since the recorder was created, in microseconds, {@code connection} is a number
+ * identifying the connection, and {@code direction} is {@code >} for requests, {@code <}
+ * for responses, and {@code +} for a new connection to the server given in
+ * {@code line}. Lines starting with {@code #} are comments. Passwords are masked.
+ * <p>
+ * Errors while writing the recording do not affect the communication with the server.
+ * The recording stops, and the error is thrown when the recorder is closed.
+ *
+ * @see Client#record(SessionRecorder)
+ */
+public class SessionRecorder implements Closeable {
+    /**
+     * First line of every recording.
+     */
+    public static final String HEADER = "# commons-nut session recording";
+
+    private final Writer writer;
+    private final long start = System.nanoTime();
+    private final AtomicInteger connections = new AtomicInteger();
+
+    @Nullable
+    private IOException failure;
+
+    /**
+     * Creates a new {@link SessionRecorder} that writes to a file. An existing file is
+     * overwritten.
+     *
+     * @param file
+     *         File to write the recording to
+     */
+    public SessionRecorder(Path file) throws IOException {
+        this(Files.newBufferedWriter(file, UTF_8));
+    }
+
+    /**
+     * Creates a new {@link SessionRecorder} that writes to the given {@link Writer}.
+     *
+     * @param writer
+     *         {@link Writer} to write the recording to. It is closed when the recorder
+     *         is closed.
+     */
+    public SessionRecorder(Writer writer) throws IOException {
+        this.writer = writer instanceof BufferedWriter ? writer : new BufferedWriter(writer);
+        this.writer.write(HEADER);
+        this.writer.write('\n');
+    }
+
+    /**
+     * Registers a new connection.
+     *
+     * @param host
+     *         Server host name
+     * @param port
+     *         Server port
+     * @return Number identifying the connection
+     */
+    public int connected(String host, int port) {
+        var id = connections.incrementAndGet();
+        write(id, '+', host + ':' + port);
+        return id;
+    }
+
+    /**
+     * Records a request that was sent to the server.
+     *
+     * @param connection
+     *         Number of the connection
+     * @param line
+     *         Request line, with masked password
+     */
+    public void sent(int connection, String line) {
+        write(connection, '>', line);
+    }
+
+    /**
+     * Records a response line that was received from the server.
+     *
+     * @param connection
+     *         Number of the connection
+     * @param line
+     *         Response line
+     */
+    public void received(int connection, String line) {
+        write(connection, '<', line);
+    }
+
+    /**
+     * Writes all buffered lines to the recording.
+     */
+    public synchronized void flush() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        writer.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private synchronized void write(int connection, char direction, String line) {
+        if (failure != null) {
+            return;
+        }
+        try {
+            var micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+            writer.append(Long.toString(micros)).append(' ')
+                    .append(Integer.toString(connection)).append(' ')
+                    .append(direction).append(' ')
+                    .append(line).append('\n');
+        } catch (IOException ex) {
+            failure = ex;
+        }
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A global table of variable and command names. Each name is mapped to a small
+ * {@code int} ID, and a single canonical {@link String} instance.
+ * <p>
+ * In a large fleet, the same few hundred names (like {@code battery.charge} or
+ * {@code ups.status}) are used by thousands of devices. Handles and snapshots store the
+ * ID instead of a separate copy of the name, and can use primitive-keyed maps.
+ * <p>
+ * The table only grows. IDs are assigned in ascending order, starting with 0, and stay
+ * valid for the lifetime of the JVM. For this reason, only names that were reported by
+ * a server are added. Names that are passed in by the caller are only looked up.
+ */
+public final class SymbolTable {
+    private static final ConcurrentMap<String, Integer> IDS = new ConcurrentHashMap<>();
+    private static volatile String[] names = new String[256];
+    private static int size;
+
+    private SymbolTable() {
+        // utility class without constructor
+    }
+
+    /**
+     * Returns the ID of the given name. A new ID is assigned if the name is not in the
+     * table yet.
+     *
+     * @param name
+     *         Variable or command name
+     * @return ID of the name
+     */
+    public static int id(String name) {
+        var id = IDS.get(name);
+        if (id != null) {
+            return id;
+        }
+        return register(name);
+    }
+
+    /**
+     * Returns the ID of the given name, without adding it to the table.
+     *
+     * @param name
+     *         Variable or command name
+     * @return ID of the name, or -1 if the name is not in the table
+     */
+    public static int lookup(String name) {
+        var id = IDS.get(name);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * Returns the canonical instance of the given name, without adding it to the table.
+     *
+     * @param name
+     *         Variable or command name
+     * @return Canonical instance of the name, or the given name itself if it is not in
+     * the table
+     */
+    public static String canonical(String name) {
+        var id = IDS.get(name);
+        return id != null ? names[id] : name;
+    }
+
+    /**
+     * Returns the name of the given ID.
+     *
+     * @param id
+     *         ID of the name
+     * @return Canonical instance of the name
+     * @throws IllegalArgumentException
+     *         if the ID was not assigned
+     */
+    public static String name(int id) {
+        var current = names;
+        if (id < 0 || id >= current.length || current[id] == null) {
+            throw new IllegalArgumentException("Unknown symbol ID " + id);
+        }
+        return current[id];
+    }
+
+    /**
+     * Returns the canonical instance of the given name. It is added to the table if it
+     * is not in the table yet.
+     *
+     * @param name
+     *         Variable or command name
+     * @return Canonical instance of the name
+     */
+    public static String intern(String name) {
+        return name(id(name));
+    }
+
+    /**
+     * Returns the number of names in the table.
+     */
+    public static synchronized int size() {
+        return size;
+    }
+
+    private static synchronized int register(String name) {
+        var existing = IDS.get(name);
+        if (existing != null) {
+            return existing;
+        }
+
+        var id = size;
+        var current = names;
+        if (id == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        current[id] = name;
+        names = current;
+        size++;
+        IDS.put(name, id);
+        return id;
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.time.Duration;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import org.shredzone.commons.nut.util.StreamConnection;
+
+/**
+ * Opens connections to a NUT server.
+ * <p>
+ * A transport only carries the lines of the NUT protocol. Pipelining, coalescing of
+ * identical requests, priorities, rate limiting and tracking are performed on top of
+ * it, so they work the same with every transport. By default, TCP is used. Other
+ * transports may use faster I/O, or connect to a server stand-in in memory, like
+ * {@link org.shredzone.commons.nut.server.LoopbackTransport}.
+ *
+ * @see Client#lazy(Transport, String, String, String)
+ */
+@FunctionalInterface
+public interface Transport {
+
+    /**
+     * Opens a new connection to the server.
+     *
+     * @return {@link Connection} that was established
+     */
+    Connection connect() throws IOException;
+
+    /**
+     * Creates a {@link Transport} that connects to a NUT server via TCP.
+     *
+     * @param host
+     *         Server host name
+     * @param port
+     *         Server port
+     * @return {@link Transport}
+     */
+    static Transport tcp(String host, int port) {
+        return tcp(host, port, Duration.ZERO, Duration.ZERO);
+    }
+
+    /**
+     * Creates a {@link Transport} that connects to a NUT server via TCP, with timeouts.
+     *
+     * @param host
+     *         Server host name
+     * @param port
+     *         Server port
+     * @param connectTimeout
+     *         Maximum time to wait for the connection to be established, or
+     *         {@link Duration#ZERO} to wait as long as the operating system permits
+     * @param readTimeout
+     *         Maximum time to wait for a response line, or {@link Duration#ZERO} to
+     *         wait indefinitely. If it is exceeded, a
+     *         {@link java.net.SocketTimeoutException} is thrown.
+     * @return {@link Transport}
+     */
+    static Transport tcp(String host, int port, Duration connectTimeout,
+            Duration readTimeout) {
+        if (connectTimeout.isNegative() || readTimeout.isNegative()) {
+            throw new IllegalArgumentException("timeouts must not be negative");
+        }
+        var connectMillis = Math.toIntExact(connectTimeout.toMillis());
+        var readMillis = Math.toIntExact(readTimeout.toMillis());
+        return () -> {
+            var socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(host, port), connectMillis);
+                socket.setSoTimeout(readMillis);
+                return streams(socket, socket.getInputStream(), socket.getOutputStream());
+            } catch (IOException ex) {
+                socket.close();
+                throw ex;
+            }
+        };
+    }
+
+    /**
+     * Creates a {@link Connection} that exchanges the lines via a pair of streams, e.g.
+     * of a socket or a channel.
+     *
+     * @param resource
+     *         Resource to be closed when the connection is closed, e.g. the socket
+     * @param in
+     *         {@link InputStream} for the lines sent by the server
+     * @param out
+     *         {@link OutputStream} for the lines sent to the server
+     * @return {@link Connection}
+     */
+    static Connection streams(Closeable resource, InputStream in, OutputStream out) {
+        return new StreamConnection(resource, in, out);
+    }
+
+    /**
+     * An established connection to a NUT server. A connection is only used by a single
+     * thread at a time.
+     */
+    interface Connection extends Closeable {
+
+        /**
+         * Writes a request line to the output buffer, without flushing it.
+         *
+         * @param line
+         *         Request line, without line terminator
+         */
+        void write(String line) throws IOException;
+
+        /**
+         * Flushes the output buffer, sending all pending requests to the server.
+         */
+        void flush() throws IOException;
+
+        /**
+         * Reads a response line. Blocks until a line is available.
+         *
+         * @return Response line without line terminator, or {@code null} if the
+         * connection was closed by the server
+         */
+        @Nullable
+        String readLine() throws IOException;
+
+        /**
+         * Checks if the connection is still open.
+         */
+        boolean isOpen();
+    }
+
+}
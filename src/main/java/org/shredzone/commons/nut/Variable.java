@@ -20,17 +20,20 @@
 package org.shredzone.commons.nut;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import edu.umd.cs.findbugs.annotations.Nullable;
-import org.shredzone.commons.nut.util.NutSocket;
 import org.shredzone.commons.nut.util.Request;
 
 /**
  * Representation of a single variable. This class does not distinguish whether the
  * variable is read only or read/write.
+ * <p>
+ * If the variable name was reported by the server, the handle refers to the canonical
+ * {@link SymbolTable} instance of the name, so it does not need a string of its own.
  */
 public class Variable {
-    private final NutSocket socket;
     private final Device device;
     private final String name;
 
@@ -44,15 +47,14 @@ public class Variable {
      * Creates a new {@link Variable} instance.
      *
      * @param name
-     *         Variable name.
+     *         Variable name, preferably the canonical {@link SymbolTable} instance.
      * @param device
      *         Device to which the variable is attached.
      */
-    Variable(String name, @Nullable String value, Device device, NutSocket socket) {
+    Variable(String name, @Nullable String value, Device device) {
         this.name = name;
         this.value = value;
         this.device = device;
-        this.socket = socket;
     }
 
     /**
@@ -62,6 +64,15 @@ public class Variable {
         return name;
     }
 
+    /**
+     * Returns the {@link SymbolTable} ID of the variable name.
+     *
+     * @return ID, or -1 if the name was not reported by a server yet
+     */
+    public int getSymbol() {
+        return SymbolTable.lookup(name);
+    }
+
     /**
      * Returns the variable description. The result is cached.
      *
@@ -70,7 +81,7 @@ public class Variable {
      */
     public String getDescription() throws IOException {
         if (description == null) {
-            var res = socket.query(Request.get("DESC").device(device).arg(name));
+            var res = device.getSocket().query(Request.get("DESC").device(device).arg(getName()));
             description = res.get(2);
         }
         return description;
@@ -83,18 +94,116 @@ public class Variable {
      *         if an error occured while fetching the value from the server.
      */
     public String getValue() throws IOException {
-        if (value == null) {
-            var res = socket.query(Request.get("VAR").device(device).arg(name));
-            value = res.get(3);
-        }
-        return value;
+        var result = value;
+        return result != null ? result : fetchValue();
+    }
+
+    /**
+     * Fetches the current value of that variable from the server, regardless of the
+     * cached value. The cached value is updated.
+     *
+     * @throws IOException
+     *         if an error occured while fetching the value from the server.
+     */
+    public String fetchValue() throws IOException {
+        var res = device.getSocket().query(Request.get("VAR").device(device).arg(getName()));
+        var result = res.get(3);
+        value = result;
+        return result;
+    }
+
+    /**
+     * Returns the {@link VariableType} of this variable. The result is cached.
+     *
+     * @throws IOException
+     *         if an error occured while fetching the type from the server.
+     * @see Device#prefetchMetadata()
+     */
+    public VariableType getType() throws IOException {
+        return device.getMetadata(getName()).getType();
+    }
+
+    /**
+     * Returns the values that are accepted by an enumeration variable. The result is
+     * cached.
+     *
+     * @return List of accepted values. Empty if the variable is not an enumeration.
+     * @throws IOException
+     *         if an error occured while fetching the values from the server.
+     * @see Device#prefetchMetadata()
+     */
+    public List<String> getEnumValues() throws IOException {
+        return device.getMetadata(getName()).getEnumValues();
+    }
+
+    /**
+     * Returns the ranges of values that are accepted by a range variable. The result is
+     * cached.
+     *
+     * @return List of accepted {@link Range}. Empty if the variable is not a range.
+     * @throws IOException
+     *         if an error occured while fetching the ranges from the server.
+     * @see Device#prefetchMetadata()
+     */
+    public List<Range> getRanges() throws IOException {
+        return device.getMetadata(getName()).getRanges();
+    }
+
+    /**
+     * Checks if the given value would be accepted by this variable. The check is
+     * performed locally, using the type, enumeration and range metadata. The metadata is
+     * cached.
+     *
+     * @param value
+     *         Value to check
+     * @return {@code true} if the value is valid
+     * @throws IOException
+     *         if an error occured while fetching the metadata from the server.
+     * @see Device#prefetchMetadata()
+     */
+    public boolean isValid(String value) throws IOException {
+        return device.getMetadata(getName()).isValid(value);
     }
 
     /**
      * Changes the value of a read/write variable. The new value is also cached.
+     * <p>
+     * If the variable metadata is cached, the value is validated before it is sent to
+     * the server.
+     *
+     * @throws IllegalArgumentException
+     *         if the value was rejected by the cached metadata
      */
     public void setValue(String value) throws IOException {
-        socket.execute(Request.set("VAR").device(device).arg(name).arg(value));
+        device.getSocket().execute(setRequest(value));
+        this.value = value;
+    }
+
+    /**
+     * Changes the value of a read/write variable, and tracks the outcome.
+     * <p>
+     * The request is sent synchronously. If tracking is enabled, the returned future is
+     * completed when the driver has applied the new value, or completed exceptionally
+     * with a {@link org.shredzone.commons.nut.exception.NutException} if the driver
+     * failed. The new value is cached when the future completes. If tracking is
+     * disabled, the returned future is already completed.
+     *
+     * @throws IllegalArgumentException
+     *         if the value was rejected by the cached metadata
+     * @see Client#setTracking(boolean)
+     */
+    public CompletableFuture<Void> setValueAsync(String value) throws IOException {
+        return device.getSocket().submit(setRequest(value))
+                .thenRun(() -> this.value = value);
+    }
+
+    /**
+     * Updates the cached value with a value that was received from the server.
+     *
+     * @param value
+     *         New value
+     */
+    void update(String value) {
         this.value = value;
     }
 
@@ -104,12 +213,26 @@ public class Variable {
     public void purge() {
         value = null;
         description = null;
+        device.purgeMetadata(getName());
+    }
+
+    /**
+     * Validates the value against the cached metadata, and creates a {@code SET VAR}
+     * request.
+     */
+    private Request setRequest(String value) {
+        var name = getName();
+        var metadata = device.getCachedMetadata(name);
+        if (metadata != null && !metadata.isValid(value)) {
+            throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+        }
+        return Request.set("VAR").device(device).arg(name).arg(value);
     }
 
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        sb.append("Variable: ").append(name);
+        sb.append("Variable: ").append(getName());
         if (value != null) {
             sb.append(" = \"").append(value).append('"');
         }
@@ -0,0 +1,162 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import org.shredzone.commons.nut.util.NamePattern;
+
+/**
+ * An index of {@link Variable}, organized as a tree of the dot-separated variable name
+ * segments.
+ * <p>
+ * The index permits subtree queries like {@code battery.*} or {@code outlet.*.status}.
+ * Iteration is ordered by the name segments, with numeric segments being ordered by
+ * their numeric value (so {@code outlet.2} comes before {@code outlet.10}).
+ */
+public class VariableIndex implements Iterable<Variable> {
+    private final Node root = new Node();
+    private int size;
+
+    /**
+     * Adds a {@link Variable} to the index. A variable with the same name is replaced.
+     *
+     * @param variable
+     *         {@link Variable} to add
+     */
+    public void put(Variable variable) {
+        var node = root;
+        for (var segment : NamePattern.split(variable.getName())) {
+            node = node.children.computeIfAbsent(segment, k -> new Node());
+        }
+        if (node.variable == null) {
+            size++;
+        }
+        node.variable = variable;
+    }
+
+    /**
+     * Returns the {@link Variable} with the given name.
+     *
+     * @param name
+     *         Variable name
+     * @return {@link Variable}, or {@code null} if there is no such variable in the index
+     */
+    @Nullable
+    public Variable get(String name) {
+        var node = root;
+        for (var segment : NamePattern.split(name)) {
+            node = node.children.get(segment);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node.variable;
+    }
+
+    /**
+     * Finds all variables matching the given pattern.
+     *
+     * @param pattern
+     *         Pattern, e.g. {@code battery.*} or {@code outlet.*.status}. See
+     *         {@link NamePattern} for the syntax.
+     * @return List of matching {@link Variable}, in index order. May be empty.
+     */
+    public List<Variable> find(String pattern) {
+        var result = new ArrayList<Variable>();
+        find(root, NamePattern.compile(pattern), 0, result);
+        return result;
+    }
+
+    /**
+     * Returns the number of variables in the index.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks if the index is empty.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns an unmodifiable list of all variables, in index order.
+     */
+    public List<Variable> toList() {
+        var result = new ArrayList<Variable>(size);
+        collect(root, result);
+        return Collections.unmodifiableList(result);
+    }
+
+    @Override
+    public Iterator<Variable> iterator() {
+        return toList().iterator();
+    }
+
+    private void find(Node node, NamePattern pattern, int ix, List<Variable> result) {
+        var segments = pattern.getSegments();
+        if (ix == segments.size()) {
+            if (node.variable != null) {
+                result.add(node.variable);
+            }
+            return;
+        }
+
+        if (!pattern.isWildcard(ix)) {
+            var child = node.children.get(segments.get(ix));
+            if (child != null) {
+                find(child, pattern, ix + 1, result);
+            }
+        } else if (ix == segments.size() - 1) {
+            node.children.values().forEach(child -> collect(child, result));
+        } else {
+            for (var child : node.children.values()) {
+                find(child, pattern, ix + 1, result);
+            }
+        }
+    }
+
+    private static void collect(Node node, List<Variable> result) {
+        if (node.variable != null) {
+            result.add(node.variable);
+        }
+        node.children.values().forEach(child -> collect(child, result));
+    }
+
+    /**
+     * A single node of the tree.
+     */
+    private static class Node {
+        private final Map<String, Node> children = new TreeMap<>(NamePattern.SEGMENT_ORDER);
+
+        @Nullable
+        private Variable variable;
+    }
+
+}
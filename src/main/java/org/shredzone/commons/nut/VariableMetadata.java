@@ -0,0 +1,157 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut;
+
+import static java.util.stream.Collectors.toList;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.shredzone.commons.nut.util.Pipeline;
+import org.shredzone.commons.nut.util.Request;
+import org.shredzone.commons.nut.util.Response;
+
+/**
+ * Type, enumeration and range information of a single variable.
+ */
+class VariableMetadata {
+    private final VariableType type;
+    private final List<String> enumValues;
+    private final List<Range> ranges;
+
+    VariableMetadata(VariableType type, List<String> enumValues, List<Range> ranges) {
+        this.type = type;
+        this.enumValues = List.copyOf(enumValues);
+        this.ranges = List.copyOf(ranges);
+    }
+
+    VariableType getType() {
+        return type;
+    }
+
+    List<String> getEnumValues() {
+        return enumValues;
+    }
+
+    List<Range> getRanges() {
+        return ranges;
+    }
+
+    /**
+     * Checks if the given value is accepted by the variable.
+     *
+     * @param value
+     *         Value to check
+     * @return {@code true} if the value is accepted
+     */
+    boolean isValid(String value) {
+        if (!type.isWritable()) {
+            return false;
+        }
+
+        if (type.getMaxLength() > 0 && value.length() > type.getMaxLength()) {
+            return false;
+        }
+
+        if (type.isEnum() && !enumValues.isEmpty() && !enumValues.contains(value)) {
+            return false;
+        }
+
+        if ((type.isRange() && !ranges.isEmpty()) || type.isNumber()) {
+            BigDecimal number;
+            try {
+                number = new BigDecimal(value);
+            } catch (NumberFormatException ex) {
+                return false;
+            }
+            if (type.isRange() && !ranges.isEmpty() && ranges.stream().noneMatch(r -> r.contains(number))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Fetches the metadata of a variable, as part of a {@link Pipeline}.
+     * <p>
+     * The type, the enumeration and the range are requested in the same pipeline, so
+     * the metadata can be fetched in a single round trip.
+     */
+    static class Fetch {
+        private final String name;
+        private final CompletableFuture<Response> type;
+        private final CompletableFuture<List<Response>> enums;
+        private final CompletableFuture<List<Response>> ranges;
+
+        /**
+         * Adds the metadata requests of a variable to the pipeline.
+         *
+         * @param pipeline
+         *         {@link Pipeline} to add the requests to
+         * @param device
+         *         {@link Device} of the variable
+         * @param name
+         *         Variable name
+         */
+        Fetch(Pipeline pipeline, Device device, String name) {
+            this.name = name;
+            type = pipeline.query(Request.get("TYPE").device(device).arg(name));
+            enums = pipeline.list(Request.list("ENUM").device(device).arg(name));
+            ranges = pipeline.list(Request.list("RANGE").device(device).arg(name));
+        }
+
+        /**
+         * Returns the variable name.
+         */
+        String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the fetched {@link VariableMetadata}. The pipeline must have been run
+         * before.
+         */
+        VariableMetadata get() throws IOException {
+            var types = Pipeline.result(type).getAll();
+            var variableType = new VariableType(types.subList(3, types.size()));
+
+            List<String> enumValues = Collections.emptyList();
+            if (variableType.isEnum()) {
+                enumValues = Pipeline.result(enums).stream()
+                        .map(res -> res.get(3))
+                        .collect(toList());
+            }
+
+            List<Range> rangeValues = Collections.emptyList();
+            if (variableType.isRange()) {
+                rangeValues = Pipeline.result(ranges).stream()
+                        .map(res -> new Range(res.getAsNumber(3), res.getAsNumber(4)))
+                        .collect(toList());
+            }
+
+            return new VariableMetadata(variableType, enumValues, rangeValues);
+        }
+    }
+
+}
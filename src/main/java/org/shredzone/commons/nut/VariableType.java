@@ -0,0 +1,143 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut;
+
+import java.util.List;
+
+/**
+ * The type of a {@link Variable}, as returned by the server.
+ */
+public class VariableType {
+    private static final String STRING_PREFIX = "STRING:";
+
+    private final boolean writable;
+    private final boolean enumeration;
+    private final boolean range;
+    private final boolean number;
+    private final int maxLength;
+
+    /**
+     * Creates a new {@link VariableType}.
+     *
+     * @param types
+     *         Type flags, as returned by the {@code GET TYPE} request
+     */
+    VariableType(List<String> types) {
+        boolean rw = false;
+        boolean en = false;
+        boolean rg = false;
+        boolean num = false;
+        int len = 0;
+
+        for (var type : types) {
+            if ("RW".equals(type)) {
+                rw = true;
+            } else if ("ENUM".equals(type)) {
+                en = true;
+            } else if ("RANGE".equals(type)) {
+                rg = true;
+            } else if ("NUMBER".equals(type)) {
+                num = true;
+            } else if (type.startsWith(STRING_PREFIX)) {
+                try {
+                    len = Integer.parseInt(type.substring(STRING_PREFIX.length()));
+                } catch (NumberFormatException ex) {
+                    // Unknown length, so we cannot validate it
+                    len = 0;
+                }
+            }
+        }
+
+        this.writable = rw;
+        this.enumeration = en;
+        this.range = rg;
+        this.number = num;
+        this.maxLength = len;
+    }
+
+    /**
+     * Returns {@code true} if the variable is writable.
+     */
+    public boolean isWritable() {
+        return writable;
+    }
+
+    /**
+     * Returns {@code true} if the variable only accepts a set of enumerated values.
+     *
+     * @see Variable#getEnumValues()
+     */
+    public boolean isEnum() {
+        return enumeration;
+    }
+
+    /**
+     * Returns {@code true} if the variable only accepts values within certain ranges.
+     *
+     * @see Variable#getRanges()
+     */
+    public boolean isRange() {
+        return range;
+    }
+
+    /**
+     * Returns {@code true} if the variable is a numeric value.
+     */
+    public boolean isNumber() {
+        return number;
+    }
+
+    /**
+     * Returns {@code true} if the variable is a string value.
+     */
+    public boolean isString() {
+        return maxLength > 0;
+    }
+
+    /**
+     * Returns the maximum length of a string variable, or 0 if the variable is not a
+     * string or the maximum length is unknown.
+     */
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        if (writable) {
+            sb.append(" RW");
+        }
+        if (enumeration) {
+            sb.append(" ENUM");
+        }
+        if (range) {
+            sb.append(" RANGE");
+        }
+        if (number) {
+            sb.append(" NUMBER");
+        }
+        if (maxLength > 0) {
+            sb.append(' ').append(STRING_PREFIX).append(maxLength);
+        }
+        return sb.toString().trim();
+    }
+
+}
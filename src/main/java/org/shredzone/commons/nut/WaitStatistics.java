@@ -0,0 +1,94 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut;
+
+import java.time.Duration;
+
+/**
+ * Statistics about the time requests of a {@link Priority} class had to wait for the
+ * shared connection to the NUT server.
+ */
+public class WaitStatistics {
+    private final Priority priority;
+    private final long count;
+    private final long totalNanos;
+    private final long maxNanos;
+
+    /**
+     * Creates a new {@link WaitStatistics} snapshot.
+     *
+     * @param priority
+     *         {@link Priority} class
+     * @param count
+     *         Number of requests
+     * @param totalNanos
+     *         Total waiting time, in nanoseconds
+     * @param maxNanos
+     *         Longest waiting time, in nanoseconds
+     */
+    public WaitStatistics(Priority priority, long count, long totalNanos, long maxNanos) {
+        this.priority = priority;
+        this.count = count;
+        this.totalNanos = totalNanos;
+        this.maxNanos = maxNanos;
+    }
+
+    /**
+     * Returns the {@link Priority} class.
+     */
+    public Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Returns the number of requests.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the total time the requests had to wait.
+     */
+    public Duration getTotalWait() {
+        return Duration.ofNanos(totalNanos);
+    }
+
+    /**
+     * Returns the average time a request had to wait.
+     */
+    public Duration getAverageWait() {
+        return Duration.ofNanos(count > 0 ? totalNanos / count : 0L);
+    }
+
+    /**
+     * Returns the longest time a request had to wait.
+     */
+    public Duration getMaxWait() {
+        return Duration.ofNanos(maxNanos);
+    }
+
+    @Override
+    public String toString() {
+        return "WaitStatistics " + priority + ": " + count + " requests, avg "
+                + getAverageWait() + ", max " + getMaxWait();
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.cli;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.shredzone.commons.nut.server.NutServer;
+import org.shredzone.commons.nut.server.Simulator;
+
+/**
+ * Runs {@link Upsc} against an in-process {@link Simulator}, so all the classes of a
+ * typical invocation are loaded. It is used by the {@code appcds} build profile for
+ * creating the AppCDS archive, and is not meant to be used otherwise.
+ */
+final class AppCdsTraining {
+    private static final int DEVICES = 4;
+
+    private AppCdsTraining() {
+        // use main()
+    }
+
+    /**
+     * Runs the training, and exits with a non-zero exit code if it failed.
+     *
+     * @param args
+     *         Ignored
+     */
+    public static void main(String[] args) {
+        if (System.getProperty("org.slf4j.simpleLogger.defaultLogLevel") == null) {
+            System.setProperty("org.slf4j.simpleLogger.defaultLogLevel", "warn");
+        }
+        System.exit(run(System.err));
+    }
+
+    /**
+     * Runs the training.
+     *
+     * @param err
+     *         {@link PrintStream} for error messages
+     * @return Exit code
+     */
+    static int run(PrintStream err) {
+        var simulator = new Simulator(DEVICES);
+        try (var server = new NutServer(InetAddress.getLoopbackAddress(), 0, simulator);
+             var out = new PrintStream(OutputStream.nullOutputStream(), false, UTF_8)) {
+            var host = "localhost:" + server.getPort();
+
+            var targets = new ArrayList<String>();
+            targets.add("-j");
+            simulator.getDeviceNames().forEach(name -> targets.add(name + '@' + host));
+            var device = targets.get(1);
+
+            var invocations = List.of(
+                    List.of("-l", host),
+                    List.of("-j", "-L", host),
+                    List.of(device),
+                    List.of(device, "ups.status"),
+                    targets);
+
+            for (var invocation : invocations) {
+                var exitCode = new Upsc().run(invocation.toArray(String[]::new), out, err);
+                if (exitCode != 0) {
+                    err.println("Training failed: upsc " + String.join(" ", invocation));
+                    return exitCode;
+                }
+            }
+            return 0;
+        } catch (IOException ex) {
+            err.println("Error: " + ex.getMessage());
+            return 1;
+        }
+    }
+
+}
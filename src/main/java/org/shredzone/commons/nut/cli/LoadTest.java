@@ -0,0 +1,592 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.cli;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import org.shredzone.commons.nut.Client;
+import org.shredzone.commons.nut.Device;
+import org.shredzone.commons.nut.exception.NutException;
+import org.shredzone.commons.nut.server.LoopbackTransport;
+import org.shredzone.commons.nut.server.NutServer;
+import org.shredzone.commons.nut.server.Simulator;
+
+/**
+ * A load test harness. It runs a number of clients against a local {@link Simulator}
+ * (or a real NUT server), and reports throughput, latency percentiles, allocation rate
+ * and thread counts.
+ * <p>
+ * The results can be saved as a JSON baseline, and later runs can be compared against
+ * it. The exit code is 1 if the comparison shows a regression beyond the tolerance.
+ */
+public final class LoadTest {
+    private static final Pattern JSON_NUMBER =
+            Pattern.compile("\"(\\w+)\"\\s*:\\s*(-?[0-9.]+(?:[eE][-+]?[0-9]+)?)");
+
+    private static final String USAGE = String.join("\n",
+            "Usage: loadtest [options]",
+            "",
+            "Options:",
+            "  -c <n>        Number of clients (default 4)",
+            "  -d <n>        Number of simulated devices (default 10)",
+            "  -t <sec>      Duration of the measurement (default 30)",
+            "  -w <sec>      Duration of the warmup (default 5)",
+            "  -m <mix>      Request mix (default get=60,list=30,set=5,instcmd=5)",
+            "  -l <ms>       Injected latency of the simulator (default 0)",
+            "  -J <ms>       Injected random jitter of the simulator (default 0)",
+            "  -e <rate>     Injected error rate of the simulator, 0.0 to 1.0 (default 0)",
+            "  -x <type>     Transport to the simulator, tcp or loopback (default tcp)",
+            "  -H <host:port> Run against a real NUT server instead of the simulator",
+            "  -u <user>     User name for the real NUT server",
+            "  -p <pass>     Password for the real NUT server",
+            "  -o <file>     Save the results as JSON baseline",
+            "  -b <file>     Compare the results with a JSON baseline",
+            "  -T <ratio>    Tolerance of the baseline comparison (default 0.1)",
+            "  -h            Show this help");
+
+    private int clients = 4;
+    private int devices = 10;
+    private long duration = 30;
+    private long warmup = 5;
+    private String mix = "get=60,list=30,set=5,instcmd=5";
+    private long latency;
+    private long jitter;
+    private double errorRate;
+    private double tolerance = 0.1;
+    private boolean loopback;
+
+    @Nullable
+    private String host;
+
+    @Nullable
+    private String user;
+
+    @Nullable
+    private String password;
+
+    @Nullable
+    private String output;
+
+    @Nullable
+    private String baseline;
+
+    private volatile boolean measuring;
+    private volatile boolean stopped;
+
+    private LoadTest() {
+        // use main()
+    }
+
+    /**
+     * Runs the load test.
+     *
+     * @param args
+     *         Command line arguments
+     */
+    public static void main(String[] args) {
+        if (System.getProperty("org.slf4j.simpleLogger.defaultLogLevel") == null) {
+            System.setProperty("org.slf4j.simpleLogger.defaultLogLevel", "warn");
+        }
+        System.exit(new LoadTest().run(args, System.out, System.err));
+    }
+
+    /**
+     * Runs the load test.
+     *
+     * @param args
+     *         Command line arguments
+     * @param out
+     *         {@link PrintStream} for the report
+     * @param err
+     *         {@link PrintStream} for error messages
+     * @return Exit code
+     */
+    int run(String[] args, PrintStream out, PrintStream err) {
+        Operation[] operations;
+        try {
+            if (!parse(args)) {
+                err.println(USAGE);
+                return 2;
+            }
+            operations = Operation.parseMix(mix);
+        } catch (IllegalArgumentException ex) {
+            err.println("Error: " + ex.getMessage());
+            return 2;
+        }
+
+        try {
+            var result = execute(operations);
+            result.print(out);
+
+            if (output != null) {
+                Files.writeString(Paths.get(output), result.toJson(), UTF_8);
+            }
+
+            if (baseline != null) {
+                var base = Result.fromJson(Files.readString(Paths.get(baseline), UTF_8));
+                return result.compare(base, tolerance, out) ? 0 : 1;
+            }
+            return 0;
+        } catch (IOException ex) {
+            err.println("Error: " + ex.getMessage());
+            return 1;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return 1;
+        }
+    }
+
+    private boolean parse(String[] args) {
+        for (int ix = 0; ix < args.length; ix++) {
+            var arg = args[ix];
+            if ("-h".equals(arg) || "--help".equals(arg)) {
+                return false;
+            }
+            if (!arg.startsWith("-") || arg.length() != 2 || ++ix >= args.length) {
+                return false;
+            }
+            var value = args[ix];
+            switch (arg.charAt(1)) {
+                case 'c':
+                    clients = positive(value);
+                    break;
+                case 'd':
+                    devices = positive(value);
+                    break;
+                case 't':
+                    duration = positive(value);
+                    break;
+                case 'w':
+                    warmup = Long.parseLong(value);
+                    break;
+                case 'm':
+                    mix = value;
+                    break;
+                case 'l':
+                    latency = Long.parseLong(value);
+                    break;
+                case 'J':
+                    jitter = Long.parseLong(value);
+                    break;
+                case 'e':
+                    errorRate = Double.parseDouble(value);
+                    break;
+                case 'x':
+                    loopback = loopback(value);
+                    break;
+                case 'H':
+                    host = value;
+                    break;
+                case 'u':
+                    user = value;
+                    break;
+                case 'p':
+                    password = value;
+                    break;
+                case 'o':
+                    output = value;
+                    break;
+                case 'b':
+                    baseline = value;
+                    break;
+                case 'T':
+                    tolerance = Double.parseDouble(value);
+                    break;
+                default:
+                    return false;
+            }
+        }
+        if (loopback && host != null) {
+            throw new IllegalArgumentException("Loopback transport requires the simulator");
+        }
+        return true;
+    }
+
+    private Result execute(Operation[] operations) throws IOException, InterruptedException {
+        NutServer server = null;
+        Simulator simulator = null;
+        String serverHost;
+        int serverPort;
+        if (host != null) {
+            var colon = host.lastIndexOf(':');
+            serverHost = colon >= 0 ? host.substring(0, colon) : host;
+            serverPort = colon >= 0 ? Integer.parseInt(host.substring(colon + 1)) : 3493;
+        } else {
+            simulator = new Simulator(devices)
+                    .latency(Duration.ofMillis(latency))
+                    .jitter(Duration.ofMillis(jitter))
+                    .errorRate(errorRate);
+            if (!loopback) {
+                server = new NutServer(InetAddress.getLoopbackAddress(), 0, simulator);
+            }
+            serverHost = InetAddress.getLoopbackAddress().getHostAddress();
+            serverPort = server != null ? server.getPort() : 0;
+        }
+
+        var workers = new ArrayList<Worker>();
+        try {
+            for (int ix = 0; ix < clients; ix++) {
+                var client = simulator != null && loopback
+                        ? Client.lazy(new LoopbackTransport(simulator), "loopback", user, password)
+                        : new Client(serverHost, serverPort, user, password);
+                workers.add(new Worker(client, operations));
+            }
+            var deviceList = workers.get(0).client.getDeviceList();
+            if (deviceList.isEmpty()) {
+                throw new IOException("Server has no devices");
+            }
+            for (var worker : workers) {
+                for (var device : deviceList) {
+                    worker.devices.add(worker.client.getDevice(device.getName()));
+                }
+            }
+
+            workers.forEach(Thread::start);
+            Thread.sleep(warmup * 1000L);
+            measuring = true;
+            var start = System.nanoTime();
+            Thread.sleep(duration * 1000L);
+            stopped = true;
+            var elapsed = System.nanoTime() - start;
+
+            var threads = threadCount(false);
+            var peakThreads = threadCount(true);
+
+            for (var worker : workers) {
+                worker.join();
+            }
+
+            return Result.of(workers, elapsed, threads, peakThreads);
+        } finally {
+            stopped = true;
+            for (var worker : workers) {
+                worker.client.close();
+            }
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    private static boolean loopback(String value) {
+        switch (value) {
+            case "tcp":
+                return false;
+            case "loopback":
+                return true;
+            default:
+                throw new IllegalArgumentException("Unknown transport: " + value);
+        }
+    }
+
+    private static int positive(String value) {
+        var result = Integer.parseInt(value);
+        if (result < 1) {
+            throw new IllegalArgumentException("Value must be positive: " + value);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the current or peak number of live threads, or -1 if it cannot be
+     * measured on this JVM.
+     */
+    private static int threadCount(boolean peak) {
+        try {
+            var bean = ManagementFactory.getThreadMXBean();
+            return peak ? bean.getPeakThreadCount() : bean.getThreadCount();
+        } catch (LinkageError ex) {
+            // java.management is not available
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the number of bytes allocated by the current thread, or -1 if it cannot
+     * be measured on this JVM.
+     */
+    private static long allocatedBytes() {
+        try {
+            var bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                return ((com.sun.management.ThreadMXBean) bean)
+                        .getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        } catch (LinkageError | UnsupportedOperationException ex) {
+            // jdk.management is not available
+        }
+        return -1L;
+    }
+
+    /**
+     * The request types of the load test.
+     */
+    enum Operation {
+        GET, LIST, SET, INSTCMD;
+
+        /**
+         * Parses a request mix like {@code get=60,list=30,set=5,instcmd=5}.
+         *
+         * @return Array of 100 operations, distributed according to the weights
+         */
+        static Operation[] parseMix(String mix) {
+            var weights = new LinkedHashMap<Operation, Integer>();
+            for (var part : mix.split(",")) {
+                var kv = part.split("=", 2);
+                if (kv.length != 2) {
+                    throw new IllegalArgumentException("Invalid mix: " + mix);
+                }
+                weights.put(valueOf(kv[0].trim().toUpperCase(Locale.ENGLISH)),
+                        Integer.parseInt(kv[1].trim()));
+            }
+
+            var total = weights.values().stream().mapToInt(Integer::intValue).sum();
+            if (total <= 0) {
+                throw new IllegalArgumentException("Invalid mix: " + mix);
+            }
+
+            var result = new ArrayList<Operation>();
+            weights.forEach((op, weight) -> {
+                var slots = Math.max(weight > 0 ? 1 : 0, Math.round(weight * 100.0f / total));
+                for (int ix = 0; ix < slots; ix++) {
+                    result.add(op);
+                }
+            });
+            return result.toArray(new Operation[0]);
+        }
+    }
+
+    /**
+     * A worker thread with a client connection of its own.
+     */
+    private final class Worker extends Thread {
+        final Client client;
+        final Operation[] operations;
+        final List<Device> devices = new ArrayList<>();
+        long[] latencies = new long[1 << 16];
+        int count;
+        long errors;
+        long allocated = -1L;
+
+        Worker(Client client, Operation[] operations) {
+            super("loadtest-worker");
+            setDaemon(true);
+            this.client = client;
+            this.operations = operations;
+        }
+
+        @Override
+        public void run() {
+            var random = ThreadLocalRandom.current();
+            var measured = false;
+            var allocStart = -1L;
+            while (!stopped) {
+                if (!measured && measuring) {
+                    measured = true;
+                    allocStart = allocatedBytes();
+                }
+
+                var device = devices.get(random.nextInt(devices.size()));
+                var operation = operations[random.nextInt(operations.length)];
+                var start = System.nanoTime();
+                try {
+                    perform(device, operation, random);
+                } catch (NutException ex) {
+                    if (measured) {
+                        errors++;
+                    }
+                    continue;
+                } catch (IOException ex) {
+                    errors++;
+                    break;
+                }
+                if (measured && !stopped) {
+                    record(System.nanoTime() - start);
+                }
+            }
+
+            if (allocStart >= 0L) {
+                allocated = allocatedBytes() - allocStart;
+            }
+        }
+
+        private void perform(Device device, Operation operation, ThreadLocalRandom random)
+                throws IOException {
+            switch (operation) {
+                case GET:
+                    device.getVariable("ups.load").fetchValue();
+                    break;
+                case LIST:
+                    device.getVariables();
+                    break;
+                case SET:
+                    device.getVariable("ups.delay.shutdown")
+                            .setValue(String.valueOf(random.nextInt(10, 100)));
+                    break;
+                case INSTCMD:
+                    device.getCommand("beeper.toggle").execute();
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown operation " + operation);
+            }
+        }
+
+        private void record(long nanos) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = nanos;
+        }
+    }
+
+    /**
+     * The results of a load test.
+     */
+    static final class Result {
+        final Map<String, Double> values = new LinkedHashMap<>();
+
+        static Result of(List<Worker> workers, long elapsedNanos, int threads,
+                int peakThreads) {
+            var total = workers.stream().mapToInt(w -> w.count).sum();
+            var all = new long[total];
+            var pos = 0;
+            var errors = 0L;
+            var allocated = 0L;
+            for (var worker : workers) {
+                System.arraycopy(worker.latencies, 0, all, pos, worker.count);
+                pos += worker.count;
+                errors += worker.errors;
+                allocated = worker.allocated >= 0L && allocated >= 0L
+                        ? allocated + worker.allocated : -1L;
+            }
+            Arrays.sort(all);
+
+            var seconds = elapsedNanos / 1e9;
+            var result = new Result();
+            result.values.put("clients", (double) workers.size());
+            result.values.put("requests", (double) total);
+            result.values.put("errors", (double) errors);
+            result.values.put("throughput", total / seconds);
+            result.values.put("p50", percentile(all, 0.5));
+            result.values.put("p99", percentile(all, 0.99));
+            result.values.put("p999", percentile(all, 0.999));
+            result.values.put("max", all.length > 0 ? all[all.length - 1] / 1e6 : 0.0);
+            result.values.put("allocationRate", allocated >= 0L ? allocated / seconds : -1.0);
+            result.values.put("allocationPerRequest",
+                    allocated >= 0L && total > 0 ? (double) allocated / total : -1.0);
+            result.values.put("threads", (double) threads);
+            result.values.put("peakThreads", (double) peakThreads);
+            return result;
+        }
+
+        /**
+         * Returns the percentile of the sorted latencies, in milliseconds.
+         */
+        static double percentile(long[] sorted, double percentile) {
+            if (sorted.length == 0) {
+                return 0.0;
+            }
+            var ix = (int) Math.ceil(percentile * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, ix))] / 1e6;
+        }
+
+        static Result fromJson(String json) {
+            var result = new Result();
+            var m = JSON_NUMBER.matcher(json);
+            while (m.find()) {
+                result.values.put(m.group(1), Double.parseDouble(m.group(2)));
+            }
+            return result;
+        }
+
+        String toJson() {
+            var sb = new StringBuilder("{\n");
+            var it = values.entrySet().iterator();
+            while (it.hasNext()) {
+                var e = it.next();
+                sb.append("  \"").append(e.getKey()).append("\": ")
+                        .append(String.format(Locale.ENGLISH, "%.3f", e.getValue()))
+                        .append(it.hasNext() ? ",\n" : "\n");
+            }
+            return sb.append("}\n").toString();
+        }
+
+        void print(PrintStream out) {
+            out.printf(Locale.ENGLISH, "Requests:    %.0f (%.0f errors)%n",
+                    values.get("requests"), values.get("errors"));
+            out.printf(Locale.ENGLISH, "Throughput:  %.1f requests/s%n",
+                    values.get("throughput"));
+            out.printf(Locale.ENGLISH,
+                    "Latency:     p50 %.3f ms, p99 %.3f ms, p999 %.3f ms, max %.3f ms%n",
+                    values.get("p50"), values.get("p99"), values.get("p999"), values.get("max"));
+            out.printf(Locale.ENGLISH, "Allocation:  %.1f MB/s, %.0f bytes/request%n",
+                    values.get("allocationRate") / 1e6, values.get("allocationPerRequest"));
+            out.printf(Locale.ENGLISH, "Threads:     %.0f (peak %.0f)%n",
+                    values.get("threads"), values.get("peakThreads"));
+        }
+
+        /**
+         * Compares the result with a baseline.
+         *
+         * @return {@code true} if there was no regression beyond the tolerance
+         */
+        boolean compare(Result base, double tolerance, PrintStream out) {
+            var ok = true;
+            ok &= compare(base, "throughput", false, tolerance, out);
+            ok &= compare(base, "p50", true, tolerance, out);
+            ok &= compare(base, "p99", true, tolerance, out);
+            ok &= compare(base, "p999", true, tolerance, out);
+            ok &= compare(base, "allocationPerRequest", true, tolerance, out);
+            return ok;
+        }
+
+        private boolean compare(Result base, String key, boolean lowerIsBetter,
+                double tolerance, PrintStream out) {
+            var current = values.get(key);
+            var previous = base.values.get(key);
+            if (current == null || previous == null || previous <= 0.0 || current < 0.0) {
+                return true;
+            }
+            var change = (current - previous) / previous;
+            var regression = lowerIsBetter ? change > tolerance : change < -tolerance;
+            out.printf(Locale.ENGLISH, "%-22s %12.3f -> %12.3f (%+.1f%%)%s%n",
+                    key, previous, current, change * 100.0, regression ? "  REGRESSION" : "");
+            return !regression;
+        }
+    }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.cli;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import org.shredzone.commons.nut.server.NutProxy;
+import org.shredzone.commons.nut.server.NutServer;
+
+/**
+ * A caching NUT proxy server. Many clients can connect to the proxy instead of the
+ * NUT server, and share a few upstream connections. See {@link NutProxy}.
+ */
+public final class Proxy {
+    private static final String USAGE = String.join("\n",
+            "Usage: nutproxy [options] <host>[:<port>]",
+            "",
+            "Options:",
+            "  -l <port>     Port to listen on (default 3493)",
+            "  -b <address>  Address to bind to (default all local addresses)",
+            "  -t <ms>       Time-to-live of cached responses (default 2000)",
+            "  -c <n>        Number of shared upstream connections (default 2)",
+            "  -h            Show this help");
+
+    private int listenPort = 3493;
+    private long ttl = 2000L;
+    private int connections = 2;
+
+    @Nullable
+    private String bind;
+
+    @Nullable
+    private String upstream;
+
+    private Proxy() {
+        // use main()
+    }
+
+    /**
+     * Runs the proxy until the process is terminated.
+     *
+     * @param args
+     *         Command line arguments
+     */
+    public static void main(String[] args) {
+        System.exit(new Proxy().run(args, System.err));
+    }
+
+    /**
+     * Runs the proxy.
+     *
+     * @param args
+     *         Command line arguments
+     * @param err
+     *         {@link PrintStream} for error messages
+     * @return Exit code
+     */
+    int run(String[] args, PrintStream err) {
+        String host;
+        int port;
+        try {
+            if (!parse(args) || upstream == null) {
+                err.println(USAGE);
+                return 2;
+            }
+            var colon = upstream.lastIndexOf(':');
+            host = colon >= 0 ? upstream.substring(0, colon) : upstream;
+            port = colon >= 0 ? Integer.parseInt(upstream.substring(colon + 1)) : 3493;
+        } catch (IllegalArgumentException ex) {
+            err.println("Error: " + ex.getMessage());
+            return 2;
+        }
+
+        var stopped = new CountDownLatch(1);
+        try (var proxy = new NutProxy(host, port, connections).ttl(Duration.ofMillis(ttl));
+             var server = new NutServer(bind != null ? InetAddress.getByName(bind) : null,
+                     listenPort, proxy)) {
+            Runtime.getRuntime().addShutdownHook(new Thread(stopped::countDown));
+            err.println("Proxying " + host + ':' + port + " on port " + server.getPort());
+            stopped.await();
+            return 0;
+        } catch (IOException ex) {
+            err.println("Error: " + ex.getMessage());
+            return 1;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return 1;
+        }
+    }
+
+    private boolean parse(String[] args) {
+        for (int ix = 0; ix < args.length; ix++) {
+            var arg = args[ix];
+            if ("-h".equals(arg) || "--help".equals(arg)) {
+                return false;
+            }
+            if (!arg.startsWith("-")) {
+                if (upstream != null) {
+                    return false;
+                }
+                upstream = arg;
+                continue;
+            }
+            if (arg.length() != 2 || ++ix >= args.length) {
+                return false;
+            }
+            var value = args[ix];
+            switch (arg.charAt(1)) {
+                case 'l':
+                    listenPort = Integer.parseInt(value);
+                    break;
+                case 'b':
+                    bind = value;
+                    break;
+                case 't':
+                    ttl = Long.parseLong(value);
+                    break;
+                case 'c':
+                    connections = Integer.parseInt(value);
+                    break;
+                default:
+                    return false;
+            }
+        }
+        return true;
+    }
+
+}
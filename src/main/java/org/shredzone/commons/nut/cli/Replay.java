@@ -0,0 +1,145 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.cli;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import org.shredzone.commons.nut.server.NutServer;
+import org.shredzone.commons.nut.server.ReplayHandler;
+
+/**
+ * A NUT server that replays a recorded session. See {@link ReplayHandler}.
+ */
+public final class Replay {
+    private static final String USAGE = String.join("\n",
+            "Usage: nutreplay [options] <file>",
+            "",
+            "Options:",
+            "  -l <port>     Port to listen on (default 3493)",
+            "  -b <address>  Address to bind to (default all local addresses)",
+            "  -s <speed>    Replay speed factor, or 'max' (default 1.0)",
+            "  -h            Show this help");
+
+    private int listenPort = 3493;
+    private double speed = 1.0;
+
+    @Nullable
+    private String bind;
+
+    @Nullable
+    private String file;
+
+    private Replay() {
+        // use main()
+    }
+
+    /**
+     * Runs the replay server until the process is terminated.
+     *
+     * @param args
+     *         Command line arguments
+     */
+    public static void main(String[] args) {
+        System.exit(new Replay().run(args, System.err));
+    }
+
+    /**
+     * Runs the replay server.
+     *
+     * @param args
+     *         Command line arguments
+     * @param err
+     *         {@link PrintStream} for error messages
+     * @return Exit code
+     */
+    int run(String[] args, PrintStream err) {
+        String recording;
+        try {
+            if (!parse(args) || file == null) {
+                err.println(USAGE);
+                return 2;
+            }
+            recording = file;
+        } catch (IllegalArgumentException ex) {
+            err.println("Error: " + ex.getMessage());
+            return 2;
+        }
+
+        var stopped = new CountDownLatch(1);
+        try {
+            var handler = new ReplayHandler(Paths.get(recording)).speed(speed);
+            try (var server = new NutServer(bind != null ? InetAddress.getByName(bind) : null,
+                    listenPort, handler)) {
+                Runtime.getRuntime().addShutdownHook(new Thread(stopped::countDown));
+                err.println("Replaying " + handler.getRecordedRequestCount()
+                        + " requests on port " + server.getPort());
+                stopped.await();
+                return 0;
+            }
+        } catch (IOException ex) {
+            err.println("Error: " + ex.getMessage());
+            return 1;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return 1;
+        }
+    }
+
+    private boolean parse(String[] args) {
+        for (int ix = 0; ix < args.length; ix++) {
+            var arg = args[ix];
+            if ("-h".equals(arg) || "--help".equals(arg)) {
+                return false;
+            }
+            if (!arg.startsWith("-")) {
+                if (file != null) {
+                    return false;
+                }
+                file = arg;
+                continue;
+            }
+            if (arg.length() != 2 || ++ix >= args.length) {
+                return false;
+            }
+            var value = args[ix];
+            switch (arg.charAt(1)) {
+                case 'l':
+                    listenPort = Integer.parseInt(value);
+                    break;
+                case 'b':
+                    bind = value;
+                    break;
+                case 's':
+                    speed = "max".equals(value) ? Double.POSITIVE_INFINITY
+                            : Double.parseDouble(value);
+                    break;
+                default:
+                    return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,533 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.cli;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import org.shredzone.commons.nut.Client;
+import org.shredzone.commons.nut.Device;
+import org.shredzone.commons.nut.SessionRecorder;
+import org.shredzone.commons.nut.Variable;
+
+/**
+ * A command line tool that is compatible to {@code upsc}, but queries many devices on
+ * many hosts in a single invocation.
+ * <p>
+ * The hosts are queried in parallel, and the requests to the devices of the same host
+ * are pipelined. The output is either {@code upsc} compatible, or JSON.
+ */
+public final class Upsc {
+    private static final String DEFAULT_HOST = "localhost";
+    private static final int DEFAULT_PORT = 3493;
+    private static final int MAX_THREADS = 16;
+
+    private static final String USAGE = String.join("\n",
+            "Usage: upsc [options] <ups>[@<host>[:<port>]] [<variable>]",
+            "       upsc [options] <ups>[@<host>[:<port>]] ...",
+            "       upsc [options] -l|-L <host>[:<port>] ...",
+            "",
+            "Options:",
+            "  -j         JSON output",
+            "  -l         List the devices of the given hosts",
+            "  -L         List the devices and their descriptions",
+            "  -f <file>  Read further arguments from file, one per line ('-' for stdin)",
+            "  -t <n>     Maximum number of hosts to query in parallel (default 16)",
+            "  -r <file>  Record the session to file, for replaying it with nutreplay",
+            "  -h         Show this help");
+
+    private boolean json;
+    private boolean list;
+    private boolean listDescriptions;
+    private int threads = MAX_THREADS;
+    private final List<Target> targets = new ArrayList<>();
+
+    @Nullable
+    private String variable;
+
+    @Nullable
+    private SessionRecorder recorder;
+
+    Upsc() {
+        // use main()
+    }
+
+    /**
+     * Runs the command line tool.
+     *
+     * @param args
+     *         Command line arguments
+     */
+    public static void main(String[] args) {
+        if (System.getProperty("org.slf4j.simpleLogger.defaultLogLevel") == null) {
+            System.setProperty("org.slf4j.simpleLogger.defaultLogLevel", "warn");
+        }
+        System.exit(new Upsc().run(args, System.out, System.err));
+    }
+
+    /**
+     * Runs the command line tool.
+     *
+     * @param args
+     *         Command line arguments
+     * @param out
+     *         {@link PrintStream} for the output
+     * @param err
+     *         {@link PrintStream} for error messages
+     * @return Exit code
+     */
+    int run(String[] args, PrintStream out, PrintStream err) {
+        try {
+            try {
+                if (!parse(args, err)) {
+                    err.println(USAGE);
+                    return 2;
+                }
+            } catch (IOException | IllegalArgumentException ex) {
+                err.println("Error: " + ex.getMessage());
+                return 2;
+            }
+
+            var results = query();
+            return list ? printList(results, out, err) : printVariables(results, out, err);
+        } finally {
+            closeRecorder(err);
+        }
+    }
+
+    /**
+     * Closes the session recorder, if there is one.
+     */
+    private void closeRecorder(PrintStream err) {
+        var rec = recorder;
+        if (rec != null) {
+            try {
+                rec.close();
+            } catch (IOException ex) {
+                err.println("Error: Could not write recording: " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Parses the command line arguments.
+     *
+     * @return {@code false} if the usage should be shown
+     */
+    private boolean parse(String[] args, PrintStream err) throws IOException {
+        var positional = new ArrayList<String>();
+        for (int ix = 0; ix < args.length; ix++) {
+            var arg = args[ix];
+            switch (arg) {
+                case "-j":
+                    json = true;
+                    break;
+
+                case "-l":
+                    list = true;
+                    break;
+
+                case "-L":
+                    list = true;
+                    listDescriptions = true;
+                    break;
+
+                case "-f":
+                    if (++ix >= args.length) {
+                        return false;
+                    }
+                    positional.addAll(readLines(args[ix]));
+                    break;
+
+                case "-t":
+                    if (++ix >= args.length) {
+                        return false;
+                    }
+                    threads = Integer.parseInt(args[ix]);
+                    if (threads < 1) {
+                        throw new IllegalArgumentException("-t must be positive");
+                    }
+                    break;
+
+                case "-r":
+                    if (++ix >= args.length) {
+                        return false;
+                    }
+                    recorder = new SessionRecorder(Paths.get(args[ix]));
+                    break;
+
+                case "-h":
+                case "--help":
+                    return false;
+
+                default:
+                    if (arg.startsWith("-")) {
+                        err.println("Unknown option: " + arg);
+                        return false;
+                    }
+                    positional.add(arg);
+            }
+        }
+
+        if (positional.isEmpty()) {
+            return false;
+        }
+
+        // upsc compatibility: "upsc ups@host variable"
+        if (!list && positional.size() == 2 && positional.get(1).indexOf('@') < 0) {
+            variable = positional.remove(1);
+        }
+
+        for (var target : positional) {
+            targets.add(list ? Target.ofHost(target) : Target.of(target));
+        }
+        return true;
+    }
+
+    /**
+     * Queries all targets. Targets of the same host share a connection, and are
+     * queried in a single pipelined burst. Different hosts are queried in parallel.
+     *
+     * @return Map of all targets and their {@link Result}, in the order of the targets
+     */
+    private Map<String, Result> query() {
+        var byHost = new LinkedHashMap<String, List<Target>>();
+        for (var target : targets) {
+            byHost.computeIfAbsent(target.hostKey(), k -> new ArrayList<>()).add(target);
+        }
+
+        var executor = Executors.newFixedThreadPool(Math.min(threads, byHost.size()), r -> {
+            var thread = new Thread(r, "upsc");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            var futures = new ArrayList<Future<Map<String, Result>>>();
+            for (var group : byHost.values()) {
+                futures.add(executor.submit(() -> queryHost(group)));
+            }
+
+            var partial = new LinkedHashMap<String, Result>();
+            for (var future : futures) {
+                partial.putAll(await(future));
+            }
+
+            var results = new LinkedHashMap<String, Result>();
+            targets.forEach(t -> results.put(t.spec, partial.get(t.spec)));
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Queries all targets of a single host.
+     */
+    private Map<String, Result> queryHost(List<Target> group) {
+        var result = new LinkedHashMap<String, Result>();
+        var first = group.get(0);
+        try (var client = Client.lazy(first.host, first.port, null, null)) {
+            client.record(recorder);
+            if (list) {
+                var devices = new LinkedHashMap<String, String>();
+                for (var device : client.getDeviceList()) {
+                    devices.put(device.getName(), device.getDescription());
+                }
+                group.forEach(t -> result.put(t.spec, Result.of(devices)));
+                return result;
+            }
+
+            var devices = group.stream()
+                    .map(t -> client.getDevice(t.device))
+                    .distinct()
+                    .collect(Collectors.toList());
+            var lists = client.getVariables(devices);
+            for (var target : group) {
+                try {
+                    var variables = lists.get(client.getDevice(target.device)).join();
+                    result.put(target.spec, Result.of(toMap(variables)));
+                } catch (CompletionException ex) {
+                    result.put(target.spec, Result.of(ex.getCause()));
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            group.forEach(t -> result.putIfAbsent(t.spec, Result.of(ex)));
+        }
+        return result;
+    }
+
+    private int printVariables(Map<String, Result> results, PrintStream out,
+            PrintStream err) {
+        int exitCode = 0;
+        var single = results.size() == 1;
+
+        if (json) {
+            out.print('{');
+        }
+
+        var firstEntry = true;
+        for (var entry : results.entrySet()) {
+            var target = entry.getKey();
+            var res = entry.getValue();
+
+            if (res.error != null) {
+                exitCode = 1;
+                if (json) {
+                    out.print(firstEntry ? "" : ",");
+                    out.print(quote(target) + ":{\"error\":" + quote(res.error) + '}');
+                    firstEntry = false;
+                } else {
+                    err.println("Error: " + (single ? "" : target + ": ") + res.error);
+                }
+                continue;
+            }
+
+            var values = res.values;
+            if (variable != null) {
+                var value = values.get(variable);
+                if (value == null) {
+                    exitCode = 1;
+                    if (!json) {
+                        err.println("Error: Variable not supported by UPS");
+                        continue;
+                    }
+                }
+                values = value != null ? Map.of(variable, value) : Map.of();
+                if (!json) {
+                    out.println(value);
+                    continue;
+                }
+            }
+
+            if (json) {
+                out.print(firstEntry ? "" : ",");
+                out.print(quote(target) + ':');
+                printJson(values, out);
+                firstEntry = false;
+            } else {
+                var prefix = single ? "" : target + ": ";
+                values.forEach((k, v) -> out.println(prefix + k + ": " + v));
+            }
+        }
+
+        if (json) {
+            out.println('}');
+        }
+        return exitCode;
+    }
+
+    private int printList(Map<String, Result> results, PrintStream out, PrintStream err) {
+        int exitCode = 0;
+        if (json) {
+            out.print('{');
+        }
+
+        var firstEntry = true;
+        for (var entry : results.entrySet()) {
+            var res = entry.getValue();
+            if (json) {
+                out.print(firstEntry ? "" : ",");
+                out.print(quote(entry.getKey()) + ':');
+                if (res.error != null) {
+                    out.print("{\"error\":" + quote(res.error) + '}');
+                } else {
+                    printJson(res.values, out);
+                }
+                firstEntry = false;
+            } else if (res.error != null) {
+                err.println("Error: " + entry.getKey() + ": " + res.error);
+            } else {
+                res.values.forEach((k, v) -> out.println(listDescriptions ? k + ": " + v : k));
+            }
+            if (res.error != null) {
+                exitCode = 1;
+            }
+        }
+
+        if (json) {
+            out.println('}');
+        }
+        return exitCode;
+    }
+
+    private static void printJson(Map<String, String> values, PrintStream out) {
+        out.print(values.entrySet().stream()
+                .map(e -> quote(e.getKey()) + ':' + quote(e.getValue()))
+                .collect(Collectors.joining(",", "{", "}")));
+    }
+
+    /**
+     * Quotes a string for JSON output.
+     */
+    static String quote(String str) {
+        var sb = new StringBuilder(str.length() + 2).append('"');
+        for (int ix = 0; ix < str.length(); ix++) {
+            char ch = str.charAt(ix);
+            switch (ch) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (ch < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) ch));
+                    } else {
+                        sb.append(ch);
+                    }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static Map<String, String> toMap(List<Variable> variables) throws IOException {
+        var result = new LinkedHashMap<String, String>();
+        for (var v : variables) {
+            result.put(v.getName(), v.getValue());
+        }
+        return result;
+    }
+
+    private static List<String> readLines(String file) throws IOException {
+        BufferedReader reader = "-".equals(file)
+                ? new BufferedReader(new InputStreamReader(System.in, UTF_8))
+                : Files.newBufferedReader(Paths.get(file), UTF_8);
+        try (reader) {
+            return reader.lines()
+                    .map(String::trim)
+                    .filter(l -> !l.isEmpty() && !l.startsWith("#"))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException(ex.getCause());
+        }
+    }
+
+    /**
+     * A single query target, i.e. a device at a host.
+     */
+    private static class Target {
+        final String spec;
+        final String device;
+        final String host;
+        final int port;
+
+        Target(String spec, String device, String host, int port) {
+            this.spec = spec;
+            this.device = device;
+            this.host = host;
+            this.port = port;
+        }
+
+        /**
+         * Parses a {@code ups[@host[:port]]} target.
+         */
+        static Target of(String spec) {
+            var at = spec.indexOf('@');
+            var device = at >= 0 ? spec.substring(0, at) : spec;
+            var hostPart = at >= 0 ? spec.substring(at + 1) : DEFAULT_HOST;
+            var host = ofHost(hostPart);
+            if (device.isEmpty()) {
+                throw new IllegalArgumentException("Missing device name: " + spec);
+            }
+            return new Target(spec, device, host.host, host.port);
+        }
+
+        /**
+         * Parses a {@code host[:port]} target.
+         */
+        static Target ofHost(String spec) {
+            var colon = spec.lastIndexOf(':');
+            if (colon >= 0 && spec.indexOf(':') == colon) {
+                try {
+                    return new Target(spec, "", spec.substring(0, colon),
+                            Integer.parseInt(spec.substring(colon + 1)));
+                } catch (NumberFormatException ex) {
+                    throw new IllegalArgumentException("Invalid port: " + spec, ex);
+                }
+            }
+            return new Target(spec, "", spec, DEFAULT_PORT);
+        }
+
+        String hostKey() {
+            return host + ':' + port;
+        }
+    }
+
+    /**
+     * The result of a query, either a map of values, or an error message.
+     */
+    private static class Result {
+        final Map<String, String> values;
+
+        @Nullable
+        final String error;
+
+        private Result(Map<String, String> values, @Nullable String error) {
+            this.values = values;
+            this.error = error;
+        }
+
+        static Result of(Map<String, String> values) {
+            return new Result(values, null);
+        }
+
+        static Result of(Throwable ex) {
+            var message = ex.getMessage();
+            return new Result(Map.of(), message != null ? message : ex.toString());
+        }
+    }
+
+}
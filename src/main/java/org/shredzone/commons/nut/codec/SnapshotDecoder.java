@@ -0,0 +1,109 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.codec;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes device snapshots that were encoded by a {@link SnapshotEncoder}.
+ * <p>
+ * The decoder is stateful and keeps the current snapshot, which is updated by each
+ * frame. Each device needs its own decoder. Decoders are not threadsafe.
+ */
+public class SnapshotDecoder {
+    private final List<String> dictionary = new ArrayList<>();
+    private final Map<String, String> values = new HashMap<>();
+    private final Map<String, String> view = Collections.unmodifiableMap(values);
+    private final SnapshotFormat.Scratch scratch = new SnapshotFormat.Scratch();
+    private long sequence = -1L;
+
+    /**
+     * Decodes a frame from the buffer, and updates the current snapshot.
+     *
+     * @param buffer
+     *         {@link ByteBuffer} to read the frame from
+     * @return Unmodifiable view of the current snapshot. It reflects changes of
+     * subsequent frames.
+     * @throws IllegalArgumentException
+     *         if the frame is malformed
+     * @throws IllegalStateException
+     *         if a delta frame was received that does not follow the previous frame. A
+     *         key frame is required to resync.
+     */
+    public Map<String, String> decode(ByteBuffer buffer) {
+        byte type = buffer.get();
+        long seq = Varint.getUnsigned(buffer);
+
+        if (type == SnapshotFormat.KEY_FRAME) {
+            dictionary.clear();
+            values.clear();
+        } else if (type == SnapshotFormat.DELTA_FRAME) {
+            if (sequence < 0L || seq != sequence + 1L) {
+                throw new IllegalStateException("Expected frame " + (sequence + 1L)
+                        + ", but got " + seq + ". Waiting for key frame.");
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown frame type " + type);
+        }
+
+        // On errors, wait for the next key frame
+        sequence = -1L;
+
+        int definitions = Varint.getInt(buffer);
+        for (int ix = 0; ix < definitions; ix++) {
+            int id = Varint.getInt(buffer);
+            if (id != dictionary.size()) {
+                throw new IllegalArgumentException("Unexpected dictionary id " + id);
+            }
+            dictionary.add(SnapshotFormat.getString(buffer, scratch));
+        }
+
+        int entries = Varint.getInt(buffer);
+        for (int ix = 0; ix < entries; ix++) {
+            int id = Varint.getInt(buffer);
+            if (id >= dictionary.size()) {
+                throw new IllegalArgumentException("Unknown dictionary id " + id);
+            }
+            var name = dictionary.get(id);
+            byte kind = buffer.get();
+            if (kind == SnapshotFormat.KIND_REMOVED) {
+                values.remove(name);
+            } else {
+                values.put(name, SnapshotFormat.getValue(buffer, kind, scratch));
+            }
+        }
+
+        sequence = seq;
+        return view;
+    }
+
+    /**
+     * Returns an unmodifiable view of the current snapshot.
+     */
+    public Map<String, String> getValues() {
+        return view;
+    }
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.codec;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encodes device snapshots into a compact binary format.
+ * <p>
+ * The encoder is stateful. The first frame is a key frame that contains all values.
+ * The following frames are delta frames that only contain the values that have changed
+ * since the previous frame. Variable names are only transmitted once, and then
+ * referenced by a numeric ID. Numeric values are varint encoded.
+ * <p>
+ * Every n-th frame is a key frame, so a {@link SnapshotDecoder} is able to resync
+ * after a frame got lost.
+ * <p>
+ * Each device needs its own encoder. Encoders are not threadsafe.
+ */
+public class SnapshotEncoder {
+    private final int keyFrameInterval;
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private final Map<String, String> previous = new HashMap<>();
+    private long sequence;
+    private boolean forceKeyFrame = true;
+
+    /**
+     * Creates a new {@link SnapshotEncoder}.
+     *
+     * @param keyFrameInterval
+     *         Every n-th frame is a key frame. 1 means that only key frames are written.
+     */
+    public SnapshotEncoder(int keyFrameInterval) {
+        if (keyFrameInterval < 1) {
+            throw new IllegalArgumentException("keyFrameInterval must be positive");
+        }
+        this.keyFrameInterval = keyFrameInterval;
+    }
+
+    /**
+     * Forces the next frame to be a key frame.
+     */
+    public void reset() {
+        forceKeyFrame = true;
+    }
+
+    /**
+     * Encodes a snapshot into the buffer.
+     * <p>
+     * If the buffer has not sufficient space, a {@link java.nio.BufferOverflowException}
+     * is thrown, and the next frame will be a key frame. The position of the buffer is
+     * undefined then.
+     *
+     * @param values
+     *         Map of variable names and values of the device
+     * @param buffer
+     *         {@link ByteBuffer} to write the frame to
+     * @return {@code true} if a key frame was written, {@code false} if a delta frame
+     * was written
+     */
+    public boolean encode(Map<String, String> values, ByteBuffer buffer) {
+        boolean keyFrame = forceKeyFrame || sequence % keyFrameInterval == 0;
+        try {
+            if (keyFrame) {
+                writeKeyFrame(values, buffer);
+            } else {
+                writeDeltaFrame(values, buffer);
+            }
+            forceKeyFrame = false;
+        } catch (RuntimeException ex) {
+            forceKeyFrame = true;
+            throw ex;
+        }
+
+        previous.clear();
+        previous.putAll(values);
+        sequence++;
+        return keyFrame;
+    }
+
+    private void writeKeyFrame(Map<String, String> values, ByteBuffer buffer) {
+        dictionary.clear();
+
+        buffer.put(SnapshotFormat.KEY_FRAME);
+        Varint.putUnsigned(buffer, sequence);
+
+        Varint.putUnsigned(buffer, values.size());
+        for (var name : values.keySet()) {
+            int id = dictionary.size();
+            dictionary.put(name, id);
+            Varint.putUnsigned(buffer, id);
+            SnapshotFormat.putString(buffer, name);
+        }
+
+        Varint.putUnsigned(buffer, values.size());
+        for (var entry : values.entrySet()) {
+            Varint.putUnsigned(buffer, dictionary.get(entry.getKey()));
+            SnapshotFormat.putValue(buffer, entry.getValue());
+        }
+    }
+
+    private void writeDeltaFrame(Map<String, String> values, ByteBuffer buffer) {
+        buffer.put(SnapshotFormat.DELTA_FRAME);
+        Varint.putUnsigned(buffer, sequence);
+
+        int definitions = 0;
+        for (var name : values.keySet()) {
+            if (!dictionary.containsKey(name)) {
+                definitions++;
+            }
+        }
+        Varint.putUnsigned(buffer, definitions);
+        for (var name : values.keySet()) {
+            if (!dictionary.containsKey(name)) {
+                int id = dictionary.size();
+                dictionary.put(name, id);
+                Varint.putUnsigned(buffer, id);
+                SnapshotFormat.putString(buffer, name);
+            }
+        }
+
+        int entries = 0;
+        for (var entry : values.entrySet()) {
+            if (!entry.getValue().equals(previous.get(entry.getKey()))) {
+                entries++;
+            }
+        }
+        for (var name : previous.keySet()) {
+            if (!values.containsKey(name)) {
+                entries++;
+            }
+        }
+
+        Varint.putUnsigned(buffer, entries);
+        for (var entry : values.entrySet()) {
+            if (!entry.getValue().equals(previous.get(entry.getKey()))) {
+                Varint.putUnsigned(buffer, dictionary.get(entry.getKey()));
+                SnapshotFormat.putValue(buffer, entry.getValue());
+            }
+        }
+        for (var name : previous.keySet()) {
+            if (!values.containsKey(name)) {
+                Varint.putUnsigned(buffer, dictionary.get(name));
+                buffer.put(SnapshotFormat.KIND_REMOVED);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,247 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.codec;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Constants and value encodings of the binary snapshot format.
+ * <p>
+ * A frame has this structure, with all integers being {@link Varint} encoded:
+ * <pre>
+ * byte     frame type (KEY_FRAME or DELTA_FRAME)
+ * varint   sequence number
+ * varint   number of dictionary definitions
+ *          (varint id, string name) for each definition
+ * varint   number of entries
+ *          (varint id, byte kind, value) for each entry
+ * </pre>
+ * A key frame resets the dictionary and contains all entries. A delta frame only
+ * contains the entries that were changed, added or removed since the previous frame.
+ * <p>
+ * Strings are encoded as varint length, followed by the UTF-8 bytes. Numeric values are
+ * encoded as signed varint of the unscaled value, and an additional scale byte for
+ * decimals. A numeric value is only encoded as such if it is restored to exactly the
+ * same string, otherwise it is encoded as string.
+ */
+final class SnapshotFormat {
+    static final byte KEY_FRAME = 0x11;
+    static final byte DELTA_FRAME = 0x12;
+
+    static final byte KIND_REMOVED = 0;
+    static final byte KIND_STRING = 1;
+    static final byte KIND_INTEGER = 2;
+    static final byte KIND_DECIMAL = 3;
+
+    private static final int MAX_DIGITS = 18;
+
+    private SnapshotFormat() {
+        // Utility class without constructor
+    }
+
+    /**
+     * Writes a value, using the most compact encoding.
+     *
+     * @param buffer
+     *         {@link ByteBuffer} to write to
+     * @param value
+     *         Value to write
+     */
+    static void putValue(ByteBuffer buffer, String value) {
+        int len = value.length();
+        int ix = 0;
+        boolean negative = false;
+        if (len > 0 && value.charAt(0) == '-') {
+            negative = true;
+            ix++;
+        }
+
+        long unscaled = 0L;
+        int digits = 0;
+        int scale = -1;
+        boolean numeric = ix < len;
+        for (; ix < len && numeric; ix++) {
+            char ch = value.charAt(ix);
+            if (ch == '.' && scale < 0 && digits > 0 && ix < len - 1) {
+                scale = 0;
+            } else if (ch >= '0' && ch <= '9' && digits < MAX_DIGITS) {
+                if (digits == 1 && unscaled == 0L && scale < 0) {
+                    numeric = false; // leading zero
+                }
+                unscaled = unscaled * 10L + (ch - '0');
+                digits++;
+                if (scale >= 0) {
+                    scale++;
+                }
+            } else {
+                numeric = false;
+            }
+        }
+
+        if (numeric && negative && unscaled == 0L) {
+            numeric = false; // negative zero cannot be restored
+        }
+
+        if (!numeric) {
+            buffer.put(KIND_STRING);
+            putString(buffer, value);
+        } else if (scale < 0) {
+            buffer.put(KIND_INTEGER);
+            Varint.putSigned(buffer, negative ? -unscaled : unscaled);
+        } else {
+            buffer.put(KIND_DECIMAL);
+            buffer.put((byte) scale);
+            Varint.putSigned(buffer, negative ? -unscaled : unscaled);
+        }
+    }
+
+    /**
+     * Reads a value of the given kind.
+     *
+     * @param buffer
+     *         {@link ByteBuffer} to read from
+     * @param kind
+     *         Value kind
+     * @param scratch
+     *         Scratch buffer for decoding strings, may be replaced by a larger one
+     * @return Value
+     */
+    static String getValue(ByteBuffer buffer, byte kind, Scratch scratch) {
+        switch (kind) {
+            case KIND_STRING:
+                return getString(buffer, scratch);
+
+            case KIND_INTEGER:
+                return Long.toString(Varint.getSigned(buffer));
+
+            case KIND_DECIMAL:
+                int scale = buffer.get();
+                return formatDecimal(Varint.getSigned(buffer), scale);
+
+            default:
+                throw new IllegalArgumentException("Unknown value kind " + kind);
+        }
+    }
+
+    /**
+     * Writes a string as varint length and UTF-8 bytes, without creating a temporary
+     * byte array.
+     */
+    static void putString(ByteBuffer buffer, String str) {
+        Varint.putUnsigned(buffer, utf8Length(str));
+        int len = str.length();
+        for (int ix = 0; ix < len; ix++) {
+            char ch = str.charAt(ix);
+            if (ch < 0x80) {
+                buffer.put((byte) ch);
+            } else if (ch < 0x800) {
+                buffer.put((byte) (0xC0 | (ch >> 6)));
+                buffer.put((byte) (0x80 | (ch & 0x3F)));
+            } else if (Character.isHighSurrogate(ch) && ix + 1 < len
+                    && Character.isLowSurrogate(str.charAt(ix + 1))) {
+                int cp = Character.toCodePoint(ch, str.charAt(++ix));
+                buffer.put((byte) (0xF0 | (cp >> 18)));
+                buffer.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (cp & 0x3F)));
+            } else {
+                if (Character.isSurrogate(ch)) {
+                    ch = '?';
+                }
+                buffer.put((byte) (0xE0 | (ch >> 12)));
+                buffer.put((byte) (0x80 | ((ch >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (ch & 0x3F)));
+            }
+        }
+    }
+
+    /**
+     * Reads a string that was written by {@link #putString(ByteBuffer, String)}.
+     */
+    static String getString(ByteBuffer buffer, Scratch scratch) {
+        int len = Varint.getInt(buffer);
+        if (len > buffer.remaining()) {
+            throw new IllegalArgumentException("String exceeds frame");
+        }
+        if (buffer.hasArray()) {
+            var result = new String(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                    len, UTF_8);
+            buffer.position(buffer.position() + len);
+            return result;
+        }
+        var bytes = scratch.get(len);
+        buffer.get(bytes, 0, len);
+        return new String(bytes, 0, len, UTF_8);
+    }
+
+    private static int utf8Length(String str) {
+        int len = str.length();
+        int result = 0;
+        for (int ix = 0; ix < len; ix++) {
+            char ch = str.charAt(ix);
+            if (ch < 0x80) {
+                result += 1;
+            } else if (ch < 0x800) {
+                result += 2;
+            } else if (Character.isHighSurrogate(ch) && ix + 1 < len
+                    && Character.isLowSurrogate(str.charAt(ix + 1))) {
+                result += 4;
+                ix++;
+            } else {
+                result += 3;
+            }
+        }
+        return result;
+    }
+
+    private static String formatDecimal(long unscaled, int scale) {
+        if (scale <= 0 || scale > MAX_DIGITS) {
+            throw new IllegalArgumentException("Invalid scale " + scale);
+        }
+        var digits = Long.toString(Math.abs(unscaled));
+        var sb = new StringBuilder(digits.length() + scale + 2);
+        if (unscaled < 0L) {
+            sb.append('-');
+        }
+        for (int pad = digits.length(); pad <= scale; pad++) {
+            sb.append('0');
+        }
+        sb.append(digits);
+        sb.insert(sb.length() - scale, '.');
+        return sb.toString();
+    }
+
+    /**
+     * A reusable byte array for decoding strings from direct buffers.
+     */
+    static class Scratch {
+        private byte[] bytes = new byte[256];
+
+        byte[] get(int size) {
+            if (bytes.length < size) {
+                bytes = new byte[Math.max(size, bytes.length * 2)];
+            }
+            return bytes;
+        }
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads and writes variable-length encoded integers. Each byte carries 7 bits of the
+ * value, the most significant bit is set if more bytes follow. Signed values are
+ * zigzag encoded, so small negative values are encoded as short as small positive
+ * values.
+ */
+final class Varint {
+
+    private Varint() {
+        // Utility class without constructor
+    }
+
+    /**
+     * Writes an unsigned value.
+     */
+    static void putUnsigned(ByteBuffer buffer, long value) {
+        long v = value;
+        while ((v & ~0x7FL) != 0L) {
+            buffer.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        buffer.put((byte) v);
+    }
+
+    /**
+     * Writes a signed value.
+     */
+    static void putSigned(ByteBuffer buffer, long value) {
+        putUnsigned(buffer, (value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * Reads an unsigned value.
+     *
+     * @throws IllegalArgumentException
+     *         if the value is malformed
+     */
+    static long getUnsigned(ByteBuffer buffer) {
+        long result = 0L;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    /**
+     * Reads a signed value.
+     *
+     * @throws IllegalArgumentException
+     *         if the value is malformed
+     */
+    static long getSigned(ByteBuffer buffer) {
+        long v = getUnsigned(buffer);
+        return (v >>> 1) ^ -(v & 1L);
+    }
+
+    /**
+     * Reads an unsigned value that must fit into an int.
+     *
+     * @throws IllegalArgumentException
+     *         if the value is malformed or too large
+     */
+    static int getInt(ByteBuffer buffer) {
+        long v = getUnsigned(buffer);
+        if (v < 0L || v > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Value out of range: " + v);
+        }
+        return (int) v;
+    }
+
+}
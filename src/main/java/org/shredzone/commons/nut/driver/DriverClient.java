@@ -0,0 +1,251 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.driver;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.Channels;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import org.shredzone.commons.nut.util.StringUtils;
+import org.shredzone.commons.nut.util.UnixSockets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Connects directly to the socket of a NUT driver, bypassing {@code upsd}.
+ * <p>
+ * On hosts where the client runs next to the NUT driver, this gives fresher data
+ * without any polling. The client requests a full dump of the device state, and then
+ * keeps the {@link DriverState} up to date with the updates that are pushed by the
+ * driver. If the connection to the driver is lost, the state is marked as stale, and
+ * the client reconnects with an increasing backoff time.
+ * <p>
+ * The driver socket is a Unix domain socket, which requires Java 16 or higher. Use
+ * {@link org.shredzone.commons.nut.Client#driver(DriverClient)} to access the device
+ * via the usual {@link org.shredzone.commons.nut.Device} and
+ * {@link org.shredzone.commons.nut.Variable} API.
+ */
+public final class DriverClient implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(DriverClient.class);
+    private static final long MIN_BACKOFF = TimeUnit.SECONDS.toMillis(1L);
+    private static final long MAX_BACKOFF = TimeUnit.SECONDS.toMillis(30L);
+
+    private final String name;
+    private final Connector connector;
+    private final DriverState state = new DriverState();
+    private final CountDownLatch dumped = new CountDownLatch(1);
+    private final AtomicLong connects = new AtomicLong();
+    private final Thread thread;
+    private volatile boolean closed;
+
+    @Nullable
+    private volatile ByteChannel channel;
+
+    /**
+     * Opens a connection to the driver.
+     */
+    @FunctionalInterface
+    public interface Connector {
+        ByteChannel open() throws IOException;
+    }
+
+    /**
+     * Creates a new {@link DriverClient}, and starts connecting to the driver in the
+     * background.
+     *
+     * @param name
+     *         Name of the device, as configured in {@code ups.conf}
+     * @param connector
+     *         {@link Connector} that opens a connection to the driver socket
+     */
+    public DriverClient(String name, Connector connector) {
+        this.name = name;
+        this.connector = connector;
+        this.thread = new Thread(this::run, "nut-driver-" + name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Connects to the Unix domain socket of a driver.
+     *
+     * @param socket
+     *         Path of the driver socket, usually {@code <statepath>/<driver>-<name>},
+     *         e.g. {@code /var/run/nut/usbhid-ups-myups}
+     * @param name
+     *         Name of the device, as configured in {@code ups.conf}
+     * @return {@link DriverClient} for this socket
+     * @throws IOException
+     *         if Unix domain sockets are not supported by this Java runtime
+     */
+    public static DriverClient connect(Path socket, String name) throws IOException {
+        if (!UnixSockets.isSupported()) {
+            throw new IOException("Driver sockets require Java 16 or higher");
+        }
+        return new DriverClient(name, () -> UnixSockets.open(socket));
+    }
+
+    /**
+     * Returns the name of the device.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the live {@link DriverState} of the device.
+     */
+    public DriverState getState() {
+        return state;
+    }
+
+    /**
+     * Checks if the client is currently connected to the driver.
+     */
+    public boolean isConnected() {
+        return channel != null;
+    }
+
+    /**
+     * Returns how often the client has connected to the driver.
+     */
+    public long getConnectCount() {
+        return connects.get();
+    }
+
+    /**
+     * Waits until the first full dump of the device state has been received.
+     *
+     * @param timeout
+     *         Maximum time to wait
+     * @return {@code true} if the dump was received, {@code false} on timeout
+     */
+    public boolean awaitDump(Duration timeout) throws InterruptedIOException {
+        try {
+            return dumped.await(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the driver");
+        }
+    }
+
+    /**
+     * Disconnects from the driver. The client cannot be used after that.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        thread.interrupt();
+        var current = channel;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    /**
+     * Connects to the driver, and reconnects after failures until the client is
+     * closed.
+     */
+    private void run() {
+        var backoff = MIN_BACKOFF;
+        while (!closed) {
+            try (var ch = connector.open()) {
+                channel = ch;
+                connects.incrementAndGet();
+                backoff = MIN_BACKOFF;
+                LOG.debug("Connected to driver of {}", name);
+                receive(ch);
+            } catch (IOException ex) {
+                if (!closed) {
+                    LOG.debug("Connection to driver of {} failed", name, ex);
+                }
+            } finally {
+                channel = null;
+                state.setStale(true);
+            }
+
+            if (!closed) {
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ex) {
+                    break;
+                }
+                backoff = Math.min(backoff * 2L, MAX_BACKOFF);
+            }
+        }
+    }
+
+    /**
+     * Requests a full dump, and then receives the updates of the driver until the
+     * connection is closed.
+     */
+    private void receive(ByteChannel ch) throws IOException {
+        var reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(ch), UTF_8));
+        var writer = new OutputStreamWriter(Channels.newOutputStream(ch), UTF_8);
+        send(writer, "DUMPALL");
+        state.beginDump();
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            LOG.trace("{} <- {}", name, line);
+            var columns = StringUtils.split(line);
+            if (columns.isEmpty()) {
+                continue;
+            }
+            switch (columns.get(0)) {
+                case "PING":
+                    send(writer, "PONG");
+                    break;
+                case "PONG":
+                    break;
+                case "DUMPDONE":
+                    state.endDump();
+                    dumped.countDown();
+                    break;
+                default:
+                    state.apply(columns);
+            }
+        }
+        throw new EOFException("Driver closed the connection");
+    }
+
+    private void send(Writer writer, String line) throws IOException {
+        LOG.trace("{} -> {}", name, line);
+        writer.write(line);
+        writer.write('\n');
+        writer.flush();
+    }
+
+}
@@ -0,0 +1,234 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.driver;
+
+import static org.shredzone.commons.nut.server.NutServer.quote;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.shredzone.commons.nut.exception.NutException;
+import org.shredzone.commons.nut.server.NutServer;
+
+/**
+ * A {@link NutServer.Handler} that answers the requests locally from the live state of
+ * a {@link DriverClient}, like {@code upsd} would do.
+ * <p>
+ * The handler supports the read requests of the NUT protocol for the single device of
+ * the driver. It is read-only, so {@code SET}, {@code INSTCMD}, {@code PRIMARY} and
+ * {@code FSD} are rejected with {@code ACCESS-DENIED}.
+ */
+public class DriverHandler implements NutServer.Handler {
+    private static final String NO_DESCRIPTION = "Description unavailable";
+
+    private final DriverClient driver;
+    private final String name;
+
+    /**
+     * Creates a new {@link DriverHandler}.
+     *
+     * @param driver
+     *         {@link DriverClient} providing the device state
+     */
+    public DriverHandler(DriverClient driver) {
+        this.driver = driver;
+        this.name = driver.getName();
+    }
+
+    @Override
+    public List<String> handle(NutServer.Session session, String line,
+            List<String> request) throws NutException {
+        switch (request.get(0)) {
+            case "VER":
+                return List.of("Network UPS Tools driver socket - commons-nut");
+            case "NETVER":
+                return List.of("1.3");
+            case "USERNAME":
+            case "PASSWORD":
+            case "LOGIN":
+                return List.of("OK");
+            case "LOGOUT":
+                return List.of("OK Goodbye");
+            case "SET":
+                if (request.size() > 1 && "TRACKING".equals(request.get(1))) {
+                    return List.of("OK");
+                }
+                throw new NutException("ACCESS-DENIED");
+            case "LIST":
+                return list(request);
+            case "GET":
+                return get(request);
+            case "INSTCMD":
+            case "PRIMARY":
+            case "MASTER":
+            case "FSD":
+                throw new NutException("ACCESS-DENIED");
+            default:
+                throw new NutException("UNKNOWN-COMMAND");
+        }
+    }
+
+    private List<String> list(List<String> request) throws NutException {
+        var sub = arg(request, 1);
+        var result = new ArrayList<String>();
+        if ("UPS".equals(sub)) {
+            result.add("BEGIN LIST UPS");
+            result.add("UPS " + name + ' ' + quote(description()));
+            result.add("END LIST UPS");
+            return result;
+        }
+
+        var state = device(request);
+        var prefix = sub + ' ' + name;
+        switch (sub) {
+            case "VAR":
+            case "RW":
+                checkStale(state);
+                result.add("BEGIN LIST " + prefix);
+                state.getValues().forEach((k, v) -> {
+                    if ("VAR".equals(sub) || state.isWritable(k)) {
+                        result.add(prefix + ' ' + k + ' ' + quote(v));
+                    }
+                });
+                result.add("END LIST " + prefix);
+                return result;
+
+            case "CMD":
+                result.add("BEGIN LIST " + prefix);
+                state.getCommands().forEach(c -> result.add(prefix + ' ' + c));
+                result.add("END LIST " + prefix);
+                return result;
+
+            case "ENUM":
+            case "RANGE":
+                var variable = arg(request, 3);
+                variable(state, variable);
+                var varPrefix = prefix + ' ' + variable;
+                result.add("BEGIN LIST " + varPrefix);
+                if ("ENUM".equals(sub)) {
+                    state.getEnums(variable).forEach(e -> result.add(varPrefix + ' ' + quote(e)));
+                } else {
+                    state.getRanges(variable).forEach(r -> result.add(varPrefix + ' '
+                            + quote(r.getKey()) + ' ' + quote(r.getValue())));
+                }
+                result.add("END LIST " + varPrefix);
+                return result;
+
+            default:
+                throw new NutException("INVALID-ARGUMENT");
+        }
+    }
+
+    private List<String> get(List<String> request) throws NutException {
+        var sub = arg(request, 1);
+        var state = device(request);
+        var prefix = sub + ' ' + name;
+        switch (sub) {
+            case "UPSDESC":
+                return List.of(prefix + ' ' + quote(description()));
+            case "NUMLOGINS":
+                return List.of(prefix + " 0");
+            case "CMDDESC":
+                var command = arg(request, 3);
+                if (!state.getCommands().contains(command)) {
+                    throw new NutException("CMD-NOT-SUPPORTED");
+                }
+                return List.of(prefix + ' ' + command + ' ' + quote(NO_DESCRIPTION));
+            default:
+                // variable related, handled below
+        }
+
+        var variable = arg(request, 3);
+        var value = variable(state, variable);
+        switch (sub) {
+            case "VAR":
+                checkStale(state);
+                return List.of(prefix + ' ' + variable + ' ' + quote(value));
+            case "DESC":
+                return List.of(prefix + ' ' + variable + ' ' + quote(NO_DESCRIPTION));
+            case "TYPE":
+                return List.of(prefix + ' ' + variable + type(state, variable));
+            default:
+                throw new NutException("INVALID-ARGUMENT");
+        }
+    }
+
+    /**
+     * Returns the types of a variable, in the format of a {@code TYPE} response.
+     */
+    private static String type(DriverState state, String variable) {
+        var result = new StringBuilder();
+        var flags = state.getFlags(variable);
+        if (flags.contains("RW")) {
+            result.append(" RW");
+        }
+        var typed = false;
+        if (!state.getEnums(variable).isEmpty()) {
+            result.append(" ENUM");
+            typed = true;
+        }
+        if (!state.getRanges(variable).isEmpty()) {
+            result.append(" RANGE");
+            typed = true;
+        }
+        if (flags.contains("STRING")) {
+            result.append(" STRING:").append(state.getAux(variable));
+            typed = true;
+        }
+        if (!typed) {
+            result.append(" NUMBER");
+        }
+        return result.toString();
+    }
+
+    private String description() {
+        var description = driver.getState().getValue("device.description");
+        return description != null ? description : NO_DESCRIPTION;
+    }
+
+    private DriverState device(List<String> request) throws NutException {
+        if (!name.equals(arg(request, 2))) {
+            throw new NutException("UNKNOWN-UPS");
+        }
+        return driver.getState();
+    }
+
+    private static String variable(DriverState state, String variable) throws NutException {
+        var value = state.getValue(variable);
+        if (value == null) {
+            throw new NutException("VAR-NOT-SUPPORTED");
+        }
+        return value;
+    }
+
+    private static void checkStale(DriverState state) throws NutException {
+        if (state.isStale()) {
+            throw new NutException("DATA-STALE");
+        }
+    }
+
+    private static String arg(List<String> request, int ix) throws NutException {
+        if (request.size() <= ix) {
+            throw new NutException("INVALID-ARGUMENT");
+        }
+        return request.get(ix);
+    }
+
+}
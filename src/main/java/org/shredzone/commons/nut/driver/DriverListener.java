@@ -0,0 +1,53 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.driver;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+
+/**
+ * A listener that is invoked whenever the driver publishes an update of the device
+ * state. It is invoked by the thread that reads the driver socket, so it must return
+ * quickly.
+ */
+@FunctionalInterface
+public interface DriverListener {
+
+    /**
+     * Invoked when the value of a variable has been set or deleted.
+     *
+     * @param name
+     *         Variable name
+     * @param value
+     *         New value, or {@code null} if the variable has been deleted
+     */
+    void onUpdate(String name, @Nullable String value);
+
+    /**
+     * Invoked when the driver reports that its data is stale, or valid again. The
+     * default implementation does nothing.
+     *
+     * @param stale
+     *         {@code true} if the data is stale
+     */
+    default void onStale(boolean stale) {
+        // do nothing
+    }
+
+}
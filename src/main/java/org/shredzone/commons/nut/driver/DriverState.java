@@ -0,0 +1,336 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.driver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The live state of a device, as published by its driver.
+ * <p>
+ * The state is updated by the {@link DriverClient} whenever the driver sends an
+ * update, and can be read by any thread at any time.
+ */
+public class DriverState {
+    private static final Logger LOG = LoggerFactory.getLogger(DriverState.class);
+
+    private final Map<String, Entry> variables = new ConcurrentSkipListMap<>();
+    private final Set<String> commands = new ConcurrentSkipListSet<>();
+    private final List<DriverListener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong updates = new AtomicLong();
+    private volatile boolean stale = true;
+
+    @Nullable
+    private Set<String> dumped;
+
+    /**
+     * Returns the current value of a variable.
+     *
+     * @param name
+     *         Variable name
+     * @return Value, or {@code null} if the device does not have this variable
+     */
+    @Nullable
+    public String getValue(String name) {
+        var entry = variables.get(name);
+        return entry != null ? entry.value : null;
+    }
+
+    /**
+     * Returns the current values of all variables, ordered by name.
+     */
+    public Map<String, String> getValues() {
+        var result = new LinkedHashMap<String, String>();
+        variables.forEach((k, v) -> result.put(k, v.value));
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Returns the flags of a variable, like {@code RW} or {@code STRING}.
+     *
+     * @param name
+     *         Variable name
+     * @return List of flags, may be empty
+     */
+    public List<String> getFlags(String name) {
+        var entry = variables.get(name);
+        return entry != null ? entry.flags : List.of();
+    }
+
+    /**
+     * Checks if a variable is writable.
+     *
+     * @param name
+     *         Variable name
+     */
+    public boolean isWritable(String name) {
+        return getFlags(name).contains("RW");
+    }
+
+    /**
+     * Returns the maximum length of a string variable.
+     *
+     * @param name
+     *         Variable name
+     * @return Maximum length, or 0 if unknown
+     */
+    public int getAux(String name) {
+        var entry = variables.get(name);
+        return entry != null ? entry.aux : 0;
+    }
+
+    /**
+     * Returns the enumerated values of a variable.
+     *
+     * @param name
+     *         Variable name
+     * @return List of values, may be empty
+     */
+    public List<String> getEnums(String name) {
+        var entry = variables.get(name);
+        return entry != null ? entry.enums : List.of();
+    }
+
+    /**
+     * Returns the value ranges of a variable.
+     *
+     * @param name
+     *         Variable name
+     * @return List of ranges, each with the minimum as key and the maximum as value.
+     * May be empty.
+     */
+    public List<Map.Entry<String, String>> getRanges(String name) {
+        var entry = variables.get(name);
+        return entry != null ? entry.ranges : List.of();
+    }
+
+    /**
+     * Returns the instant commands supported by the device, ordered by name.
+     */
+    public Set<String> getCommands() {
+        return Collections.unmodifiableSet(commands);
+    }
+
+    /**
+     * Checks if the data of the driver is stale, e.g. because the driver lost the
+     * connection to the device, or the driver socket is not connected.
+     */
+    public boolean isStale() {
+        return stale;
+    }
+
+    /**
+     * Returns the number of updates that were received from the driver.
+     */
+    public long getUpdateCount() {
+        return updates.get();
+    }
+
+    /**
+     * Adds a {@link DriverListener} that is notified about updates.
+     *
+     * @param listener
+     *         {@link DriverListener} to add
+     */
+    public void addListener(DriverListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a {@link DriverListener}.
+     *
+     * @param listener
+     *         {@link DriverListener} to remove
+     */
+    public void removeListener(DriverListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Starts a full dump of the driver state. Variables and commands that are not part
+     * of the dump are removed when the dump is done.
+     */
+    void beginDump() {
+        dumped = new HashSet<>();
+    }
+
+    /**
+     * Finishes a full dump of the driver state.
+     */
+    void endDump() {
+        var seen = dumped;
+        dumped = null;
+        if (seen != null) {
+            for (var name : new ArrayList<>(variables.keySet())) {
+                if (!seen.contains(name)) {
+                    delete(name);
+                }
+            }
+            commands.removeIf(c -> !seen.contains(c));
+        }
+    }
+
+    /**
+     * Applies a line that was sent by the driver.
+     *
+     * @param line
+     *         Columns of the line, unquoted
+     */
+    void apply(List<String> line) {
+        if (line.isEmpty()) {
+            return;
+        }
+        updates.incrementAndGet();
+
+        var command = line.get(0);
+        switch (command) {
+            case "DATAOK":
+            case "DATASTALE":
+                setStale("DATASTALE".equals(command));
+                return;
+            default:
+                // variable related, handled below
+        }
+
+        if (line.size() < 2) {
+            LOG.debug("Ignoring invalid driver line: {}", line);
+            return;
+        }
+        var name = line.get(1);
+        var seen = dumped;
+        if (seen != null) {
+            seen.add(name);
+        }
+
+        switch (command) {
+            case "SETINFO":
+                if (line.size() > 2) {
+                    set(name, line.get(2));
+                }
+                break;
+            case "DELINFO":
+                delete(name);
+                break;
+            case "SETFLAGS":
+                entry(name).flags = List.copyOf(line.subList(2, line.size()));
+                break;
+            case "SETAUX":
+                if (line.size() > 2) {
+                    entry(name).aux = parseAux(line.get(2));
+                }
+                break;
+            case "ADDENUM":
+            case "DELENUM":
+                if (line.size() > 2) {
+                    var entry = entry(name);
+                    var enums = new ArrayList<>(entry.enums);
+                    enums.remove(line.get(2));
+                    if ("ADDENUM".equals(command)) {
+                        enums.add(line.get(2));
+                    }
+                    entry.enums = List.copyOf(enums);
+                }
+                break;
+            case "ADDRANGE":
+            case "DELRANGE":
+                if (line.size() > 3) {
+                    var entry = entry(name);
+                    var ranges = new ArrayList<>(entry.ranges);
+                    var range = Map.entry(line.get(2), line.get(3));
+                    ranges.remove(range);
+                    if ("ADDRANGE".equals(command)) {
+                        ranges.add(range);
+                    }
+                    entry.ranges = List.copyOf(ranges);
+                }
+                break;
+            case "ADDCMD":
+                commands.add(name);
+                break;
+            case "DELCMD":
+                commands.remove(name);
+                break;
+            default:
+                LOG.debug("Ignoring unknown driver line: {}", line);
+        }
+    }
+
+    /**
+     * Sets the stale state, and notifies the listeners if it has changed.
+     */
+    void setStale(boolean stale) {
+        if (this.stale != stale) {
+            this.stale = stale;
+            listeners.forEach(l -> l.onStale(stale));
+        }
+    }
+
+    private void set(String name, String value) {
+        var entry = entry(name);
+        if (!value.equals(entry.value)) {
+            entry.value = value;
+            listeners.forEach(l -> l.onUpdate(name, value));
+        }
+    }
+
+    private void delete(String name) {
+        if (variables.remove(name) != null) {
+            listeners.forEach(l -> l.onUpdate(name, null));
+        }
+    }
+
+    private Entry entry(String name) {
+        return variables.computeIfAbsent(name, k -> new Entry());
+    }
+
+    private static int parseAux(String aux) {
+        try {
+            return Integer.parseInt(aux);
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * The state of a single variable. It is only modified by the thread reading the
+     * driver socket.
+     */
+    private static final class Entry {
+        private volatile String value = "";
+        private volatile List<String> flags = List.of();
+        private volatile int aux;
+        private volatile List<String> enums = List.of();
+        private volatile List<Map.Entry<String, String>> ranges = List.of();
+    }
+
+}
@@ -0,0 +1,46 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.exception;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * This exception is thrown when a request was rejected without contacting the server,
+ * because the circuit breaker of the server is open.
+ *
+ * @see org.shredzone.commons.nut.CircuitBreaker
+ */
+public class CircuitOpenException extends IOException {
+    private final Duration retryAfter;
+
+    public CircuitOpenException(Duration retryAfter) {
+        super("Circuit breaker is open, retry in " + retryAfter.toMillis() + " ms");
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Returns the time until the circuit breaker permits the next probe request.
+     */
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+
+}
@@ -0,0 +1,252 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.journal;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only journal of UPS readings.
+ * <p>
+ * The readings are written to segment files in a directory, using memory mapped
+ * buffers. When a segment is full, a new segment is started. Old segments are deleted
+ * when the maximum number of segments is exceeded.
+ * <p>
+ * Appending a reading never waits for the storage device. The operating system writes
+ * the mapped pages in the background, which also survives a crash of the JVM. If a
+ * sync interval is configured, the segments are additionally forced to the storage
+ * device by a background thread, which also survives a crash of the operating system
+ * within that interval.
+ * <p>
+ * An existing journal is continued when it is opened again. Use {@link JournalReader}
+ * for reading the journal.
+ */
+public class Journal implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(Journal.class);
+    private static final int MAX_STRING_LENGTH = 0xFFFF;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final Deque<Path> segments = new ArrayDeque<>();
+
+    @Nullable
+    private final ScheduledExecutorService syncer;
+
+    private Segment current;
+    private boolean closed;
+
+    /**
+     * Opens a journal without a sync interval.
+     *
+     * @param directory
+     *         Directory of the segment files. It is created if it does not exist.
+     * @param segmentSize
+     *         Size of a segment, in bytes
+     * @param maxSegments
+     *         Maximum number of segments to keep
+     */
+    public Journal(Path directory, int segmentSize, int maxSegments) throws IOException {
+        this(directory, segmentSize, maxSegments, null);
+    }
+
+    /**
+     * Opens a journal.
+     *
+     * @param directory
+     *         Directory of the segment files. It is created if it does not exist.
+     * @param segmentSize
+     *         Size of a segment, in bytes
+     * @param maxSegments
+     *         Maximum number of segments to keep
+     * @param syncInterval
+     *         Interval of forcing the segments to the storage device, or {@code null}
+     *         to leave it to the operating system
+     */
+    public Journal(Path directory, int segmentSize, int maxSegments,
+            @Nullable Duration syncInterval) throws IOException {
+        if (segmentSize < Segment.HEADER_SIZE + 1024) {
+            throw new IllegalArgumentException("segmentSize is too small");
+        }
+        if (maxSegments < 1) {
+            throw new IllegalArgumentException("maxSegments must be positive");
+        }
+
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+
+        Files.createDirectories(directory);
+        segments.addAll(listSegments(directory));
+
+        var last = segments.peekLast();
+        current = last != null
+                ? Segment.open(last, true)
+                : Segment.create(directory, 0L, segmentSize);
+        if (last == null) {
+            segments.add(current.getPath());
+        }
+
+        if (syncInterval != null) {
+            syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+                var thread = new Thread(r, "nut-journal-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncer.scheduleWithFixedDelay(this::sync, syncInterval.toMillis(),
+                    syncInterval.toMillis(), TimeUnit.MILLISECONDS);
+        } else {
+            syncer = null;
+        }
+    }
+
+    /**
+     * Appends a reading to the journal.
+     *
+     * @param timestamp
+     *         Timestamp of the reading, in milliseconds since epoch
+     * @param server
+     *         Server name
+     * @param device
+     *         Device name
+     * @param variable
+     *         Variable name
+     * @param value
+     *         Variable value
+     */
+    public void append(long timestamp, String server, String device, String variable,
+            String value) throws IOException {
+        var serverBytes = encode(server);
+        var deviceBytes = encode(device);
+        var variableBytes = encode(variable);
+        var valueBytes = encode(value);
+
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("Journal is closed");
+            }
+            if (!current.append(timestamp, serverBytes, deviceBytes, variableBytes, valueBytes)) {
+                roll();
+                if (!current.append(timestamp, serverBytes, deviceBytes, variableBytes,
+                        valueBytes)) {
+                    throw new IllegalArgumentException("Record exceeds segment size");
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the journal directory.
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Forces all segments to be written to the storage device. This method may block
+     * for a long time.
+     */
+    public void sync() {
+        Segment segment;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            segment = current;
+        }
+        segment.force();
+    }
+
+    /**
+     * Closes the journal. The current segment is forced to the storage device.
+     */
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            if (syncer != null) {
+                syncer.shutdownNow();
+            }
+            current.force();
+        }
+    }
+
+    /**
+     * Starts a new segment, and deletes the oldest segments if necessary.
+     */
+    private void roll() throws IOException {
+        var previous = current;
+        current = Segment.create(directory, previous.getNumber() + 1L, segmentSize);
+        segments.add(current.getPath());
+        if (syncer != null) {
+            syncer.execute(previous::force);
+        }
+
+        while (segments.size() > maxSegments) {
+            var oldest = segments.removeFirst();
+            try {
+                Files.deleteIfExists(oldest);
+            } catch (IOException ex) {
+                LOG.warn("Could not delete journal segment {}", oldest, ex);
+            }
+        }
+    }
+
+    private static byte[] encode(String str) {
+        var bytes = str.getBytes(UTF_8);
+        if (bytes.length > MAX_STRING_LENGTH) {
+            throw new IllegalArgumentException("String is too long");
+        }
+        return bytes;
+    }
+
+    /**
+     * Lists all segment files of a directory, ordered by segment number.
+     */
+    static List<Path> listSegments(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return new ArrayList<>();
+        }
+        try (var stream = Files.list(directory)) {
+            return stream.filter(Segment::isSegment)
+                    .sorted(Comparator.comparing(p -> p.getFileName().toString()))
+                    .collect(Collectors.toList());
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.journal;
+
+import java.time.Instant;
+
+/**
+ * A single reading that was stored in the {@link Journal}.
+ */
+public class JournalEntry {
+    private final long timestamp;
+    private final String server;
+    private final String device;
+    private final String variable;
+    private final String value;
+
+    JournalEntry(long timestamp, String server, String device, String variable,
+            String value) {
+        this.timestamp = timestamp;
+        this.server = server;
+        this.device = device;
+        this.variable = variable;
+        this.value = value;
+    }
+
+    /**
+     * Returns the timestamp of the reading, in milliseconds since epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the timestamp of the reading as {@link Instant}.
+     */
+    public Instant getInstant() {
+        return Instant.ofEpochMilli(timestamp);
+    }
+
+    /**
+     * Returns the server name.
+     */
+    public String getServer() {
+        return server;
+    }
+
+    /**
+     * Returns the device name.
+     */
+    public String getDevice() {
+        return device;
+    }
+
+    /**
+     * Returns the variable name.
+     */
+    public String getVariable() {
+        return variable;
+    }
+
+    /**
+     * Returns the variable value.
+     */
+    public String getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return getInstant() + " " + server + " " + device + " " + variable + " = \""
+                + value + '"';
+    }
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.journal;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.shredzone.commons.nut.Device;
+import org.shredzone.commons.nut.monitor.PollListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link PollListener} that appends all poll results to a {@link Journal}.
+ */
+public class JournalListener implements PollListener {
+    private static final Logger LOG = LoggerFactory.getLogger(JournalListener.class);
+
+    private final Journal journal;
+    private final String server;
+
+    /**
+     * Creates a new {@link JournalListener}.
+     *
+     * @param journal
+     *         {@link Journal} to append to
+     * @param server
+     *         Server name to be stored with the readings
+     */
+    public JournalListener(Journal journal, String server) {
+        this.journal = journal;
+        this.server = server;
+    }
+
+    @Override
+    public void onPoll(Device device, Map<String, String> values) {
+        var now = System.currentTimeMillis();
+        try {
+            for (var entry : values.entrySet()) {
+                journal.append(now, server, device.getName(), entry.getKey(),
+                        entry.getValue());
+            }
+        } catch (IOException ex) {
+            LOG.error("Could not append to journal {}", journal.getDirectory(), ex);
+        }
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.journal;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.function.Consumer;
+
+/**
+ * Reads the readings of a {@link Journal}.
+ * <p>
+ * The segments are read sequentially via memory mapped buffers. Segments that do not
+ * contain readings of the requested time range are skipped without reading their
+ * records. The journal may be read while it is written to.
+ */
+public class JournalReader {
+    private final Path directory;
+
+    /**
+     * Creates a new {@link JournalReader}.
+     *
+     * @param directory
+     *         Directory of the journal
+     */
+    public JournalReader(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Replays all readings of the journal, in the order they have been written.
+     *
+     * @param consumer
+     *         {@link Consumer} that receives the {@link JournalEntry}
+     */
+    public void replay(Consumer<JournalEntry> consumer) throws IOException {
+        scan(Long.MIN_VALUE, Long.MAX_VALUE, consumer);
+    }
+
+    /**
+     * Reads all readings within the given time range, in the order they have been
+     * written.
+     *
+     * @param from
+     *         Earliest time, inclusive
+     * @param to
+     *         Latest time, exclusive
+     * @param consumer
+     *         {@link Consumer} that receives the {@link JournalEntry}
+     */
+    public void scan(Instant from, Instant to, Consumer<JournalEntry> consumer)
+            throws IOException {
+        scan(from.toEpochMilli(), to.toEpochMilli(), consumer);
+    }
+
+    /**
+     * Reads all readings within the given time range, in the order they have been
+     * written.
+     *
+     * @param from
+     *         Earliest timestamp in milliseconds since epoch, inclusive
+     * @param to
+     *         Latest timestamp in milliseconds since epoch, exclusive
+     * @param consumer
+     *         {@link Consumer} that receives the {@link JournalEntry}
+     */
+    public void scan(long from, long to, Consumer<JournalEntry> consumer) throws IOException {
+        for (var path : Journal.listSegments(directory)) {
+            Segment segment;
+            try {
+                segment = Segment.open(path, false);
+            } catch (NoSuchFileException ex) {
+                continue; // segment was deleted by the retention in the meantime
+            }
+            if (segment.getLastTimestamp() < from || segment.getFirstTimestamp() >= to) {
+                continue;
+            }
+            segment.read(from, to, consumer);
+        }
+    }
+
+}
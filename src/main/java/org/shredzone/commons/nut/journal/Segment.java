@@ -0,0 +1,258 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.journal;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * A single segment file of the {@link Journal}.
+ * <p>
+ * The segment starts with a header, followed by the records. Each record is prefixed
+ * by its length. A length of 0 marks the end of the records. The length is written
+ * after the record, so a partially written record is never visible to readers.
+ * <pre>
+ * int      magic
+ * int      version
+ * long     timestamp of the first record
+ * long     timestamp of the last record
+ * long     reserved
+ * records: int length, long timestamp, 4 strings (short length, UTF-8 bytes)
+ * </pre>
+ */
+class Segment {
+    static final Pattern FILE_NAME = Pattern.compile("journal-(\\d{20})\\.seg");
+
+    private static final int MAGIC = 0x4E55544A;
+    private static final int VERSION = 1;
+    private static final int FIRST_TS = 8;
+    private static final int LAST_TS = 16;
+    static final int HEADER_SIZE = 32;
+
+    private final Path path;
+    private final long number;
+    private final MappedByteBuffer buffer;
+
+    private Segment(Path path, long number, MappedByteBuffer buffer) {
+        this.path = path;
+        this.number = number;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Creates a new segment file, and maps it for writing.
+     *
+     * @param dir
+     *         Journal directory
+     * @param number
+     *         Segment number
+     * @param size
+     *         Segment size, in bytes
+     */
+    static Segment create(Path dir, long number, int size) throws IOException {
+        var path = dir.resolve(fileName(number));
+        try (var channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0L, size);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putLong(FIRST_TS, Long.MAX_VALUE);
+            buffer.putLong(LAST_TS, Long.MIN_VALUE);
+            buffer.position(HEADER_SIZE);
+            return new Segment(path, number, buffer);
+        }
+    }
+
+    /**
+     * Opens an existing segment file.
+     *
+     * @param path
+     *         Path of the segment file
+     * @param writable
+     *         {@code true} to map the segment for writing. The write position is set
+     *         behind the last record.
+     */
+    static Segment open(Path path, boolean writable) throws IOException {
+        var fileName = path.getFileName();
+        var m = FILE_NAME.matcher(fileName != null ? fileName.toString() : "");
+        if (!m.matches()) {
+            throw new IOException("Not a journal segment: " + path);
+        }
+
+        var options = writable
+                ? new StandardOpenOption[] {StandardOpenOption.READ, StandardOpenOption.WRITE}
+                : new StandardOpenOption[] {StandardOpenOption.READ};
+        try (var channel = FileChannel.open(path, options)) {
+            var buffer = channel.map(
+                    writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+                    0L, channel.size());
+            if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC
+                    || buffer.getInt(4) != VERSION) {
+                throw new IOException("Invalid journal segment: " + path);
+            }
+            var segment = new Segment(path, Long.parseLong(m.group(1)), buffer);
+            if (writable) {
+                segment.buffer.position(segment.findEnd());
+            }
+            return segment;
+        }
+    }
+
+    /**
+     * Returns the file name of the segment with the given number.
+     */
+    static String fileName(long number) {
+        return String.format("journal-%020d.seg", number);
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    long getNumber() {
+        return number;
+    }
+
+    long getFirstTimestamp() {
+        return buffer.getLong(FIRST_TS);
+    }
+
+    long getLastTimestamp() {
+        return buffer.getLong(LAST_TS);
+    }
+
+    /**
+     * Appends a record.
+     *
+     * @return {@code true} if the record was appended, {@code false} if there is not
+     * enough space left in this segment
+     */
+    boolean append(long timestamp, byte[] server, byte[] device, byte[] variable,
+            byte[] value) {
+        int length = 8 + 8 + server.length + device.length + variable.length + value.length;
+        int start = buffer.position();
+        if (start + 4 + length + 4 > buffer.capacity()) {
+            return false;
+        }
+
+        buffer.position(start + 4);
+        buffer.putLong(timestamp);
+        putString(server);
+        putString(device);
+        putString(variable);
+        putString(value);
+        buffer.putInt(start, length);
+
+        if (timestamp < getFirstTimestamp()) {
+            buffer.putLong(FIRST_TS, timestamp);
+        }
+        if (timestamp > getLastTimestamp()) {
+            buffer.putLong(LAST_TS, timestamp);
+        }
+        return true;
+    }
+
+    /**
+     * Reads all records within the given time range.
+     *
+     * @param from
+     *         Earliest timestamp, inclusive
+     * @param to
+     *         Latest timestamp, exclusive
+     * @param consumer
+     *         {@link Consumer} for the {@link JournalEntry}
+     */
+    void read(long from, long to, Consumer<JournalEntry> consumer) {
+        var view = buffer.duplicate();
+        var bytes = new byte[0xFFFF];
+        int pos = HEADER_SIZE;
+        while (pos + 4 <= view.capacity()) {
+            int length = view.getInt(pos);
+            if (length <= 0 || pos + 4 + length > view.capacity()) {
+                break;
+            }
+            view.position(pos + 4);
+            long timestamp = view.getLong();
+            if (timestamp >= from && timestamp < to) {
+                try {
+                    var server = getString(view, bytes);
+                    var device = getString(view, bytes);
+                    var variable = getString(view, bytes);
+                    var value = getString(view, bytes);
+                    consumer.accept(new JournalEntry(timestamp, server, device, variable, value));
+                } catch (BufferUnderflowException | IllegalArgumentException ex) {
+                    break; // corrupted record
+                }
+            }
+            pos += 4 + length;
+        }
+    }
+
+    /**
+     * Forces all changes to be written to the storage device.
+     */
+    void force() {
+        buffer.force();
+    }
+
+    private int findEnd() {
+        int pos = HEADER_SIZE;
+        while (pos + 4 <= buffer.capacity()) {
+            int length = buffer.getInt(pos);
+            if (length <= 0 || pos + 4 + length > buffer.capacity()) {
+                break;
+            }
+            pos += 4 + length;
+        }
+        return pos;
+    }
+
+    private void putString(byte[] bytes) {
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer view, byte[] scratch) {
+        int len = Short.toUnsignedInt(view.getShort());
+        view.get(scratch, 0, len);
+        return new String(scratch, 0, len, UTF_8);
+    }
+
+    /**
+     * Checks if the given path is a segment file.
+     */
+    static boolean isSegment(Path path) {
+        var fileName = path.getFileName();
+        return fileName != null
+                && Files.isRegularFile(path)
+                && FILE_NAME.matcher(fileName.toString()).matches();
+    }
+
+}
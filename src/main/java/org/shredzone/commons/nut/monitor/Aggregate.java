@@ -0,0 +1,193 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.monitor;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+
+/**
+ * An aggregate of a variable over all devices of an {@link AggregateGroup}.
+ * <p>
+ * The aggregate is updated incrementally by the {@link FleetAggregator} whenever the
+ * variable of one of the devices has changed. Reading the result is a constant-time
+ * operation, and does not require locking.
+ */
+public class Aggregate {
+    private final String group;
+    private final String variable;
+    private final AggregateFunction function;
+
+    @Nullable
+    private final Predicate<String> condition;
+
+    private final Map<FleetAggregator.Member, BigDecimal> contributions = new HashMap<>();
+    private final Set<FleetAggregator.Member> matches = new HashSet<>();
+    private final TreeMap<BigDecimal, Integer> sorted = new TreeMap<>();
+    private BigDecimal sum = BigDecimal.ZERO;
+
+    @Nullable
+    private volatile BigDecimal value;
+    private volatile int count;
+
+    /**
+     * Creates a new {@link Aggregate}. Use the methods of {@link AggregateGroup} to get
+     * an instance.
+     *
+     * @param group
+     *         Name of the group
+     * @param variable
+     *         Name of the aggregated variable
+     * @param function
+     *         {@link AggregateFunction}
+     * @param condition
+     *         Condition for {@link AggregateFunction#COUNT}, {@code null} otherwise
+     */
+    Aggregate(String group, String variable, AggregateFunction function,
+            @Nullable Predicate<String> condition) {
+        this.group = group;
+        this.variable = variable;
+        this.function = function;
+        this.condition = condition;
+        if (function == AggregateFunction.SUM || function == AggregateFunction.COUNT) {
+            value = BigDecimal.ZERO;
+        }
+    }
+
+    /**
+     * Returns the name of the group.
+     */
+    public String getGroup() {
+        return group;
+    }
+
+    /**
+     * Returns the name of the aggregated variable.
+     */
+    public String getVariable() {
+        return variable;
+    }
+
+    /**
+     * Returns the {@link AggregateFunction}.
+     */
+    public AggregateFunction getFunction() {
+        return function;
+    }
+
+    /**
+     * Returns the current result of the aggregate.
+     *
+     * @return Result, or {@code null} if none of the devices has provided a numeric
+     * value for {@link AggregateFunction#MIN} or {@link AggregateFunction#MAX} yet.
+     * {@link AggregateFunction#SUM} and {@link AggregateFunction#COUNT} return zero
+     * then.
+     */
+    @Nullable
+    public BigDecimal getValue() {
+        return value;
+    }
+
+    /**
+     * Returns the number of devices that contribute to the result. For
+     * {@link AggregateFunction#COUNT}, it is the number of devices that meet the
+     * condition.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Updates the contribution of a device. Must be invoked while holding the lock of
+     * the {@link FleetAggregator}.
+     *
+     * @param member
+     *         Key of the device
+     * @param newValue
+     *         New value of the variable, or {@code null} if the device does not provide
+     *         the variable (anymore)
+     */
+    void update(FleetAggregator.Member member, @Nullable String newValue) {
+        if (function == AggregateFunction.COUNT) {
+            var match = newValue != null && condition != null && condition.test(newValue);
+            var changed = match ? matches.add(member) : matches.remove(member);
+            if (changed) {
+                count = matches.size();
+                value = BigDecimal.valueOf(matches.size());
+            }
+            return;
+        }
+
+        var number = parse(newValue);
+        var old = number != null
+                ? contributions.put(member, number)
+                : contributions.remove(member);
+        if (old == null ? number == null : number != null && old.compareTo(number) == 0) {
+            return;
+        }
+
+        if (function == AggregateFunction.SUM) {
+            if (old != null) {
+                sum = sum.subtract(old);
+            }
+            if (number != null) {
+                sum = sum.add(number);
+            }
+            value = sum;
+        } else {
+            if (old != null) {
+                sorted.computeIfPresent(old, (k, v) -> v > 1 ? v - 1 : null);
+            }
+            if (number != null) {
+                sorted.merge(number, 1, Integer::sum);
+            }
+            if (sorted.isEmpty()) {
+                value = null;
+            } else {
+                value = function == AggregateFunction.MIN ? sorted.firstKey() : sorted.lastKey();
+            }
+        }
+        count = contributions.size();
+    }
+
+    @Nullable
+    private static BigDecimal parse(@Nullable String str) {
+        if (str == null) {
+            return null;
+        }
+        try {
+            return new BigDecimal(str.trim());
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return function + "(" + group + ", " + variable + ") = " + value;
+    }
+
+}
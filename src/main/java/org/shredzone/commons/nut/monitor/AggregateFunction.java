@@ -0,0 +1,47 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.monitor;
+
+/**
+ * Functions of an {@link Aggregate}.
+ */
+public enum AggregateFunction {
+
+    /**
+     * Sum of the numeric values of all devices of the group.
+     */
+    SUM,
+
+    /**
+     * Minimum of the numeric values of all devices of the group.
+     */
+    MIN,
+
+    /**
+     * Maximum of the numeric values of all devices of the group.
+     */
+    MAX,
+
+    /**
+     * Number of devices of the group with a value that meets a condition.
+     */
+    COUNT
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.monitor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+
+/**
+ * A named group of devices, e.g. all devices in a room or a rack. The group defines
+ * {@link Aggregate} over its devices.
+ * <p>
+ * Use {@link FleetAggregator#group(String)} to get an instance.
+ */
+public class AggregateGroup {
+    private final FleetAggregator fleet;
+    private final String name;
+    private final Set<FleetAggregator.Member> members = new LinkedHashSet<>();
+    private final List<Aggregate> aggregates = new CopyOnWriteArrayList<>();
+
+    AggregateGroup(FleetAggregator fleet, String name) {
+        this.fleet = fleet;
+        this.name = name;
+    }
+
+    /**
+     * Returns the name of the group.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Adds a device to the group.
+     *
+     * @param server
+     *         Server name, as passed to the {@link FleetAggregator}
+     * @param device
+     *         Device name
+     * @return itself
+     */
+    public AggregateGroup add(String server, String device) {
+        synchronized (fleet) {
+            if (members.add(new FleetAggregator.Member(server, device))) {
+                fleet.reindex();
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Removes a device from the group. Its contribution is removed from all aggregates
+     * of this group.
+     *
+     * @param server
+     *         Server name, as passed to the {@link FleetAggregator}
+     * @param device
+     *         Device name
+     * @return itself
+     */
+    public AggregateGroup remove(String server, String device) {
+        synchronized (fleet) {
+            var member = new FleetAggregator.Member(server, device);
+            if (members.remove(member)) {
+                aggregates.forEach(a -> a.update(member, null));
+                fleet.reindex();
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Creates an aggregate of the sum of a numeric variable.
+     *
+     * @param variable
+     *         Variable name, e.g. {@code ups.realpower}
+     * @return {@link Aggregate}
+     */
+    public Aggregate sum(String variable) {
+        return define(variable, AggregateFunction.SUM, null);
+    }
+
+    /**
+     * Creates an aggregate of the minimum of a numeric variable.
+     *
+     * @param variable
+     *         Variable name, e.g. {@code battery.runtime}
+     * @return {@link Aggregate}
+     */
+    public Aggregate min(String variable) {
+        return define(variable, AggregateFunction.MIN, null);
+    }
+
+    /**
+     * Creates an aggregate of the maximum of a numeric variable.
+     *
+     * @param variable
+     *         Variable name, e.g. {@code ups.load}
+     * @return {@link Aggregate}
+     */
+    public Aggregate max(String variable) {
+        return define(variable, AggregateFunction.MAX, null);
+    }
+
+    /**
+     * Creates an aggregate that counts the devices whose variable meets a condition.
+     *
+     * @param variable
+     *         Variable name, e.g. {@code ups.status}
+     * @param condition
+     *         Condition, e.g. {@code s -> s.contains("OB")}
+     * @return {@link Aggregate}
+     */
+    public Aggregate count(String variable, Predicate<String> condition) {
+        return define(variable, AggregateFunction.COUNT, condition);
+    }
+
+    /**
+     * Returns all aggregates of this group.
+     */
+    public List<Aggregate> getAggregates() {
+        return Collections.unmodifiableList(aggregates);
+    }
+
+    /**
+     * Returns the members of this group.
+     */
+    List<FleetAggregator.Member> getMembers() {
+        return new ArrayList<>(members);
+    }
+
+    private Aggregate define(String variable, AggregateFunction function,
+            @Nullable Predicate<String> condition) {
+        var aggregate = new Aggregate(name, variable, function, condition);
+        synchronized (fleet) {
+            aggregates.add(aggregate);
+            fleet.reindex();
+        }
+        return aggregate;
+    }
+
+}
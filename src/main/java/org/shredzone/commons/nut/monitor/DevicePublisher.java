@@ -0,0 +1,341 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.monitor;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import org.shredzone.commons.nut.Device;
+import org.shredzone.commons.nut.SymbolTable;
+import org.shredzone.commons.nut.util.IntMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link Flow.Publisher} of {@link DeviceUpdate}.
+ * <p>
+ * The publisher is a {@link PollListener}, and is usually registered at a
+ * {@link PollScheduler}. Each poll result is published to all subscribers, respecting
+ * their demand. Updates exceeding the demand are handled according to the
+ * {@link OverflowStrategy}.
+ * <p>
+ * If none of the subscribers has requested more updates, the publisher tells the
+ * {@link PollScheduler} to skip polling, so slow subscribers slow down the polling
+ * instead of filling up the memory.
+ */
+public class DevicePublisher implements Flow.Publisher<DeviceUpdate>, PollListener,
+        AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(DevicePublisher.class);
+
+    private final OverflowStrategy strategy;
+    private final int bufferSize;
+    private final Executor executor;
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final Map<Device, IntMap<String>> snapshots = new WeakHashMap<>();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * Creates a new {@link DevicePublisher} that delivers the updates using the common
+     * {@link ForkJoinPool}.
+     *
+     * @param strategy
+     *         {@link OverflowStrategy} to be used
+     * @param bufferSize
+     *         Maximum number of buffered updates per subscriber, if
+     *         {@link OverflowStrategy#BUFFER} is used
+     */
+    public DevicePublisher(OverflowStrategy strategy, int bufferSize) {
+        this(strategy, bufferSize, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a new {@link DevicePublisher}.
+     *
+     * @param strategy
+     *         {@link OverflowStrategy} to be used
+     * @param bufferSize
+     *         Maximum number of buffered updates per subscriber, if
+     *         {@link OverflowStrategy#BUFFER} is used
+     * @param executor
+     *         {@link Executor} that delivers the updates to the subscribers
+     */
+    public DevicePublisher(OverflowStrategy strategy, int bufferSize, Executor executor) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("bufferSize must be positive");
+        }
+        this.strategy = strategy;
+        this.bufferSize = bufferSize;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super DeviceUpdate> subscriber) {
+        var subscription = new Subscription(subscriber);
+        if (closed) {
+            subscriber.onSubscribe(subscription);
+            subscription.complete();
+            return;
+        }
+        subscriptions.add(subscription);
+        subscriber.onSubscribe(subscription);
+    }
+
+    /**
+     * Publishes the poll result to all subscribers. If there are no subscribers, the
+     * result is ignored.
+     */
+    @Override
+    public void onPoll(Device device, Map<String, String> values) {
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+
+        var current = new IntMap<String>(values.size());
+        values.forEach((name, value) -> current.put(SymbolTable.id(name), value));
+
+        DeviceUpdate update;
+        synchronized (snapshots) {
+            var previous = snapshots.get(device);
+            update = DeviceUpdate.diff(device, Instant.now(), previous, current);
+            snapshots.put(device, current);
+        }
+
+        subscriptions.forEach(s -> s.offer(update));
+    }
+
+    /**
+     * Returns {@code true} if at least one subscriber has requested more updates than
+     * are currently pending.
+     */
+    @Override
+    public boolean isReady(Device device) {
+        return subscriptions.stream().anyMatch(Subscription::wantsMore);
+    }
+
+    /**
+     * Returns the number of subscribers.
+     */
+    public int getNumberOfSubscribers() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Returns the number of devices with a snapshot of their previous values.
+     */
+    int getSnapshotCount() {
+        synchronized (snapshots) {
+            return snapshots.size();
+        }
+    }
+
+    /**
+     * Returns the number of updates that were dropped because of overflows.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Closes the publisher. All subscribers are completed after the pending updates
+     * have been delivered.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        subscriptions.forEach(Subscription::complete);
+    }
+
+    /**
+     * The subscription of a single subscriber.
+     */
+    private class Subscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super DeviceUpdate> subscriber;
+        private final Deque<DeviceUpdate> queue = new ArrayDeque<>();
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile boolean completing;
+
+        @Nullable
+        private volatile Throwable error;
+
+        Subscription(Flow.Subscriber<? super DeviceUpdate> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("non-positive request: " + n);
+            } else {
+                requested.accumulateAndGet(n, (a, b) -> {
+                    var sum = a + b;
+                    return sum < 0 ? Long.MAX_VALUE : sum;
+                });
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+            synchronized (this) {
+                queue.clear();
+            }
+            if (subscriptions.isEmpty()) {
+                // The next subscriber gets full updates, so no snapshots are needed
+                synchronized (snapshots) {
+                    snapshots.clear();
+                }
+            }
+        }
+
+        /**
+         * Offers an update to this subscriber.
+         */
+        void offer(DeviceUpdate update) {
+            if (cancelled) {
+                return;
+            }
+
+            synchronized (this) {
+                switch (strategy) {
+                    case LATEST:
+                        offerLatest(update);
+                        break;
+
+                    case DROP:
+                        if (requested.get() > queue.size()) {
+                            queue.add(update);
+                        } else {
+                            dropped.incrementAndGet();
+                        }
+                        break;
+
+                    case BUFFER:
+                        if (queue.size() >= bufferSize) {
+                            queue.poll();
+                            dropped.incrementAndGet();
+                        }
+                        queue.add(update);
+                        break;
+
+                    default:
+                        throw new IllegalStateException("Unknown strategy " + strategy);
+                }
+            }
+
+            drain();
+        }
+
+        /**
+         * Completes the subscription after all pending updates have been delivered.
+         */
+        void complete() {
+            completing = true;
+            drain();
+        }
+
+        /**
+         * Checks if the subscriber has requested more updates than are pending.
+         */
+        synchronized boolean wantsMore() {
+            return !cancelled && requested.get() > queue.size();
+        }
+
+        private void offerLatest(DeviceUpdate update) {
+            var it = queue.iterator();
+            while (it.hasNext()) {
+                var pending = it.next();
+                if (pending.getDevice() == update.getDevice()) {
+                    it.remove();
+                    dropped.incrementAndGet();
+                    queue.add(pending.merge(update));
+                    return;
+                }
+            }
+            queue.add(update);
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() == 0) {
+                executor.execute(this::drainLoop);
+            }
+        }
+
+        private void drainLoop() {
+            int missed = 1;
+            while (true) {
+                var failure = error;
+                if (failure != null && !cancelled) {
+                    cancel();
+                    subscriber.onError(failure);
+                }
+
+                while (!cancelled && requested.get() > 0) {
+                    DeviceUpdate next;
+                    synchronized (this) {
+                        next = queue.poll();
+                    }
+                    if (next == null) {
+                        break;
+                    }
+                    if (requested.get() != Long.MAX_VALUE) {
+                        requested.decrementAndGet();
+                    }
+                    try {
+                        subscriber.onNext(next);
+                    } catch (RuntimeException ex) {
+                        LOG.warn("Subscriber failed, cancelling subscription", ex);
+                        cancel();
+                    }
+                }
+
+                if (completing && !cancelled && isQueueEmpty()) {
+                    cancel();
+                    subscriber.onComplete();
+                }
+
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    break;
+                }
+            }
+        }
+
+        private synchronized boolean isQueueEmpty() {
+            return queue.isEmpty();
+        }
+    }
+
+}
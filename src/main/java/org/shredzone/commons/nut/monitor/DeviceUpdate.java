@@ -0,0 +1,175 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.monitor;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import org.shredzone.commons.nut.Device;
+import org.shredzone.commons.nut.SymbolTable;
+import org.shredzone.commons.nut.util.IntMap;
+
+/**
+ * A snapshot of all variables of a {@link Device}, together with the changes since the
+ * previous snapshot.
+ */
+public class DeviceUpdate {
+    private final Device device;
+    private final Instant timestamp;
+    private final Map<String, String> values;
+    private final Set<String> changed;
+    private final Set<String> removed;
+
+    /**
+     * Creates a new {@link DeviceUpdate}.
+     *
+     * @param device
+     *         {@link Device} that was polled
+     * @param timestamp
+     *         Time of the poll
+     * @param values
+     *         All variables of the device
+     * @param changed
+     *         Names of the variables that were changed or added
+     * @param removed
+     *         Names of the variables that were removed
+     */
+    DeviceUpdate(Device device, Instant timestamp, Map<String, String> values,
+            Set<String> changed, Set<String> removed) {
+        this.device = device;
+        this.timestamp = timestamp;
+        this.values = Collections.unmodifiableMap(values);
+        this.changed = Collections.unmodifiableSet(changed);
+        this.removed = Collections.unmodifiableSet(removed);
+    }
+
+    /**
+     * Creates a {@link DeviceUpdate} by comparing a snapshot with the previous one.
+     *
+     * @param device
+     *         {@link Device} that was polled
+     * @param timestamp
+     *         Time of the poll
+     * @param previous
+     *         Previous snapshot, {@code null} if there was none
+     * @param current
+     *         Current snapshot
+     * @return {@link DeviceUpdate}
+     */
+    static DeviceUpdate diff(Device device, Instant timestamp,
+            @Nullable IntMap<String> previous, IntMap<String> current) {
+        var values = new HashMap<String, String>(current.size() * 2);
+        var changed = new HashSet<String>();
+        current.forEach((symbol, value) -> {
+            var name = SymbolTable.name(symbol);
+            values.put(name, value);
+            if (previous == null || !value.equals(previous.get(symbol))) {
+                changed.add(name);
+            }
+        });
+
+        var removed = new HashSet<String>();
+        if (previous != null) {
+            previous.forEach((symbol, value) -> {
+                if (!current.containsKey(symbol)) {
+                    removed.add(SymbolTable.name(symbol));
+                }
+            });
+        }
+
+        return new DeviceUpdate(device, timestamp, values, changed, removed);
+    }
+
+    /**
+     * Merges a newer update of the same device into this update. The result contains
+     * the values of the newer update, and all changes of both updates.
+     *
+     * @param newer
+     *         Newer {@link DeviceUpdate}
+     * @return Merged {@link DeviceUpdate}
+     */
+    DeviceUpdate merge(DeviceUpdate newer) {
+        var mergedChanged = new HashSet<>(changed);
+        mergedChanged.addAll(newer.changed);
+        mergedChanged.retainAll(newer.values.keySet());
+
+        var mergedRemoved = new HashSet<>(removed);
+        mergedRemoved.addAll(newer.removed);
+        mergedRemoved.removeAll(newer.values.keySet());
+
+        return new DeviceUpdate(newer.device, newer.timestamp, new HashMap<>(newer.values),
+                mergedChanged, mergedRemoved);
+    }
+
+    /**
+     * Returns the {@link Device} that was polled.
+     */
+    public Device getDevice() {
+        return device;
+    }
+
+    /**
+     * Returns the time of the poll.
+     */
+    public Instant getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns all variables of the device, as a map of variable names and values.
+     */
+    public Map<String, String> getValues() {
+        return values;
+    }
+
+    /**
+     * Returns the names of the variables that were changed or added since the previous
+     * update.
+     */
+    public Set<String> getChanged() {
+        return changed;
+    }
+
+    /**
+     * Returns the names of the variables that were removed since the previous update.
+     */
+    public Set<String> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * Returns {@code true} if there were any changes since the previous update.
+     */
+    public boolean hasChanges() {
+        return !changed.isEmpty() || !removed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "DeviceUpdate: " + device.getName() + " @ " + timestamp
+                + ", " + changed.size() + " changed, " + removed.size() + " removed";
+    }
+
+}
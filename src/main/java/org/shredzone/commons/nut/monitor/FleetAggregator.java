@@ -0,0 +1,209 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.monitor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Flow;
+
+
+/**
+ * Maintains aggregates like the total power of all devices in a room, or the number of
+ * devices running on battery, over a fleet of devices on many servers.
+ * <p>
+ * Devices are grouped into named {@link AggregateGroup}, which define the
+ * {@link Aggregate}. The aggregates are updated incrementally from the device updates,
+ * so the cost of an update only depends on the number of aggregates the device
+ * contributes to, but not on the size of the fleet. Reading an aggregate is a
+ * constant-time operation.
+ * <p>
+ * Updates are passed to {@link #update(String, DeviceUpdate)}, or via a
+ * {@link #listener(String)} or {@link #subscriber(String)} for each server. Aggregates
+ * and group members that are added later, contribute with the next update of the
+ * device.
+ */
+public class FleetAggregator {
+    private final Map<String, AggregateGroup> groups = new LinkedHashMap<>();
+    private Map<Member, Map<String, List<Aggregate>>> index = Collections.emptyMap();
+
+    /**
+     * Returns the {@link AggregateGroup} of the given name. It is created if it does not
+     * exist yet.
+     *
+     * @param name
+     *         Group name, e.g. {@code room-1}
+     * @return {@link AggregateGroup}
+     */
+    public synchronized AggregateGroup group(String name) {
+        return groups.computeIfAbsent(name, n -> new AggregateGroup(this, n));
+    }
+
+    /**
+     * Returns all groups.
+     */
+    public synchronized List<AggregateGroup> getGroups() {
+        return new ArrayList<>(groups.values());
+    }
+
+    /**
+     * Updates the aggregates with the current values of a device.
+     *
+     * @param server
+     *         Server name
+     * @param update
+     *         {@link DeviceUpdate} of the device
+     */
+    public void update(String server, DeviceUpdate update) {
+        update(server, update.getDevice().getName(), update.getValues());
+    }
+
+    /**
+     * Updates the aggregates with the current values of a device.
+     *
+     * @param server
+     *         Server name
+     * @param device
+     *         Device name
+     * @param values
+     *         All current variables of the device, as map of variable names and values
+     */
+    public synchronized void update(String server, String device, Map<String, String> values) {
+        var member = new Member(server, device);
+        var variables = index.get(member);
+        if (variables == null) {
+            return;
+        }
+        for (var entry : variables.entrySet()) {
+            var value = values.get(entry.getKey());
+            for (var aggregate : entry.getValue()) {
+                aggregate.update(member, value);
+            }
+        }
+    }
+
+    /**
+     * Removes a device from all aggregates, e.g. because it is not reachable anymore.
+     * It contributes again with its next update.
+     *
+     * @param server
+     *         Server name
+     * @param device
+     *         Device name
+     */
+    public synchronized void remove(String server, String device) {
+        update(server, device, Collections.emptyMap());
+    }
+
+    /**
+     * Returns a {@link PollListener} that updates the aggregates with the poll results
+     * of the devices of the given server.
+     *
+     * @param server
+     *         Server name
+     * @return {@link PollListener}
+     */
+    public PollListener listener(String server) {
+        return (device, values) -> update(server, device.getName(), values);
+    }
+
+    /**
+     * Returns a {@link Flow.Subscriber} that updates the aggregates with the
+     * {@link DeviceUpdate} of the devices of the given server. It can be subscribed to
+     * a {@link DevicePublisher}.
+     *
+     * @param server
+     *         Server name
+     * @return {@link Flow.Subscriber}
+     */
+    public Flow.Subscriber<DeviceUpdate> subscriber(String server) {
+        return new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(DeviceUpdate item) {
+                update(server, item);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                // nothing to do, the aggregates keep their last values
+            }
+
+            @Override
+            public void onComplete() {
+                // nothing to do, the aggregates keep their last values
+            }
+        };
+    }
+
+    /**
+     * Rebuilds the index of devices, variables and aggregates. Must be invoked whenever
+     * the groups or aggregates have changed.
+     */
+    synchronized void reindex() {
+        var newIndex = new HashMap<Member, Map<String, List<Aggregate>>>();
+        for (var group : groups.values()) {
+            for (var member : group.getMembers()) {
+                var variables = newIndex.computeIfAbsent(member, m -> new HashMap<>());
+                for (var aggregate : group.getAggregates()) {
+                    variables.computeIfAbsent(aggregate.getVariable(), v -> new ArrayList<>())
+                            .add(aggregate);
+                }
+            }
+        }
+        index = newIndex;
+    }
+
+    /**
+     * Key of a device on a server.
+     */
+    static final class Member {
+        private final String server;
+        private final String device;
+
+        Member(String server, String device) {
+            this.server = server;
+            this.device = device;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Member)) {
+                return false;
+            }
+            var other = (Member) obj;
+            return server.equals(other.server) && device.equals(other.device);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(server, device);
+        }
+    }
+
+}
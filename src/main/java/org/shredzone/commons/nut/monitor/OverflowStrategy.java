@@ -0,0 +1,45 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.monitor;
+
+/**
+ * Strategies of the {@link DevicePublisher} for handling updates that arrive faster
+ * than a subscriber is requesting them.
+ */
+public enum OverflowStrategy {
+
+    /**
+     * Only the latest update of each device is kept. An older pending update of the
+     * same device is replaced, and its changes are merged into the latest update.
+     */
+    LATEST,
+
+    /**
+     * Updates are dropped if the subscriber has not requested them.
+     */
+    DROP,
+
+    /**
+     * Updates are buffered up to the configured buffer size. If the buffer is full, the
+     * oldest update is dropped.
+     */
+    BUFFER
+
+}
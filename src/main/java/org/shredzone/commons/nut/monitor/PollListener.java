@@ -0,0 +1,71 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.monitor;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.shredzone.commons.nut.Device;
+
+/**
+ * A listener that is invoked by the {@link PollScheduler} whenever a {@link Device} has
+ * been polled.
+ */
+public interface PollListener {
+
+    /**
+     * Invoked when the device was polled successfully.
+     *
+     * @param device
+     *         {@link Device} that was polled
+     * @param values
+     *         Unmodifiable snapshot of all variables of the device, as map of variable
+     *         names and values. It is shared by all listeners of the poll.
+     * @see Device#getValues()
+     */
+    void onPoll(Device device, Map<String, String> values);
+
+    /**
+     * Invoked when the device could not be polled. The default implementation does
+     * nothing.
+     *
+     * @param device
+     *         {@link Device} that was polled
+     * @param ex
+     *         The {@link IOException} that occured
+     */
+    default void onError(Device device, IOException ex) {
+        // default implementation does nothing
+    }
+
+    /**
+     * Checks if the listener is ready to receive the next poll result of the given
+     * device. If no listener is ready, the {@link PollScheduler} skips the poll. The
+     * default implementation always returns {@code true}.
+     *
+     * @param device
+     *         {@link Device} that is about to be polled
+     * @return {@code true} if the device should be polled
+     */
+    default boolean isReady(Device device) {
+        return true;
+    }
+
+}
@@ -0,0 +1,237 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.monitor;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+
+/**
+ * Configures how the {@link PollScheduler} adapts the poll interval of a device.
+ * <p>
+ * The interval is always kept between the {@link #min(Duration)} and the
+ * {@link #max(Duration)} interval:
+ * <ul>
+ *     <li>If the device is on battery ({@code OB}), has a low battery ({@code LB}), or
+ *     is forced to shut down ({@code FSD}), the minimum interval is used.</li>
+ *     <li>If the device is charging ({@code CHRG}) or discharging ({@code DISCHRG}), or
+ *     if one of the key variables has changed significantly, the interval is
+ *     halved.</li>
+ *     <li>Otherwise the device is regarded stable, and the interval is multiplied by
+ *     the backoff factor.</li>
+ *     <li>The interval is never shorter than the measured server latency multiplied by
+ *     the latency factor.</li>
+ * </ul>
+ */
+public class PollPolicy {
+    private static final Set<String> URGENT_FLAGS = Set.of("OB", "LB", "FSD");
+    private static final Set<String> ACTIVE_FLAGS = Set.of("CHRG", "DISCHRG");
+
+    private Duration min = Duration.ofSeconds(1);
+    private Duration max = Duration.ofSeconds(60);
+    private double backoff = 1.5;
+    private double latencyFactor = 10.0;
+    private double threshold = 0.02;
+    private Set<String> keyVariables = new LinkedHashSet<>(Arrays.asList(
+            "ups.status", "battery.charge", "battery.runtime", "input.voltage", "ups.load"));
+
+    /**
+     * Sets the minimum poll interval. Default is 1 second.
+     *
+     * @param min
+     *         Minimum interval
+     */
+    public PollPolicy min(Duration min) {
+        if (min.isNegative() || min.isZero()) {
+            throw new IllegalArgumentException("min must be positive");
+        }
+        this.min = min;
+        return this;
+    }
+
+    /**
+     * Sets the maximum poll interval. Default is 60 seconds.
+     *
+     * @param max
+     *         Maximum interval
+     */
+    public PollPolicy max(Duration max) {
+        if (max.isNegative() || max.isZero()) {
+            throw new IllegalArgumentException("max must be positive");
+        }
+        this.max = max;
+        return this;
+    }
+
+    /**
+     * Sets the factor the interval is multiplied with while the device is stable.
+     * Default is 1.5.
+     *
+     * @param backoff
+     *         Backoff factor, must be greater than 1
+     */
+    public PollPolicy backoff(double backoff) {
+        if (backoff <= 1.0) {
+            throw new IllegalArgumentException("backoff must be greater than 1");
+        }
+        this.backoff = backoff;
+        return this;
+    }
+
+    /**
+     * Sets the factor the measured server latency is multiplied with, giving the
+     * shortest permitted interval. Default is 10, so a device is not polled more often
+     * than the server is able to answer with 10% utilization.
+     *
+     * @param latencyFactor
+     *         Latency factor, 0 to ignore the server latency
+     */
+    public PollPolicy latencyFactor(double latencyFactor) {
+        if (latencyFactor < 0.0) {
+            throw new IllegalArgumentException("latencyFactor must not be negative");
+        }
+        this.latencyFactor = latencyFactor;
+        return this;
+    }
+
+    /**
+     * Sets the relative change of a numeric key variable that is regarded significant.
+     * Default is 0.02 (2%).
+     *
+     * @param threshold
+     *         Relative threshold
+     */
+    public PollPolicy threshold(double threshold) {
+        if (threshold < 0.0) {
+            throw new IllegalArgumentException("threshold must not be negative");
+        }
+        this.threshold = threshold;
+        return this;
+    }
+
+    /**
+     * Sets the names of the key variables that are watched for changes. Default is
+     * {@code ups.status}, {@code battery.charge}, {@code battery.runtime},
+     * {@code input.voltage} and {@code ups.load}.
+     *
+     * @param names
+     *         Variable names
+     */
+    public PollPolicy keyVariables(String... names) {
+        this.keyVariables = new LinkedHashSet<>(Arrays.asList(names));
+        return this;
+    }
+
+    /**
+     * Returns the minimum poll interval.
+     */
+    public Duration getMin() {
+        return min;
+    }
+
+    /**
+     * Returns the maximum poll interval.
+     */
+    public Duration getMax() {
+        return max;
+    }
+
+    /**
+     * Returns the names of the key variables.
+     */
+    public Set<String> getKeyVariables() {
+        return Collections.unmodifiableSet(keyVariables);
+    }
+
+    /**
+     * Computes the next poll interval.
+     *
+     * @param current
+     *         Current interval
+     * @param status
+     *         Current {@code ups.status} value, or {@code null} if unknown
+     * @param changed
+     *         {@code true} if a key variable has changed significantly
+     * @param latencyNanos
+     *         Measured server latency, in nanoseconds
+     * @return Next interval
+     */
+    public Duration nextInterval(Duration current, @Nullable String status,
+            boolean changed, long latencyNanos) {
+        long minNanos = min.toNanos();
+        long maxNanos = Math.max(max.toNanos(), minNanos);
+        long next;
+
+        if (hasFlag(status, URGENT_FLAGS)) {
+            next = minNanos;
+        } else if (changed || hasFlag(status, ACTIVE_FLAGS)) {
+            next = current.toNanos() / 2;
+        } else {
+            next = (long) (current.toNanos() * backoff);
+        }
+
+        next = Math.max(next, (long) (latencyNanos * latencyFactor));
+        return Duration.ofNanos(Math.max(minNanos, Math.min(maxNanos, next)));
+    }
+
+    /**
+     * Checks if a key variable has changed significantly.
+     *
+     * @param oldValue
+     *         Previous value, or {@code null} if there was none
+     * @param newValue
+     *         Current value, or {@code null} if there is none
+     * @return {@code true} if the change is significant
+     */
+    public boolean isSignificant(@Nullable String oldValue, @Nullable String newValue) {
+        if (oldValue == null || newValue == null) {
+            return oldValue != null || newValue != null;
+        }
+        if (oldValue.equals(newValue)) {
+            return false;
+        }
+        try {
+            var oldNum = new BigDecimal(oldValue);
+            var newNum = new BigDecimal(newValue);
+            var base = Math.max(Math.abs(oldNum.doubleValue()), 1.0);
+            return Math.abs(newNum.doubleValue() - oldNum.doubleValue()) / base > threshold;
+        } catch (NumberFormatException ex) {
+            return true;
+        }
+    }
+
+    private static boolean hasFlag(@Nullable String status, Set<String> flags) {
+        if (status == null) {
+            return false;
+        }
+        for (var flag : status.split("\\s+")) {
+            if (flags.contains(flag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
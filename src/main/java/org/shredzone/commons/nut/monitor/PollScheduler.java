@@ -0,0 +1,282 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.monitor;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import org.shredzone.commons.nut.Device;
+import org.shredzone.commons.nut.exception.CircuitOpenException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Polls the variables of registered devices, and adapts the poll interval of each
+ * device to its state.
+ * <p>
+ * Devices that are on battery are polled quickly, while stable devices are polled less
+ * frequently. See {@link PollPolicy} for the details.
+ * <p>
+ * If the {@link PollListener} is not ready to receive more results, the poll is skipped.
+ * If the {@link org.shredzone.commons.nut.CircuitBreaker} of the server is open, the
+ * poll fails immediately, and the next poll is delayed until the server is probed.
+ * <p>
+ * By default, all devices are polled by a single thread, so the devices may share the
+ * same {@link org.shredzone.commons.nut.Client}. If a multi-threaded executor is used
+ * instead, each device must be connected by its own client.
+ */
+public class PollScheduler implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(PollScheduler.class);
+    private static final double LATENCY_WEIGHT = 0.3;
+
+    private final PollPolicy policy;
+    private final ScheduledExecutorService executor;
+    private final boolean ownExecutor;
+    private final Map<Device, Task> tasks = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new {@link PollScheduler} that uses its own polling thread.
+     *
+     * @param policy
+     *         {@link PollPolicy} to be used
+     */
+    public PollScheduler(PollPolicy policy) {
+        this(policy, Executors.newSingleThreadScheduledExecutor(r -> {
+            var thread = new Thread(r, "nut-poll-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        }), true);
+    }
+
+    /**
+     * Creates a new {@link PollScheduler} that uses the given executor. The executor is
+     * not shut down when the scheduler is closed.
+     *
+     * @param policy
+     *         {@link PollPolicy} to be used
+     * @param executor
+     *         {@link ScheduledExecutorService} that runs the polls
+     */
+    public PollScheduler(PollPolicy policy, ScheduledExecutorService executor) {
+        this(policy, executor, false);
+    }
+
+    private PollScheduler(PollPolicy policy, ScheduledExecutorService executor,
+            boolean ownExecutor) {
+        this.policy = policy;
+        this.executor = executor;
+        this.ownExecutor = ownExecutor;
+    }
+
+    /**
+     * Registers a {@link Device}. It is polled immediately, and then in adaptive
+     * intervals. If the device was already registered, its listener is replaced.
+     *
+     * @param device
+     *         {@link Device} to poll
+     * @param listener
+     *         {@link PollListener} that receives the poll results
+     */
+    public void register(Device device, PollListener listener) {
+        var task = new Task(device, listener);
+        var old = tasks.put(device, task);
+        if (old != null) {
+            old.cancel();
+        }
+        task.schedule(Duration.ZERO);
+    }
+
+    /**
+     * Unregisters a {@link Device}. It won't be polled anymore.
+     *
+     * @param device
+     *         {@link Device} to unregister
+     */
+    public void unregister(Device device) {
+        var task = tasks.remove(device);
+        if (task != null) {
+            task.cancel();
+        }
+    }
+
+    /**
+     * Returns the current poll interval of a {@link Device}.
+     *
+     * @param device
+     *         {@link Device} to get the interval of
+     * @return Current interval, or empty if the device is not registered
+     */
+    public Optional<Duration> getInterval(Device device) {
+        return Optional.ofNullable(tasks.get(device)).map(t -> t.interval);
+    }
+
+    /**
+     * Returns the measured server latency of the last polls of a {@link Device}.
+     *
+     * @param device
+     *         {@link Device} to get the latency of
+     * @return Smoothed latency, or empty if the device is not registered
+     */
+    public Optional<Duration> getLatency(Device device) {
+        return Optional.ofNullable(tasks.get(device)).map(t -> Duration.ofNanos(t.latency));
+    }
+
+    /**
+     * Stops polling all devices. If the scheduler uses its own thread, it is shut down.
+     */
+    @Override
+    public void close() {
+        tasks.values().forEach(Task::cancel);
+        tasks.clear();
+        if (ownExecutor) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * The polling task of a single device.
+     */
+    private class Task implements Runnable {
+        private final Device device;
+        private final PollListener listener;
+        private final Map<String, String> keyValues = new HashMap<>();
+        private volatile Duration interval = policy.getMin();
+        private volatile long latency;
+        private volatile boolean cancelled;
+
+        @Nullable
+        private ScheduledFuture<?> future;
+
+        Task(Device device, PollListener listener) {
+            this.device = device;
+            this.listener = listener;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+
+            var delay = interval;
+            try {
+                delay = poll();
+            } catch (RuntimeException ex) {
+                LOG.warn("Failed to poll device {}", device.getName(), ex);
+            } finally {
+                // Always poll again, so a single failure does not stop polling
+                schedule(delay);
+            }
+        }
+
+        /**
+         * Polls the device, and notifies the listener.
+         *
+         * @return Delay until the next poll
+         */
+        private Duration poll() {
+            if (!listener.isReady(device)) {
+                LOG.debug("Listener is not ready, skipping poll of device {}", device.getName());
+                return interval;
+            }
+
+            Map<String, String> values;
+            long start = System.nanoTime();
+            try {
+                values = device.getValues();
+            } catch (CircuitOpenException ex) {
+                LOG.debug("Server of device {} is unreachable, skipping poll", device.getName());
+                notifyError(ex);
+                var retry = ex.getRetryAfter();
+                return retry.compareTo(interval) > 0 ? retry : interval;
+            } catch (IOException ex) {
+                LOG.debug("Failed to poll device {}", device.getName(), ex);
+                notifyError(ex);
+                interval = policy.nextInterval(interval, null, false, latency);
+                return interval;
+            }
+            long elapsed = System.nanoTime() - start;
+            latency = latency == 0 ? elapsed
+                    : (long) (LATENCY_WEIGHT * elapsed + (1.0 - LATENCY_WEIGHT) * latency);
+
+            var changed = false;
+            String status = null;
+            for (var name : policy.getKeyVariables()) {
+                var value = values.get(name);
+                if (value != null) {
+                    changed |= policy.isSignificant(keyValues.get(name), value);
+                    keyValues.put(name, value);
+                    if ("ups.status".equals(name)) {
+                        status = value;
+                    }
+                }
+            }
+
+            interval = policy.nextInterval(interval, status, changed, latency);
+            LOG.debug("Polled device {} in {} µs, next poll in {} ms",
+                    device.getName(), elapsed / 1000L, interval.toMillis());
+
+            try {
+                listener.onPoll(device, values);
+            } catch (RuntimeException ex) {
+                LOG.warn("Poll listener failed for device {}", device.getName(), ex);
+            }
+
+            return interval;
+        }
+
+        /**
+         * Schedules the next poll.
+         */
+        synchronized void schedule(Duration delay) {
+            if (!cancelled) {
+                future = executor.schedule(this, delay.toNanos(), TimeUnit.NANOSECONDS);
+            }
+        }
+
+        /**
+         * Cancels polling.
+         */
+        synchronized void cancel() {
+            cancelled = true;
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+
+        private void notifyError(IOException ex) {
+            try {
+                listener.onError(device, ex);
+            } catch (RuntimeException rex) {
+                LOG.warn("Poll listener failed for device {}", device.getName(), rex);
+            }
+        }
+    }
+
+}
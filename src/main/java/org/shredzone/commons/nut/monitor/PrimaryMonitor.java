@@ -0,0 +1,237 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.monitor;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.shredzone.commons.nut.Client;
+import org.shredzone.commons.nut.Device;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Monitors a device in the primary role, and issues a forced shutdown when the device
+ * reaches a critical state.
+ * <p>
+ * The monitor should use a dedicated {@link Client} that is not used for other
+ * requests, so the status polls and the {@code FSD} command never have to wait for
+ * other traffic. The client must be logged in with a user that has primary
+ * permissions.
+ * <p>
+ * When the critical state is detected, {@code FSD} is sent immediately, and then all
+ * {@link ShutdownListener} are notified in parallel. The time between the detection
+ * and the completion of {@code FSD} is measured, see {@link #getFsdLatency()}. If
+ * {@code FSD} fails, the listeners are not notified, and the command is sent again on
+ * the next poll that finds the device in a critical state.
+ */
+public class PrimaryMonitor implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(PrimaryMonitor.class);
+
+    /**
+     * The default critical state: the device is on battery and the battery is low, or
+     * a forced shutdown was already set by another primary.
+     */
+    public static final Predicate<String> ON_BATTERY_LOW = status -> {
+        var flags = Arrays.asList(status.split("\\s+"));
+        return (flags.contains("OB") && flags.contains("LB")) || flags.contains("FSD");
+    };
+
+    private final Device device;
+    private final Duration interval;
+    private final Predicate<String> critical;
+    private final List<ShutdownListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile boolean triggered;
+    private final ScheduledExecutorService poller;
+    private final ExecutorService notifier;
+    private volatile long fsdLatency = -1L;
+
+    /**
+     * Creates a new {@link PrimaryMonitor} that uses the default critical state
+     * {@link #ON_BATTERY_LOW}.
+     *
+     * @param client
+     *         Dedicated {@link Client} that is logged in with primary permissions
+     * @param deviceName
+     *         Name of the device to monitor
+     * @param interval
+     *         Poll interval of the device status
+     */
+    public PrimaryMonitor(Client client, String deviceName, Duration interval) {
+        this(client, deviceName, interval, ON_BATTERY_LOW);
+    }
+
+    /**
+     * Creates a new {@link PrimaryMonitor}.
+     *
+     * @param client
+     *         Dedicated {@link Client} that is logged in with primary permissions
+     * @param deviceName
+     *         Name of the device to monitor
+     * @param interval
+     *         Poll interval of the device status
+     * @param critical
+     *         {@link Predicate} that checks if a {@code ups.status} is critical
+     */
+    public PrimaryMonitor(Client client, String deviceName, Duration interval,
+            Predicate<String> critical) {
+        this.device = client.getDevice(deviceName);
+        this.interval = interval;
+        this.critical = critical;
+        this.poller = Executors.newSingleThreadScheduledExecutor(r -> {
+            var thread = new Thread(r, "nut-primary-" + deviceName);
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MAX_PRIORITY);
+            return thread;
+        });
+        this.notifier = Executors.newCachedThreadPool(r -> {
+            var thread = new Thread(r, "nut-shutdown-" + deviceName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Adds a {@link ShutdownListener}.
+     *
+     * @param listener
+     *         {@link ShutdownListener} to add
+     */
+    public void addListener(ShutdownListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a {@link ShutdownListener}.
+     *
+     * @param listener
+     *         {@link ShutdownListener} to remove
+     */
+    public void removeListener(ShutdownListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Logs into the device, claims the primary role, and starts monitoring.
+     */
+    public void start() throws IOException {
+        device.login();
+        device.primary();
+        LOG.info("Claimed primary role for device {}", device.getName());
+        poller.scheduleWithFixedDelay(this::poll, 0L, interval.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Issues a forced shutdown immediately, regardless of the device status.
+     *
+     * @param status
+     *         Status to be passed to the listeners
+     * @return {@code true} if the shutdown was issued, {@code false} if it has already
+     * been issued before
+     * @throws IOException
+     *         if the {@code FSD} command failed. The listeners are not notified then, and
+     *         the shutdown can be triggered again.
+     */
+    public boolean trigger(String status) throws IOException {
+        return trigger(status, System.nanoTime());
+    }
+
+    /**
+     * Returns {@code true} if a forced shutdown has been issued successfully.
+     */
+    public boolean isTriggered() {
+        return triggered;
+    }
+
+    /**
+     * Returns the time between the detection of the critical state and the completion
+     * of the {@code FSD} command.
+     *
+     * @return Latency, or empty if no forced shutdown has been issued yet
+     */
+    public Optional<Duration> getFsdLatency() {
+        var latency = fsdLatency;
+        return latency >= 0L ? Optional.of(Duration.ofNanos(latency)) : Optional.empty();
+    }
+
+    /**
+     * Stops monitoring. The {@link Client} is not closed.
+     */
+    @Override
+    public void close() {
+        poller.shutdownNow();
+        notifier.shutdown();
+    }
+
+    private void poll() {
+        if (triggered) {
+            return;
+        }
+        try {
+            var status = device.getVariable("ups.status").fetchValue();
+            if (critical.test(status)) {
+                trigger(status, System.nanoTime());
+            }
+        } catch (IOException ex) {
+            LOG.warn("Failed to poll status of device {}", device.getName(), ex);
+        } catch (RuntimeException ex) {
+            // must not escape, it would cancel all further polls
+            LOG.error("Failed to check status of device {}", device.getName(), ex);
+        }
+    }
+
+    private synchronized boolean trigger(String status, long detected) throws IOException {
+        if (triggered) {
+            return false;
+        }
+
+        try {
+            device.fsd();
+        } catch (IOException ex) {
+            LOG.error("Failed to issue forced shutdown of device {}", device.getName(), ex);
+            throw ex;
+        }
+        fsdLatency = System.nanoTime() - detected;
+        triggered = true;
+        LOG.warn("Forced shutdown of device {} issued ({}), took {} µs",
+                device.getName(), status, fsdLatency / 1000L);
+
+        var futures = listeners.stream()
+                .map(l -> CompletableFuture.runAsync(() -> l.onShutdown(device, status), notifier))
+                .toArray(CompletableFuture[]::new);
+        CompletableFuture.allOf(futures).whenComplete((v, ex) -> {
+            if (ex != null) {
+                LOG.error("Shutdown listener failed", ex);
+            }
+        });
+        return true;
+    }
+
+}
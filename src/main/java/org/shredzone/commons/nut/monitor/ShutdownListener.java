@@ -0,0 +1,43 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.monitor;
+
+import org.shredzone.commons.nut.Device;
+
+/**
+ * A listener that is notified by the {@link PrimaryMonitor} when a forced shutdown was
+ * issued.
+ */
+@FunctionalInterface
+public interface ShutdownListener {
+
+    /**
+     * Invoked when a forced shutdown was issued for the device. The listeners are
+     * invoked in parallel, so this method should shut down the respective system
+     * without waiting for other listeners.
+     *
+     * @param device
+     *         {@link Device} that is about to shut down
+     * @param status
+     *         The {@code ups.status} that triggered the shutdown
+     */
+    void onShutdown(Device device, String status);
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import org.shredzone.commons.nut.Transport;
+import org.shredzone.commons.nut.util.StringUtils;
+
+/**
+ * A {@link Transport} that passes the requests to a {@link NutServer.Handler} in
+ * memory, without any networking.
+ * <p>
+ * The requests are answered synchronously by the thread that flushes them, so the
+ * client can be benchmarked or tested against a {@link Simulator} or any other server
+ * stand-in, without the latency of the kernel network stack. Pipelined requests are
+ * answered in order, like {@link NutServer} does. Each connection gets a
+ * {@link NutServer.Session} of its own.
+ */
+public class LoopbackTransport implements Transport {
+    private static final InetSocketAddress ADDRESS =
+            InetSocketAddress.createUnresolved("loopback", 0);
+
+    private final NutServer.Handler handler;
+
+    /**
+     * Creates a new {@link LoopbackTransport}.
+     *
+     * @param handler
+     *         {@link NutServer.Handler} that answers the requests
+     */
+    public LoopbackTransport(NutServer.Handler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public Transport.Connection connect() {
+        return new Connection(new NutServer.Session(ADDRESS));
+    }
+
+    /**
+     * A single in-memory connection.
+     */
+    private class Connection implements Transport.Connection {
+        private final NutServer.Session session;
+        private final List<String> requests = new ArrayList<>();
+        private final Deque<String> responses = new ArrayDeque<>();
+        private boolean hungUp;
+        private boolean closed;
+
+        private Connection(NutServer.Session session) {
+            this.session = session;
+        }
+
+        @Override
+        public synchronized void write(String line) throws IOException {
+            checkOpen();
+            requests.add(line);
+        }
+
+        @Override
+        public synchronized void flush() throws IOException {
+            checkOpen();
+            try {
+                for (var line : requests) {
+                    if (hungUp) {
+                        break;
+                    }
+
+                    var request = StringUtils.split(line);
+                    if (request.isEmpty()) {
+                        continue;
+                    }
+
+                    responses.addAll(NutServer.handle(handler, session, line, request));
+                    if ("LOGOUT".equals(request.get(0))) {
+                        hangUp();
+                    }
+                }
+            } catch (IOException ex) {
+                // The handler closed the connection, like NutServer would
+                hangUp();
+            } finally {
+                requests.clear();
+            }
+        }
+
+        @Override
+        @Nullable
+        public synchronized String readLine() throws IOException {
+            checkOpen();
+            var line = responses.poll();
+            if (line == null && !hungUp) {
+                throw new IOException("No response pending");
+            }
+            return line;
+        }
+
+        @Override
+        public synchronized boolean isOpen() {
+            return !closed;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                hangUp();
+            }
+        }
+
+        private void checkOpen() throws IOException {
+            if (closed) {
+                throw new IOException("Connection has been closed");
+            }
+        }
+
+        private void hangUp() {
+            if (!hungUp) {
+                hungUp = true;
+                handler.closed(session);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,412 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import org.shredzone.commons.nut.exception.NutException;
+import org.shredzone.commons.nut.util.NutSocket;
+import org.shredzone.commons.nut.util.Pipeline;
+import org.shredzone.commons.nut.util.Request;
+import org.shredzone.commons.nut.util.SingleFlight;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link NutServer.Handler} that proxies a NUT server, so many clients can share a
+ * few upstream connections.
+ * <p>
+ * {@code GET} and {@code LIST} requests, as well as {@code VER} and {@code NETVER}, are
+ * answered from a cache with a short time-to-live. On a cache miss, the request is
+ * sent via a pool of shared upstream connections. Identical concurrent misses are
+ * coalesced, so the upstream load depends on the number of devices and the
+ * time-to-live, but not on the number of clients. {@code ERR} responses are cached as
+ * well. If a shared upstream connection was lost, e.g. because the upstream server was
+ * restarted, it is reestablished and the request is sent once more.
+ * <p>
+ * All other requests ({@code LOGIN}, {@code PRIMARY}, {@code FSD}, {@code SET},
+ * {@code INSTCMD}, {@code GET TRACKING}...) are forwarded via a dedicated upstream
+ * connection of the client, which is authenticated with the client's
+ * {@code USERNAME} and {@code PASSWORD}. After a {@code SET} or {@code INSTCMD}, the
+ * cache entries of the affected device are invalidated.
+ * <p>
+ * If the upstream server cannot be reached, the client connection is closed.
+ */
+public class NutProxy implements NutServer.Handler, Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(NutProxy.class);
+    private static final long DEFAULT_TTL = Duration.ofSeconds(2).toNanos();
+    private static final int MAX_ENTRIES = 10000;
+
+    private final String host;
+    private final int port;
+    private final List<NutSocket> pool = new ArrayList<>();
+    private final AtomicInteger next = new AtomicInteger();
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+    private final SingleFlight<Entry> fetches = new SingleFlight<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile long ttlNanos = DEFAULT_TTL;
+
+    /**
+     * Creates a new {@link NutProxy}. It does not connect to the upstream server until
+     * the first request needs to be forwarded.
+     *
+     * @param host
+     *         Upstream server host name
+     * @param port
+     *         Upstream server port
+     * @param poolSize
+     *         Number of shared upstream connections for the cached requests
+     */
+    public NutProxy(String host, int port, int poolSize) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("poolSize must be at least 1");
+        }
+        this.host = host;
+        this.port = port;
+        for (int ix = 0; ix < poolSize; ix++) {
+            pool.add(new NutSocket(host, port, null));
+        }
+    }
+
+    /**
+     * Sets the time-to-live of the cached responses. Default is 2 seconds.
+     *
+     * @param ttl
+     *         Time-to-live
+     * @return itself
+     */
+    public NutProxy ttl(Duration ttl) {
+        this.ttlNanos = ttl.toNanos();
+        return this;
+    }
+
+    /**
+     * Returns the number of requests that were answered from the cache.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of requests that were not cached, and had to be sent to the
+     * upstream server.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of cached responses, including expired ones.
+     */
+    public int getCacheSize() {
+        return cache.size();
+    }
+
+    @Override
+    public List<String> handle(NutServer.Session session, String line, List<String> request)
+            throws IOException {
+        var command = request.get(0);
+        switch (command) {
+            case "GET":
+            case "LIST":
+                if (request.size() > 1 && "TRACKING".equals(request.get(1))) {
+                    return forward(session, request);
+                }
+                return cached(request);
+
+            case "VER":
+            case "NETVER":
+                return cached(request);
+
+            case "USERNAME":
+            case "PASSWORD":
+                return credentials(session, request);
+
+            case "LOGOUT":
+                closed(session);
+                return List.of("OK Goodbye");
+
+            case "STARTTLS":
+                throw new NutException("FEATURE-NOT-CONFIGURED");
+
+            default:
+                return forward(session, request);
+        }
+    }
+
+    @Override
+    public void closed(NutServer.Session session) {
+        var state = (State) session.getAttachment();
+        if (state == null) {
+            return;
+        }
+        var upstream = state.upstream;
+        if (upstream != null) {
+            state.upstream = null;
+            try {
+                upstream.close();
+            } catch (IOException ex) {
+                LOG.debug("Could not close upstream connection", ex);
+            }
+        }
+    }
+
+    /**
+     * Closes all shared upstream connections.
+     */
+    @Override
+    public void close() throws IOException {
+        for (var socket : pool) {
+            socket.close();
+        }
+    }
+
+    /**
+     * Answers a request from the cache, or fetches it from the upstream server.
+     */
+    private List<String> cached(List<String> request) throws IOException {
+        var req = toRequest(request);
+        var key = req.toString();
+        var entry = cache.get(key);
+        if (entry != null && entry.isValid(System.nanoTime())) {
+            hits.incrementAndGet();
+            return entry.get();
+        }
+        return fetches.run(key, () -> fetch(key, req)).get();
+    }
+
+    /**
+     * Fetches a response from the upstream server, and caches it.
+     */
+    private Entry fetch(String key, Request request) throws IOException {
+        misses.incrementAndGet();
+        var socket = pool.get(Math.floorMod(next.getAndIncrement(), pool.size()));
+        var expires = System.nanoTime() + ttlNanos;
+        var device = deviceOf(request.getRequest());
+
+        Entry entry;
+        try {
+            List<String> lines;
+            try {
+                lines = upstream(socket, request);
+            } catch (NutException ex) {
+                throw ex;
+            } catch (IOException ex) {
+                // The socket has dropped the broken connection, and reconnects now
+                LOG.debug("Upstream connection was lost, sending request again", ex);
+                lines = upstream(socket, request);
+            }
+            entry = new Entry(lines, null, device, expires);
+        } catch (NutException ex) {
+            entry = new Entry(List.of(), ex.getType(), device, expires);
+        }
+
+        if (cache.size() >= MAX_ENTRIES) {
+            var now = System.nanoTime();
+            cache.values().removeIf(e -> !e.isValid(now));
+        }
+        cache.put(key, entry);
+        return entry;
+    }
+
+    /**
+     * Sends a {@code GET} or {@code LIST} request via a shared upstream connection.
+     *
+     * @return Response lines
+     */
+    private static List<String> upstream(NutSocket socket, Request request)
+            throws IOException {
+        if ("LIST".equals(request.getCommand())) {
+            var lines = new ArrayList<String>();
+            lines.add("BEGIN " + request);
+            socket.list(request).forEach(res -> lines.add(res.getRaw()));
+            lines.add("END " + request);
+            return lines;
+        }
+        return List.of(socket.query(request).getRaw());
+    }
+
+    /**
+     * Keeps the credentials of the client for its dedicated upstream connection.
+     */
+    private List<String> credentials(NutServer.Session session, List<String> request)
+            throws IOException {
+        if (request.size() != 2) {
+            throw new NutException("INVALID-ARGUMENT");
+        }
+        var state = state(session);
+        if ("USERNAME".equals(request.get(0))) {
+            if (state.username != null) {
+                throw new NutException("ALREADY-SET-USERNAME");
+            }
+            state.username = request.get(1);
+        } else {
+            if (state.password != null) {
+                throw new NutException("ALREADY-SET-PASSWORD");
+            }
+            state.password = request.get(1);
+        }
+
+        if (state.upstream != null) {
+            // Upstream is already connected, so the handshake is over
+            return forward(session, request);
+        }
+        return List.of("OK");
+    }
+
+    /**
+     * Forwards a request via the dedicated upstream connection of the client.
+     */
+    private List<String> forward(NutServer.Session session, List<String> request)
+            throws IOException {
+        var state = state(session);
+        var upstream = state.upstream;
+        if (upstream == null) {
+            upstream = new NutSocket(host, port, sock -> {
+                var username = state.username;
+                if (username != null) {
+                    sock.execute(Request.username().arg(username));
+                }
+                var password = state.password;
+                if (password != null) {
+                    sock.execute(Request.password().arg(password));
+                }
+            });
+            state.upstream = upstream;
+        }
+
+        var pipeline = upstream.pipeline();
+        var response = pipeline.status(toRequest(request));
+        pipeline.run();
+        var result = Pipeline.result(response).getRaw();
+
+        var command = request.get(0);
+        if ("SET".equals(command) || "INSTCMD".equals(command)) {
+            var device = deviceOf(request);
+            if (device != null) {
+                cache.values().removeIf(e -> device.equals(e.device));
+            }
+        }
+
+        return List.of(result);
+    }
+
+    /**
+     * Returns the {@link State} of the session.
+     */
+    private static State state(NutServer.Session session) {
+        var state = (State) session.getAttachment();
+        if (state == null) {
+            state = new State();
+            session.setAttachment(state);
+        }
+        return state;
+    }
+
+    /**
+     * Converts the columns of a request to a {@link Request}.
+     */
+    private static Request toRequest(List<String> request) {
+        return new Request(request.get(0)).args(request.subList(1, request.size()));
+    }
+
+    /**
+     * Returns the name of the device that is affected by a request, or {@code null} if
+     * the request does not affect a single device.
+     */
+    @Nullable
+    private static String deviceOf(List<String> request) {
+        switch (request.get(0)) {
+            case "GET":
+            case "LIST":
+            case "SET":
+                if (request.size() > 2 && !"UPS".equals(request.get(1))
+                        && !"TRACKING".equals(request.get(1))) {
+                    return request.get(2);
+                }
+                return null;
+
+            case "INSTCMD":
+            case "FSD":
+                return request.size() > 1 ? request.get(1) : null;
+
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * A cached response.
+     */
+    private static final class Entry {
+        private final List<String> lines;
+        private final long expires;
+
+        @Nullable
+        private final String error;
+
+        @Nullable
+        private final String device;
+
+        Entry(List<String> lines, @Nullable String error, @Nullable String device,
+                long expires) {
+            this.lines = lines;
+            this.error = error;
+            this.device = device;
+            this.expires = expires;
+        }
+
+        boolean isValid(long now) {
+            return now - expires < 0L;
+        }
+
+        List<String> get() throws NutException {
+            if (error != null) {
+                throw new NutException(error);
+            }
+            return lines;
+        }
+    }
+
+    /**
+     * The state of a client connection.
+     */
+    private static final class State {
+        @Nullable
+        private String username;
+
+        @Nullable
+        private String password;
+
+        @Nullable
+        private NutSocket upstream;
+    }
+
+}
@@ -0,0 +1,303 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.server;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import org.shredzone.commons.nut.exception.NutException;
+import org.shredzone.commons.nut.util.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A minimal server that speaks the NUT protocol, e.g. for tests, simulations, or
+ * proxies. The requests are answered by a {@link Handler}.
+ * <p>
+ * Each connection is served by a daemon thread of its own. Pipelined requests are
+ * answered in order, and the answers are flushed when there are no more requests
+ * pending.
+ */
+public final class NutServer implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(NutServer.class);
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+    private static final long CLOSE_TIMEOUT_MS = 5000L;
+
+    private final ServerSocket serverSocket;
+    private final Handler handler;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final Thread acceptor;
+    private volatile boolean closed;
+
+    /**
+     * Handles requests.
+     */
+    @FunctionalInterface
+    public interface Handler {
+
+        /**
+         * Handles a single request.
+         *
+         * @param session
+         *         {@link Session} of the connection the request was received on
+         * @param line
+         *         Request line as received from the client
+         * @param request
+         *         Columns of the request, unquoted
+         * @return Response lines to be sent to the client. Must not be empty.
+         * @throws NutException
+         *         to send an {@code ERR} response with the exception's type
+         * @throws IOException
+         *         to close the connection
+         */
+        List<String> handle(Session session, String line, List<String> request)
+                throws IOException;
+
+        /**
+         * Invoked when a connection has been closed. The default implementation does
+         * nothing.
+         *
+         * @param session
+         *         {@link Session} of the connection
+         */
+        default void closed(Session session) {
+            // do nothing
+        }
+    }
+
+    /**
+     * The state of a single client connection.
+     */
+    public static final class Session {
+        private final SocketAddress remoteAddress;
+        private volatile boolean tracking;
+
+        @Nullable
+        private volatile Object attachment;
+
+        Session(SocketAddress remoteAddress) {
+            this.remoteAddress = remoteAddress;
+        }
+
+        /**
+         * Returns the address of the client.
+         */
+        public SocketAddress getRemoteAddress() {
+            return remoteAddress;
+        }
+
+        /**
+         * Checks if the client has enabled tracking by {@code SET TRACKING ON}.
+         */
+        public boolean isTracking() {
+            return tracking;
+        }
+
+        /**
+         * Sets the tracking state of this connection.
+         */
+        public void setTracking(boolean tracking) {
+            this.tracking = tracking;
+        }
+
+        /**
+         * Returns the object that was attached by the {@link Handler}, or {@code null}
+         * if there is none.
+         */
+        @Nullable
+        public Object getAttachment() {
+            return attachment;
+        }
+
+        /**
+         * Attaches an object to this session, e.g. a state of the {@link Handler}.
+         *
+         * @param attachment
+         *         Object to attach, or {@code null} to remove the attachment
+         */
+        public void setAttachment(@Nullable Object attachment) {
+            this.attachment = attachment;
+        }
+    }
+
+    /**
+     * Creates a new {@link NutServer} listening on all local addresses, and starts it.
+     *
+     * @param port
+     *         Port to listen on, or 0 for any free port
+     * @param handler
+     *         {@link Handler} for the requests
+     */
+    public NutServer(int port, Handler handler) throws IOException {
+        this(null, port, handler);
+    }
+
+    /**
+     * Creates a new {@link NutServer}, and starts it.
+     *
+     * @param address
+     *         Address to bind to, or {@code null} for all local addresses
+     * @param port
+     *         Port to listen on, or 0 for any free port
+     * @param handler
+     *         {@link Handler} for the requests
+     */
+    public NutServer(@Nullable InetAddress address, int port, Handler handler)
+            throws IOException {
+        this.handler = handler;
+        this.serverSocket = new ServerSocket(port, 128, address);
+        var id = COUNTER.incrementAndGet();
+        this.acceptor = new Thread(this::accept, "nut-server-" + id);
+        this.acceptor.setDaemon(true);
+        this.acceptor.start();
+        LOG.debug("Listening on port {}", getPort());
+    }
+
+    /**
+     * Returns the port the server is listening on.
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Returns the number of open connections.
+     */
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * Quotes a value for a response, e.g. {@code VAR ups battery.charge "100"}. Other
+     * than {@link StringUtils#quote(String)}, the value is always quoted.
+     *
+     * @param value
+     *         Value to quote
+     * @return Quoted value
+     */
+    public static String quote(String value) {
+        return '"' + value.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+
+    /**
+     * Stops the server, and closes all connections. When this method returns, the port
+     * is released, so a new server can be started on the same port.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        for (var socket : connections) {
+            socket.close();
+        }
+
+        // The listening socket is only released after the acceptor has left accept()
+        try {
+            acceptor.join(CLOSE_TIMEOUT_MS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Passes a request to the {@link Handler}, and converts a {@link NutException} to an
+     * {@code ERR} response.
+     */
+    static List<String> handle(Handler handler, Session session, String line,
+            List<String> request) throws IOException {
+        try {
+            return handler.handle(session, line, request);
+        } catch (NutException ex) {
+            return List.of("ERR " + ex.getType());
+        }
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                var socket = serverSocket.accept();
+                connections.add(socket);
+                var thread = new Thread(() -> serve(socket), acceptor.getName() + "-connection");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException ex) {
+                if (!closed) {
+                    LOG.warn("Could not accept connection", ex);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        var session = new Session(socket.getRemoteSocketAddress());
+        try (socket;
+             var in = new InputStreamReader(socket.getInputStream(), UTF_8);
+             var out = new OutputStreamWriter(socket.getOutputStream(), UTF_8)) {
+            var reader = new BufferedReader(in);
+            var writer = new BufferedWriter(out);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                var request = StringUtils.split(line);
+                if (request.isEmpty()) {
+                    continue;
+                }
+
+                for (var answer : handle(handler, session, line, request)) {
+                    writer.write(answer);
+                    writer.write('\n');
+                }
+
+                if ("LOGOUT".equals(request.get(0))) {
+                    writer.flush();
+                    break;
+                }
+                if (!reader.ready()) {
+                    writer.flush();
+                }
+            }
+        } catch (SocketException ex) {
+            LOG.debug("Connection closed", ex);
+        } catch (IOException ex) {
+            if (!closed) {
+                LOG.warn("Connection failed", ex);
+            }
+        } finally {
+            connections.remove(socket);
+            handler.closed(session);
+        }
+    }
+
+}
@@ -0,0 +1,295 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.server;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.shredzone.commons.nut.SessionRecorder;
+import org.shredzone.commons.nut.exception.NutException;
+import org.shredzone.commons.nut.util.Request;
+import org.shredzone.commons.nut.util.StringUtils;
+
+/**
+ * A {@link NutServer.Handler} that replays a session that was recorded by a
+ * {@link SessionRecorder}. This way, clients can be benchmarked against the traffic of
+ * real servers and devices, without network or hardware.
+ * <p>
+ * Each request is answered with the response that was recorded for it. If the same
+ * request was recorded several times, the responses are replayed in the recorded
+ * order, and then start over. The response is delayed by the time the server took to
+ * answer, divided by the speed factor.
+ * <p>
+ * {@code VER}, {@code NETVER}, {@code USERNAME}, {@code PASSWORD}, {@code LOGIN} and
+ * {@code LOGOUT} are accepted even if they are not recorded, as they are usually sent
+ * before the recording starts. All other requests that are not recorded are
+ * answered with {@code ERR UNKNOWN-COMMAND}.
+ */
+public class ReplayHandler implements NutServer.Handler {
+    private final Map<String, Replay> replays;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile double speed = 1.0;
+
+    /**
+     * Creates a new {@link ReplayHandler} for a recording file.
+     *
+     * @param recording
+     *         Recording file
+     */
+    public ReplayHandler(Path recording) throws IOException {
+        try (var reader = Files.newBufferedReader(recording, UTF_8)) {
+            this.replays = parse(reader);
+        }
+    }
+
+    /**
+     * Creates a new {@link ReplayHandler} for a recording.
+     *
+     * @param recording
+     *         {@link Reader} providing the recording. It is not closed.
+     */
+    public ReplayHandler(Reader recording) throws IOException {
+        this.replays = parse(recording);
+    }
+
+    /**
+     * Sets the replay speed.
+     *
+     * @param speed
+     *         Speed factor. 1.0 replays at the original speed, 2.0 at twice the speed,
+     *         and {@link Double#POSITIVE_INFINITY} as fast as possible.
+     * @return itself
+     */
+    public ReplayHandler speed(double speed) {
+        if (!(speed > 0.0)) {
+            throw new IllegalArgumentException("speed must be positive");
+        }
+        this.speed = speed;
+        return this;
+    }
+
+    /**
+     * Returns the number of distinct requests in the recording.
+     */
+    public int getRecordedRequestCount() {
+        return replays.size();
+    }
+
+    /**
+     * Returns the number of requests that were handled.
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * Returns the number of requests that were not found in the recording.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    @Override
+    public List<String> handle(NutServer.Session session, String line, List<String> request)
+            throws IOException {
+        requests.incrementAndGet();
+        var replay = replays.get(normalize(request));
+        if (replay == null) {
+            switch (request.get(0)) {
+                case "VER":
+                    return List.of("Network UPS Tools upsd replay - commons-nut");
+                case "NETVER":
+                    return List.of("1.3");
+                case "USERNAME":
+                case "PASSWORD":
+                case "LOGIN":
+                    return List.of("OK");
+                case "LOGOUT":
+                    return List.of("OK Goodbye");
+                default:
+                    misses.incrementAndGet();
+                    throw new NutException("UNKNOWN-COMMAND");
+            }
+        }
+
+        var exchange = replay.next();
+        delay(exchange.delayMicros);
+        return exchange.lines;
+    }
+
+    private void delay(long micros) throws InterruptedIOException {
+        var nanos = (long) (TimeUnit.MICROSECONDS.toNanos(micros) / speed);
+        if (nanos > 0L) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(nanos);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    /**
+     * Normalizes the quoting of a request line.
+     */
+    private static String normalize(List<String> request) {
+        return new Request(request.get(0)).args(request.subList(1, request.size())).toString();
+    }
+
+    /**
+     * Parses a recording. The responses of each connection are assigned to its
+     * requests in order. A response ends after a single line, or at the {@code END}
+     * line of a {@code LIST} response.
+     */
+    private static Map<String, Replay> parse(Reader recording) throws IOException {
+        var result = new HashMap<String, Replay>();
+        var connections = new HashMap<String, Connection>();
+        var reader = recording instanceof BufferedReader
+                ? (BufferedReader) recording
+                : new BufferedReader(recording);
+
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            var parts = line.split(" ", 4);
+            if (parts.length < 4 || parts[2].length() != 1) {
+                throw new IOException("Invalid recording in line " + lineNumber);
+            }
+
+            long micros;
+            try {
+                micros = Long.parseLong(parts[0]);
+            } catch (NumberFormatException ex) {
+                throw new IOException("Invalid timestamp in line " + lineNumber, ex);
+            }
+
+            var connection = connections.computeIfAbsent(parts[1], k -> new Connection());
+            var text = parts[3];
+            switch (parts[2].charAt(0)) {
+                case '+':
+                    connections.put(parts[1], new Connection());
+                    break;
+
+                case '>':
+                    var request = StringUtils.split(text);
+                    if (!request.isEmpty()) {
+                        connection.pending.add(new Pending(normalize(request), micros));
+                    }
+                    break;
+
+                case '<':
+                    var pending = connection.pending.peek();
+                    if (pending == null) {
+                        // response to a request that was sent before the recording
+                        break;
+                    }
+                    pending.lines.add(text);
+                    if (pending.isComplete(text)) {
+                        connection.pending.poll();
+                        var delay = micros - Math.max(pending.sentAt, connection.lastResponse);
+                        connection.lastResponse = micros;
+                        result.computeIfAbsent(pending.request, k -> new Replay())
+                                .exchanges.add(new Exchange(pending.lines, delay));
+                    }
+                    break;
+
+                default:
+                    throw new IOException("Invalid direction in line " + lineNumber);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The parser state of a recorded connection.
+     */
+    private static final class Connection {
+        private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+        private long lastResponse;
+    }
+
+    /**
+     * A recorded request that is waiting for its response.
+     */
+    private static final class Pending {
+        private final String request;
+        private final long sentAt;
+        private final List<String> lines = new ArrayList<>();
+
+        Pending(String request, long sentAt) {
+            this.request = request;
+            this.sentAt = sentAt;
+        }
+
+        boolean isComplete(String line) {
+            if (!request.startsWith("LIST ") || lines.size() == 1 && line.startsWith("ERR ")) {
+                return true;
+            }
+            return line.startsWith("END ");
+        }
+    }
+
+    /**
+     * A recorded response, and the time the server took to send it.
+     */
+    private static final class Exchange {
+        private final List<String> lines;
+        private final long delayMicros;
+
+        Exchange(List<String> lines, long delayMicros) {
+            this.lines = Collections.unmodifiableList(lines);
+            this.delayMicros = Math.max(delayMicros, 0L);
+        }
+    }
+
+    /**
+     * All recorded responses to a request.
+     */
+    private static final class Replay {
+        private final List<Exchange> exchanges = new ArrayList<>();
+        private final AtomicInteger cursor = new AtomicInteger();
+
+        Exchange next() {
+            return exchanges.get(Math.floorMod(cursor.getAndIncrement(), exchanges.size()));
+        }
+    }
+
+}
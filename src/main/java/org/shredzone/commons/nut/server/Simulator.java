@@ -0,0 +1,436 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.server;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import org.shredzone.commons.nut.exception.NutException;
+
+/**
+ * A {@link NutServer.Handler} that simulates a NUT server with a number of UPS devices.
+ * It is a stand-in for a real server in load tests.
+ * <p>
+ * Each response can be delayed by a configurable latency, and a configurable share of
+ * the requests fails with an {@code ERR} response.
+ * <p>
+ * {@code SET TRACKING} is supported. Like a real driver, the simulator accepts values
+ * of read/write variables that are longer than 10 characters, but does not apply them.
+ * The failure is only visible to clients that track their requests.
+ */
+public class Simulator implements NutServer.Handler {
+    private static final Map<String, String> VARIABLES = new LinkedHashMap<>();
+    private static final Set<String> RW_VARIABLES = Set.of(
+            "battery.charge.low", "ups.delay.shutdown", "ups.delay.start");
+    private static final List<String> COMMANDS = List.of(
+            "beeper.toggle", "load.off", "load.on", "test.battery.start", "test.battery.stop");
+
+    static {
+        VARIABLES.put("battery.charge", "100");
+        VARIABLES.put("battery.charge.low", "10");
+        VARIABLES.put("battery.runtime", "2400");
+        VARIABLES.put("battery.type", "PbAc");
+        VARIABLES.put("battery.voltage", "13.5");
+        VARIABLES.put("device.mfr", "Shredzone");
+        VARIABLES.put("device.model", "Simulated UPS");
+        VARIABLES.put("device.type", "ups");
+        VARIABLES.put("driver.name", "simulator");
+        VARIABLES.put("input.frequency", "50.0");
+        VARIABLES.put("input.voltage", "230.0");
+        VARIABLES.put("output.voltage", "230.0");
+        VARIABLES.put("ups.delay.shutdown", "20");
+        VARIABLES.put("ups.delay.start", "30");
+        VARIABLES.put("ups.load", "25");
+        VARIABLES.put("ups.realpower", "150");
+        VARIABLES.put("ups.status", "OL");
+        for (int ix = 1; ix <= 4; ix++) {
+            VARIABLES.put("outlet." + ix + ".status", "on");
+            VARIABLES.put("outlet." + ix + ".realpower", "30");
+        }
+    }
+
+    private final Map<String, Map<String, String>> devices = new TreeMap<>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+    private volatile long latencyNanos;
+    private volatile long jitterNanos;
+    private volatile double errorRate;
+    private volatile long trackingDelayNanos;
+
+    /**
+     * Creates a new {@link Simulator}.
+     *
+     * @param numberOfDevices
+     *         Number of simulated devices. They are named {@code ups1}, {@code ups2}...
+     */
+    public Simulator(int numberOfDevices) {
+        for (int ix = 1; ix <= numberOfDevices; ix++) {
+            devices.put("ups" + ix, new ConcurrentHashMap<>(VARIABLES));
+        }
+    }
+
+    /**
+     * Sets the latency of each response.
+     *
+     * @param latency
+     *         Latency
+     * @return itself
+     */
+    public Simulator latency(Duration latency) {
+        this.latencyNanos = latency.toNanos();
+        return this;
+    }
+
+    /**
+     * Sets a random jitter that is added to the latency.
+     *
+     * @param jitter
+     *         Maximum jitter
+     * @return itself
+     */
+    public Simulator jitter(Duration jitter) {
+        this.jitterNanos = jitter.toNanos();
+        return this;
+    }
+
+    /**
+     * Sets the share of requests that fail with an {@code ERR DATA-STALE} response.
+     *
+     * @param errorRate
+     *         Error rate, between 0.0 and 1.0
+     * @return itself
+     */
+    public Simulator errorRate(double errorRate) {
+        if (errorRate < 0.0 || errorRate > 1.0) {
+            throw new IllegalArgumentException("errorRate must be between 0.0 and 1.0");
+        }
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    /**
+     * Sets the time it takes until the driver reports the outcome of a tracked
+     * {@code SET} or {@code INSTCMD} request. Until then, the tracking state is
+     * {@code PENDING}.
+     *
+     * @param trackingDelay
+     *         Tracking delay
+     * @return itself
+     */
+    public Simulator trackingDelay(Duration trackingDelay) {
+        this.trackingDelayNanos = trackingDelay.toNanos();
+        return this;
+    }
+
+    /**
+     * Returns the names of all simulated devices.
+     */
+    public Set<String> getDeviceNames() {
+        return devices.keySet();
+    }
+
+    /**
+     * Returns the names of the writable variables of each device.
+     */
+    public static Set<String> getWritableVariables() {
+        return RW_VARIABLES;
+    }
+
+    /**
+     * Returns the names of the commands of each device.
+     */
+    public static List<String> getCommands() {
+        return COMMANDS;
+    }
+
+    /**
+     * Returns the number of requests that were handled.
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * Returns the number of injected errors.
+     */
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    @Override
+    public List<String> handle(NutServer.Session session, String line, List<String> request)
+            throws IOException {
+        requests.incrementAndGet();
+        delay();
+
+        var command = request.get(0);
+        switch (command) {
+            case "VER":
+                return List.of("Network UPS Tools upsd simulator - commons-nut");
+            case "NETVER":
+                return List.of("1.3");
+            case "USERNAME":
+            case "PASSWORD":
+            case "LOGIN":
+            case "PRIMARY":
+            case "MASTER":
+            case "FSD":
+                return List.of("OK");
+            case "LOGOUT":
+                return List.of("OK Goodbye");
+            default:
+                // handled below
+        }
+
+        if (request.size() < 2) {
+            throw new NutException("INVALID-ARGUMENT");
+        }
+
+        if ("TRACKING".equals(request.get(1))) {
+            return tracking(session, request);
+        }
+
+        if (errorRate > 0.0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+            errors.incrementAndGet();
+            throw new NutException("DATA-STALE");
+        }
+
+        var sub = request.get(1);
+        switch (command) {
+            case "LIST":
+                return list(sub, request);
+            case "GET":
+                return get(sub, request);
+            case "SET":
+                return set(session, request);
+            case "INSTCMD":
+                device(request, 1);
+                if (request.size() < 3 || !COMMANDS.contains(request.get(2))) {
+                    throw new NutException("CMD-NOT-SUPPORTED");
+                }
+                return accepted(session, null);
+            default:
+                throw new NutException("UNKNOWN-COMMAND");
+        }
+    }
+
+    private List<String> list(String sub, List<String> request) throws NutException {
+        var result = new ArrayList<String>();
+        if ("UPS".equals(sub)) {
+            result.add("BEGIN LIST UPS");
+            devices.keySet().forEach(d -> result.add("UPS " + d + " \"Simulated UPS\""));
+            result.add("END LIST UPS");
+            return result;
+        }
+
+        var name = request.size() > 2 ? request.get(2) : "";
+        var device = device(request, 2);
+        var prefix = sub + ' ' + name;
+        switch (sub) {
+            case "VAR":
+            case "RW":
+                result.add("BEGIN LIST " + prefix);
+                device.forEach((k, v) -> {
+                    if ("VAR".equals(sub) || RW_VARIABLES.contains(k)) {
+                        result.add(prefix + ' ' + k + ' ' + NutServer.quote(v));
+                    }
+                });
+                result.add("END LIST " + prefix);
+                return result;
+
+            case "CMD":
+                result.add("BEGIN LIST " + prefix);
+                COMMANDS.forEach(c -> result.add(prefix + ' ' + c));
+                result.add("END LIST " + prefix);
+                return result;
+
+            case "ENUM":
+            case "RANGE":
+                var variable = request.size() > 3 ? request.get(3) : "";
+                result.add("BEGIN LIST " + prefix + ' ' + variable);
+                result.add("END LIST " + prefix + ' ' + variable);
+                return result;
+
+            default:
+                throw new NutException("INVALID-ARGUMENT");
+        }
+    }
+
+    private List<String> get(String sub, List<String> request) throws NutException {
+        var device = device(request, 2);
+        var name = request.get(2);
+        switch (sub) {
+            case "UPSDESC":
+                return List.of("UPSDESC " + name + " \"Simulated UPS\"");
+            case "NUMLOGINS":
+                return List.of("NUMLOGINS " + name + " 0");
+            default:
+                // variable related, handled below
+        }
+
+        if (request.size() < 4) {
+            throw new NutException("INVALID-ARGUMENT");
+        }
+        var variable = request.get(3);
+        if ("CMDDESC".equals(sub)) {
+            return List.of("CMDDESC " + name + ' ' + variable + " \"Simulated command\"");
+        }
+
+        var value = device.get(variable);
+        if (value == null) {
+            throw new NutException("VAR-NOT-SUPPORTED");
+        }
+        switch (sub) {
+            case "VAR":
+                return List.of("VAR " + name + ' ' + variable + ' ' + NutServer.quote(value));
+            case "DESC":
+                return List.of("DESC " + name + ' ' + variable + " \"Simulated variable\"");
+            case "TYPE":
+                return List.of("TYPE " + name + ' ' + variable
+                        + (RW_VARIABLES.contains(variable) ? " RW STRING:10" : " NUMBER"));
+            default:
+                throw new NutException("INVALID-ARGUMENT");
+        }
+    }
+
+    private List<String> set(NutServer.Session session, List<String> request)
+            throws NutException {
+        if (request.size() < 5 || !"VAR".equals(request.get(1))) {
+            throw new NutException("INVALID-ARGUMENT");
+        }
+        var device = device(request, 2);
+        var variable = request.get(3);
+        if (!RW_VARIABLES.contains(variable)) {
+            throw new NutException("READONLY");
+        }
+        var value = request.get(4);
+        if (value.length() > 10) {
+            return accepted(session, "INVALID-ARGUMENT");
+        }
+        device.put(variable, value);
+        return accepted(session, null);
+    }
+
+    private List<String> tracking(NutServer.Session session, List<String> request)
+            throws NutException {
+        if (request.size() < 3) {
+            throw new NutException("INVALID-ARGUMENT");
+        }
+        var arg = request.get(2);
+        switch (request.get(0)) {
+            case "SET":
+                if (!"ON".equals(arg) && !"OFF".equals(arg)) {
+                    throw new NutException("INVALID-ARGUMENT");
+                }
+                session.setTracking("ON".equals(arg));
+                return List.of("OK");
+
+            case "GET":
+                var operation = operations.get(arg);
+                if (operation == null) {
+                    throw new NutException("UNKNOWN");
+                }
+                if (System.nanoTime() - operation.due < 0L) {
+                    return List.of("PENDING");
+                }
+                operations.remove(arg);
+                if (operation.error != null) {
+                    throw new NutException(operation.error);
+                }
+                return List.of("SUCCESS");
+
+            default:
+                throw new NutException("INVALID-ARGUMENT");
+        }
+    }
+
+    /**
+     * Returns the response to an accepted {@code SET} or {@code INSTCMD} request.
+     *
+     * @param session
+     *         {@link NutServer.Session} of the client
+     * @param error
+     *         Error type the driver will report, or {@code null} on success
+     */
+    private List<String> accepted(NutServer.Session session, @Nullable String error) {
+        if (!session.isTracking()) {
+            return List.of("OK");
+        }
+        var id = UUID.randomUUID().toString();
+        operations.put(id, new Operation(System.nanoTime() + trackingDelayNanos, error));
+        return List.of("OK TRACKING " + id);
+    }
+
+    private Map<String, String> device(List<String> request, int ix) throws NutException {
+        if (request.size() <= ix) {
+            throw new NutException("INVALID-ARGUMENT");
+        }
+        var device = devices.get(request.get(ix));
+        if (device == null) {
+            throw new NutException("UNKNOWN-UPS");
+        }
+        return device;
+    }
+
+    private void delay() throws InterruptedIOException {
+        var nanos = latencyNanos;
+        if (jitterNanos > 0L) {
+            nanos += ThreadLocalRandom.current().nextLong(jitterNanos);
+        }
+        if (nanos > 0L) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(nanos);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    /**
+     * A tracked operation.
+     */
+    private static final class Operation {
+        private final long due;
+
+        @Nullable
+        private final String error;
+
+        Operation(long due, @Nullable String error) {
+            this.due = due;
+            this.error = error;
+        }
+    }
+
+}
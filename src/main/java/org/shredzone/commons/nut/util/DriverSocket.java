@@ -0,0 +1,58 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.util;
+
+import java.io.IOException;
+
+import org.shredzone.commons.nut.driver.DriverClient;
+import org.shredzone.commons.nut.driver.DriverHandler;
+import org.shredzone.commons.nut.server.LoopbackTransport;
+
+/**
+ * A {@link NutSocket} that answers the requests locally from the live state of a
+ * {@link DriverClient}, instead of sending them to {@code upsd}.
+ *
+ * @see DriverHandler
+ */
+public class DriverSocket extends NutSocket {
+    private final DriverClient driver;
+
+    /**
+     * Creates a new {@link DriverSocket}.
+     *
+     * @param driver
+     *         {@link DriverClient} providing the device state. It is owned by this
+     *         instance from now on.
+     */
+    public DriverSocket(DriverClient driver) {
+        super(driver.getName(), 0, new LoopbackTransport(new DriverHandler(driver)), null);
+        this.driver = driver;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            driver.close();
+        }
+    }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.util;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the last lines that were exchanged with the server in a fixed-size ring
+ * buffer, so they can be dumped if an error occured.
+ * <p>
+ * Recording is lock-free and cheap enough to be always enabled.
+ */
+class ExchangeRecorder {
+    private final AtomicReferenceArray<Line> buffer;
+    private final AtomicLong sequence = new AtomicLong();
+    private final int mask;
+
+    /**
+     * Creates a new {@link ExchangeRecorder}.
+     *
+     * @param size
+     *         Number of lines to keep. Rounded up to the next power of two.
+     */
+    ExchangeRecorder(int size) {
+        if (size < 1 || size > 1 << 20) {
+            throw new IllegalArgumentException("Invalid size: " + size);
+        }
+        var capacity = Integer.highestOneBit(size);
+        if (capacity < size) {
+            capacity <<= 1;
+        }
+        buffer = new AtomicReferenceArray<>(capacity);
+        mask = capacity - 1;
+    }
+
+    /**
+     * Records a line that was sent to the server.
+     */
+    public void sent(String line) {
+        record(true, line);
+    }
+
+    /**
+     * Records a line that was received from the server.
+     */
+    public void received(String line) {
+        record(false, line);
+    }
+
+    /**
+     * Returns the recorded lines, oldest first. Each line is prefixed with its timestamp
+     * and direction.
+     */
+    public List<String> dump() {
+        var end = sequence.get();
+        var start = Math.max(0L, end - buffer.length());
+        var result = new ArrayList<String>((int) (end - start));
+        for (long seq = start; seq < end; seq++) {
+            var line = buffer.get((int) seq & mask);
+            if (line != null && line.sequence == seq) {
+                result.add(line.toString());
+            }
+        }
+        return result;
+    }
+
+    private void record(boolean sent, String text) {
+        var seq = sequence.getAndIncrement();
+        buffer.set((int) seq & mask, new Line(seq, System.currentTimeMillis(), sent, text));
+    }
+
+    /**
+     * A single recorded line.
+     */
+    private static final class Line {
+        final long sequence;
+        final long timestamp;
+        final boolean sent;
+        final String text;
+
+        Line(long sequence, long timestamp, boolean sent, String text) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.sent = sent;
+            this.text = text;
+        }
+
+        @Override
+        public String toString() {
+            return Instant.ofEpochMilli(timestamp) + (sent ? " -> " : " <- ") + text;
+        }
+    }
+
+}
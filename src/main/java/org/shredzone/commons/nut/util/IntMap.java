@@ -0,0 +1,229 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.util;
+
+import java.util.Arrays;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+
+/**
+ * A compact map with non-negative {@code int} keys, e.g. symbol IDs.
+ * <p>
+ * Keys are stored in a primitive array using open addressing, so there is neither a
+ * boxed key nor an entry object per mapping. This class is not threadsafe.
+ *
+ * @param <V>
+ *         Value type
+ */
+public class IntMap<V> {
+    private static final int EMPTY = -1;
+
+    private int[] keys;
+    private Object[] values;
+    private int size;
+
+    /**
+     * Creates a new, empty {@link IntMap}.
+     */
+    public IntMap() {
+        this(8);
+    }
+
+    /**
+     * Creates a new, empty {@link IntMap}.
+     *
+     * @param expectedSize
+     *         Expected number of mappings
+     */
+    public IntMap(int expectedSize) {
+        var capacity = Integer.highestOneBit(Math.max(4, expectedSize) * 2 - 1) << 1;
+        keys = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        values = new Object[capacity];
+    }
+
+    /**
+     * Returns the value of the given key.
+     *
+     * @param key
+     *         Key
+     * @return Value, or {@code null} if there is no mapping for the key
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        if (key < 0) {
+            return null;
+        }
+        var ix = indexOf(key);
+        return keys[ix] == key ? (V) values[ix] : null;
+    }
+
+    /**
+     * Checks if there is a mapping for the given key.
+     */
+    public boolean containsKey(int key) {
+        return key >= 0 && keys[indexOf(key)] == key;
+    }
+
+    /**
+     * Sets the value of the given key.
+     *
+     * @param key
+     *         Key, must not be negative
+     * @param value
+     *         Value
+     * @return Previous value, or {@code null} if there was no mapping for the key
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (key < 0) {
+            throw new IllegalArgumentException("Negative key " + key);
+        }
+        var ix = indexOf(key);
+        if (keys[ix] == key) {
+            var old = (V) values[ix];
+            values[ix] = value;
+            return old;
+        }
+
+        keys[ix] = key;
+        values[ix] = value;
+        if (++size * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+        return null;
+    }
+
+    /**
+     * Removes the mapping of the given key.
+     *
+     * @param key
+     *         Key
+     * @return Removed value, or {@code null} if there was no mapping for the key
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        if (key < 0) {
+            return null;
+        }
+        var ix = indexOf(key);
+        if (keys[ix] != key) {
+            return null;
+        }
+
+        var old = (V) values[ix];
+        var mask = keys.length - 1;
+
+        // Shift back the following entries of the probe sequence, so lookups won't
+        // stop at the gap.
+        var gap = ix;
+        var next = (gap + 1) & mask;
+        while (keys[next] != EMPTY) {
+            var home = hash(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[gap] = EMPTY;
+        values[gap] = null;
+        size--;
+        return old;
+    }
+
+    /**
+     * Returns the number of mappings.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks if the map is empty.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Invokes the consumer for each mapping, in no particular order.
+     *
+     * @param consumer
+     *         {@link Consumer} to invoke
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(Consumer<? super V> consumer) {
+        for (int ix = 0; ix < keys.length; ix++) {
+            if (keys[ix] != EMPTY) {
+                consumer.accept(keys[ix], (V) values[ix]);
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the slot of the given key, or of the empty slot where the
+     * key would be stored.
+     */
+    private int indexOf(int key) {
+        var mask = keys.length - 1;
+        var ix = hash(key) & mask;
+        while (keys[ix] != key && keys[ix] != EMPTY) {
+            ix = (ix + 1) & mask;
+        }
+        return ix;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void resize(int capacity) {
+        var oldKeys = keys;
+        var oldValues = values;
+        keys = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        values = new Object[capacity];
+        size = 0;
+        for (int ix = 0; ix < oldKeys.length; ix++) {
+            if (oldKeys[ix] != EMPTY) {
+                put(oldKeys[ix], (V) oldValues[ix]);
+            }
+        }
+    }
+
+    private static int hash(int key) {
+        var h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Consumer of the mappings of an {@link IntMap}.
+     *
+     * @param <V>
+     *         Value type
+     */
+    @FunctionalInterface
+    public interface Consumer<V> {
+        void accept(int key, V value);
+    }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A pattern for dot-separated NUT variable names, like {@code battery.*} or
+ * {@code outlet.*.status}.
+ * <p>
+ * A {@code *} segment matches exactly one name segment. If the {@code *} is the last
+ * segment of the pattern, it matches the entire subtree, i.e. one or more segments.
+ * All other segments must match literally.
+ */
+public final class NamePattern {
+    public static final String WILDCARD = "*";
+
+    /**
+     * Orders name segments. Numeric segments (like the outlet number in
+     * {@code outlet.10.status}) are compared by their numeric value, and are sorted
+     * before all other segments, which are compared lexicographically.
+     */
+    public static final Comparator<String> SEGMENT_ORDER = NamePattern::compareSegments;
+
+    private static final Pattern SEPARATOR = Pattern.compile("\\.");
+
+    private final String pattern;
+    private final List<String> segments;
+
+    private NamePattern(String pattern) {
+        this.pattern = pattern;
+        this.segments = split(pattern);
+    }
+
+    /**
+     * Compiles a pattern.
+     *
+     * @param pattern
+     *         Pattern string, e.g. {@code battery.*}
+     * @return {@link NamePattern}
+     * @throws IllegalArgumentException
+     *         if the pattern is empty or contains empty segments
+     */
+    public static NamePattern compile(String pattern) {
+        return new NamePattern(pattern);
+    }
+
+    /**
+     * Splits a variable name into its segments.
+     *
+     * @param name
+     *         Variable name, e.g. {@code battery.runtime.low}
+     * @return List of segments
+     * @throws IllegalArgumentException
+     *         if the name is empty or contains empty segments
+     */
+    public static List<String> split(String name) {
+        var result = Arrays.asList(SEPARATOR.split(name, -1));
+        if (result.stream().anyMatch(String::isEmpty)) {
+            throw new IllegalArgumentException("Invalid name: " + name);
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Returns the segments of this pattern.
+     */
+    public List<String> getSegments() {
+        return segments;
+    }
+
+    /**
+     * Checks if the given segment of the pattern is a wildcard.
+     *
+     * @param ix
+     *         Segment index
+     * @return {@code true} if it is a wildcard
+     */
+    public boolean isWildcard(int ix) {
+        return WILDCARD.equals(segments.get(ix));
+    }
+
+    /**
+     * Checks if the pattern ends with a wildcard, and thus matches an entire subtree.
+     */
+    public boolean isSubtree() {
+        return isWildcard(segments.size() - 1);
+    }
+
+    /**
+     * Checks if the given variable name matches this pattern.
+     * <p>
+     * The name is not split into a list, so this method can be invoked on every line
+     * of a list response without generating garbage.
+     *
+     * @param name
+     *         Variable name
+     * @return {@code true} if the name matches
+     */
+    public boolean matches(String name) {
+        int pos = 0;
+        int last = segments.size() - 1;
+        for (int ix = 0; ix <= last; ix++) {
+            if (pos > name.length()) {
+                return false;
+            }
+
+            int end = name.indexOf('.', pos);
+            if (end < 0) {
+                end = name.length();
+            }
+
+            var segment = segments.get(ix);
+            if (WILDCARD.equals(segment)) {
+                if (end == pos) {
+                    return false;
+                }
+                if (ix == last) {
+                    return true;
+                }
+            } else if (!name.regionMatches(pos, segment, 0, segment.length())
+                    || end - pos != segment.length()) {
+                return false;
+            }
+
+            pos = end + 1;
+        }
+        return pos > name.length();
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+
+    private static int compareSegments(String a, String b) {
+        boolean numA = isNumeric(a);
+        boolean numB = isNumeric(b);
+        if (numA != numB) {
+            return numA ? -1 : 1;
+        }
+        if (numA) {
+            int cmp = Integer.compare(a.length(), b.length());
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return a.compareTo(b);
+    }
+
+    private static boolean isNumeric(String str) {
+        if (str.isEmpty() || str.length() > 1 && str.charAt(0) == '0') {
+            return false;
+        }
+        for (int ix = 0; ix < str.length(); ix++) {
+            char ch = str.charAt(ix);
+            if (ch < '0' || ch > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
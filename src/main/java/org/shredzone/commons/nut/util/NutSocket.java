@@ -19,19 +19,26 @@
  */
 package org.shredzone.commons.nut.util;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
-
-import java.io.BufferedReader;
 import java.io.Closeable;
 import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.net.Socket;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
+import edu.umd.cs.findbugs.annotations.Nullable;
+import org.shredzone.commons.nut.CircuitBreaker;
+import org.shredzone.commons.nut.Priority;
+import org.shredzone.commons.nut.RateLimiter;
+import org.shredzone.commons.nut.SessionRecorder;
+import org.shredzone.commons.nut.Transport;
+import org.shredzone.commons.nut.WaitStatistics;
+import org.shredzone.commons.nut.exception.CircuitOpenException;
 import org.shredzone.commons.nut.exception.InvalidResponseException;
 import org.shredzone.commons.nut.exception.NutException;
 import org.slf4j.Logger;
@@ -39,13 +46,69 @@ import org.slf4j.LoggerFactory;
 
 /**
  * A socket that is used for communication with a NUT server.
+ * <p>
+ * The socket is threadsafe. Requests of concurrent threads are sent one after the
+ * other. Control requests ({@code SET}, {@code INSTCMD}, {@code FSD}) are sent before
+ * queued read requests, see {@link PriorityGate}. If an identical {@code GET} or
+ * {@code LIST} query is already in flight, the caller waits for that query and shares
+ * its response instead of sending the query again.
+ * <p>
+ * Optionally, {@link RateLimiter} can be set for read requests ({@code GET},
+ * {@code LIST}) and write requests ({@code SET}, {@code INSTCMD}), to protect the
+ * server from being flooded with requests.
+ * <p>
+ * All requests are recorded as JDK Flight Recorder events. The last lines that were
+ * exchanged with the server are kept in a ring buffer, and are logged if the server
+ * sent an unexpected response.
+ * <p>
+ * If the communication with the server fails, the connection is dropped, and the next
+ * request connects to the server again. {@code ERR} responses keep the connection.
  */
 public class NutSocket implements Closeable {
     private static final Logger LOG = LoggerFactory.getLogger(NutSocket.class);
+    private static final int RECORDER_SIZE = 64;
+    private static final int MAX_OVERTAKES = 8;
+    private static final Duration TRACKING_INTERVAL = Duration.ofMillis(250);
+
+    private final String host;
+    private final int port;
+    private final Transport transport;
+    private final SingleFlight<Response> queries = new SingleFlight<>();
+    private final SingleFlight<List<Response>> lists = new SingleFlight<>();
+    private final ExchangeRecorder recorder = new ExchangeRecorder(RECORDER_SIZE);
+    private final PriorityGate gate = new PriorityGate(MAX_OVERTAKES);
+    private final Tracker tracker = new Tracker(this, TRACKING_INTERVAL);
+
+    @Nullable
+    private final Handshake handshake;
+
+    @Nullable
+    private volatile RateLimiter readLimiter;
+
+    @Nullable
+    private volatile RateLimiter writeLimiter;
+
+    @Nullable
+    private volatile CircuitBreaker circuitBreaker;
 
-    private final Socket socket;
-    private final OutputStreamWriter writer;
-    private final BufferedReader reader;
+    @Nullable
+    private volatile SessionRecorder sessionRecorder;
+    private volatile int sessionId;
+
+    @Nullable
+    private volatile Transport.Connection connection;
+    private volatile boolean closed;
+    private volatile boolean tracking;
+    private long received;
+
+    /**
+     * A handshake that is performed right after the connection to the server has been
+     * established, e.g. for authentication.
+     */
+    @FunctionalInterface
+    public interface Handshake {
+        void perform(NutSocket socket) throws IOException;
+    }
 
     /**
      * Creates a new {@link NutSocket}. It immediately connects to the server.
@@ -56,9 +119,205 @@ public class NutSocket implements Closeable {
      *         Server port
      */
     public NutSocket(String host, int port) throws IOException {
-        socket = new Socket(host, port);
-        reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF_8));
-        writer = new OutputStreamWriter(socket.getOutputStream(), UTF_8);
+        this(host, port, null);
+        connect();
+    }
+
+    /**
+     * Creates a new {@link NutSocket}. It does not connect to the server until the
+     * first request is sent, or {@link #connect()} is invoked.
+     *
+     * @param host
+     *         Server host name
+     * @param port
+     *         Server port
+     * @param handshake
+     *         {@link Handshake} to be performed after connecting, or {@code null} if
+     *         there is no handshake
+     */
+    public NutSocket(String host, int port, @Nullable Handshake handshake) {
+        this(host, port, Transport.tcp(host, port), handshake);
+    }
+
+    /**
+     * Creates a new {@link NutSocket} that uses the given {@link Transport}. It does not
+     * connect to the server until the first request is sent, or {@link #connect()} is
+     * invoked.
+     *
+     * @param host
+     *         Server host name, only used for logging and recording
+     * @param port
+     *         Server port, only used for logging and recording
+     * @param transport
+     *         {@link Transport} that opens the connections to the server
+     * @param handshake
+     *         {@link Handshake} to be performed after connecting, or {@code null} if
+     *         there is no handshake
+     */
+    public NutSocket(String host, int port, Transport transport,
+                     @Nullable Handshake handshake) {
+        this.host = host;
+        this.port = port;
+        this.transport = transport;
+        this.handshake = handshake;
+    }
+
+    /**
+     * Connects to the server and performs the handshake, unless the socket is already
+     * connected.
+     */
+    public void connect() throws IOException {
+        guarded(() -> {
+            enter(Priority.READ);
+            try {
+                doConnect();
+            } finally {
+                leave();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Connects to the server and performs the handshake. Must be invoked while holding
+     * the gate.
+     */
+    void doConnect() throws IOException {
+        if (closed) {
+            throw new IOException("Socket has been closed");
+        }
+        if (connection != null) {
+            return;
+        }
+
+        var event = new ConnectEvent();
+        event.begin();
+        try {
+            var established = transport.connect();
+            connection = established;
+            LOG.debug("Connected to {}:{}", host, port);
+            var sr = sessionRecorder;
+            if (sr != null) {
+                sessionId = sr.connected(host, port);
+            }
+
+            try {
+                if (handshake != null) {
+                    handshake.perform(this);
+                }
+                if (tracking) {
+                    send(trackingRequest(true));
+                    receiveOk();
+                }
+                if (closed) {
+                    // close() was invoked while connecting
+                    throw new IOException("Socket has been closed");
+                }
+            } catch (IOException | RuntimeException ex) {
+                connection = null;
+                established.close();
+                throw ex;
+            }
+        } catch (IOException | RuntimeException ex) {
+            event.error = ex.toString();
+            throw ex;
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.host = host;
+                event.port = port;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Returns the server host name.
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Returns the server port.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Sets the {@link RateLimiter} for read requests ({@code GET}, {@code LIST}).
+     *
+     * @param readLimiter
+     *         {@link RateLimiter} to use, or {@code null} for no limit
+     */
+    public void setReadLimiter(@Nullable RateLimiter readLimiter) {
+        this.readLimiter = readLimiter;
+    }
+
+    /**
+     * Sets the {@link RateLimiter} for write requests ({@code SET}, {@code INSTCMD}).
+     *
+     * @param writeLimiter
+     *         {@link RateLimiter} to use, or {@code null} for no limit
+     */
+    public void setWriteLimiter(@Nullable RateLimiter writeLimiter) {
+        this.writeLimiter = writeLimiter;
+    }
+
+    /**
+     * Sets a {@link CircuitBreaker} that rejects all requests while the server is
+     * unreachable.
+     *
+     * @param circuitBreaker
+     *         {@link CircuitBreaker}, or {@code null} for none
+     * @throws IllegalArgumentException
+     *         if a {@link CircuitBreaker} was passed in, but this socket does not
+     *         support circuit breakers
+     * @see #isCircuitBreakerSupported()
+     */
+    public void setCircuitBreaker(@Nullable CircuitBreaker circuitBreaker) {
+        if (circuitBreaker != null && !isCircuitBreakerSupported()) {
+            throw new IllegalArgumentException("Circuit breakers are not supported by "
+                    + getClass().getSimpleName());
+        }
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Checks if this socket supports a {@link CircuitBreaker}.
+     */
+    public boolean isCircuitBreakerSupported() {
+        return true;
+    }
+
+    /**
+     * Returns the {@link CircuitBreaker} of this socket.
+     *
+     * @return {@link CircuitBreaker}, or {@code null} if there is none
+     */
+    @Nullable
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Records all requests and responses of this socket.
+     *
+     * @param sessionRecorder
+     *         {@link SessionRecorder} to record to, or {@code null} to stop recording
+     */
+    public void setSessionRecorder(@Nullable SessionRecorder sessionRecorder)
+            throws IOException {
+        enter(Priority.READ);
+        try {
+            this.sessionRecorder = sessionRecorder;
+            if (sessionRecorder != null && connection != null) {
+                sessionId = sessionRecorder.connected(host, port);
+            }
+        } finally {
+            leave();
+        }
     }
 
     /**
@@ -68,13 +327,65 @@ public class NutSocket implements Closeable {
      *         {@link Request} to send
      */
     public void execute(Request request) throws IOException {
-        send(request);
-        var response = receive();
-        if (!response.get(0).equals("OK")) {
-            throw new InvalidResponseException("Expected OK or ERR", response.getRaw());
+        guarded(() -> doExecute(request));
+    }
+
+    /**
+     * Sends a {@code SET} or {@code INSTCMD} request to the server, and tracks its
+     * outcome.
+     * <p>
+     * The request itself is sent synchronously. If tracking is enabled, the server only
+     * confirms that the request has been queued for the driver. The returned future is
+     * completed when the driver reports that the request was successfully applied, or
+     * completed exceptionally with a {@link NutException} if the driver failed to apply
+     * it. The outcome of all pending requests is polled in a single batch. If tracking
+     * is disabled, the future is already completed when this method returns.
+     *
+     * @param request
+     *         {@link Request} to send
+     * @return Future that is completed when the request has been applied
+     * @see #setTracking(boolean)
+     */
+    public CompletableFuture<Void> submit(Request request) throws IOException {
+        var id = guarded(() -> Optional.ofNullable(doExecute(request)));
+        if (id.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return tracker.track(id.get());
+    }
+
+    /**
+     * Enables or disables tracking of {@code SET} and {@code INSTCMD} requests. The
+     * setting is kept when the socket reconnects.
+     * <p>
+     * Tracking requires NUT 2.8.0 or higher. If it is enabled, requests sent by
+     * {@link #execute(Request)} only confirm that the request has been queued. Use
+     * {@link #submit(Request)} to wait for the outcome.
+     *
+     * @param tracking
+     *         {@code true} to enable tracking
+     */
+    public void setTracking(boolean tracking) throws IOException {
+        this.tracking = tracking;
+        if (connection != null) {
+            execute(trackingRequest(tracking));
         }
     }
 
+    /**
+     * Checks if tracking is enabled.
+     */
+    public boolean isTracking() {
+        return tracking;
+    }
+
+    /**
+     * Returns the number of tracked requests with a pending outcome.
+     */
+    public int getPendingTrackingCount() {
+        return tracker.getPendingCount();
+    }
+
     /**
      * Sends a query to the server, and expects a single-line response.
      *
@@ -83,14 +394,10 @@ public class NutSocket implements Closeable {
      * @return The {@link Response} that was returned by the server.
      */
     public Response query(Request request) throws IOException {
-        send(request);
-        var query = request.getRequest();
-        var queryWithoutCommand = query.subList(1, query.size());
-        var response = receive();
-        if (!matches(response.getAll(), queryWithoutCommand)) {
-            throw new InvalidResponseException("Unexpected answer", response.getRaw());
+        if (isIdempotent(request)) {
+            return queries.run(request.toString(), () -> guarded(() -> doQuery(request)));
         }
-        return response;
+        return guarded(() -> doQuery(request));
     }
 
     /**
@@ -98,29 +405,62 @@ public class NutSocket implements Closeable {
      *
      * @param request
      *         {@link Request} to send
-     * @return A list of single {@link Response} that was returned by the server.
+     * @return An unmodifiable list of single {@link Response} that was returned by the
+     * server.
      */
     public List<Response> list(Request request) throws IOException {
-        send(request);
+        if (isIdempotent(request)) {
+            return lists.run(request.toString(), () -> guarded(() -> doList(request)));
+        }
+        return guarded(() -> doList(request));
+    }
 
-        var query = request.getRequest();
-        var queryWithoutCommand = query.subList(1, query.size());
+    /**
+     * Sends a query to the server, and expects a list response. Each record is passed
+     * to the given consumer as soon as it has been received, so the caller is able to
+     * filter the records without collecting the full list.
+     *
+     * @param request
+     *         {@link Request} to send
+     * @param consumer
+     *         {@link Consumer} that receives each single {@link Response}
+     */
+    public void list(Request request, Consumer<Response> consumer) throws IOException {
+        guarded(() -> {
+            doList(request, consumer);
+            return null;
+        });
+    }
 
-        var line = receive();
-        if (!matches(line.getAll(), query, "BEGIN")) {
-            throw new InvalidResponseException("BEGIN is missing", line.getRaw());
-        }
+    /**
+     * Creates a new {@link Pipeline} for sending multiple requests in a single burst.
+     */
+    public Pipeline pipeline() {
+        return new Pipeline(this);
+    }
 
-        var result = new ArrayList<Response>();
-        line = receive();
-        while(!matches(line.getAll(), query, "END")) {
-            if (!matches(line.getAll(), queryWithoutCommand)) {
-                throw new InvalidResponseException("Unexpected record type", line.toString());
-            }
-            result.add(line);
-            line = receive();
-        }
-        return result;
+    /**
+     * Returns the number of queries that were coalesced with an identical query in
+     * flight.
+     */
+    public long getCoalescedCount() {
+        return queries.getCoalescedCount() + lists.getCoalescedCount();
+    }
+
+    /**
+     * Returns the lines that were recently exchanged with the server, oldest first.
+     * Passwords are masked.
+     */
+    public List<String> getRecentExchanges() {
+        return recorder.dump();
+    }
+
+    /**
+     * Returns the {@link WaitStatistics} of the requests of the given {@link Priority}
+     * class, i.e. how long they had to wait for the connection.
+     */
+    public WaitStatistics getWaitStatistics(Priority priority) {
+        return gate.getStatistics(priority);
     }
 
     /**
@@ -130,7 +470,8 @@ public class NutSocket implements Closeable {
      * not detect if the socket was closed by the server.
      */
     public boolean isConnected() {
-        return socket.isConnected() && !socket.isClosed();
+        var current = connection;
+        return current != null && current.isOpen();
     }
 
     /**
@@ -138,21 +479,261 @@ public class NutSocket implements Closeable {
      */
     @Override
     public void close() throws IOException {
+        closed = true;
+        tracker.close();
+        var current = connection;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    /**
+     * Sends a request to the server, and receives a simple "OK" response.
+     *
+     * @return Tracking ID, or {@code null} if the request is not tracked
+     */
+    @Nullable
+    private String doExecute(Request request) throws IOException {
+        throttle(request);
+        enter(priorityOf(request));
         try {
-            writer.close();
-        } catch (IOException ex) {
-            // Can be ignored in favor of closing the socket itself.
-            LOG.debug("Exception while closing output stream", ex);
+            doConnect();
+            var event = begin(new RequestEvent());
+            String id;
+            try {
+                send(request);
+                id = receiveOk();
+            } catch (IOException | RuntimeException ex) {
+                commit(event, request, ex);
+                throw ex;
+            }
+            commit(event, request, null);
+            return id;
+        } finally {
+            leave();
+        }
+    }
+
+    /**
+     * Sends a query to the server, and receives a single-line response.
+     */
+    private Response doQuery(Request request) throws IOException {
+        throttle(request);
+        enter(priorityOf(request));
+        try {
+            doConnect();
+            var event = begin(new RequestEvent());
+            try {
+                send(request);
+                var response = receiveQuery(request);
+                commit(event, request, null);
+                return response;
+            } catch (IOException | RuntimeException ex) {
+                commit(event, request, ex);
+                throw ex;
+            }
+        } finally {
+            leave();
+        }
+    }
+
+    /**
+     * Sends a query to the server, and receives a list response.
+     */
+    private List<Response> doList(Request request) throws IOException {
+        throttle(request);
+        var result = new ArrayList<Response>();
+        enter(priorityOf(request));
+        try {
+            doConnect();
+            var event = begin(new ListEvent());
+            try {
+                send(request);
+                event.records = receiveList(request, result::add);
+            } catch (IOException | RuntimeException ex) {
+                commit(event, request, ex);
+                throw ex;
+            }
+            commit(event, request, null);
+        } finally {
+            leave();
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Sends a query to the server, and passes each record of the list response to the
+     * consumer.
+     */
+    private void doList(Request request, Consumer<Response> consumer) throws IOException {
+        throttle(request);
+        enter(priorityOf(request));
+        try {
+            doConnect();
+            var event = begin(new ListEvent());
+            try {
+                send(request);
+                event.records = receiveList(request, consumer);
+            } catch (IOException | RuntimeException ex) {
+                commit(event, request, ex);
+                throw ex;
+            }
+            commit(event, request, null);
+        } finally {
+            leave();
+        }
+    }
+
+    /**
+     * Starts a flight recorder event of a request.
+     *
+     * @param event
+     *         {@link ProtocolEvent} to start
+     * @return The event
+     */
+    <T extends ProtocolEvent> T begin(T event) {
+        event.begin();
+        mark(event);
+        return event;
+    }
+
+    /**
+     * Marks the start of the response of a request, for computing the response size.
+     *
+     * @param event
+     *         {@link ProtocolEvent} of the request
+     */
+    void mark(ProtocolEvent event) {
+        event.mark = received;
+    }
+
+    /**
+     * Ends a flight recorder event of a request, and commits it if it is enabled.
+     *
+     * @param event
+     *         {@link ProtocolEvent} to commit
+     * @param request
+     *         {@link Request} that was sent
+     * @param error
+     *         Exception if the request has failed, {@code null} on success
+     */
+    void commit(ProtocolEvent event, Request request, @Nullable Exception error) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.host = host;
+            event.port = port;
+            event.command = request.getCommand();
+            event.request = mask(request);
+            event.size = received - event.mark;
+            if (error instanceof NutException) {
+                event.error = ((NutException) error).getType();
+            } else if (error != null) {
+                event.error = error.toString();
+            }
+            event.commit();
         }
+    }
 
+    /**
+     * Performs a call, if it is permitted by the {@link CircuitBreaker}, and reports its
+     * outcome to the breaker. Errors returned by the server are not failures, as the
+     * server was reachable.
+     * <p>
+     * Calls made while holding the gate, e.g. by the handshake, are part of an outer
+     * call that is already guarded, and are performed without asking the breaker.
+     *
+     * @param call
+     *         Call to perform
+     * @return Result of the call
+     * @throws CircuitOpenException
+     *         if the call was rejected by the breaker
+     */
+    <T> T guarded(SingleFlight.Call<T> call) throws IOException {
+        var breaker = circuitBreaker;
+        if (breaker == null || gate.isHeldByCurrentThread()) {
+            return call.call();
+        }
+
+        breaker.acquire();
         try {
-            reader.close();
+            var result = call.call();
+            breaker.onSuccess();
+            return result;
+        } catch (NutException | RuntimeException ex) {
+            breaker.onSuccess();
+            throw ex;
         } catch (IOException ex) {
-            // Can be ignored in favor of closing the socket itself.
-            LOG.debug("Exception while closing input stream", ex);
+            breaker.onFailure();
+            throw ex;
         }
+    }
 
-        socket.close();
+    /**
+     * Enters the gate with the given {@link Priority}. Must be paired with a
+     * {@code gate.leave()} in a {@code finally} block.
+     */
+    void enter(Priority priority) throws IOException {
+        gate.enter(priority);
+    }
+
+    /**
+     * Leaves the gate.
+     */
+    void leave() {
+        gate.leave();
+    }
+
+    /**
+     * Returns the {@link Priority} of a request. {@code SET}, {@code INSTCMD} and
+     * {@code FSD} are control requests, all others are read requests.
+     */
+    static Priority priorityOf(Request request) {
+        var command = request.getCommand();
+        return isWrite(command) || "FSD".equals(command) ? Priority.CONTROL : Priority.READ;
+    }
+
+    /**
+     * Checks if a request is idempotent, so identical concurrent requests can be
+     * coalesced. Only {@code GET} and {@code LIST} requests are idempotent.
+     */
+    static boolean isIdempotent(Request request) {
+        var command = request.getCommand();
+        return "GET".equals(command) || "LIST".equals(command);
+    }
+
+    /**
+     * Waits until the rate limiter permits to send the request. Must be invoked before
+     * the socket is locked, so other threads are not blocked while waiting.
+     */
+    private void throttle(Request request) throws IOException {
+        throttle(isIdempotent(request) ? 1 : 0, isWrite(request.getCommand()) ? 1 : 0);
+    }
+
+    /**
+     * Waits until the rate limiters permit to send the given number of read and write
+     * requests. All tokens are taken at once.
+     *
+     * @param reads
+     *         Number of read requests
+     * @param writes
+     *         Number of write requests
+     */
+    void throttle(int reads, int writes) throws IOException {
+        var rl = readLimiter;
+        if (rl != null && reads > 0) {
+            rl.acquire(reads);
+        }
+        var wl = writeLimiter;
+        if (wl != null && writes > 0) {
+            wl.acquire(writes);
+        }
+    }
+
+    /**
+     * Checks if a command is a write command, i.e. {@code SET} or {@code INSTCMD}.
+     */
+    static boolean isWrite(String command) {
+        return "SET".equals(command) || "INSTCMD".equals(command);
     }
 
     /**
@@ -162,9 +743,120 @@ public class NutSocket implements Closeable {
      *         {@link Request} to send
      */
     private void send(Request request) throws IOException {
+        write(request);
+        flush();
+    }
+
+    /**
+     * Writes a request to the output buffer, without flushing it.
+     *
+     * @param request
+     *         {@link Request} to write
+     */
+    void write(Request request) throws IOException {
+        doConnect();
         var req = request.toString();
-        LOG.debug(" -> " + req);
-        writer.append(req).append('\n').flush();
+        LOG.debug(" -> {}", req);
+        try {
+            connection().write(req);
+        } catch (IOException ex) {
+            drop();
+            throw ex;
+        }
+        var masked = "PASSWORD".equals(request.getCommand()) ? mask(request) : req;
+        recorder.sent(masked);
+        var sr = sessionRecorder;
+        if (sr != null) {
+            sr.sent(sessionId, masked);
+        }
+    }
+
+    /**
+     * Flushes the output buffer, sending all pending requests to the server.
+     */
+    void flush() throws IOException {
+        try {
+            connection().flush();
+        } catch (IOException ex) {
+            drop();
+            throw ex;
+        }
+    }
+
+    /**
+     * Receives a simple "OK" response.
+     *
+     * @return Tracking ID if the response was {@code OK TRACKING <id>}, {@code null}
+     * otherwise
+     */
+    @Nullable
+    String receiveOk() throws IOException {
+        var response = receive();
+        if (!response.get(0).equals("OK")) {
+            throw invalid("Expected OK or ERR", response.getRaw());
+        }
+        var all = response.getAll();
+        if (all.size() == 3 && "TRACKING".equals(all.get(1))) {
+            return all.get(2);
+        }
+        return null;
+    }
+
+    /**
+     * Receives a single-line status response that does not repeat the request.
+     *
+     * @return The {@link Response} that was returned by the server.
+     */
+    Response receiveStatus() throws IOException {
+        return receive();
+    }
+
+    /**
+     * Receives a single-line response to a query.
+     *
+     * @param request
+     *         {@link Request} that was sent
+     * @return The {@link Response} that was returned by the server.
+     */
+    Response receiveQuery(Request request) throws IOException {
+        var query = request.getRequest();
+        var queryWithoutCommand = query.subList(1, query.size());
+        var response = receive();
+        if (!matches(response.getAll(), queryWithoutCommand)) {
+            throw invalid("Unexpected answer", response.getRaw());
+        }
+        return response;
+    }
+
+    /**
+     * Receives a list response to a query.
+     *
+     * @param request
+     *         {@link Request} that was sent
+     * @param consumer
+     *         {@link Consumer} that receives each single {@link Response}
+     * @return Number of records that were received
+     */
+    int receiveList(Request request, Consumer<Response> consumer) throws IOException {
+        var query = request.getRequest();
+        var queryWithoutCommand = query.subList(1, query.size());
+
+        var line = receive();
+        if (!matches(line.getAll(), query, "BEGIN")) {
+            throw invalid("BEGIN is missing", line.getRaw());
+        }
+
+        int count = 0;
+        line = receive();
+        while(!matches(line.getAll(), query, "END")) {
+            if (!matches(line.getAll(), queryWithoutCommand)) {
+                throw invalid("Unexpected record type", line.toString());
+            }
+            consumer.accept(line);
+            count++;
+            line = receive();
+        }
+        return count;
     }
 
     /**
@@ -173,12 +865,27 @@ public class NutSocket implements Closeable {
      * @return The {@link Response}, parsed and unqouted
      */
     private Response receive() throws IOException {
-        var line = reader.readLine();
+        String line;
+        try {
+            line = connection().readLine();
+        } catch (IOException ex) {
+            drop();
+            throw ex;
+        }
         if (line == null) {
+            LOG.warn("Stream was unexpectedly closed, recent exchanges:\n{}",
+                    String.join("\n", recorder.dump()));
+            drop();
             throw new EOFException("Stream was unexpectedly closed");
         }
 
         LOG.debug(" <- {}", line);
+        recorder.received(line);
+        var sr = sessionRecorder;
+        if (sr != null) {
+            sr.received(sessionId, line);
+        }
+        received += line.length() + 1;
 
         var response = new Response(line);
         if (response.get(0).equals("ERR")) {
@@ -188,6 +895,31 @@ public class NutSocket implements Closeable {
         return response;
     }
 
+    /**
+     * Creates an {@link InvalidResponseException}, and logs the recent exchanges with
+     * the server. The connection is dropped, as the responses are out of sync with the
+     * requests.
+     */
+    private InvalidResponseException invalid(String message, String response) {
+        LOG.warn("{}, recent exchanges:\n{}", message, String.join("\n", recorder.dump()));
+        drop();
+        return new InvalidResponseException(message, response);
+    }
+
+    /**
+     * Returns the request for enabling or disabling tracking.
+     */
+    private static Request trackingRequest(boolean enable) {
+        return Request.set("TRACKING").arg(enable ? "ON" : "OFF");
+    }
+
+    /**
+     * Masks the password of a {@code PASSWORD} request.
+     */
+    private static String mask(Request request) {
+        return "PASSWORD".equals(request.getCommand()) ? "PASSWORD ****" : request.toString();
+    }
+
     /**
      * Checks if a response meets the expectations.
      *
@@ -215,4 +947,48 @@ public class NutSocket implements Closeable {
         return (response.subList(prefix.length, prefix.length + match.size())).equals(match);
     }
 
+    /**
+     * Aborts the request that the given thread is currently exchanging with the server,
+     * by dropping the connection. Does nothing if the thread does not hold the gate.
+     *
+     * @param thread
+     *         {@link Thread} that performs the request
+     */
+    void abort(Thread thread) {
+        gate.runIfHeldBy(thread, this::drop);
+    }
+
+    /**
+     * Drops the connection after a communication error, so the next request connects
+     * to the server again. Must be invoked while the gate cannot be passed on.
+     */
+    private void drop() {
+        var current = connection;
+        if (current == null) {
+            return;
+        }
+        connection = null;
+        LOG.debug("Dropping connection to {}:{}", host, port);
+        try {
+            current.close();
+        } catch (IOException ex) {
+            // The connection is broken anyway
+            LOG.debug("Exception while closing connection", ex);
+        }
+    }
+
+    /**
+     * Returns the current {@link Transport.Connection}.
+     *
+     * @throws IOException
+     *         if the socket is not connected
+     */
+    private Transport.Connection connection() throws IOException {
+        var result = connection;
+        if (result == null) {
+            throw new IOException("Socket is not connected");
+        }
+        return result;
+    }
+
 }
@@ -0,0 +1,294 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import org.shredzone.commons.nut.Priority;
+import org.shredzone.commons.nut.exception.CircuitOpenException;
+import org.shredzone.commons.nut.exception.NutException;
+
+/**
+ * Sends a number of requests to the NUT server in a single burst, and then collects
+ * all the responses. This way, the requests only cost a single network round trip.
+ * <p>
+ * Requests are first added to the pipeline, and then sent by invoking {@link #run()}.
+ * Each request returns a {@link CompletableFuture} that is completed when the pipeline
+ * has been run. If the server returned an error for a request, only the respective
+ * future is completed exceptionally with a {@link NutException}.
+ * <p>
+ * A pipeline can only be run once. If the socket is rate limited, the pipeline takes
+ * the tokens for all of its requests at once before sending them. The pipeline is sent
+ * with the highest {@link Priority} of its requests.
+ */
+public class Pipeline {
+    private final NutSocket socket;
+    private final List<Entry<?>> entries = new ArrayList<>();
+    private boolean done;
+
+    /**
+     * Creates a new {@link Pipeline}. Use {@link NutSocket#pipeline()} to get an
+     * instance.
+     *
+     * @param socket
+     *         {@link NutSocket} to send the requests to
+     */
+    Pipeline(NutSocket socket) {
+        this.socket = socket;
+    }
+
+    /**
+     * Adds a request that expects a simple "OK" as response.
+     *
+     * @param request
+     *         {@link Request} to send
+     * @return Future that is completed when the response was received
+     */
+    public CompletableFuture<Void> execute(Request request) {
+        return add(new Entry<>(request, new RequestEvent()) {
+            @Override
+            @Nullable
+            Void receive() throws IOException {
+                socket.receiveOk();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Adds a request that expects a single-line response.
+     *
+     * @param request
+     *         {@link Request} to send
+     * @return Future that is completed with the {@link Response}
+     */
+    public CompletableFuture<Response> query(Request request) {
+        return add(new Entry<>(request, new RequestEvent()) {
+            @Override
+            Response receive() throws IOException {
+                return socket.receiveQuery(request);
+            }
+        });
+    }
+
+    /**
+     * Adds a request that expects a single-line status response which does not repeat
+     * the request, like the {@code PENDING} or {@code SUCCESS} response to a
+     * {@code GET TRACKING} request.
+     *
+     * @param request
+     *         {@link Request} to send
+     * @return Future that is completed with the {@link Response}
+     */
+    public CompletableFuture<Response> status(Request request) {
+        return add(new Entry<>(request, new RequestEvent()) {
+            @Override
+            Response receive() throws IOException {
+                return socket.receiveStatus();
+            }
+        });
+    }
+
+    /**
+     * Adds a request that expects a list response.
+     *
+     * @param request
+     *         {@link Request} to send
+     * @return Future that is completed with the list of {@link Response}
+     */
+    public CompletableFuture<List<Response>> list(Request request) {
+        var listEvent = new ListEvent();
+        return add(new Entry<>(request, listEvent) {
+            @Override
+            List<Response> receive() throws IOException {
+                var result = new ArrayList<Response>();
+                listEvent.records = socket.receiveList(request, result::add);
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Returns the number of requests in this pipeline.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Sends all requests to the server, and then receives all the responses.
+     * <p>
+     * Errors returned by the server only complete the respective future exceptionally.
+     * If the communication with the server failed, all pending futures are completed
+     * exceptionally, and the exception is thrown.
+     */
+    public void run() throws IOException {
+        if (done) {
+            throw new IllegalStateException("Pipeline has already been run");
+        }
+        done = true;
+
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        try {
+            socket.guarded(this::transmit);
+        } catch (CircuitOpenException ex) {
+            entries.forEach(e -> e.future.completeExceptionally(ex));
+            throw ex;
+        }
+    }
+
+    /**
+     * Sends all requests and receives all responses, while holding the gate.
+     */
+    @Nullable
+    private Void transmit() throws IOException {
+        int reads = 0;
+        int writes = 0;
+        for (var entry : entries) {
+            if (NutSocket.isIdempotent(entry.request)) {
+                reads++;
+            } else if (NutSocket.isWrite(entry.request.getCommand())) {
+                writes++;
+            }
+        }
+        var priority = entries.stream()
+                .map(e -> NutSocket.priorityOf(e.request))
+                .min(Comparator.naturalOrder())
+                .orElse(Priority.READ);
+
+        try {
+            socket.throttle(reads, writes);
+            socket.enter(priority);
+        } catch (IOException ex) {
+            entries.forEach(e -> e.future.completeExceptionally(ex));
+            throw ex;
+        }
+
+        try {
+            int ix = 0;
+            try {
+                socket.doConnect();
+                entries.forEach(entry -> socket.begin(entry.event));
+                for (var entry : entries) {
+                    socket.write(entry.request);
+                }
+                socket.flush();
+
+                for (; ix < entries.size(); ix++) {
+                    entries.get(ix).complete();
+                }
+            } catch (IOException | RuntimeException ex) {
+                for (; ix < entries.size(); ix++) {
+                    var entry = entries.get(ix);
+                    socket.commit(entry.event, entry.request, ex);
+                    entry.future.completeExceptionally(ex);
+                }
+                throw ex;
+            }
+        } finally {
+            socket.leave();
+        }
+        return null;
+    }
+
+    /**
+     * Returns the result of a future that was returned by this pipeline. The pipeline
+     * must have been run before.
+     *
+     * @param future
+     *         Future to get the result of
+     * @return Result
+     * @throws IOException
+     *         if the request failed
+     */
+    public static <T> T result(CompletableFuture<T> future) throws IOException {
+        if (!future.isDone()) {
+            throw new IllegalStateException("Pipeline has not been run yet");
+        }
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            var cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw ex;
+        }
+    }
+
+    private <T> CompletableFuture<T> add(Entry<T> entry) {
+        if (done) {
+            throw new IllegalStateException("Pipeline has already been run");
+        }
+        entries.add(entry);
+        return entry.future;
+    }
+
+    /**
+     * A single request in the pipeline.
+     *
+     * @param <T>
+     *         Result type
+     */
+    private abstract class Entry<T> {
+        final Request request;
+        final ProtocolEvent event;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+
+        Entry(Request request, ProtocolEvent event) {
+            this.request = request;
+            this.event = event;
+        }
+
+        /**
+         * Receives the response of the request.
+         */
+        abstract T receive() throws IOException;
+
+        /**
+         * Receives the response, and completes the future. Errors returned by the
+         * server complete the future exceptionally.
+         */
+        void complete() throws IOException {
+            socket.mark(event);
+            try {
+                var result = receive();
+                socket.commit(event, request, null);
+                future.complete(result);
+            } catch (NutException ex) {
+                socket.commit(event, request, ex);
+                future.completeExceptionally(ex);
+            }
+        }
+    }
+
+}
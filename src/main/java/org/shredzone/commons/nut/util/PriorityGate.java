@@ -0,0 +1,251 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.util;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import org.shredzone.commons.nut.Priority;
+import org.shredzone.commons.nut.WaitStatistics;
+
+/**
+ * A reentrant mutual exclusion with priority classes. If the gate is released, it is
+ * passed to the oldest waiting thread of the highest {@link Priority} class.
+ * <p>
+ * To protect {@link Priority#READ} requests from starvation, the gate is passed to a
+ * waiting read request after a number of control requests have overtaken it.
+ */
+public class PriorityGate {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition granted = lock.newCondition();
+    private final Map<Priority, ArrayDeque<Waiter>> queues = new EnumMap<>(Priority.class);
+    private final Map<Priority, long[]> statistics = new EnumMap<>(Priority.class);
+    private final int maxOvertakes;
+
+    @Nullable
+    private Thread owner;
+    private int holds;
+    private int waiting;
+    private int overtakes;
+
+    /**
+     * Creates a new {@link PriorityGate}.
+     *
+     * @param maxOvertakes
+     *         Maximum number of higher priority requests that may overtake a waiting
+     *         request of a lower priority
+     */
+    public PriorityGate(int maxOvertakes) {
+        if (maxOvertakes < 1) {
+            throw new IllegalArgumentException("maxOvertakes must be positive");
+        }
+        this.maxOvertakes = maxOvertakes;
+        for (var priority : Priority.values()) {
+            queues.put(priority, new ArrayDeque<>());
+            statistics.put(priority, new long[3]);
+        }
+    }
+
+    /**
+     * Enters the gate. Blocks until the gate is passed to the current thread. If the
+     * current thread already holds the gate, it returns immediately.
+     *
+     * @param priority
+     *         {@link Priority} of the request
+     * @throws InterruptedIOException
+     *         if the thread was interrupted while waiting
+     */
+    public void enter(Priority priority) throws InterruptedIOException {
+        var current = Thread.currentThread();
+        var start = System.nanoTime();
+        lock.lock();
+        try {
+            if (owner == current) {
+                holds++;
+                return;
+            }
+
+            if (owner == null && waiting == 0) {
+                owner = current;
+                holds = 1;
+                record(priority, 0L);
+                return;
+            }
+
+            var waiter = new Waiter(current, priority, start);
+            queues.get(priority).add(waiter);
+            waiting++;
+            while (owner != current) {
+                try {
+                    granted.await();
+                } catch (InterruptedException ex) {
+                    if (owner == current) {
+                        // The gate was passed to us in the meantime, so pass it on
+                        holds = 1;
+                        passOn();
+                    } else {
+                        queues.get(priority).remove(waiter);
+                        waiting--;
+                    }
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the gate");
+                }
+            }
+            holds = 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Checks if the current thread holds the gate.
+     */
+    public boolean isHeldByCurrentThread() {
+        lock.lock();
+        try {
+            return owner == Thread.currentThread();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Runs an action if the given thread holds the gate. The gate is not passed on while
+     * the action is running.
+     *
+     * @param thread
+     *         {@link Thread} that is expected to hold the gate
+     * @param action
+     *         Action to run
+     * @return {@code true} if the thread held the gate, and the action was run
+     */
+    public boolean runIfHeldBy(Thread thread, Runnable action) {
+        lock.lock();
+        try {
+            if (owner != thread) {
+                return false;
+            }
+            action.run();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Leaves the gate. If the current thread leaves the gate as often as it has entered
+     * it, the gate is passed to the next waiting thread.
+     *
+     * @throws IllegalMonitorStateException
+     *         if the current thread does not hold the gate
+     */
+    public void leave() {
+        lock.lock();
+        try {
+            if (owner != Thread.currentThread()) {
+                throw new IllegalMonitorStateException("Gate is not held by this thread");
+            }
+            if (--holds == 0) {
+                passOn();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the {@link WaitStatistics} of the given {@link Priority} class.
+     */
+    public WaitStatistics getStatistics(Priority priority) {
+        lock.lock();
+        try {
+            var stat = statistics.get(priority);
+            return new WaitStatistics(priority, stat[0], stat[1], stat[2]);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of threads waiting for the gate.
+     */
+    int getWaitingCount() {
+        lock.lock();
+        try {
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Passes the gate to the next waiting thread. Must be invoked while holding the lock.
+     */
+    private void passOn() {
+        owner = null;
+        holds = 0;
+
+        var control = queues.get(Priority.CONTROL);
+        var read = queues.get(Priority.READ);
+        Waiter next;
+        if (!control.isEmpty() && (read.isEmpty() || overtakes < maxOvertakes)) {
+            next = control.poll();
+            overtakes = read.isEmpty() ? 0 : overtakes + 1;
+        } else {
+            next = read.poll();
+            overtakes = 0;
+        }
+
+        if (next != null) {
+            waiting--;
+            owner = next.thread;
+            record(next.priority, System.nanoTime() - next.since);
+            granted.signalAll();
+        }
+    }
+
+    private void record(Priority priority, long waitNanos) {
+        var stat = statistics.get(priority);
+        stat[0]++;
+        stat[1] += waitNanos;
+        stat[2] = Math.max(stat[2], waitNanos);
+    }
+
+    /**
+     * A thread that waits for the gate.
+     */
+    private static final class Waiter {
+        final Thread thread;
+        final Priority priority;
+        final long since;
+
+        Waiter(Thread thread, Priority priority, long since) {
+            this.thread = thread;
+            this.priority = priority;
+            this.since = since;
+        }
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.util;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/**
+ * Base class of the JDK Flight Recorder events of a request to the NUT server.
+ * <p>
+ * The duration of the event is the latency of the request, from sending the request
+ * until the response has been received completely.
+ */
+@Category("NUT")
+@StackTrace(false)
+@SuppressFBWarnings(value = "URF_UNREAD_FIELD", justification = "Read by the Flight Recorder")
+abstract class ProtocolEvent extends Event {
+    @Label("Host")
+    @Nullable
+    String host;
+
+    @Label("Port")
+    int port;
+
+    @Label("Command")
+    @Nullable
+    String command;
+
+    @Label("Request")
+    @Nullable
+    String request;
+
+    @Label("Response Size")
+    @DataAmount
+    long size;
+
+    @Label("Error")
+    @Nullable
+    String error;
+
+    /**
+     * Number of received characters when the response started. Not recorded.
+     */
+    transient long mark;
+}
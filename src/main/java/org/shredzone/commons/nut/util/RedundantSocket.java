@@ -0,0 +1,658 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.util;
+
+import static java.util.stream.Collectors.toList;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import org.shredzone.commons.nut.EndpointHealth;
+import org.shredzone.commons.nut.Priority;
+import org.shredzone.commons.nut.RateLimiter;
+import org.shredzone.commons.nut.SessionRecorder;
+import org.shredzone.commons.nut.Transport;
+import org.shredzone.commons.nut.WaitStatistics;
+import org.shredzone.commons.nut.exception.NutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link NutSocket} that distributes the requests over several redundant endpoints,
+ * i.e. NUT servers that monitor the same devices.
+ * <p>
+ * {@code GET} and {@code LIST} requests are sent to the fastest healthy endpoint. If
+ * it does not answer within a percentile of its recent latencies, a hedged duplicate
+ * is sent to the next endpoint, and the first answer is used. If an endpoint fails
+ * with a communication error, the request is sent to the next endpoint. All other
+ * requests, especially {@code SET} and {@code INSTCMD}, stick to a single endpoint,
+ * and are not repeated. After a communication error, the next request is sent to
+ * another endpoint.
+ * <p>
+ * An endpoint is unhealthy after a communication error, and is only used as a last
+ * resort until a backoff time has passed. {@code ERR} responses do not affect the
+ * health of an endpoint.
+ * <p>
+ * Pipelines are sent to the fastest healthy endpoint, and are neither hedged nor
+ * repeated.
+ * <p>
+ * Hedged requests are sent by a bounded pool of threads. When a read has been
+ * answered, the requests that are still pending on other endpoints are cancelled, and
+ * their connections are dropped. The endpoint sockets should use a {@link Transport}
+ * with timeouts, so a stalled endpoint does not block a thread indefinitely.
+ */
+public class RedundantSocket extends NutSocket {
+    private static final Logger LOG = LoggerFactory.getLogger(RedundantSocket.class);
+    private static final double DEFAULT_PERCENTILE = 0.95;
+    private static final long MIN_HEDGE_DELAY = TimeUnit.MILLISECONDS.toNanos(5L);
+    private static final long INITIAL_HEDGE_DELAY = TimeUnit.MILLISECONDS.toNanos(250L);
+    private static final long MIN_BACKOFF = TimeUnit.SECONDS.toNanos(1L);
+    private static final long MAX_BACKOFF = TimeUnit.SECONDS.toNanos(30L);
+    private static final int SAMPLES = 64;
+    private static final int THREADS_PER_ENDPOINT = 4;
+    private static final Transport DELEGATED = () -> {
+        throw new IOException("Requests are delegated to the endpoints");
+    };
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    private final List<Endpoint> endpoints;
+    private final ExecutorService executor;
+    private volatile double percentile = DEFAULT_PERCENTILE;
+    private volatile boolean tracking;
+
+    @Nullable
+    private volatile Endpoint sticky;
+
+    /**
+     * A request to be sent to an endpoint.
+     *
+     * @param <T>
+     *         Result type
+     */
+    @FunctionalInterface
+    private interface Call<T> {
+        T call(NutSocket socket) throws IOException;
+    }
+
+    /**
+     * Creates a new {@link RedundantSocket}. It does not connect to the servers until
+     * the first request is sent, or {@link #connect()} is invoked.
+     *
+     * @param sockets
+     *         {@link NutSocket} of the redundant endpoints, in the order of
+     *         preference for the requests that stick to a single endpoint. The sockets
+     *         are owned by this instance from now on.
+     */
+    public RedundantSocket(List<NutSocket> sockets) {
+        super(sockets.get(0).getHost(), sockets.get(0).getPort(), DELEGATED, null);
+        this.endpoints = sockets.stream().map(Endpoint::new).collect(toList());
+        var id = COUNTER.incrementAndGet();
+        var threads = endpoints.size() * THREADS_PER_ENDPOINT;
+        var pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    var thread = new Thread(r, "nut-redundant-" + id);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        this.executor = pool;
+    }
+
+    /**
+     * Sets the latency percentile after which a read is hedged to another endpoint.
+     *
+     * @param percentile
+     *         Percentile, between 0.0 and 1.0. Default is 0.95.
+     */
+    public void setHedgePercentile(double percentile) {
+        if (percentile <= 0.0 || percentile > 1.0) {
+            throw new IllegalArgumentException("percentile must be between 0.0 and 1.0");
+        }
+        this.percentile = percentile;
+        endpoints.forEach(Endpoint::update);
+    }
+
+    /**
+     * Returns the health of all endpoints, in the order of preference.
+     */
+    public List<EndpointHealth> getHealth() {
+        return endpoints.stream().map(Endpoint::health).collect(toList());
+    }
+
+    /**
+     * Connects to all endpoints. Fails only if no endpoint could be connected.
+     */
+    @Override
+    public void connect() throws IOException {
+        IOException failure = null;
+        boolean connected = false;
+        for (var endpoint : endpoints) {
+            try {
+                endpoint.socket.connect();
+                endpoint.succeeded(0L);
+                connected = true;
+            } catch (IOException ex) {
+                endpoint.failed(ex);
+                failure = suppress(failure, ex);
+            }
+        }
+        if (!connected && failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public void setReadLimiter(@Nullable RateLimiter readLimiter) {
+        endpoints.forEach(e -> e.socket.setReadLimiter(readLimiter));
+    }
+
+    @Override
+    public void setWriteLimiter(@Nullable RateLimiter writeLimiter) {
+        endpoints.forEach(e -> e.socket.setWriteLimiter(writeLimiter));
+    }
+
+    /**
+     * Circuit breakers are not supported, as the health of each endpoint is tracked
+     * separately. A single breaker for all endpoints would reject requests to the
+     * healthy endpoints as well.
+     */
+    @Override
+    public boolean isCircuitBreakerSupported() {
+        return false;
+    }
+
+    @Override
+    public void setSessionRecorder(@Nullable SessionRecorder sessionRecorder)
+            throws IOException {
+        for (var endpoint : endpoints) {
+            endpoint.socket.setSessionRecorder(sessionRecorder);
+        }
+    }
+
+    @Override
+    public void execute(Request request) throws IOException {
+        stick(socket -> {
+            socket.execute(request);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> submit(Request request) throws IOException {
+        return stick(socket -> socket.submit(request));
+    }
+
+    /**
+     * Enables or disables tracking on all endpoints.
+     */
+    @Override
+    public void setTracking(boolean tracking) throws IOException {
+        this.tracking = tracking;
+        IOException failure = null;
+        for (var endpoint : endpoints) {
+            try {
+                endpoint.socket.setTracking(tracking);
+            } catch (IOException ex) {
+                failure = suppress(failure, ex);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public boolean isTracking() {
+        return tracking;
+    }
+
+    @Override
+    public int getPendingTrackingCount() {
+        return endpoints.stream().mapToInt(e -> e.socket.getPendingTrackingCount()).sum();
+    }
+
+    @Override
+    public Response query(Request request) throws IOException {
+        if (isIdempotent(request)) {
+            return read(socket -> socket.query(request));
+        }
+        return stick(socket -> socket.query(request));
+    }
+
+    @Override
+    public List<Response> list(Request request) throws IOException {
+        if (isIdempotent(request)) {
+            return read(socket -> socket.list(request));
+        }
+        return stick(socket -> socket.list(request));
+    }
+
+    /**
+     * Sends a query to the server, and expects a list response.
+     * <p>
+     * As reads may be hedged, the complete response is received before it is passed
+     * to the consumer.
+     */
+    @Override
+    public void list(Request request, Consumer<Response> consumer) throws IOException {
+        list(request).forEach(consumer);
+    }
+
+    @Override
+    public Pipeline pipeline() {
+        return rank().get(0).socket.pipeline();
+    }
+
+    @Override
+    public long getCoalescedCount() {
+        return endpoints.stream().mapToLong(e -> e.socket.getCoalescedCount()).sum();
+    }
+
+    /**
+     * Returns the lines that were recently exchanged with all endpoints. Each line is
+     * prefixed with the host and port of the endpoint.
+     */
+    @Override
+    public List<String> getRecentExchanges() {
+        var result = new ArrayList<String>();
+        for (var endpoint : endpoints) {
+            var prefix = endpoint.socket.getHost() + ':' + endpoint.socket.getPort() + ' ';
+            endpoint.socket.getRecentExchanges().forEach(line -> result.add(prefix + line));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the combined {@link WaitStatistics} of all endpoints.
+     */
+    @Override
+    public WaitStatistics getWaitStatistics(Priority priority) {
+        long count = 0L;
+        long total = 0L;
+        long max = 0L;
+        for (var endpoint : endpoints) {
+            var stats = endpoint.socket.getWaitStatistics(priority);
+            count += stats.getCount();
+            total += stats.getTotalWait().toNanos();
+            max = Math.max(max, stats.getMaxWait().toNanos());
+        }
+        return new WaitStatistics(priority, count, total, max);
+    }
+
+    /**
+     * Checks if at least one endpoint is connected.
+     */
+    @Override
+    public boolean isConnected() {
+        return endpoints.stream().anyMatch(e -> e.socket.isConnected());
+    }
+
+    @Override
+    public void close() throws IOException {
+        executor.shutdownNow();
+        IOException failure = null;
+        for (var endpoint : endpoints) {
+            try {
+                endpoint.socket.close();
+            } catch (IOException ex) {
+                failure = suppress(failure, ex);
+            }
+        }
+        super.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Sends a read request to the fastest endpoint, hedges it to the next endpoint if
+     * the answer is late, and fails over to the next endpoint on communication errors.
+     * Requests that are still pending when the read is done are cancelled.
+     */
+    private <T> T read(Call<T> call) throws IOException {
+        var ranked = rank();
+        if (ranked.size() == 1) {
+            return ranked.get(0).invoke(call, () -> false);
+        }
+
+        var started = new ArrayList<Started>();
+        try {
+            return read(call, ranked, started);
+        } finally {
+            started.forEach(Started::cancel);
+        }
+    }
+
+    /**
+     * Sends a read request to the ranked endpoints.
+     */
+    private <T> T read(Call<T> call, List<Endpoint> ranked, List<Started> started)
+            throws IOException {
+        var hedgeDelay = ranked.get(0).hedgeDelay;
+        var done = new LinkedBlockingQueue<CompletableFuture<T>>();
+        IOException failure = null;
+        int next = 0;
+        int running = 0;
+
+        start(ranked.get(next++), call, done, started);
+        running++;
+
+        while (true) {
+            CompletableFuture<T> future;
+            try {
+                future = next < ranked.size()
+                        ? done.poll(hedgeDelay, TimeUnit.NANOSECONDS)
+                        : done.take();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+
+            if (future == null) {
+                // The answer is late, so hedge the request to the next endpoint
+                var late = ranked.get(next - 1);
+                late.hedged.incrementAndGet();
+                LOG.debug("Hedging request, {}:{} did not answer within {} ms",
+                        late.socket.getHost(), late.socket.getPort(),
+                        TimeUnit.NANOSECONDS.toMillis(hedgeDelay));
+                start(ranked.get(next++), call, done, started);
+                running++;
+                continue;
+            }
+
+            running--;
+            try {
+                var result = Pipeline.result(future);
+                started.forEach(Started::overtaken);
+                return result;
+            } catch (NutException ex) {
+                throw ex;
+            } catch (IOException ex) {
+                failure = suppress(failure, ex);
+                if (next < ranked.size()) {
+                    start(ranked.get(next++), call, done, started);
+                    running++;
+                } else if (running == 0) {
+                    throw failure;
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts a read request on the given endpoint in the background.
+     */
+    private <T> void start(Endpoint endpoint, Call<T> call,
+            BlockingQueue<CompletableFuture<T>> done, List<Started> started) {
+        var future = new CompletableFuture<T>();
+        var request = new Started(endpoint, future);
+        started.add(request);
+        try {
+            request.task = executor.submit(() -> {
+                if (!request.begin()) {
+                    return;
+                }
+                try {
+                    future.complete(endpoint.invoke(call, request::isCancelled));
+                } catch (IOException | RuntimeException ex) {
+                    future.completeExceptionally(ex);
+                } finally {
+                    request.end();
+                }
+                done.add(future);
+            });
+        } catch (RejectedExecutionException ex) {
+            future.completeExceptionally(new IOException("Socket has been closed", ex));
+            done.add(future);
+        }
+    }
+
+    /**
+     * Sends a request to the sticky endpoint. If the request failed with a
+     * communication error, another endpoint is used for the next request.
+     */
+    private <T> T stick(Call<T> call) throws IOException {
+        var endpoint = sticky;
+        if (endpoint == null || !endpoint.isHealthy(System.nanoTime())) {
+            endpoint = endpoints.stream()
+                    .filter(e -> e.isHealthy(System.nanoTime()))
+                    .findFirst()
+                    .orElseGet(() -> rank().get(0));
+            sticky = endpoint;
+        }
+
+        try {
+            return endpoint.invoke(call, () -> false);
+        } catch (NutException ex) {
+            throw ex;
+        } catch (IOException ex) {
+            sticky = null;
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns all endpoints, ordered by preference for reads. Healthy endpoints are
+     * ordered by their median latency, followed by the unhealthy endpoints, ordered by
+     * the end of their backoff time.
+     */
+    private List<Endpoint> rank() {
+        var now = System.nanoTime();
+        var ranked = new ArrayList<>(endpoints);
+        ranked.sort(Comparator.<Endpoint, Boolean>comparing(e -> !e.isHealthy(now))
+                .thenComparingLong(e -> e.isHealthy(now) ? e.median : e.retryAt - now));
+        return ranked;
+    }
+
+    private static IOException suppress(@Nullable IOException failure, IOException ex) {
+        if (failure == null) {
+            return ex;
+        }
+        failure.addSuppressed(ex);
+        return failure;
+    }
+
+    /**
+     * A read request that was started on an endpoint.
+     */
+    private static final class Started {
+        private final Endpoint endpoint;
+        private final CompletableFuture<?> future;
+        private final long startedAt = System.nanoTime();
+
+        @Nullable
+        private Future<?> task;
+
+        @Nullable
+        private Thread worker;
+        private boolean cancelled;
+
+        Started(Endpoint endpoint, CompletableFuture<?> future) {
+            this.endpoint = endpoint;
+            this.future = future;
+        }
+
+        /**
+         * Marks the begin of the request on the current thread.
+         *
+         * @return {@code false} if the request was cancelled before it was sent
+         */
+        synchronized boolean begin() {
+            if (cancelled) {
+                return false;
+            }
+            worker = Thread.currentThread();
+            return true;
+        }
+
+        /**
+         * Marks the end of the request.
+         */
+        synchronized void end() {
+            worker = null;
+        }
+
+        synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Cancels the request if it is still pending. If it is currently sent, the
+         * connection to the endpoint is dropped, so the thread is released.
+         */
+        void cancel() {
+            if (future.isDone()) {
+                return;
+            }
+            synchronized (this) {
+                cancelled = true;
+                if (worker != null) {
+                    endpoint.socket.abort(worker);
+                }
+            }
+            var t = task;
+            if (t != null) {
+                // also releases a thread that is still waiting for the endpoint
+                t.cancel(true);
+            }
+        }
+
+        /**
+         * Another endpoint answered first. If this endpoint is still busy, the time it
+         * has taken so far is recorded as latency, so it is ranked down immediately.
+         */
+        void overtaken() {
+            if (!future.isDone()) {
+                endpoint.sample(System.nanoTime() - startedAt);
+            }
+        }
+    }
+
+    /**
+     * A single endpoint, and its health.
+     */
+    private final class Endpoint {
+        private final NutSocket socket;
+        private final long[] samples = new long[SAMPLES];
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong hedged = new AtomicLong();
+        private int sampleCount;
+        private int consecutiveFailures;
+        private volatile long retryAt;
+        private volatile long median;
+        private volatile long hedgeDelay = INITIAL_HEDGE_DELAY;
+
+        Endpoint(NutSocket socket) {
+            this.socket = socket;
+        }
+
+        /**
+         * Sends a request to this endpoint, and records the latency and health.
+         * Failures of cancelled requests do not affect the health.
+         */
+        <T> T invoke(Call<T> call, BooleanSupplier cancelled) throws IOException {
+            requests.incrementAndGet();
+            var start = System.nanoTime();
+            try {
+                var result = call.call(socket);
+                succeeded(System.nanoTime() - start);
+                return result;
+            } catch (NutException ex) {
+                // The server has answered, so the endpoint is healthy
+                succeeded(System.nanoTime() - start);
+                throw ex;
+            } catch (IOException ex) {
+                if (!cancelled.getAsBoolean()) {
+                    failed(ex);
+                }
+                throw ex;
+            }
+        }
+
+        boolean isHealthy(long now) {
+            return retryAt == 0L || now - retryAt >= 0L;
+        }
+
+        synchronized void succeeded(long latency) {
+            consecutiveFailures = 0;
+            retryAt = 0L;
+            if (latency > 0L) {
+                sample(latency);
+            }
+        }
+
+        synchronized void failed(IOException ex) {
+            failures.incrementAndGet();
+            consecutiveFailures++;
+            var backoff = Math.min(MIN_BACKOFF << Math.min(consecutiveFailures - 1, 16),
+                    MAX_BACKOFF);
+            retryAt = System.nanoTime() + backoff;
+            LOG.warn("Endpoint {}:{} failed, backing off for {} ms: {}",
+                    socket.getHost(), socket.getPort(),
+                    TimeUnit.NANOSECONDS.toMillis(backoff), ex.toString());
+        }
+
+        synchronized void sample(long latency) {
+            samples[sampleCount % SAMPLES] = latency;
+            sampleCount++;
+            update();
+        }
+
+        /**
+         * Updates the median latency and hedge delay from the recent samples.
+         */
+        synchronized void update() {
+            int size = Math.min(sampleCount, SAMPLES);
+            if (size == 0) {
+                return;
+            }
+            var sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            median = sorted[size / 2];
+            var ix = Math.min((int) Math.ceil(percentile * size) - 1, size - 1);
+            hedgeDelay = Math.max(sorted[Math.max(ix, 0)], MIN_HEDGE_DELAY);
+        }
+
+        synchronized EndpointHealth health() {
+            return new EndpointHealth(socket.getHost(), socket.getPort(),
+                    isHealthy(System.nanoTime()), consecutiveFailures, requests.get(),
+                    failures.get(), hedged.get(), median, hedgeDelay);
+        }
+    }
+
+}
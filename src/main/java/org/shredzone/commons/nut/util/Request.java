@@ -175,6 +175,13 @@ public class Request {
         return this;
     }
 
+    /**
+     * Returns the request command.
+     */
+    public String getCommand() {
+        return command;
+    }
+
     /**
      * Returns the request as a list of single parameters.
      */
@@ -0,0 +1,106 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import org.shredzone.commons.nut.Transport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link Transport.Connection} that exchanges the lines via a pair of streams.
+ */
+public class StreamConnection implements Transport.Connection {
+    private static final Logger LOG = LoggerFactory.getLogger(StreamConnection.class);
+
+    private final Closeable resource;
+    private final Writer writer;
+    private final BufferedReader reader;
+    private volatile boolean open = true;
+
+    /**
+     * Creates a new {@link StreamConnection}.
+     *
+     * @param resource
+     *         Resource to be closed when the connection is closed, e.g. the socket
+     * @param in
+     *         {@link InputStream} for the lines sent by the server
+     * @param out
+     *         {@link OutputStream} for the lines sent to the server
+     */
+    public StreamConnection(Closeable resource, InputStream in, OutputStream out) {
+        this.resource = resource;
+        this.reader = new BufferedReader(new InputStreamReader(in, UTF_8));
+        this.writer = new OutputStreamWriter(out, UTF_8);
+    }
+
+    @Override
+    public void write(String line) throws IOException {
+        writer.append(line).append('\n');
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    @Nullable
+    public String readLine() throws IOException {
+        return reader.readLine();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        open = false;
+        try {
+            writer.close();
+        } catch (IOException ex) {
+            // Can be ignored in favor of closing the resource itself.
+            LOG.debug("Exception while closing output stream", ex);
+        }
+
+        try {
+            reader.close();
+        } catch (IOException ex) {
+            // Can be ignored in favor of closing the resource itself.
+            LOG.debug("Exception while closing input stream", ex);
+        }
+
+        resource.close();
+    }
+
+}
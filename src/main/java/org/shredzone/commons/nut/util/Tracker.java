@@ -0,0 +1,219 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.util;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import org.shredzone.commons.nut.exception.NutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks the outcome of {@code SET} and {@code INSTCMD} requests that were accepted by
+ * the server with an {@code OK TRACKING <id>} response.
+ * <p>
+ * All pending operations are polled together, with a single pipelined burst of
+ * {@code GET TRACKING} requests per interval. The poller thread is only started when
+ * the first operation is tracked, and polling pauses while nothing is pending. If
+ * polling fails repeatedly, all pending operations are completed exceptionally.
+ */
+class Tracker {
+    private static final Logger LOG = LoggerFactory.getLogger(Tracker.class);
+    private static final int MAX_FAILURES = 3;
+
+    private final NutSocket socket;
+    private final long intervalNanos;
+    private final Map<String, CompletableFuture<Void>> pending = new ConcurrentHashMap<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private int failures;
+
+    @Nullable
+    private ScheduledExecutorService executor;
+    private boolean closed;
+
+    /**
+     * Creates a new {@link Tracker}.
+     *
+     * @param socket
+     *         {@link NutSocket} to poll the tracking state with
+     * @param interval
+     *         Polling interval
+     */
+    Tracker(NutSocket socket, Duration interval) {
+        this.socket = socket;
+        this.intervalNanos = interval.toNanos();
+    }
+
+    /**
+     * Tracks an operation.
+     *
+     * @param id
+     *         Tracking ID that was returned by the server
+     * @return Future that is completed when the server reports {@code SUCCESS}, or
+     * completed exceptionally with a {@link NutException} if the operation failed.
+     */
+    CompletableFuture<Void> track(String id) {
+        var future = new CompletableFuture<Void>();
+        pending.put(id, future);
+        schedule();
+        return future;
+    }
+
+    /**
+     * Returns the number of operations that are still pending.
+     */
+    int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Stops polling. All pending operations are completed exceptionally.
+     */
+    void close() {
+        synchronized (this) {
+            closed = true;
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+        failAll(new IOException("Socket has been closed"));
+    }
+
+    /**
+     * Polls all pending operations in a single pipeline.
+     */
+    void poll() {
+        var ids = new ArrayList<String>();
+        var pipeline = socket.pipeline();
+        var results = new ArrayList<CompletableFuture<Response>>();
+        pending.forEach((id, future) -> {
+            if (future.isDone()) {
+                // e.g. cancelled by the caller
+                pending.remove(id, future);
+                return;
+            }
+            ids.add(id);
+            results.add(pipeline.status(Request.get("TRACKING").arg(id)));
+        });
+
+        try {
+            pipeline.run();
+            failures = 0;
+        } catch (IOException ex) {
+            if (++failures >= MAX_FAILURES) {
+                LOG.warn("Could not poll tracking state, giving up", ex);
+                failAll(ex);
+                failures = 0;
+            } else {
+                LOG.debug("Could not poll tracking state", ex);
+            }
+            return;
+        }
+
+        for (int ix = 0; ix < ids.size(); ix++) {
+            var id = ids.get(ix);
+            try {
+                var state = Pipeline.result(results.get(ix)).get(0);
+                if ("SUCCESS".equals(state)) {
+                    complete(id, null);
+                } else if (!"PENDING".equals(state)) {
+                    LOG.warn("Unexpected tracking state of {}: {}", id, state);
+                }
+            } catch (IOException ex) {
+                complete(id, ex);
+            }
+        }
+    }
+
+    /**
+     * Completes a pending operation.
+     *
+     * @param id
+     *         Tracking ID
+     * @param error
+     *         Error, or {@code null} if the operation was successful
+     */
+    private void complete(String id, @Nullable Throwable error) {
+        var future = pending.remove(id);
+        if (future != null) {
+            if (error != null) {
+                future.completeExceptionally(error);
+            } else {
+                future.complete(null);
+            }
+        }
+    }
+
+    /**
+     * Completes all pending operations exceptionally.
+     */
+    private void failAll(Throwable error) {
+        new ArrayList<>(pending.keySet()).forEach(id -> complete(id, error));
+    }
+
+    /**
+     * Schedules the next poll, unless one is already scheduled.
+     */
+    private void schedule() {
+        if (pending.isEmpty() || !scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        synchronized (this) {
+            if (closed) {
+                scheduled.set(false);
+                failAll(new IOException("Socket has been closed"));
+                return;
+            }
+            if (executor == null) {
+                executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                    var thread = new Thread(r, "nut-tracking");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            executor.schedule(this::run, intervalNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Runs a poll, and then schedules the next one if operations are still pending.
+     */
+    private void run() {
+        try {
+            poll();
+        } catch (RuntimeException ex) {
+            LOG.warn("Tracking poll failed", ex);
+        } finally {
+            scheduled.set(false);
+            schedule();
+        }
+    }
+
+}
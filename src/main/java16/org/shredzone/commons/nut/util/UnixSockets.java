@@ -0,0 +1,64 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.util;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+
+/**
+ * Connects to Unix domain sockets.
+ * <p>
+ * This is the implementation for Java 16 and higher.
+ */
+public final class UnixSockets {
+
+    private UnixSockets() {
+        // utility class without constructor
+    }
+
+    /**
+     * Checks if Unix domain sockets are supported by this Java runtime.
+     */
+    public static boolean isSupported() {
+        return true;
+    }
+
+    /**
+     * Opens a blocking channel to a Unix domain socket.
+     *
+     * @param path
+     *         Path of the socket file
+     * @return {@link SocketChannel} that is connected to the socket
+     */
+    public static SocketChannel open(Path path) throws IOException {
+        var channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            channel.connect(UnixDomainSocketAddress.of(path));
+            return channel;
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.shredzone.commons.nut.CircuitBreaker.State;
+import org.shredzone.commons.nut.exception.CircuitOpenException;
+import org.shredzone.commons.nut.server.NutServer;
+import org.shredzone.commons.nut.server.Simulator;
+
+public class CircuitBreakerTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final AtomicLong clock = new AtomicLong();
+
+    @Test
+    public void opensOnFailureRate() throws CircuitOpenException {
+        var breaker = new CircuitBreaker(clock::get).failureThreshold(0.5, 4, 10);
+        for (int ix = 0; ix < 3; ix++) {
+            breaker.acquire();
+            breaker.onSuccess();
+        }
+        for (int ix = 0; ix < 2; ix++) {
+            breaker.acquire();
+            breaker.onFailure();
+        }
+        assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+
+        breaker.acquire();
+        breaker.onFailure();
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+        assertThat(breaker.isCallPermitted()).isFalse();
+        assertThat(breaker.getOpenedCount()).isEqualTo(1L);
+
+        clock.addAndGet(2 * SECOND);
+        assertThatExceptionOfType(CircuitOpenException.class)
+                .isThrownBy(breaker::acquire)
+                .satisfies(ex -> assertThat(ex.getRetryAfter()).isEqualTo(Duration.ofSeconds(3)));
+        assertThat(breaker.getRejectedCount()).isEqualTo(1L);
+    }
+
+    @Test
+    public void probes() throws CircuitOpenException {
+        var breaker = new CircuitBreaker(clock::get)
+                .failureThreshold(1.0, 1, 1)
+                .openDuration(Duration.ofSeconds(1), Duration.ofSeconds(3));
+        breaker.acquire();
+        breaker.onFailure();
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+
+        // the first probe fails, so the open duration is doubled
+        clock.addAndGet(SECOND);
+        assertThat(breaker.getState()).isEqualTo(State.HALF_OPEN);
+        breaker.acquire();
+        assertThat(breaker.isCallPermitted()).isFalse();
+        assertThatExceptionOfType(CircuitOpenException.class).isThrownBy(breaker::acquire);
+        breaker.onFailure();
+        assertThat(breaker.getRetryAfter()).isEqualTo(Duration.ofSeconds(2));
+
+        // the second probe fails, the open duration is limited to the maximum
+        clock.addAndGet(2 * SECOND);
+        breaker.acquire();
+        breaker.onFailure();
+        assertThat(breaker.getRetryAfter()).isEqualTo(Duration.ofSeconds(3));
+
+        // the third probe succeeds, so the breaker is closed again
+        clock.addAndGet(3 * SECOND);
+        breaker.acquire();
+        breaker.onSuccess();
+        assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+        assertThat(breaker.getRetryAfter()).isEqualTo(Duration.ZERO);
+        assertThat(breaker.getOpenedCount()).isEqualTo(3L);
+    }
+
+    @Test
+    public void unreachableServer() throws IOException {
+        int port;
+        try (var socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+
+        var breaker = new CircuitBreaker().failureThreshold(1.0, 2, 2);
+        try (var client = Client.lazy("localhost", port, null, null)) {
+            client.setCircuitBreaker(breaker);
+            for (int ix = 0; ix < 2; ix++) {
+                assertThatExceptionOfType(IOException.class)
+                        .isThrownBy(client::getDeviceList)
+                        .isNotInstanceOf(CircuitOpenException.class);
+            }
+            assertThatExceptionOfType(CircuitOpenException.class)
+                    .isThrownBy(client::getDeviceList);
+            assertThat(client.getCircuitBreaker()).containsSame(breaker);
+            assertThat(breaker.getState()).isEqualTo(State.OPEN);
+        }
+    }
+
+    @Test
+    public void recoversAfterRestart() throws Exception {
+        var simulator = new Simulator(1);
+        var server = new NutServer(InetAddress.getLoopbackAddress(), 0, simulator);
+        var port = server.getPort();
+
+        var breaker = new CircuitBreaker()
+                .failureThreshold(1.0, 1, 1)
+                .openDuration(Duration.ofMillis(200), Duration.ofMillis(200));
+        try (var client = Client.lazy("localhost", port, null, null, Duration.ofSeconds(2))) {
+            client.setCircuitBreaker(breaker);
+            assertThat(client.getDeviceList()).hasSize(1);
+
+            // The connection is lost, so the breaker opens
+            server.close();
+            assertThatExceptionOfType(IOException.class)
+                    .isThrownBy(client::getDeviceList)
+                    .isNotInstanceOf(CircuitOpenException.class);
+            assertThat(breaker.getState()).isEqualTo(State.OPEN);
+            assertThatExceptionOfType(CircuitOpenException.class)
+                    .isThrownBy(client::getDeviceList);
+
+            // The server is back, the probe connects again and closes the breaker
+            server = new NutServer(InetAddress.getLoopbackAddress(), port, simulator);
+            Thread.sleep(250L);
+            assertThat(breaker.getState()).isEqualTo(State.HALF_OPEN);
+            assertThat(client.getDeviceList()).hasSize(1);
+            assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+        } finally {
+            server.close();
+        }
+    }
+
+}
@@ -0,0 +1,173 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+import static org.assertj.core.api.Assertions.tuple;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.shredzone.commons.nut.exception.NutException;
+import org.shredzone.commons.nut.server.NutServer;
+
+public class ClientTest {
+
+    private final List<String> received = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean denyLogin = new AtomicBoolean();
+    private NutServer server;
+
+    @Before
+    public void setup() throws IOException {
+        server = new NutServer(InetAddress.getLoopbackAddress(), 0, this::handle);
+    }
+
+    @After
+    public void teardown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void connectOnFirstUse() throws IOException {
+        try (var client = Client.lazy("localhost", server.getPort(), "admin", "secret")) {
+            assertThat(client.isConnected()).isFalse();
+            assertThat(received).isEmpty();
+
+            assertThat(client.getServer()).isEqualTo("Network UPS Tools upsd - stub");
+            assertThat(client.isConnected()).isTrue();
+            assertThat(received).containsExactly("USERNAME admin", "PASSWORD secret", "VER");
+
+            assertThat(client.getProtocol()).isEqualTo("1.3");
+            assertThat(client.getServer()).isEqualTo("Network UPS Tools upsd - stub");
+            assertThat(received).containsExactly("USERNAME admin", "PASSWORD secret", "VER",
+                    "NETVER");
+        }
+    }
+
+    @Test
+    public void failedHandshake() throws IOException {
+        denyLogin.set(true);
+        try (var client = Client.lazy("localhost", server.getPort(), "admin", "wrong")) {
+            assertThatExceptionOfType(UncheckedIOException.class)
+                    .isThrownBy(client::getProtocol)
+                    .havingCause()
+                    .isInstanceOfSatisfying(NutException.class,
+                            ex -> assertThat(ex.getType()).isEqualTo("ACCESS-DENIED"));
+            assertThat(client.isConnected()).isFalse();
+            assertThat(received).doesNotContain("NETVER");
+
+            // The next use connects again, and performs the handshake again
+            denyLogin.set(false);
+            assertThat(client.getProtocol()).isEqualTo("1.3");
+            assertThat(client.isConnected()).isTrue();
+            assertThat(received).containsExactly("USERNAME admin", "PASSWORD wrong",
+                    "USERNAME admin", "PASSWORD wrong", "NETVER");
+        }
+    }
+
+    @Test
+    public void unreachableServer() throws Exception {
+        int port;
+        try (var closed = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = closed.getLocalPort();
+        }
+
+        try (var client = Client.lazy("localhost", port, null, null)) {
+            assertThatExceptionOfType(UncheckedIOException.class)
+                    .isThrownBy(client::getServer)
+                    .withCauseInstanceOf(ConnectException.class);
+            assertThat(client.isConnected()).isFalse();
+
+            assertThatExceptionOfType(ExecutionException.class)
+                    .isThrownBy(() -> client.preconnect().get(5, TimeUnit.SECONDS))
+                    .withCauseInstanceOf(ConnectException.class);
+        }
+    }
+
+    @Test
+    public void preconnect() throws Exception {
+        try (var client = Client.lazy("localhost", server.getPort(), null, null)) {
+            client.preconnect().get(5, TimeUnit.SECONDS);
+            assertThat(client.isConnected()).isTrue();
+            assertThat(received).containsExactly("VER", "NETVER");
+
+            assertThat(client.getServer()).isEqualTo("Network UPS Tools upsd - stub");
+            assertThat(client.getProtocol()).isEqualTo("1.3");
+            assertThat(received).containsExactly("VER", "NETVER");
+        }
+    }
+
+    @Test
+    public void redundantEndpoints() throws IOException {
+        try (var client = Client.redundant(List.of("nut.example.com", "10.0.0.1:3494",
+                "::1", "fe80::1", "[fe80::2]:3495", "[::3]"), null, null)) {
+            assertThat(client.getEndpointHealth())
+                    .extracting(EndpointHealth::getHost, EndpointHealth::getPort)
+                    .containsExactly(
+                            tuple("nut.example.com", 3493),
+                            tuple("10.0.0.1", 3494),
+                            tuple("::1", 3493),
+                            tuple("fe80::1", 3493),
+                            tuple("fe80::2", 3495),
+                            tuple("::3", 3493));
+        }
+
+        for (var invalid : List.of("localhost:abc", "localhost:0", "[::1", "[::1]3493", ":3493")) {
+            assertThatIllegalArgumentException()
+                    .isThrownBy(() -> Client.redundant(List.of("localhost", invalid), null, null))
+                    .withMessageContaining(invalid);
+        }
+    }
+
+    private List<String> handle(NutServer.Session session, String line, List<String> request)
+            throws IOException {
+        if ("LOGOUT".equals(request.get(0))) {
+            return List.of("OK Goodbye");
+        }
+        received.add(line);
+        switch (request.get(0)) {
+            case "VER":
+                return List.of("Network UPS Tools upsd - stub");
+            case "NETVER":
+                return List.of("1.3");
+            case "PASSWORD":
+                if (denyLogin.get()) {
+                    throw new NutException("ACCESS-DENIED");
+                }
+                return List.of("OK");
+            default:
+                return List.of("OK");
+        }
+    }
+
+}
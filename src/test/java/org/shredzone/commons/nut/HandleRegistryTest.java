@@ -0,0 +1,145 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.shredzone.commons.nut.server.NutServer;
+import org.shredzone.commons.nut.util.NutSocket;
+
+public class HandleRegistryTest {
+
+    private final NutSocket socket = new NutSocket("localhost", 3493, null);
+    private final HandleRegistry registry = new HandleRegistry();
+
+    @Test
+    public void interning() {
+        var device = registry.device("ups", () -> new Device("ups", null, socket, registry));
+        assertThat(registry.device("ups", () -> new Device("ups", null, socket, registry)))
+                .isSameAs(device);
+        assertThat(registry.device("ups2", () -> new Device("ups2", null, socket, registry)))
+                .isNotSameAs(device);
+
+        var variable = device.getVariable("battery.charge");
+        assertThat(device.getVariable("battery.charge")).isSameAs(variable);
+        assertThat(device.getVariable("battery.runtime")).isNotSameAs(variable);
+
+        var command = device.getCommand("load.off");
+        assertThat(device.getCommand("load.off")).isSameAs(command);
+        assertThat(device.getVariable("load.off")).isNotSameAs(command);
+    }
+
+    @Test
+    public void unknownNamesAreNotRegistered() throws IOException {
+        var unknown = "test.unknown." + System.nanoTime();
+        NutServer.Handler handler = (session, line, request) -> {
+            if ("LIST".equals(request.get(0))) {
+                return List.of("BEGIN LIST VAR ups",
+                        "VAR ups " + unknown + " \"1\"",
+                        "END LIST VAR ups");
+            }
+            return List.of("OK");
+        };
+
+        try (var server = new NutServer(InetAddress.getLoopbackAddress(), 0, handler);
+             var client = Client.lazy("localhost", server.getPort(), null, null)) {
+            var device = client.getDevice("ups");
+            var size = SymbolTable.size();
+
+            // Lookups of caller names do not fill the table
+            var variable = device.getVariable(new String(unknown));
+            var command = device.getCommand(unknown + ".cmd");
+            assertThat(SymbolTable.size()).isEqualTo(size);
+            assertThat(SymbolTable.lookup(unknown)).isEqualTo(-1);
+            assertThat(variable.getSymbol()).isEqualTo(-1);
+            assertThat(command.getName()).isEqualTo(unknown + ".cmd");
+
+            // Names reported by the server are registered
+            var variables = device.getVariables();
+            assertThat(variables).containsExactly(variable);
+            assertThat(SymbolTable.size()).isEqualTo(size + 1);
+            assertThat(variable.getSymbol()).isEqualTo(SymbolTable.lookup(unknown));
+            assertThat(device.getVariable(new String(unknown))).isSameAs(variable);
+            assertThat(variable.getValue()).isEqualTo("1");
+        }
+    }
+
+    @Test
+    public void purge() throws IOException {
+        var device = registry.device("ups", () -> new Device("ups", "My UPS", socket, registry));
+        var variable = device.getVariable("battery.charge");
+        variable.update("100");
+
+        assertThat(device.getDescription()).isEqualTo("My UPS");
+        assertThat(variable.getValue()).isEqualTo("100");
+
+        registry.purge();
+
+        assertThat(device.toString()).isEqualTo("Device: ups");
+        assertThat(variable.toString()).isEqualTo("Variable: battery.charge");
+    }
+
+    @Test
+    public void lookupKeepsSharedValues() throws IOException {
+        var status = new AtomicReference<>("OL");
+        var gets = new AtomicInteger();
+        NutServer.Handler handler = (session, line, request) -> {
+            if ("LIST".equals(request.get(0))) {
+                return List.of("BEGIN LIST VAR ups",
+                        "VAR ups ups.status \"" + status.get() + '"',
+                        "END LIST VAR ups");
+            }
+            if ("GET".equals(request.get(0))) {
+                gets.incrementAndGet();
+                return List.of("VAR ups ups.status \"" + status.get() + '"');
+            }
+            return List.of("OK");
+        };
+
+        try (var server = new NutServer(InetAddress.getLoopbackAddress(), 0, handler);
+             var client = Client.lazy("localhost", server.getPort(), null, null)) {
+            var device = client.getDevice("ups");
+            var variables = device.getVariables();
+            var values = device.getValues();
+            status.set("OB LB");
+
+            // A lookup returns the shared handle, and keeps its value
+            var variable = device.getVariable("ups.status");
+            assertThat(variable).isSameAs(variables.get(0));
+            assertThat(variables.get(0).getValue()).isEqualTo("OL");
+            assertThat(gets).hasValue(0);
+
+            // Fetching updates the shared handle, but not the snapshot
+            assertThat(variable.fetchValue()).isEqualTo("OB LB");
+            assertThat(variables.get(0).getValue()).isEqualTo("OB LB");
+            assertThat(values).containsExactly(entry("ups.status", "OL"));
+            assertThat(gets).hasValue(1);
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class RateLimiterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final AtomicLong clock = new AtomicLong();
+
+    @Test
+    public void burst() {
+        var limiter = new RateLimiter(10.0, 5, clock::get);
+        for (int ix = 0; ix < 5; ix++) {
+            assertThat(limiter.reserve(1)).isZero();
+        }
+        assertThat(limiter.reserve(1)).isEqualTo(SECOND / 10);
+        assertThat(limiter.reserve(1)).isEqualTo(2 * SECOND / 10);
+
+        assertThat(limiter.getAcquiredCount()).isEqualTo(7);
+        assertThat(limiter.getDelayedCount()).isEqualTo(2);
+        assertThat(limiter.getTotalDelay()).isEqualTo(Duration.ofMillis(300));
+        assertThat(limiter.getMaxDelay()).isEqualTo(Duration.ofMillis(200));
+    }
+
+    @Test
+    public void refill() {
+        var limiter = new RateLimiter(10.0, 5, clock::get);
+        assertThat(limiter.reserve(5)).isZero();
+        clock.addAndGet(SECOND / 5);
+        assertThat(limiter.reserve(2)).isZero();
+        assertThat(limiter.reserve(1)).isEqualTo(SECOND / 10);
+
+        clock.addAndGet(10 * SECOND);
+        assertThat(limiter.reserve(5)).isZero();
+        assertThat(limiter.reserve(1)).isPositive();
+    }
+
+    @Test
+    public void batch() {
+        var limiter = new RateLimiter(10.0, 5, clock::get);
+        assertThat(limiter.reserve(8)).isEqualTo(3 * SECOND / 10);
+        assertThat(limiter.reserve(1)).isEqualTo(4 * SECOND / 10);
+        assertThat(limiter.reserve(0)).isZero();
+    }
+
+    @Test
+    public void invalid() {
+        assertThatIllegalArgumentException().isThrownBy(() -> new RateLimiter(0.0, 1));
+        assertThatIllegalArgumentException().isThrownBy(() -> new RateLimiter(1.0, 0));
+    }
+
+}
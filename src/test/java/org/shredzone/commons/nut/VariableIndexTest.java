@@ -0,0 +1,136 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Test;
+import org.shredzone.commons.nut.exception.NutException;
+import org.shredzone.commons.nut.server.LoopbackTransport;
+import org.shredzone.commons.nut.server.NutServer;
+
+public class VariableIndexTest {
+
+    private final Map<String, String> values = new TreeMap<>();
+    private final Client client = Client.lazy(new LoopbackTransport(this::handle),
+            "loopback", null, null);
+    private final Device device = client.getDevice("ups");
+
+    @After
+    public void teardown() throws IOException {
+        client.close();
+    }
+
+    @Test
+    public void putAndGet() {
+        var index = new VariableIndex();
+        assertThat(index.isEmpty()).isTrue();
+
+        var charge = device.getVariable("battery.charge");
+        index.put(charge);
+        index.put(device.getVariable("battery.charge.low"));
+        index.put(charge);
+        assertThat(index.size()).isEqualTo(2);
+        assertThat(index.get("battery.charge")).isSameAs(charge);
+        assertThat(index.get("battery")).isNull();
+        assertThat(index.get("battery.runtime")).isNull();
+    }
+
+    @Test
+    public void queries() {
+        var index = new VariableIndex();
+        for (var name : List.of("outlet.10.status", "outlet.2.status", "outlet.2.desc",
+                "battery.charge", "battery.runtime.low", "battery", "input.voltage")) {
+            index.put(device.getVariable(name));
+        }
+
+        assertThat(names(index.find("battery.*")))
+                .containsExactly("battery.charge", "battery.runtime.low");
+        assertThat(names(index.find("battery")))
+                .containsExactly("battery");
+        assertThat(names(index.find("outlet.*")))
+                .containsExactly("outlet.2.desc", "outlet.2.status", "outlet.10.status");
+        assertThat(names(index.find("outlet.*.status")))
+                .containsExactly("outlet.2.status", "outlet.10.status");
+        assertThat(names(index.find("*.charge")))
+                .containsExactly("battery.charge");
+        assertThat(index.find("ups.*")).isEmpty();
+        assertThat(index.find("outlet.2.status.*")).isEmpty();
+
+        assertThat(names(index.toList())).containsExactly("battery", "battery.charge",
+                "battery.runtime.low", "input.voltage", "outlet.2.desc", "outlet.2.status",
+                "outlet.10.status");
+        assertThat(names(index)).isEqualTo(names(index.toList()));
+    }
+
+    @Test
+    public void rebuildOnRelist() throws IOException {
+        values.put("battery.charge", "100");
+        values.put("outlet.1.status", "on");
+        values.put("ups.status", "OL");
+
+        var index = device.getVariableIndex();
+        assertThat(index.size()).isEqualTo(3);
+        var charge = index.get("battery.charge");
+        assertThat(charge).isNotNull();
+        assertThat(charge.getValue()).isEqualTo("100");
+
+        values.put("battery.charge", "95");
+        values.remove("outlet.1.status");
+        values.put("outlet.2.status", "off");
+
+        var relisted = device.getVariableIndex();
+        assertThat(names(relisted)).containsExactly("battery.charge", "outlet.2.status",
+                "ups.status");
+        assertThat(relisted.get("battery.charge")).isSameAs(charge);
+        assertThat(charge.getValue()).isEqualTo("95");
+        assertThat(relisted.get("outlet.1.status")).isNull();
+        assertThat(index.get("outlet.1.status")).isNotNull();
+
+        var outlets = device.getVariableIndex("outlet.*");
+        assertThat(names(outlets)).containsExactly("outlet.2.status");
+    }
+
+    private static List<String> names(Iterable<Variable> variables) {
+        var result = new ArrayList<String>();
+        variables.forEach(v -> result.add(v.getName()));
+        return result;
+    }
+
+    private List<String> handle(NutServer.Session session, String line, List<String> request)
+            throws IOException {
+        if (!"LIST VAR ups".equals(line)) {
+            throw new NutException("UNKNOWN-COMMAND");
+        }
+        var result = new ArrayList<String>();
+        result.add("BEGIN LIST VAR ups");
+        values.forEach((k, v) -> result.add("VAR ups " + k + ' ' + NutServer.quote(v)));
+        result.add("END LIST VAR ups");
+        return result;
+    }
+
+}
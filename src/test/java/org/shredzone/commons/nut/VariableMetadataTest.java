@@ -0,0 +1,161 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.junit.Test;
+import org.shredzone.commons.nut.exception.NutException;
+import org.shredzone.commons.nut.server.LoopbackTransport;
+import org.shredzone.commons.nut.server.NutServer;
+
+public class VariableMetadataTest {
+
+    @Test
+    public void type() {
+        var string = new VariableType(List.of("RW", "STRING:10"));
+        assertThat(string.isWritable()).isTrue();
+        assertThat(string.isString()).isTrue();
+        assertThat(string.getMaxLength()).isEqualTo(10);
+        assertThat(string.isNumber()).isFalse();
+
+        var enumeration = new VariableType(List.of("RW", "ENUM"));
+        assertThat(enumeration.isEnum()).isTrue();
+        assertThat(enumeration.isRange()).isFalse();
+
+        var number = new VariableType(List.of("NUMBER"));
+        assertThat(number.isWritable()).isFalse();
+        assertThat(number.isNumber()).isTrue();
+
+        var unknownLength = new VariableType(List.of("RW", "STRING:x"));
+        assertThat(unknownLength.isString()).isFalse();
+        assertThat(unknownLength.getMaxLength()).isZero();
+    }
+
+    @Test
+    public void range() {
+        var range = new Range(new BigDecimal("10"), new BigDecimal("20.5"));
+        assertThat(range.contains(new BigDecimal("10"))).isTrue();
+        assertThat(range.contains(new BigDecimal("20.5"))).isTrue();
+        assertThat(range.contains(new BigDecimal("9.99"))).isFalse();
+        assertThat(range.contains(new BigDecimal("20.51"))).isFalse();
+        assertThat(range.toString()).isEqualTo("10..20.5");
+    }
+
+    @Test
+    public void validation() {
+        var readOnly = metadata(List.of("NUMBER"), List.of(), List.of());
+        assertThat(readOnly.isValid("10")).isFalse();
+
+        var string = metadata(List.of("RW", "STRING:5"), List.of(), List.of());
+        assertThat(string.isValid("abcde")).isTrue();
+        assertThat(string.isValid("abcdef")).isFalse();
+
+        var enumeration = metadata(List.of("RW", "ENUM"), List.of("170", "180"), List.of());
+        assertThat(enumeration.isValid("180")).isTrue();
+        assertThat(enumeration.isValid("190")).isFalse();
+
+        var range = metadata(List.of("RW", "RANGE"), List.of(),
+                List.of(range("10", "20"), range("30", "40")));
+        assertThat(range.isValid("15")).isTrue();
+        assertThat(range.isValid("30")).isTrue();
+        assertThat(range.isValid("25")).isFalse();
+        assertThat(range.isValid("abc")).isFalse();
+
+        var number = metadata(List.of("RW", "NUMBER"), List.of(), List.of());
+        assertThat(number.isValid("-1.5")).isTrue();
+        assertThat(number.isValid("1,5")).isFalse();
+
+        var unboundNumber = metadata(List.of("RW", "RANGE", "NUMBER"), List.of(), List.of());
+        assertThat(unboundNumber.isValid("25")).isTrue();
+        assertThat(unboundNumber.isValid("abc")).isFalse();
+
+        var boundNumber = metadata(List.of("RW", "RANGE", "NUMBER"), List.of(),
+                List.of(range("10", "20")));
+        assertThat(boundNumber.isValid("15")).isTrue();
+        assertThat(boundNumber.isValid("25")).isFalse();
+
+        var unrestricted = metadata(List.of("RW", "ENUM"), List.of(), List.of());
+        assertThat(unrestricted.isValid("anything")).isTrue();
+    }
+
+    @Test
+    public void fetchAndValidate() throws IOException {
+        NutServer.Handler handler = (session, line, request) -> {
+            switch (line) {
+                case "GET TYPE ups input.transfer.low":
+                    return List.of("TYPE ups input.transfer.low RW ENUM");
+                case "LIST ENUM ups input.transfer.low":
+                    return List.of("BEGIN LIST ENUM ups input.transfer.low",
+                            "ENUM ups input.transfer.low \"170\"",
+                            "ENUM ups input.transfer.low \"180\"",
+                            "END LIST ENUM ups input.transfer.low");
+                case "GET TYPE ups battery.charge.low":
+                    return List.of("TYPE ups battery.charge.low RW RANGE");
+                case "LIST RANGE ups battery.charge.low":
+                    return List.of("BEGIN LIST RANGE ups battery.charge.low",
+                            "RANGE ups battery.charge.low \"5\" \"50\"",
+                            "END LIST RANGE ups battery.charge.low");
+                default:
+                    if (line.startsWith("LIST ")) {
+                        var list = line.substring(5);
+                        return List.of("BEGIN LIST " + list, "END LIST " + list);
+                    }
+                    if (line.startsWith("SET VAR ")) {
+                        return List.of("OK");
+                    }
+                    throw new NutException("UNKNOWN-COMMAND");
+            }
+        };
+
+        try (var client = Client.lazy(new LoopbackTransport(handler), "loopback", null, null)) {
+            var device = client.getDevice("ups");
+
+            var transfer = device.getVariable("input.transfer.low");
+            assertThat(transfer.getType().isEnum()).isTrue();
+            assertThat(transfer.getEnumValues()).containsExactly("170", "180");
+            assertThat(transfer.getRanges()).isEmpty();
+            assertThat(transfer.isValid("190")).isFalse();
+            assertThatIllegalArgumentException().isThrownBy(() -> transfer.setValue("190"));
+            transfer.setValue("180");
+
+            var charge = device.getVariable("battery.charge.low");
+            assertThat(charge.getRanges()).extracting(Range::toString).containsExactly("5..50");
+            assertThat(charge.isValid("50")).isTrue();
+            assertThatIllegalArgumentException().isThrownBy(() -> charge.setValue("60"));
+            charge.setValue("20");
+        }
+    }
+
+    private static VariableMetadata metadata(List<String> type, List<String> enums,
+            List<Range> ranges) {
+        return new VariableMetadata(new VariableType(type), enums, ranges);
+    }
+
+    private static Range range(String min, String max) {
+        return new Range(new BigDecimal(min), new BigDecimal(max));
+    }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.cli;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.shredzone.commons.nut.server.NutServer;
+import org.shredzone.commons.nut.server.Simulator;
+
+public class UpscTest {
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+    private NutServer server;
+    private String host;
+
+    @Before
+    public void setup() throws IOException {
+        server = new NutServer(InetAddress.getLoopbackAddress(), 0, new Simulator(2));
+        host = "localhost:" + server.getPort();
+    }
+
+    @After
+    public void teardown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void singleVariable() {
+        assertThat(run("ups1@" + host, "ups.status")).isZero();
+        assertThat(out()).isEqualTo("OL\n");
+        assertThat(err()).isEmpty();
+
+        assertThat(run("ups1@" + host, "no.such.variable")).isEqualTo(1);
+        assertThat(err()).isEqualTo("Error: Variable not supported by UPS\n");
+    }
+
+    @Test
+    public void allVariables() {
+        assertThat(run("ups1@" + host)).isZero();
+        assertThat(out()).contains("battery.charge: 100\n", "ups.status: OL\n");
+    }
+
+    @Test
+    public void manyTargets() {
+        assertThat(run("ups1@" + host, "ups2@" + host, "ups9@" + host)).isEqualTo(1);
+        assertThat(out())
+                .contains("ups1@" + host + ": ups.status: OL\n")
+                .contains("ups2@" + host + ": ups.status: OL\n");
+        assertThat(err()).startsWith("Error: ups9@" + host + ": ");
+    }
+
+    @Test
+    public void json() {
+        assertThat(run("-j", "ups1@" + host, "ups.status")).isZero();
+        assertThat(out()).isEqualTo("{\"ups1@" + host + "\":{\"ups.status\":\"OL\"}}\n");
+
+        assertThat(run("-j", "ups9@" + host, "ups.status")).isEqualTo(1);
+        assertThat(out()).startsWith("{\"ups9@" + host + "\":{\"error\":");
+    }
+
+    @Test
+    public void listDevices() {
+        assertThat(run("-l", host)).isZero();
+        assertThat(out()).isEqualTo("ups1\nups2\n");
+
+        assertThat(run("-L", host)).isZero();
+        assertThat(out()).isEqualTo("ups1: Simulated UPS\nups2: Simulated UPS\n");
+    }
+
+    @Test
+    public void invalidArguments() {
+        assertThat(run()).isEqualTo(2);
+        assertThat(err()).startsWith("Usage:");
+
+        assertThat(run("ups1@localhost:abc")).isEqualTo(2);
+        assertThat(err()).isEqualTo("Error: Invalid port: localhost:abc\n");
+
+        assertThat(run("@" + host)).isEqualTo(2);
+        assertThat(err()).isEqualTo("Error: Missing device name: @" + host + "\n");
+
+        assertThat(run("-l", "localhost:abc")).isEqualTo(2);
+        assertThat(err()).isEqualTo("Error: Invalid port: localhost:abc\n");
+
+        assertThat(run("-t", "0", "ups1@" + host)).isEqualTo(2);
+        assertThat(err()).isEqualTo("Error: -t must be positive\n");
+    }
+
+    private int run(String... args) {
+        out.reset();
+        err.reset();
+        try (var outStream = new PrintStream(out, true, UTF_8);
+             var errStream = new PrintStream(err, true, UTF_8)) {
+            return new Upsc().run(args, outStream, errStream);
+        }
+    }
+
+    private String out() {
+        return out.toString(UTF_8);
+    }
+
+    private String err() {
+        return err.toString(UTF_8);
+    }
+
+}
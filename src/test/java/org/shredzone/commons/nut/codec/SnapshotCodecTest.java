@@ -0,0 +1,123 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.codec;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class SnapshotCodecTest {
+
+    @Test
+    public void roundTrip() {
+        var encoder = new SnapshotEncoder(10);
+        var decoder = new SnapshotDecoder();
+        var buffer = ByteBuffer.allocate(1024);
+
+        var values = new LinkedHashMap<String, String>();
+        values.put("battery.charge", "100");
+        values.put("battery.voltage", "13.50");
+        values.put("input.voltage", "230.0");
+        values.put("ups.temperature", "-5.25");
+        values.put("ups.status", "OL CHRG");
+        values.put("ups.mfr", "Ünïcödé 🔋");
+        values.put("ups.serial", "007");
+        values.put("ups.id", "-0");
+        values.put("ups.test", "1.");
+
+        assertThat(encoder.encode(values, buffer)).isTrue();
+        buffer.flip();
+        assertThat(decoder.decode(buffer)).isEqualTo(values);
+        assertThat(buffer.hasRemaining()).isFalse();
+
+        values.put("battery.charge", "99");
+        values.remove("ups.test");
+        values.put("battery.runtime", "1800");
+
+        buffer.clear();
+        assertThat(encoder.encode(values, buffer)).isFalse();
+        buffer.flip();
+        assertThat(decoder.decode(buffer)).isEqualTo(values);
+    }
+
+    @Test
+    public void deltaIsCompact() {
+        var encoder = new SnapshotEncoder(10);
+        var buffer = ByteBuffer.allocate(4096);
+
+        Map<String, String> values = new LinkedHashMap<>();
+        for (int ix = 0; ix < 50; ix++) {
+            values.put("outlet." + ix + ".status", "on");
+        }
+        encoder.encode(values, buffer);
+        int keyFrameSize = buffer.position();
+
+        buffer.clear();
+        values.put("outlet.7.status", "off");
+        encoder.encode(values, buffer);
+        int deltaFrameSize = buffer.position();
+
+        assertThat(deltaFrameSize).isLessThanOrEqualTo(10);
+        assertThat(keyFrameSize).isGreaterThan(50 * 10);
+    }
+
+    @Test
+    public void directBuffer() {
+        var encoder = new SnapshotEncoder(1);
+        var decoder = new SnapshotDecoder();
+        var buffer = ByteBuffer.allocateDirect(256);
+
+        var values = Map.of("ups.model", "Smart-UPS 1500", "ups.load", "23");
+        encoder.encode(values, buffer);
+        buffer.flip();
+        assertThat(decoder.decode(buffer)).isEqualTo(values);
+    }
+
+    @Test
+    public void resync() {
+        var encoder = new SnapshotEncoder(3);
+        var decoder = new SnapshotDecoder();
+        var buffer = ByteBuffer.allocate(256);
+
+        encoder.encode(Map.of("ups.load", "10"), buffer);
+        buffer.flip();
+        decoder.decode(buffer);
+
+        // frame 1 gets lost
+        buffer.clear();
+        encoder.encode(Map.of("ups.load", "11"), buffer);
+
+        buffer.clear();
+        assertThat(encoder.encode(Map.of("ups.load", "12"), buffer)).isFalse();
+        buffer.flip();
+        assertThatIllegalStateException().isThrownBy(() -> decoder.decode(buffer));
+
+        buffer.clear();
+        assertThat(encoder.encode(Map.of("ups.load", "13"), buffer)).isTrue();
+        buffer.flip();
+        assertThat(decoder.decode(buffer)).containsEntry("ups.load", "13");
+    }
+
+}
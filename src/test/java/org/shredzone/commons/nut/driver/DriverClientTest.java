@@ -0,0 +1,171 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.driver;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.entry;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import edu.umd.cs.findbugs.annotations.Nullable;
+import org.junit.Test;
+import org.shredzone.commons.nut.Client;
+import org.shredzone.commons.nut.exception.NutException;
+import org.shredzone.commons.nut.util.StringUtils;
+
+public class DriverClientTest {
+
+    private static final String[] DUMP = {
+            "SETINFO device.description \"Stand-in UPS\"",
+            "SETINFO battery.charge \"100\"",
+            "SETINFO ups.status \"OL\"",
+            "SETINFO ups.id \"rack1\"",
+            "SETFLAGS ups.id RW STRING",
+            "SETAUX ups.id 8",
+            "SETINFO input.transfer.low \"200\"",
+            "SETFLAGS input.transfer.low RW",
+            "ADDENUM input.transfer.low \"190\"",
+            "ADDENUM input.transfer.low \"200\"",
+            "ADDCMD test.battery.start",
+            "DATAOK",
+            "DUMPDONE",
+    };
+
+    @Test
+    public void liveState() throws Exception {
+        var updates = new LinkedBlockingQueue<String>();
+        try (var standIn = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            var address = new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                    standIn.getLocalPort());
+            var driver = new DriverClient("ups1", () -> SocketChannel.open(address));
+            driver.getState().addListener(new DriverListener() {
+                @Override
+                public void onUpdate(String name, @Nullable String value) {
+                    updates.add(name + '=' + value);
+                }
+
+                @Override
+                public void onStale(boolean stale) {
+                    updates.add("stale=" + stale);
+                }
+            });
+
+            try (var client = Client.driver(driver);
+                 var socket = standIn.accept()) {
+                var reader = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), UTF_8));
+                var writer = new OutputStreamWriter(socket.getOutputStream(), UTF_8);
+                assertThat(reader.readLine()).isEqualTo("DUMPALL");
+                send(writer, DUMP);
+                assertThat(driver.awaitDump(Duration.ofSeconds(5))).isTrue();
+                updates.clear();
+
+                var device = client.getDevice("ups1");
+                assertThat(client.getDeviceList()).containsExactly(device);
+                assertThat(device.getDescription()).isEqualTo("Stand-in UPS");
+                assertThat(device.getVariables()).hasSize(5);
+                assertThat(device.getRWVariables()).extracting("name")
+                        .containsExactly("input.transfer.low", "ups.id");
+                assertThat(device.getCommands()).extracting("name")
+                        .containsExactly("test.battery.start");
+
+                var id = device.getVariable("ups.id");
+                assertThat(id.getValue()).isEqualTo("rack1");
+                assertThat(id.getType().isString()).isTrue();
+                assertThat(device.getVariable("input.transfer.low").getEnumValues())
+                        .containsExactly("190", "200");
+
+                var status = device.getVariable("ups.status");
+                assertThat(status.getValue()).isEqualTo("OL");
+
+                // updates are pushed by the driver
+                send(writer, "SETINFO ups.status \"OB\"", "DELINFO battery.charge");
+                assertThat(updates.poll(5, TimeUnit.SECONDS)).isEqualTo("ups.status=OB");
+                assertThat(updates.poll(5, TimeUnit.SECONDS)).isEqualTo("battery.charge=null");
+                status.purge();
+                assertThat(status.getValue()).isEqualTo("OB");
+                var charge = device.getVariable("battery.charge");
+                charge.purge();
+                assertThatExceptionOfType(NutException.class)
+                        .isThrownBy(charge::getValue)
+                        .satisfies(ex -> assertThat(ex.getType()).isEqualTo("VAR-NOT-SUPPORTED"));
+
+                // the client is read-only
+                assertThatExceptionOfType(NutException.class)
+                        .isThrownBy(() -> id.setValue("rack2"))
+                        .satisfies(ex -> assertThat(ex.getType()).isEqualTo("ACCESS-DENIED"));
+
+                // stale data is reported
+                send(writer, "DATASTALE");
+                assertThat(updates.poll(5, TimeUnit.SECONDS)).isEqualTo("stale=true");
+                device.purge();
+                assertThatExceptionOfType(NutException.class)
+                        .isThrownBy(device::getVariables)
+                        .satisfies(ex -> assertThat(ex.getType()).isEqualTo("DATA-STALE"));
+
+                // the driver pings the client
+                send(writer, "PING");
+                assertThat(reader.readLine()).isEqualTo("PONG");
+            }
+        }
+    }
+
+    @Test
+    public void dumpRemovesObsoleteState() {
+        var state = new DriverState();
+        state.beginDump();
+        state.apply(StringUtils.split("SETINFO ups.status \"OL\""));
+        state.apply(StringUtils.split("SETINFO battery.charge \"100\""));
+        state.apply(StringUtils.split("ADDCMD beeper.enable"));
+        state.endDump();
+        assertThat(state.getValues()).containsOnlyKeys("battery.charge", "ups.status");
+
+        // after a reconnect, the dump does not contain battery.charge any more
+        state.beginDump();
+        state.apply(StringUtils.split("SETINFO ups.status \"OB\""));
+        state.apply(StringUtils.split("DATAOK"));
+        state.endDump();
+        assertThat(state.getValues()).containsExactly(entry("ups.status", "OB"));
+        assertThat(state.getCommands()).isEmpty();
+        assertThat(state.isStale()).isFalse();
+    }
+
+    private static void send(Writer writer, String... lines) throws IOException {
+        for (var line : lines) {
+            writer.write(line);
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.journal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void appendAndReplay() throws IOException {
+        var dir = folder.getRoot().toPath();
+        try (var journal = new Journal(dir, 4096, 10)) {
+            journal.append(1000L, "localhost", "ups", "battery.charge", "100");
+            journal.append(2000L, "localhost", "ups", "ups.status", "OB DISCHRG");
+        }
+
+        var entries = read(dir, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertThat(entries).hasSize(2);
+        assertThat(entries.get(1).getTimestamp()).isEqualTo(2000L);
+        assertThat(entries.get(1).getServer()).isEqualTo("localhost");
+        assertThat(entries.get(1).getDevice()).isEqualTo("ups");
+        assertThat(entries.get(1).getVariable()).isEqualTo("ups.status");
+        assertThat(entries.get(1).getValue()).isEqualTo("OB DISCHRG");
+    }
+
+    @Test
+    public void rollingAndRetention() throws IOException {
+        var dir = folder.getRoot().toPath();
+        try (var journal = new Journal(dir, 2048, 3)) {
+            for (int ix = 0; ix < 500; ix++) {
+                journal.append(ix, "localhost", "ups", "battery.charge", Integer.toString(ix));
+            }
+        }
+
+        assertThat(Journal.listSegments(dir)).hasSize(3);
+
+        var entries = read(dir, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertThat(entries).isNotEmpty();
+        assertThat(entries.get(entries.size() - 1).getValue()).isEqualTo("499");
+        for (int ix = 1; ix < entries.size(); ix++) {
+            assertThat(entries.get(ix).getTimestamp())
+                    .isEqualTo(entries.get(ix - 1).getTimestamp() + 1L);
+        }
+    }
+
+    @Test
+    public void reopenAndScan() throws IOException {
+        var dir = folder.getRoot().toPath();
+        try (var journal = new Journal(dir, 4096, 10)) {
+            for (int ix = 0; ix < 10; ix++) {
+                journal.append(ix * 100L, "localhost", "ups", "ups.load", Integer.toString(ix));
+            }
+        }
+        try (var journal = new Journal(dir, 4096, 10)) {
+            for (int ix = 10; ix < 20; ix++) {
+                journal.append(ix * 100L, "localhost", "ups", "ups.load", Integer.toString(ix));
+            }
+        }
+
+        assertThat(read(dir, Long.MIN_VALUE, Long.MAX_VALUE)).hasSize(20);
+        assertThat(read(dir, 500L, 1500L))
+                .extracting(JournalEntry::getValue)
+                .containsExactly("5", "6", "7", "8", "9", "10", "11", "12", "13", "14");
+    }
+
+    private static List<JournalEntry> read(Path dir, long from, long to) throws IOException {
+        var result = new ArrayList<JournalEntry>();
+        new JournalReader(dir).scan(from, to, result::add);
+        return result;
+    }
+
+}
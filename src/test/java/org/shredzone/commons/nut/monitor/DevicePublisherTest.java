@@ -0,0 +1,175 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.monitor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+import org.junit.After;
+import org.junit.Test;
+import org.shredzone.commons.nut.Client;
+import org.shredzone.commons.nut.Device;
+import org.shredzone.commons.nut.server.LoopbackTransport;
+import org.shredzone.commons.nut.server.Simulator;
+
+public class DevicePublisherTest {
+
+    private final Client client =
+            Client.lazy(new LoopbackTransport(new Simulator(2)), "loopback", null, null);
+
+    @After
+    public void teardown() throws IOException {
+        client.close();
+    }
+
+    @Test
+    public void latest() throws IOException {
+        var publisher = new DevicePublisher(OverflowStrategy.LATEST, 10, Runnable::run);
+        var subscriber = new Collector();
+        publisher.subscribe(subscriber);
+        assertThat(publisher.isReady(device("ups1"))).isFalse();
+
+        poll(publisher, "ups1", "10");
+        poll(publisher, "ups2", "10");
+        poll(publisher, "ups1", "20");
+        assertThat(subscriber.updates).isEmpty();
+        assertThat(publisher.getDroppedCount()).isEqualTo(1L);
+
+        subscriber.subscription.request(10);
+        // The merged update of ups1 replaces the pending one, and is queued after ups2
+        assertThat(subscriber.updates).extracting(u -> u.getDevice().getName())
+                .containsExactly("ups2", "ups1");
+        var merged = subscriber.updates.get(1);
+        assertThat(merged.getValues()).containsEntry("ups.delay.shutdown", "20");
+        assertThat(merged.getChanged()).contains("ups.delay.shutdown", "ups.status");
+        assertThat(publisher.isReady(device("ups1"))).isTrue();
+
+        poll(publisher, "ups1", "30");
+        assertThat(subscriber.updates).hasSize(3);
+        assertThat(subscriber.updates.get(2).getChanged()).containsExactly("ups.delay.shutdown");
+    }
+
+    @Test
+    public void drop() throws IOException {
+        var publisher = new DevicePublisher(OverflowStrategy.DROP, 10, Runnable::run);
+        var subscriber = new Collector();
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(1);
+
+        poll(publisher, "ups1", "10");
+        poll(publisher, "ups1", "20");
+        poll(publisher, "ups1", "30");
+        assertThat(publisher.getDroppedCount()).isEqualTo(2L);
+
+        subscriber.subscription.request(1);
+        assertThat(subscriber.updates).hasSize(1);
+        assertThat(subscriber.updates.get(0).getValues())
+                .containsEntry("ups.delay.shutdown", "10");
+    }
+
+    @Test
+    public void buffer() throws IOException {
+        var publisher = new DevicePublisher(OverflowStrategy.BUFFER, 2, Runnable::run);
+        var subscriber = new Collector();
+        publisher.subscribe(subscriber);
+
+        poll(publisher, "ups1", "10");
+        poll(publisher, "ups1", "20");
+        poll(publisher, "ups1", "30");
+        assertThat(publisher.getDroppedCount()).isEqualTo(1L);
+
+        subscriber.subscription.request(5);
+        assertThat(subscriber.updates).extracting(u -> u.getValues().get("ups.delay.shutdown"))
+                .containsExactly("20", "30");
+
+        publisher.close();
+        assertThat(subscriber.completed).isTrue();
+        assertThat(publisher.getNumberOfSubscribers()).isZero();
+    }
+
+    @Test
+    public void snapshotsReleased() throws IOException {
+        var publisher = new DevicePublisher(OverflowStrategy.LATEST, 10, Runnable::run);
+        poll(publisher, "ups1", "10");
+        assertThat(publisher.getSnapshotCount()).isZero();
+
+        var first = new Collector();
+        var second = new Collector();
+        publisher.subscribe(first);
+        publisher.subscribe(second);
+        poll(publisher, "ups1", "20");
+        poll(publisher, "ups2", "20");
+        assertThat(publisher.getSnapshotCount()).isEqualTo(2);
+
+        first.subscription.cancel();
+        assertThat(publisher.getSnapshotCount()).isEqualTo(2);
+        second.subscription.cancel();
+        assertThat(publisher.getSnapshotCount()).isZero();
+        assertThat(publisher.getNumberOfSubscribers()).isZero();
+    }
+
+    private Device device(String name) {
+        return client.getDevice(name);
+    }
+
+    /**
+     * Changes the shutdown delay of the device, and publishes a poll result.
+     */
+    private void poll(DevicePublisher publisher, String name, String delay)
+            throws IOException {
+        var device = device(name);
+        device.getVariable("ups.delay.shutdown").setValue(delay);
+        publisher.onPoll(device, device.getValues());
+    }
+
+    /**
+     * A subscriber that collects all updates, and does not request any by itself.
+     */
+    private static class Collector implements Flow.Subscriber<DeviceUpdate> {
+        private final List<DeviceUpdate> updates = new ArrayList<>();
+        private Flow.Subscription subscription;
+        private boolean completed;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(DeviceUpdate item) {
+            updates.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            throw new AssertionError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.monitor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class FleetAggregatorTest {
+
+    @Test
+    public void aggregates() {
+        var fleet = new FleetAggregator();
+        var room = fleet.group("room")
+                .add("srv1", "ups1")
+                .add("srv1", "ups2")
+                .add("srv2", "ups1");
+        var power = room.sum("ups.realpower");
+        var runtime = room.min("battery.runtime");
+        var load = room.max("ups.load");
+        var onBattery = room.count("ups.status", s -> s.contains("OB"));
+
+        assertThat(power.getValue()).isEqualByComparingTo("0");
+        assertThat(runtime.getValue()).isNull();
+        assertThat(onBattery.getValue()).isEqualByComparingTo("0");
+
+        fleet.update("srv1", "ups1", Map.of("ups.realpower", "100", "battery.runtime", "600",
+                "ups.load", "20", "ups.status", "OL"));
+        fleet.update("srv1", "ups2", Map.of("ups.realpower", "50.5", "battery.runtime", "300",
+                "ups.load", "40", "ups.status", "OB DISCHRG"));
+        fleet.update("srv2", "ups1", Map.of("ups.realpower", "25", "battery.runtime", "300",
+                "ups.load", "n/a", "ups.status", "OB LB"));
+        fleet.update("srv3", "ups1", Map.of("ups.realpower", "1000"));
+
+        assertThat(power.getValue()).isEqualByComparingTo("175.5");
+        assertThat(power.getCount()).isEqualTo(3);
+        assertThat(runtime.getValue()).isEqualByComparingTo("300");
+        assertThat(load.getValue()).isEqualByComparingTo("40");
+        assertThat(load.getCount()).isEqualTo(2);
+        assertThat(onBattery.getValue()).isEqualByComparingTo("2");
+
+        fleet.update("srv1", "ups2", Map.of("ups.realpower", "60", "battery.runtime", "900",
+                "ups.status", "OL"));
+        assertThat(power.getValue()).isEqualByComparingTo("185");
+        assertThat(runtime.getValue()).isEqualByComparingTo("300");
+        assertThat(load.getValue()).isEqualByComparingTo("20");
+        assertThat(onBattery.getCount()).isEqualTo(1);
+
+        fleet.remove("srv2", "ups1");
+        assertThat(power.getValue()).isEqualByComparingTo("160");
+        assertThat(runtime.getValue()).isEqualByComparingTo("600");
+        assertThat(onBattery.getValue()).isEqualByComparingTo("0");
+
+        room.remove("srv1", "ups1");
+        assertThat(power.getValue()).isEqualByComparingTo("60");
+        assertThat(runtime.getValue()).isEqualByComparingTo(BigDecimal.valueOf(900));
+        assertThat(load.getValue()).isNull();
+    }
+
+    @Test
+    public void groups() {
+        var fleet = new FleetAggregator();
+        var rack1 = fleet.group("rack1").add("srv", "ups1");
+        var rack2 = fleet.group("rack2").add("srv", "ups1").add("srv", "ups2");
+        assertThat(fleet.group("rack1")).isSameAs(rack1);
+        assertThat(fleet.getGroups()).containsExactly(rack1, rack2);
+
+        var sum1 = rack1.sum("ups.realpower");
+        var sum2 = rack2.sum("ups.realpower");
+        fleet.update("srv", "ups1", Map.of("ups.realpower", "10"));
+        fleet.update("srv", "ups2", Map.of("ups.realpower", "20"));
+        assertThat(sum1.getValue()).isEqualByComparingTo("10");
+        assertThat(sum2.getValue()).isEqualByComparingTo("30");
+    }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.monitor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+
+import org.junit.Test;
+
+public class PollPolicyTest {
+
+    private final PollPolicy policy = new PollPolicy()
+            .min(Duration.ofSeconds(1))
+            .max(Duration.ofSeconds(60))
+            .backoff(2.0)
+            .latencyFactor(10.0)
+            .threshold(0.05);
+
+    @Test
+    public void nextInterval() {
+        var current = Duration.ofSeconds(10);
+        assertThat(policy.nextInterval(current, "OL", false, 0L))
+                .isEqualTo(Duration.ofSeconds(20));
+        assertThat(policy.nextInterval(Duration.ofSeconds(40), "OL", false, 0L))
+                .isEqualTo(Duration.ofSeconds(60));
+        assertThat(policy.nextInterval(current, "OL CHRG", false, 0L))
+                .isEqualTo(Duration.ofSeconds(5));
+        assertThat(policy.nextInterval(current, "OL", true, 0L))
+                .isEqualTo(Duration.ofSeconds(5));
+        assertThat(policy.nextInterval(Duration.ofMillis(1500), "OL", true, 0L))
+                .isEqualTo(Duration.ofSeconds(1));
+        assertThat(policy.nextInterval(current, "OB DISCHRG", false, 0L))
+                .isEqualTo(Duration.ofSeconds(1));
+        assertThat(policy.nextInterval(current, "OL LB", false, 0L))
+                .isEqualTo(Duration.ofSeconds(1));
+        assertThat(policy.nextInterval(current, null, false, 0L))
+                .isEqualTo(Duration.ofSeconds(20));
+    }
+
+    @Test
+    public void latency() {
+        var latency = Duration.ofMillis(300).toNanos();
+        assertThat(policy.nextInterval(Duration.ofSeconds(1), "OB", false, latency))
+                .isEqualTo(Duration.ofSeconds(3));
+        assertThat(policy.nextInterval(Duration.ofSeconds(1), "OB", false, latency * 100L))
+                .isEqualTo(Duration.ofSeconds(60));
+    }
+
+    @Test
+    public void isSignificant() {
+        assertThat(policy.isSignificant(null, null)).isFalse();
+        assertThat(policy.isSignificant(null, "100")).isTrue();
+        assertThat(policy.isSignificant("100", null)).isTrue();
+        assertThat(policy.isSignificant("100", "100")).isFalse();
+        assertThat(policy.isSignificant("100", "97")).isFalse();
+        assertThat(policy.isSignificant("100", "94")).isTrue();
+        assertThat(policy.isSignificant("230.0", "230.5")).isFalse();
+        assertThat(policy.isSignificant("OL", "OL")).isFalse();
+        assertThat(policy.isSignificant("OL", "OB")).isTrue();
+    }
+
+}
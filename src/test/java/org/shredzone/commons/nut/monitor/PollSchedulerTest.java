@@ -0,0 +1,100 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.monitor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.shredzone.commons.nut.Client;
+import org.shredzone.commons.nut.Device;
+import org.shredzone.commons.nut.server.LoopbackTransport;
+import org.shredzone.commons.nut.server.Simulator;
+
+public class PollSchedulerTest {
+
+    private final Client client =
+            Client.lazy(new LoopbackTransport(new Simulator(1)), "loopback", null, null);
+    private final PollScheduler scheduler = new PollScheduler(new PollPolicy()
+            .min(Duration.ofMillis(10))
+            .max(Duration.ofMillis(10)));
+
+    @After
+    public void teardown() throws IOException {
+        scheduler.close();
+        client.close();
+    }
+
+    @Test
+    public void snapshots() throws Exception {
+        var polls = new LinkedBlockingQueue<Map<String, String>>();
+        var device = client.getDevice("ups1");
+        scheduler.register(device, (d, values) -> polls.add(values));
+
+        var values = next(polls);
+        assertThat(values).containsEntry("ups.status", "OL");
+        assertThatExceptionOfType(UnsupportedOperationException.class)
+                .isThrownBy(() -> values.put("ups.status", "OB"));
+
+        // Looking up and purging the shared handle does not affect the snapshot
+        device.getVariable("ups.status").purge();
+        assertThat(values).containsEntry("ups.status", "OL");
+    }
+
+    @Test
+    public void keepsPollingAfterFailure() throws Exception {
+        var polls = new LinkedBlockingQueue<Map<String, String>>();
+        var checks = new AtomicInteger();
+        scheduler.register(client.getDevice("ups1"), new PollListener() {
+            @Override
+            public void onPoll(Device device, Map<String, String> values) {
+                polls.add(values);
+            }
+
+            @Override
+            public boolean isReady(Device device) {
+                if (checks.incrementAndGet() == 1) {
+                    throw new IllegalStateException("failure of the listener");
+                }
+                return true;
+            }
+        });
+
+        assertThat(next(polls)).containsKey("ups.status");
+        assertThat(checks.get()).isGreaterThan(1);
+    }
+
+    private static Map<String, String> next(BlockingQueue<Map<String, String>> polls)
+            throws InterruptedException {
+        var result = polls.poll(5, TimeUnit.SECONDS);
+        assertThat(result).as("poll result").isNotNull();
+        return result;
+    }
+
+}
@@ -0,0 +1,201 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.monitor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.junit.Test;
+import org.shredzone.commons.nut.Client;
+import org.shredzone.commons.nut.exception.NutException;
+import org.shredzone.commons.nut.server.NutServer;
+
+public class PrimaryMonitorTest {
+
+    @Test
+    public void shutdownOnBatteryLow() throws Exception {
+        var ups = new UpsStub(false);
+        try (var server = new NutServer(InetAddress.getLoopbackAddress(), 0, ups);
+             var client = Client.lazy("localhost", server.getPort(), "admin", "secret");
+             var monitor = new PrimaryMonitor(client, "ups", Duration.ofMillis(20))) {
+            var shutdown = new CompletableFuture<String>();
+            monitor.addListener((device, status) -> shutdown.complete(status));
+            monitor.start();
+            assertThat(ups.commands).contains("LOGIN ups", "PRIMARY ups");
+
+            awaitPolls(ups, 3);
+            ups.status = "OB";
+            awaitPolls(ups, 3);
+            assertThat(monitor.isTriggered()).isFalse();
+            assertThat(ups.commands).doesNotContain("FSD ups");
+
+            ups.status = "OB LB";
+            assertThat(shutdown.get(5, TimeUnit.SECONDS)).isEqualTo("OB LB");
+            assertThat(monitor.isTriggered()).isTrue();
+            assertThat(monitor.getFsdLatency()).isPresent();
+            assertThat(ups.commands).containsOnlyOnce("FSD ups");
+            assertThat(monitor.trigger("OB LB")).isFalse();
+        }
+    }
+
+    @Test
+    public void legacyMaster() throws Exception {
+        var ups = new UpsStub(true);
+        try (var server = new NutServer(InetAddress.getLoopbackAddress(), 0, ups);
+             var client = Client.lazy("localhost", server.getPort(), "admin", "secret");
+             var monitor = new PrimaryMonitor(client, "ups", Duration.ofSeconds(60))) {
+            monitor.start();
+            assertThat(ups.commands).contains("PRIMARY ups", "MASTER ups");
+
+            assertThat(monitor.trigger("OL")).isTrue();
+            assertThat(ups.commands).contains("FSD ups");
+        }
+    }
+
+    @Test
+    public void retryFailedShutdown() throws Exception {
+        var ups = new UpsStub(false);
+        ups.fsdFailures.set(2);
+        try (var server = new NutServer(InetAddress.getLoopbackAddress(), 0, ups);
+             var client = Client.lazy("localhost", server.getPort(), "admin", "secret");
+             var monitor = new PrimaryMonitor(client, "ups", Duration.ofMillis(20))) {
+            var notified = new AtomicInteger();
+            monitor.addListener((device, status) -> notified.incrementAndGet());
+            monitor.start();
+
+            ups.status = "OB LB";
+            await(monitor::isTriggered);
+            assertThat(ups.commands).filteredOn("FSD ups"::equals).hasSize(3);
+            await(() -> notified.get() > 0);
+            assertThat(notified).hasValue(1);
+            assertThat(monitor.getFsdLatency()).isPresent();
+        }
+    }
+
+    @Test
+    public void manualShutdownFailure() throws Exception {
+        var ups = new UpsStub(false);
+        ups.fsdFailures.set(1);
+        try (var server = new NutServer(InetAddress.getLoopbackAddress(), 0, ups);
+             var client = Client.lazy("localhost", server.getPort(), "admin", "secret");
+             var monitor = new PrimaryMonitor(client, "ups", Duration.ofSeconds(60))) {
+            var notified = new AtomicInteger();
+            monitor.addListener((device, status) -> notified.incrementAndGet());
+            monitor.start();
+
+            assertThatExceptionOfType(NutException.class)
+                    .isThrownBy(() -> monitor.trigger("OL"));
+            assertThat(monitor.isTriggered()).isFalse();
+            assertThat(monitor.getFsdLatency()).isEmpty();
+
+            assertThat(monitor.trigger("OL")).isTrue();
+            assertThat(monitor.isTriggered()).isTrue();
+            await(() -> notified.get() > 0);
+            assertThat(notified).hasValue(1);
+        }
+    }
+
+    @Test
+    public void keepsPollingAfterFailure() throws Exception {
+        var ups = new UpsStub(false);
+        var checks = new AtomicInteger();
+        try (var server = new NutServer(InetAddress.getLoopbackAddress(), 0, ups);
+             var client = Client.lazy("localhost", server.getPort(), "admin", "secret");
+             var monitor = new PrimaryMonitor(client, "ups", Duration.ofMillis(20), status -> {
+                 if (checks.incrementAndGet() == 1) {
+                     throw new IllegalArgumentException("bad status");
+                 }
+                 return PrimaryMonitor.ON_BATTERY_LOW.test(status);
+             })) {
+            monitor.start();
+            await(() -> checks.get() > 1);
+
+            ups.status = "OB LB";
+            await(monitor::isTriggered);
+            assertThat(ups.commands).containsOnlyOnce("FSD ups");
+        }
+    }
+
+    private static void awaitPolls(UpsStub ups, int polls) throws InterruptedException {
+        var expected = ups.polls.get() + polls;
+        await(() -> ups.polls.get() >= expected);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).isLessThan(deadline);
+            Thread.sleep(10L);
+        }
+    }
+
+    /**
+     * A minimal NUT server with a single device and a changeable status.
+     */
+    private static class UpsStub implements NutServer.Handler {
+        private final boolean legacy;
+        private final List<String> commands = new CopyOnWriteArrayList<>();
+        private final AtomicInteger polls = new AtomicInteger();
+        private final AtomicInteger fsdFailures = new AtomicInteger();
+        private volatile String status = "OL";
+
+        UpsStub(boolean legacy) {
+            this.legacy = legacy;
+        }
+
+        @Override
+        public List<String> handle(NutServer.Session session, String line,
+                List<String> request) throws IOException {
+            switch (request.get(0)) {
+                case "GET":
+                    polls.incrementAndGet();
+                    return List.of("VAR ups ups.status " + NutServer.quote(status));
+                case "PRIMARY":
+                    commands.add(line);
+                    if (legacy) {
+                        throw new NutException("UNKNOWN-COMMAND");
+                    }
+                    return List.of("OK");
+                case "FSD":
+                    commands.add(line);
+                    if (fsdFailures.getAndDecrement() > 0) {
+                        throw new NutException("DATA-STALE");
+                    }
+                    return List.of("OK FSD-SET");
+                case "LOGOUT":
+                    return List.of("OK Goodbye");
+                default:
+                    commands.add(line);
+                    return List.of("OK");
+            }
+        }
+    }
+
+}
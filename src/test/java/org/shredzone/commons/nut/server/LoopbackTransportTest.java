@@ -0,0 +1,106 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.server;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.entry;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.shredzone.commons.nut.Client;
+import org.shredzone.commons.nut.exception.NutException;
+
+public class LoopbackTransportTest {
+
+    @Test
+    public void clientRoundTrip() throws Exception {
+        var simulator = new Simulator(3).trackingDelay(Duration.ofMillis(50));
+        try (var client = Client.lazy(new LoopbackTransport(simulator), "loopback", null, null)) {
+            assertThat(client.getProtocol()).isEqualTo("1.3");
+            assertThat(client.getDeviceList()).hasSize(3);
+
+            var device = client.getDevice("ups2");
+            assertThat(device.getDescription()).isEqualTo("Simulated UPS");
+
+            // Pipelined GET requests
+            var requests = simulator.getRequestCount();
+            var values = device.getValues(List.of("ups.status", "no.such.variable", "ups.load"));
+            assertThat(values).containsExactly(entry("ups.status", "OL"), entry("ups.load", "25"));
+            assertThat(simulator.getRequestCount() - requests).isEqualTo(3L);
+
+            assertThatExceptionOfType(NutException.class)
+                    .isThrownBy(() -> device.getVariable("ups.status").setValue("OB"))
+                    .satisfies(ex -> assertThat(ex.getType()).isEqualTo("READONLY"));
+
+            client.setTracking(true);
+            var variable = device.getVariable("ups.delay.shutdown");
+            variable.setValueAsync("42").get(5, TimeUnit.SECONDS);
+            variable.purge();
+            assertThat(variable.getValue()).isEqualTo("42");
+        }
+    }
+
+    @Test
+    public void closedByHandler() throws IOException {
+        var closed = new AtomicInteger();
+        var transport = new LoopbackTransport(new NutServer.Handler() {
+            @Override
+            public List<String> handle(NutServer.Session session, String line,
+                    List<String> request) throws IOException {
+                if ("VER".equals(request.get(0))) {
+                    return List.of("Loopback");
+                }
+                throw new IOException("hang up");
+            }
+
+            @Override
+            public void closed(NutServer.Session session) {
+                closed.incrementAndGet();
+            }
+        });
+
+        try (var connection = transport.connect()) {
+            connection.write("VER");
+            connection.flush();
+            assertThat(connection.readLine()).isEqualTo("Loopback");
+            assertThatExceptionOfType(IOException.class).isThrownBy(connection::readLine);
+            assertThat(closed).hasValue(0);
+
+            connection.write("NETVER");
+            connection.flush();
+            assertThat(connection.readLine()).isNull();
+            assertThat(closed).hasValue(1);
+            assertThat(connection.isOpen()).isTrue();
+        }
+        assertThat(closed).hasValue(1);
+
+        try (var client = Client.lazy(transport, "loopback", null, null)) {
+            assertThatExceptionOfType(EOFException.class).isThrownBy(client::getDeviceList);
+        }
+    }
+
+}
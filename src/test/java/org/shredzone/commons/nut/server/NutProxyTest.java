@@ -0,0 +1,100 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.server;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.time.Duration;
+
+import org.junit.Test;
+import org.shredzone.commons.nut.Client;
+import org.shredzone.commons.nut.exception.NutException;
+
+public class NutProxyTest {
+
+    @Test
+    public void cachesReadsAndForwardsWrites() throws IOException {
+        var simulator = new Simulator(2);
+        try (var upstream = new NutServer(InetAddress.getLoopbackAddress(), 0, simulator);
+             var proxy = new NutProxy("localhost", upstream.getPort(), 2)
+                     .ttl(Duration.ofMinutes(1));
+             var server = new NutServer(InetAddress.getLoopbackAddress(), 0, proxy)) {
+            for (int ix = 0; ix < 5; ix++) {
+                try (var client = new Client("localhost", server.getPort(), "admin", "secret")) {
+                    assertThat(client.getDeviceList()).hasSize(2);
+                    assertThat(client.getDevice("ups1").getVariables()).hasSizeGreaterThan(10);
+                    assertThat(client.getDevice("ups2").getVariable("ups.status").getValue())
+                            .isEqualTo("OL");
+                    assertThatExceptionOfType(NutException.class)
+                            .isThrownBy(() -> client.getDevice("ups1")
+                                    .getVariable("no.such.variable").getValue())
+                            .satisfies(ex -> assertThat(ex.getType())
+                                    .isEqualTo("VAR-NOT-SUPPORTED"));
+                }
+            }
+
+            // VER, NETVER, LIST UPS, LIST VAR, GET VAR and the error were fetched once
+            assertThat(proxy.getMissCount()).isEqualTo(6L);
+            assertThat(proxy.getHitCount()).isEqualTo(24L);
+
+            try (var client = new Client("localhost", server.getPort(), "admin", "secret")) {
+                var variable = client.getDevice("ups1").getVariable("ups.delay.start");
+                assertThat(variable.getValue()).isEqualTo("30");
+                variable.setValue("45");
+                variable.purge();
+                assertThat(variable.getValue()).isEqualTo("45");
+
+                assertThatExceptionOfType(NutException.class)
+                        .isThrownBy(() -> client.getDevice("ups1")
+                                .getVariable("ups.status").setValue("OB"))
+                        .satisfies(ex -> assertThat(ex.getType()).isEqualTo("READONLY"));
+            }
+        }
+    }
+
+    @Test
+    public void reconnectsAfterUpstreamRestart() throws IOException {
+        var simulator = new Simulator(1);
+        var upstream = new NutServer(InetAddress.getLoopbackAddress(), 0, simulator);
+        var port = upstream.getPort();
+        try (var proxy = new NutProxy("localhost", port, 1).ttl(Duration.ZERO);
+             var server = new NutServer(InetAddress.getLoopbackAddress(), 0, proxy);
+             var client = new Client("localhost", server.getPort())) {
+            var variable = client.getDevice("ups1").getVariable("ups.status");
+            assertThat(variable.getValue()).isEqualTo("OL");
+
+            upstream.close();
+            upstream = new NutServer(InetAddress.getLoopbackAddress(), port, simulator);
+
+            // The pooled connection is reestablished, the client is still connected
+            var requests = simulator.getRequestCount();
+            variable.purge();
+            assertThat(variable.getValue()).isEqualTo("OL");
+            assertThat(server.getConnectionCount()).isEqualTo(1);
+            assertThat(simulator.getRequestCount()).isEqualTo(requests + 1L);
+        } finally {
+            upstream.close();
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.server;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.InetAddress;
+
+import org.junit.Test;
+import org.shredzone.commons.nut.Client;
+import org.shredzone.commons.nut.SessionRecorder;
+import org.shredzone.commons.nut.exception.NutException;
+
+public class ReplayHandlerTest {
+
+    @Test
+    public void recordAndReplay() throws IOException {
+        var recording = new StringWriter();
+        String description;
+        String status;
+        int variables;
+
+        try (var recorder = new SessionRecorder(recording);
+             var server = new NutServer(InetAddress.getLoopbackAddress(), 0, new Simulator(2));
+             var client = new Client("localhost", server.getPort())) {
+            client.record(recorder);
+            var device = client.getDevice("ups2");
+            description = device.getDescription();
+            variables = device.getVariables().size();
+            var variable = device.getVariable("ups.status");
+            variable.purge();
+            status = variable.getValue();
+        }
+
+        assertThat(recording.toString())
+                .startsWith(SessionRecorder.HEADER)
+                .contains(" > GET VAR ups2 ups.status")
+                .contains(" < END LIST VAR ups2");
+
+        var replay = new ReplayHandler(new StringReader(recording.toString()))
+                .speed(Double.POSITIVE_INFINITY);
+        try (var server = new NutServer(InetAddress.getLoopbackAddress(), 0, replay);
+             var client = new Client("localhost", server.getPort())) {
+            var device = client.getDevice("ups2");
+            assertThat(device.getDescription()).isEqualTo(description);
+            assertThat(device.getVariables()).hasSize(variables);
+            var variable = device.getVariable("ups.status");
+            variable.purge();
+            assertThat(variable.getValue()).isEqualTo(status);
+
+            assertThatExceptionOfType(NutException.class)
+                    .isThrownBy(() -> client.getDevice("ups1").getVariables())
+                    .satisfies(ex -> assertThat(ex.getType()).isEqualTo("UNKNOWN-COMMAND"));
+            assertThat(replay.getMissCount()).isEqualTo(1L);
+        }
+    }
+
+}
@@ -0,0 +1,152 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.server;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.entry;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.shredzone.commons.nut.Client;
+import org.shredzone.commons.nut.exception.NutException;
+
+public class SimulatorTest {
+
+    @Test
+    public void clientRoundTrip() throws IOException {
+        var simulator = new Simulator(3);
+        try (var server = new NutServer(InetAddress.getLoopbackAddress(), 0, simulator);
+             var client = new Client("localhost", server.getPort())) {
+            assertThat(client.getProtocol()).isEqualTo("1.3");
+            assertThat(client.getDeviceList()).hasSize(3);
+
+            var device = client.getDevice("ups2");
+            assertThat(device.getDescription()).isEqualTo("Simulated UPS");
+            assertThat(device.getVariables()).hasSizeGreaterThan(10);
+            assertThat(device.getRWVariables()).hasSize(3);
+            assertThat(device.getCommands()).hasSize(Simulator.getCommands().size());
+
+            var variable = device.getVariable("ups.delay.shutdown");
+            variable.setValue("42");
+            variable.purge();
+            assertThat(variable.getValue()).isEqualTo("42");
+
+            assertThatExceptionOfType(NutException.class)
+                    .isThrownBy(() -> device.getVariable("ups.status").setValue("OB"))
+                    .satisfies(ex -> assertThat(ex.getType()).isEqualTo("READONLY"));
+            assertThatExceptionOfType(NutException.class)
+                    .isThrownBy(() -> client.getDevice("ups9").getVariables())
+                    .satisfies(ex -> assertThat(ex.getType()).isEqualTo("UNKNOWN-UPS"));
+        }
+    }
+
+    @Test
+    public void errorInjection() throws IOException {
+        var simulator = new Simulator(1).errorRate(1.0);
+        try (var server = new NutServer(InetAddress.getLoopbackAddress(), 0, simulator);
+             var client = new Client("localhost", server.getPort())) {
+            assertThatExceptionOfType(NutException.class)
+                    .isThrownBy(() -> client.getDevice("ups1").getVariables())
+                    .satisfies(ex -> assertThat(ex.getType()).isEqualTo("DATA-STALE"));
+            assertThat(simulator.getErrorCount()).isEqualTo(1L);
+        }
+    }
+
+    @Test
+    public void tracking() throws Exception {
+        var simulator = new Simulator(1).trackingDelay(Duration.ofMillis(100));
+        try (var server = new NutServer(InetAddress.getLoopbackAddress(), 0, simulator);
+             var client = new Client("localhost", server.getPort())) {
+            var device = client.getDevice("ups1");
+            var variable = device.getVariable("ups.delay.start");
+
+            var untracked = variable.setValueAsync("40");
+            assertThat(untracked).isCompleted();
+
+            client.setTracking(true);
+            var applied = variable.setValueAsync("50");
+            var rejected = variable.setValueAsync("way too long");
+            var commands = new ArrayList<CompletableFuture<Void>>();
+            for (var command : Simulator.getCommands()) {
+                commands.add(device.getCommand(command).executeAsync());
+            }
+            assertThat(applied).isNotDone();
+
+            applied.get(5, TimeUnit.SECONDS);
+            for (var command : commands) {
+                command.get(5, TimeUnit.SECONDS);
+            }
+            assertThatExceptionOfType(ExecutionException.class)
+                    .isThrownBy(() -> rejected.get(5, TimeUnit.SECONDS))
+                    .havingCause()
+                    .isInstanceOf(NutException.class)
+                    .satisfies(ex -> assertThat(((NutException) ex).getType())
+                            .isEqualTo("INVALID-ARGUMENT"));
+
+            variable.purge();
+            assertThat(variable.getValue()).isEqualTo("50");
+        }
+    }
+
+    @Test
+    public void adaptiveGetValues() throws IOException {
+        var simulator = new Simulator(1);
+        try (var server = new NutServer(InetAddress.getLoopbackAddress(), 0, simulator);
+             var client = new Client("localhost", server.getPort())) {
+            var device = client.getDevice("ups1");
+            var names = List.of("ups.status", "battery.charge", "ups.load",
+                    "input.voltage", "output.voltage", "battery.runtime", "battery.voltage",
+                    "ups.realpower", "device.model", "outlet.1.status", "outlet.2.status",
+                    "outlet.3.status", "outlet.4.status", "device.mfr");
+
+            // Number of variables is unknown, a few are fetched by GET
+            var requests = simulator.getRequestCount();
+            var values = device.getValues(List.of("ups.status", "no.such.variable", "ups.load"));
+            assertThat(values).containsExactly(entry("ups.status", "OL"), entry("ups.load", "25"));
+            assertThat(simulator.getRequestCount() - requests).isEqualTo(3L);
+
+            // Number of variables is unknown, LIST is used and the number is learned
+            requests = simulator.getRequestCount();
+            assertThat(device.getValues(names.subList(0, 10))).hasSize(10);
+            assertThat(simulator.getRequestCount() - requests).isEqualTo(1L);
+
+            // 10 GETs are cheaper than a LIST of 25 variables
+            requests = simulator.getRequestCount();
+            assertThat(device.getValues(names.subList(0, 10))).hasSize(10);
+            assertThat(simulator.getRequestCount() - requests).isEqualTo(10L);
+
+            // 14 GETs are not
+            requests = simulator.getRequestCount();
+            assertThat(device.getValues(names).keySet()).containsExactlyElementsOf(names);
+            assertThat(simulator.getRequestCount() - requests).isEqualTo(1L);
+            assertThat(device.getVariable("device.mfr").getValue()).isEqualTo("Shredzone");
+        }
+    }
+
+}
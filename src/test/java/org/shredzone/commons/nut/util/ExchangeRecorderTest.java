@@ -0,0 +1,54 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+import org.junit.Test;
+
+public class ExchangeRecorderTest {
+
+    @Test
+    public void ring() {
+        var recorder = new ExchangeRecorder(3);
+        assertThat(recorder.dump()).isEmpty();
+
+        recorder.sent("GET VAR ups battery.charge");
+        recorder.received("VAR ups battery.charge \"100\"");
+        assertThat(recorder.dump()).hasSize(2);
+        assertThat(recorder.dump().get(0)).endsWith(" -> GET VAR ups battery.charge");
+        assertThat(recorder.dump().get(1)).endsWith(" <- VAR ups battery.charge \"100\"");
+
+        for (int ix = 0; ix < 10; ix++) {
+            recorder.sent("line " + ix);
+        }
+        var dump = recorder.dump();
+        assertThat(dump).hasSize(4);
+        assertThat(dump.get(0)).endsWith(" -> line 6");
+        assertThat(dump.get(3)).endsWith(" -> line 9");
+    }
+
+    @Test
+    public void invalid() {
+        assertThatIllegalArgumentException().isThrownBy(() -> new ExchangeRecorder(0));
+    }
+
+}
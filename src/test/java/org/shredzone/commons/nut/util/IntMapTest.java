@@ -0,0 +1,74 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class IntMapTest {
+
+    @Test
+    public void basics() {
+        var map = new IntMap<String>();
+        assertThat(map.isEmpty()).isTrue();
+        assertThat(map.put(1, "one")).isNull();
+        assertThat(map.put(2, "two")).isNull();
+        assertThat(map.put(1, "uno")).isEqualTo("one");
+        assertThat(map.size()).isEqualTo(2);
+        assertThat(map.get(1)).isEqualTo("uno");
+        assertThat(map.get(3)).isNull();
+        assertThat(map.get(-1)).isNull();
+        assertThat(map.containsKey(2)).isTrue();
+        assertThat(map.containsKey(-1)).isFalse();
+        assertThat(map.remove(2)).isEqualTo("two");
+        assertThat(map.remove(2)).isNull();
+        assertThat(map.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void randomized() {
+        var random = new Random(42L);
+        var map = new IntMap<Integer>();
+        var reference = new HashMap<Integer, Integer>();
+
+        for (int ix = 0; ix < 100_000; ix++) {
+            var key = random.nextInt(500);
+            if (random.nextInt(3) == 0) {
+                assertThat(map.remove(key)).isEqualTo(reference.remove(key));
+            } else {
+                assertThat(map.put(key, ix)).isEqualTo(reference.put(key, ix));
+            }
+        }
+
+        assertThat(map.size()).isEqualTo(reference.size());
+        for (int key = 0; key < 500; key++) {
+            assertThat(map.get(key)).isEqualTo(reference.get(key));
+        }
+
+        var copy = new HashMap<Integer, Integer>();
+        map.forEach(copy::put);
+        assertThat(copy).isEqualTo(reference);
+    }
+
+}
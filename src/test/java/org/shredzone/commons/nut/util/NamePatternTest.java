@@ -0,0 +1,86 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class NamePatternTest {
+
+    @Test
+    public void split() {
+        assertThat(NamePattern.split("battery"))
+                .containsExactly("battery");
+        assertThat(NamePattern.split("battery.runtime.low"))
+                .containsExactly("battery", "runtime", "low");
+        assertThatIllegalArgumentException()
+                .isThrownBy(() -> NamePattern.split(""));
+        assertThatIllegalArgumentException()
+                .isThrownBy(() -> NamePattern.split("battery..low"));
+        assertThatIllegalArgumentException()
+                .isThrownBy(() -> NamePattern.split("battery."));
+    }
+
+    @Test
+    public void matchesLiteral() {
+        var pattern = NamePattern.compile("battery.charge");
+        assertThat(pattern.isSubtree()).isFalse();
+        assertThat(pattern.matches("battery.charge")).isTrue();
+        assertThat(pattern.matches("battery")).isFalse();
+        assertThat(pattern.matches("battery.charge.low")).isFalse();
+        assertThat(pattern.matches("battery.charger")).isFalse();
+        assertThat(pattern.matches("battery.charg")).isFalse();
+    }
+
+    @Test
+    public void matchesSubtree() {
+        var pattern = NamePattern.compile("battery.*");
+        assertThat(pattern.isSubtree()).isTrue();
+        assertThat(pattern.matches("battery.charge")).isTrue();
+        assertThat(pattern.matches("battery.runtime.low")).isTrue();
+        assertThat(pattern.matches("battery")).isFalse();
+        assertThat(pattern.matches("battery.")).isFalse();
+        assertThat(pattern.matches("input.voltage")).isFalse();
+    }
+
+    @Test
+    public void matchesInnerWildcard() {
+        var pattern = NamePattern.compile("outlet.*.status");
+        assertThat(pattern.isSubtree()).isFalse();
+        assertThat(pattern.matches("outlet.1.status")).isTrue();
+        assertThat(pattern.matches("outlet.12.status")).isTrue();
+        assertThat(pattern.matches("outlet.status")).isFalse();
+        assertThat(pattern.matches("outlet.1.status.x")).isFalse();
+        assertThat(pattern.matches("outlet.1.desc")).isFalse();
+    }
+
+    @Test
+    public void segmentOrder() {
+        List<String> segments = new ArrayList<>(List.of("10", "status", "2", "02", "1"));
+        segments.sort(NamePattern.SEGMENT_ORDER);
+        assertThat(segments).containsExactly("1", "2", "10", "02", "status");
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+import org.shredzone.commons.nut.exception.NutException;
+import org.shredzone.commons.nut.server.LoopbackTransport;
+import org.shredzone.commons.nut.server.NutServer;
+
+public class PipelineTest {
+
+    private final List<String> received = new ArrayList<>();
+    private final NutSocket socket = new NutSocket("loopback", 0,
+            new LoopbackTransport(this::handle), null);
+
+    @After
+    public void teardown() throws IOException {
+        socket.close();
+    }
+
+    @Test
+    public void errorOnlyFailsItsEntry() throws IOException {
+        var pipeline = socket.pipeline();
+        var status = pipeline.query(get("ups.status"));
+        var missing = pipeline.query(get("no.such.variable"));
+        var list = pipeline.list(new Request("LIST").arg("VAR").arg("ups"));
+        var fsd = pipeline.execute(new Request("FSD").arg("ups"));
+        assertThat(pipeline.size()).isEqualTo(4);
+
+        pipeline.run();
+
+        assertThat(Pipeline.result(status).get(3)).isEqualTo("OL");
+        assertThatExceptionOfType(NutException.class)
+                .isThrownBy(() -> Pipeline.result(missing))
+                .satisfies(ex -> assertThat(ex.getType()).isEqualTo("VAR-NOT-SUPPORTED"));
+        assertThat(Pipeline.result(list)).extracting(r -> r.get(2))
+                .containsExactly("ups.status", "ups.load");
+        assertThat(fsd).isCompleted();
+
+        // All requests were sent in a single burst, and the socket is still usable
+        assertThat(received).hasSize(4);
+        assertThat(socket.query(get("ups.load")).get(3)).isEqualTo("25");
+    }
+
+    @Test
+    public void ioFailureFailsRemainingEntries() {
+        var pipeline = socket.pipeline();
+        var status = pipeline.query(get("ups.status"));
+        var broken = pipeline.query(get("hang.up"));
+        var load = pipeline.query(get("ups.load"));
+
+        assertThatExceptionOfType(EOFException.class).isThrownBy(pipeline::run);
+
+        assertThat(status).isCompleted();
+        assertThat(broken).isCompletedExceptionally();
+        assertThat(load).isCompletedExceptionally();
+        assertThatExceptionOfType(EOFException.class).isThrownBy(() -> Pipeline.result(load));
+    }
+
+    @Test
+    public void runOnce() throws IOException {
+        var pipeline = socket.pipeline();
+        var status = pipeline.query(get("ups.status"));
+        assertThatIllegalStateException().isThrownBy(() -> Pipeline.result(status));
+
+        pipeline.run();
+        assertThatIllegalStateException().isThrownBy(pipeline::run);
+        assertThatIllegalStateException().isThrownBy(() -> pipeline.query(get("ups.load")));
+
+        var empty = socket.pipeline();
+        empty.run();
+        assertThat(received).hasSize(1);
+    }
+
+    private static Request get(String variable) {
+        return new Request("GET").arg("VAR").arg("ups").arg(variable);
+    }
+
+    private List<String> handle(NutServer.Session session, String line, List<String> request)
+            throws IOException {
+        received.add(line);
+        switch (line) {
+            case "GET VAR ups ups.status":
+                return List.of("VAR ups ups.status \"OL\"");
+            case "GET VAR ups ups.load":
+                return List.of("VAR ups ups.load \"25\"");
+            case "GET VAR ups hang.up":
+                throw new IOException("hang up");
+            case "LIST VAR ups":
+                return List.of("BEGIN LIST VAR ups", "VAR ups ups.status \"OL\"",
+                        "VAR ups ups.load \"25\"", "END LIST VAR ups");
+            case "FSD ups":
+                return List.of("OK FSD-SET");
+            default:
+                throw new NutException("VAR-NOT-SUPPORTED");
+        }
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.shredzone.commons.nut.Priority;
+
+public class PriorityGateTest {
+
+    @Test
+    public void controlOvertakesReads() throws Exception {
+        var order = runQueued(new PriorityGate(8), "R1", "R2", "C1", "R3", "C2");
+        assertThat(order).containsExactly("C1", "C2", "R1", "R2", "R3");
+    }
+
+    @Test
+    public void starvationProtection() throws Exception {
+        var order = runQueued(new PriorityGate(2), "R1", "C1", "C2", "C3", "C4", "R2");
+        assertThat(order).containsExactly("C1", "C2", "R1", "C3", "C4", "R2");
+    }
+
+    @Test
+    public void reentrant() throws IOException {
+        var gate = new PriorityGate(1);
+        gate.enter(Priority.READ);
+        gate.enter(Priority.CONTROL);
+        gate.leave();
+        gate.leave();
+
+        var stats = gate.getStatistics(Priority.READ);
+        assertThat(stats.getCount()).isEqualTo(1L);
+        assertThat(gate.getStatistics(Priority.CONTROL).getCount()).isZero();
+    }
+
+    /**
+     * Holds the gate, queues threads with the given names (starting with "C" for
+     * control, "R" for read), and then returns the order in which they passed the gate.
+     */
+    private static List<String> runQueued(PriorityGate gate, String... names)
+            throws Exception {
+        var order = Collections.synchronizedList(new ArrayList<String>());
+        var threads = new ArrayList<Thread>();
+
+        gate.enter(Priority.READ);
+        for (var name : names) {
+            var priority = name.startsWith("C") ? Priority.CONTROL : Priority.READ;
+            var thread = new Thread(() -> {
+                try {
+                    gate.enter(priority);
+                    order.add(name);
+                    gate.leave();
+                } catch (IOException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            });
+            var expected = gate.getWaitingCount() + 1;
+            thread.start();
+            while (gate.getWaitingCount() < expected) {
+                Thread.sleep(1L);
+            }
+            threads.add(thread);
+        }
+        gate.leave();
+
+        for (var thread : threads) {
+            thread.join(10_000L);
+        }
+
+        return order;
+    }
+
+}
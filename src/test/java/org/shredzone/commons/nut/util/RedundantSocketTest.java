@@ -0,0 +1,178 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.Test;
+import org.shredzone.commons.nut.CircuitBreaker;
+import org.shredzone.commons.nut.Client;
+import org.shredzone.commons.nut.server.NutServer;
+import org.shredzone.commons.nut.server.Simulator;
+
+public class RedundantSocketTest {
+
+    @Test
+    public void hedgeAndFailover() throws IOException {
+        var slowSimulator = new Simulator(1).latency(Duration.ofMillis(400));
+        var fastSimulator = new Simulator(1);
+        try (var slow = new NutServer(InetAddress.getLoopbackAddress(), 0, slowSimulator);
+             var fast = new NutServer(InetAddress.getLoopbackAddress(), 0, fastSimulator);
+             var client = Client.redundant(List.of(
+                     "localhost:" + slow.getPort(), "localhost:" + fast.getPort()),
+                     null, null)) {
+            try (var warmup = new Client("localhost", fast.getPort())) {
+                warmup.getDevice("ups1").getVariables();
+            }
+
+            var variable = client.getDevice("ups1").getVariable("ups.status");
+
+            // The slow endpoint is tried first, the read is hedged to the fast one
+            assertThat(variable.getValue()).isEqualTo("OL");
+            var health = client.getEndpointHealth();
+            assertThat(health.get(0).getHedgedCount()).isEqualTo(1L);
+            assertThat(health.get(1).getMedianLatency())
+                    .isLessThan(health.get(0).getMedianLatency());
+
+            // Now the fast endpoint is preferred
+            var slowRequests = slowSimulator.getRequestCount();
+            var fastRequests = fastSimulator.getRequestCount();
+            variable.purge();
+            assertThat(variable.getValue()).isEqualTo("OL");
+            assertThat(slowSimulator.getRequestCount()).isEqualTo(slowRequests);
+            assertThat(fastSimulator.getRequestCount()).isEqualTo(fastRequests + 1);
+
+            // Writes stick to the first endpoint
+            client.getDevice("ups1").getVariable("ups.delay.start").setValue("99");
+            try (var check = new Client("localhost", slow.getPort())) {
+                assertThat(check.getDevice("ups1").getVariable("ups.delay.start").getValue())
+                        .isEqualTo("99");
+            }
+            try (var check = new Client("localhost", fast.getPort())) {
+                assertThat(check.getDevice("ups1").getVariable("ups.delay.start").getValue())
+                        .isEqualTo("30");
+            }
+
+            // If the fast endpoint fails, the slow endpoint takes over
+            fast.close();
+            variable.purge();
+            assertThat(variable.getValue()).isEqualTo("OL");
+            health = client.getEndpointHealth();
+            assertThat(health.get(0).isHealthy()).isTrue();
+            assertThat(health.get(1).isHealthy()).isFalse();
+            assertThat(health.get(1).getFailureCount()).isEqualTo(1L);
+        }
+    }
+
+    @Test
+    public void restartedEndpointRecovers() throws Exception {
+        var restartedSimulator = new Simulator(1);
+        var slowSimulator = new Simulator(1).latency(Duration.ofMillis(200));
+        var restarted = new NutServer(InetAddress.getLoopbackAddress(), 0, restartedSimulator);
+        var port = restarted.getPort();
+        try (var slow = new NutServer(InetAddress.getLoopbackAddress(), 0, slowSimulator);
+             var client = Client.redundant(List.of(
+                     "localhost:" + port, "localhost:" + slow.getPort()),
+                     null, null)) {
+            try (var warmup = new Client("localhost", port)) {
+                warmup.getDevice("ups1").getVariables();
+            }
+
+            // Both endpoints get a latency sample, the first endpoint is faster
+            var variable = client.getDevice("ups1").getVariable("ups.status");
+            for (int ix = 0; ix < 2; ix++) {
+                variable.purge();
+                assertThat(variable.getValue()).isEqualTo("OL");
+            }
+            var health = client.getEndpointHealth();
+            assertThat(health.get(0).getMedianLatency())
+                    .isLessThan(health.get(1).getMedianLatency());
+
+            // The first endpoint goes away, the slow endpoint takes over
+            restarted.close();
+            variable.purge();
+            assertThat(variable.getValue()).isEqualTo("OL");
+            assertThat(client.getEndpointHealth().get(0).isHealthy()).isFalse();
+
+            // The first endpoint is back, and is used again after the backoff time
+            restarted = new NutServer(InetAddress.getLoopbackAddress(), port, restartedSimulator);
+            Thread.sleep(1100L);
+            var requests = restartedSimulator.getRequestCount();
+            variable.purge();
+            assertThat(variable.getValue()).isEqualTo("OL");
+            assertThat(restartedSimulator.getRequestCount()).isGreaterThan(requests);
+            health = client.getEndpointHealth();
+            assertThat(health.get(0).isHealthy()).isTrue();
+            assertThat(health.get(0).getFailureCount()).isEqualTo(1L);
+        } finally {
+            restarted.close();
+        }
+    }
+
+    @Test(timeout = 10000L)
+    public void stalledEndpointIsAbandoned() throws IOException {
+        var stalledSimulator = new Simulator(1);
+        try (var stalled = new NutServer(InetAddress.getLoopbackAddress(), 0, stalledSimulator);
+             var fast = new NutServer(InetAddress.getLoopbackAddress(), 0, new Simulator(1));
+             var client = Client.redundant(List.of(
+                     "localhost:" + stalled.getPort(), "localhost:" + fast.getPort()),
+                     null, null)) {
+            try (var warmup = new Client("localhost", fast.getPort())) {
+                warmup.getDevice("ups1").getVariables();
+            }
+
+            // The stalled endpoint is tried first, the fast endpoint answers the hedge
+            stalledSimulator.latency(Duration.ofHours(1));
+            var variable = client.getDevice("ups1").getVariable("ups.status");
+            assertThat(variable.getValue()).isEqualTo("OL");
+
+            // The pending request was cancelled, which is not a failure
+            var health = client.getEndpointHealth();
+            assertThat(health.get(0).getHedgedCount()).isEqualTo(1L);
+            assertThat(health.get(0).getFailureCount()).isZero();
+            assertThat(health.get(0).isHealthy()).isTrue();
+
+            // The endpoint was released, so writes are able to stick to it again
+            stalledSimulator.latency(Duration.ZERO);
+            client.getDevice("ups1").getVariable("ups.delay.start").setValue("99");
+            try (var check = new Client("localhost", stalled.getPort())) {
+                assertThat(check.getDevice("ups1").getVariable("ups.delay.start").getValue())
+                        .isEqualTo("99");
+            }
+        }
+    }
+
+    @Test
+    public void circuitBreakerRejected() throws IOException {
+        try (var client = Client.redundant(List.of("localhost:1", "localhost:2"), null, null)) {
+            assertThatIllegalArgumentException()
+                    .isThrownBy(() -> client.setCircuitBreaker(new CircuitBreaker()));
+            client.setCircuitBreaker(null);
+            assertThat(client.getCircuitBreaker()).isEmpty();
+        }
+    }
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Shredzone Commons - nut
+ *
+ * Copyright (C) 2022 Richard "Shred" Körber
+ *   http://commons.shredzone.org
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Library General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.shredzone.commons.nut.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIOException;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import org.junit.After;
+import org.junit.Test;
+import org.shredzone.commons.nut.server.NutServer;
+
+public class SingleFlightTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void coalescing() throws Exception {
+        var flight = new SingleFlight<String>();
+        var calls = new AtomicInteger();
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+
+        var first = CompletableFuture.supplyAsync(() -> run(flight, "key", () -> {
+            calls.incrementAndGet();
+            started.countDown();
+            await(release);
+            return "first";
+        }), executor);
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        var joined = CompletableFuture.supplyAsync(() -> run(flight, "key", () -> "joined"),
+                executor);
+        var other = run(flight, "other", () -> "other");
+        awaitCoalesced(flight::getCoalescedCount, 1L);
+        release.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("first");
+        assertThat(joined.get(5, TimeUnit.SECONDS)).isEqualTo("first");
+        assertThat(other).isEqualTo("other");
+        assertThat(calls).hasValue(1);
+        assertThat(flight.getCoalescedCount()).isEqualTo(1L);
+
+        // A finished call is never joined
+        assertThat(flight.run("key", () -> "second")).isEqualTo("second");
+        assertThat(flight.getCoalescedCount()).isEqualTo(1L);
+    }
+
+    @Test
+    public void failure() throws IOException {
+        var flight = new SingleFlight<String>();
+        assertThatIOException()
+                .isThrownBy(() -> flight.run("key", () -> {
+                    throw new IOException("failed");
+                }))
+                .withMessage("failed");
+        assertThat(flight.run("key", () -> "retry")).isEqualTo("retry");
+    }
+
+    @Test
+    public void socketCoalescesIdempotentRequests() throws Exception {
+        var received = new ArrayList<String>();
+        var release = new CountDownLatch(1);
+        NutServer.Handler handler = (session, line, request) -> {
+            synchronized (received) {
+                received.add(line);
+            }
+            if ("GET".equals(request.get(0))) {
+                await(release);
+                return List.of("VAR ups ups.status \"OL\"");
+            }
+            return List.of(String.join(" ", request.subList(1, request.size())));
+        };
+
+        try (var server = new NutServer(InetAddress.getLoopbackAddress(), 0, handler);
+             var socket = new NutSocket("localhost", server.getPort(), null)) {
+            var get = new Request("GET").arg("VAR").arg("ups").arg("ups.status");
+            var futures = new ArrayList<CompletableFuture<Response>>();
+            for (int ix = 0; ix < 4; ix++) {
+                futures.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return socket.query(get);
+                    } catch (IOException ex) {
+                        throw new IllegalStateException(ex);
+                    }
+                }, executor));
+            }
+            awaitCoalesced(socket::getCoalescedCount, 3L);
+            release.countDown();
+            for (var future : futures) {
+                assertThat(future.get(5, TimeUnit.SECONDS).get(3)).isEqualTo("OL");
+            }
+
+            var instcmd = new Request("INSTCMD").arg("ups").arg("beeper.toggle");
+            var commands = new ArrayList<CompletableFuture<Response>>();
+            for (int ix = 0; ix < 4; ix++) {
+                commands.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return socket.query(instcmd);
+                    } catch (IOException ex) {
+                        throw new IllegalStateException(ex);
+                    }
+                }, executor));
+            }
+            for (var future : commands) {
+                future.get(5, TimeUnit.SECONDS);
+            }
+
+            synchronized (received) {
+                assertThat(received).containsOnlyOnce(get.toString());
+                assertThat(received).filteredOn(instcmd.toString()::equals).hasSize(4);
+            }
+            assertThat(socket.getCoalescedCount()).isEqualTo(3L);
+        }
+    }
+
+    private static String run(SingleFlight<String> flight, String key,
+            SingleFlight.Call<String> call) {
+        try {
+            return flight.run(key, call);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static void awaitCoalesced(LongSupplier count, long expected)
+            throws InterruptedException {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (count.getAsLong() < expected) {
+            assertThat(System.nanoTime()).isLessThan(deadline);
+            Thread.sleep(10L);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}